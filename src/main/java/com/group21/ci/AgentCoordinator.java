@@ -0,0 +1,563 @@
+package com.group21.ci;
+
+import com.group21.ci.entity.BuildPhase;
+import com.group21.ci.entity.TestResultEntity;
+import com.group21.ci.entity.TestStatus;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * AgentCoordinator hands queued jobs to remote BuildAgents over HTTP, so builds
+ * are no longer limited to the host of the server.
+ * - Agents register with their name, capacity and labels (see AgentLabels) and
+ *   long-poll for jobs: a poll waits up to "ci.agents.pollSeconds" (default: 20)
+ *   for a job the agent may build, chosen by the SchedulingPolicy of the JobQueue.
+ * - A job is leased to its agent for "ci.agents.leaseSeconds" (default: 30).
+ *   Heartbeats renew the leases of the jobs the agent still runs and report their
+ *   phases; the answer lists the jobs the agent should cancel (e.g. superseded ones).
+ * - An expired lease means the agent or its build was lost: the job is queued again
+ *   (see JobQueue.requeue()). Agents not heard of for a lease period are forgotten.
+ * - Agents stream log lines while they build and post the result at the end; both
+ *   are stored as if the build had run on the server.
+ * - Every request needs "Authorization: Bearer &lt;ci.agents.token&gt;"; without a
+ *   token the endpoints are disabled.
+ *
+ * Endpoints (all POST):
+ * - /api/agents/register {name, capacity, labels} answers {agentId, leaseMillis, pollMillis}.
+ * - /api/agents/{agentId}/poll answers a job with its timeouts, or 204 if none came up.
+ * - /api/agents/{agentId}/heartbeat {jobs: {jobId: {phase, description}}} answers {cancel: [jobId]}.
+ * - /api/agents/{agentId}/jobs/{jobId}/log?from=N takes the log lines from line N, one per text line.
+ * - /api/agents/{agentId}/jobs/{jobId}/result {status, reason, peakMemoryBytes, cpuMillis, testCases}
+ *   completes the job;
+ *   a CANCELLED or TIMED_OUT build is stored as such, with the reason reported to GitHub.
+ * An unknown agent gets 404 and has to register again; a job that is no longer
+ * leased to the agent gets 409.
+ */
+public class AgentCoordinator {
+    private static final String PREFIX = "/api/agents/";
+
+    private final Backend backend;
+    private final byte[] token;
+    private final long leaseMillis;
+    private final long pollMillis;
+
+    private final Map<String, Agent> agents = new ConcurrentHashMap<>();
+    private final Map<Long, Lease> leases = new ConcurrentHashMap<>();
+    private ScheduledExecutorService reaper;
+
+    private final AtomicLong assigned = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    /**
+     * Where jobs come from and where their progress and results go. The server
+     * uses the JobQueue and stores builds like its own BuildWorkers do.
+     */
+    public interface Backend {
+        /**
+         * Waits for a job an agent may build.
+         *
+         * @return The job, or null if none came up in time.
+         */
+        JobQueue.BuildJob take(Predicate<JobQueue.BuildJob> eligible, long timeoutMillis) throws InterruptedException;
+
+        /**
+         * Records that the job started on an agent.
+         *
+         * @return The baseline commit for the test selection, or null.
+         */
+        String started(JobQueue.BuildJob job) throws IOException;
+
+        void phase(JobQueue.BuildJob job, BuildPhase phase, String description);
+
+        void log(JobQueue.BuildJob job, List<String> lines);
+
+        /**
+         * @param outcome The outcome, or null if the build was cancelled or timed out (see BuildJob.stoppedStatus()).
+         */
+        void finished(JobQueue.BuildJob job, BuildExecutor.Outcome outcome);
+
+        /**
+         * Called when the lease of a job expired, or it could not be started.
+         */
+        void lost(JobQueue.BuildJob job);
+    }
+
+    /**
+     * A registered build agent.
+     */
+    private static class Agent {
+        final String id;
+        final String name;
+        final int capacity;
+        final Map<String, String> labels;
+        final Set<Long> jobs = ConcurrentHashMap.newKeySet();
+        volatile long lastSeenMillis;
+
+        Agent(String id, String name, int capacity, Map<String, String> labels, long nowMillis) {
+            this.id = id;
+            this.name = name;
+            this.capacity = capacity;
+            this.labels = labels;
+            this.lastSeenMillis = nowMillis;
+        }
+    }
+
+    /**
+     * A job running on an agent.
+     */
+    private static class Lease {
+        final JobQueue.BuildJob job;
+        final Agent agent;
+        volatile long expiresAtMillis;
+        // Guarded by the lease
+        int linesReceived;
+
+        Lease(JobQueue.BuildJob job, Agent agent, long expiresAtMillis) {
+            this.job = job;
+            this.agent = agent;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    /**
+     * Creates an AgentCoordinator for the JobQueue, configured from the CI settings.
+     */
+    public AgentCoordinator() {
+        this(new QueueBackend(), CiConfig.getString("ci.agents.token", ""),
+                CiConfig.getLong("ci.agents.leaseSeconds", 30) * 1000,
+                CiConfig.getLong("ci.agents.pollSeconds", 20) * 1000);
+    }
+
+    /**
+     * @param backend     The source of the jobs.
+     * @param token       The token agents authenticate with; "" disables the endpoints.
+     * @param leaseMillis How long a job stays with an agent without a heartbeat.
+     * @param pollMillis  How long a poll waits for a job; at most half the lease.
+     */
+    public AgentCoordinator(Backend backend, String token, long leaseMillis, long pollMillis) {
+        this.backend = backend;
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+        this.leaseMillis = Math.max(100, leaseMillis);
+        this.pollMillis = Math.max(0, Math.min(pollMillis, this.leaseMillis / 2));
+    }
+
+    /**
+     * Starts expiring the leases of lost agents.
+     */
+    public synchronized void start() {
+        if (reaper != null || token.length == 0) {
+            return;
+        }
+        reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "agent-leases");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(50, Math.min(1000, leaseMillis / 4));
+        reaper.scheduleWithFixedDelay(() -> {
+            try {
+                expireLeases(System.currentTimeMillis());
+            } catch (RuntimeException e) {
+                System.err.println("Expiring agent leases failed: " + e.getMessage());
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops expiring leases.
+     */
+    public synchronized void close() {
+        if (reaper != null) {
+            reaper.shutdownNow();
+            reaper = null;
+        }
+    }
+
+    /**
+     * Handles a request below "/api/agents/".
+     */
+    public void handle(String target, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("application/json");
+        if (token.length == 0) {
+            error(response, HttpServletResponse.SC_NOT_FOUND, "Build agents are disabled");
+            return;
+        }
+        if (!isAuthorized(request)) {
+            error(response, HttpServletResponse.SC_UNAUTHORIZED, "Invalid agent token");
+            return;
+        }
+        if (!"POST".equalsIgnoreCase(request.getMethod())) {
+            error(response, HttpServletResponse.SC_METHOD_NOT_ALLOWED, "Use POST");
+            return;
+        }
+
+        String[] path = target.substring(PREFIX.length()).split("/");
+        try {
+            if (path.length == 1 && "register".equals(path[0])) {
+                register(request, response);
+                return;
+            }
+            Agent agent = agents.get(path[0]);
+            if (agent == null) {
+                error(response, HttpServletResponse.SC_NOT_FOUND, "Unknown agent, register again");
+                return;
+            }
+            agent.lastSeenMillis = System.currentTimeMillis();
+            if (path.length == 2 && "poll".equals(path[1])) {
+                poll(agent, response);
+            } else if (path.length == 2 && "heartbeat".equals(path[1])) {
+                heartbeat(agent, request, response);
+            } else if (path.length == 4 && "jobs".equals(path[1])) {
+                Lease lease = leases.get(Long.parseLong(path[2]));
+                if (lease == null || lease.agent != agent) {
+                    error(response, HttpServletResponse.SC_CONFLICT, "Job is not leased to this agent");
+                    return;
+                }
+                lease.expiresAtMillis = System.currentTimeMillis() + leaseMillis;
+                if ("log".equals(path[3])) {
+                    log(lease, request, response);
+                } else if ("result".equals(path[3])) {
+                    result(lease, request, response);
+                } else {
+                    error(response, HttpServletResponse.SC_NOT_FOUND, "Invalid endpoint");
+                }
+            } else {
+                error(response, HttpServletResponse.SC_NOT_FOUND, "Invalid endpoint");
+            }
+        } catch (JSONException | IllegalArgumentException e) {
+            error(response, HttpServletResponse.SC_BAD_REQUEST, "Invalid request: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return The registered agents and the counters of assigned, completed and expired jobs.
+     */
+    public Map<String, Object> getMetrics() {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> registered = new ArrayList<>();
+        for (Agent agent : agents.values()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("name", agent.name);
+            entry.put("capacity", agent.capacity);
+            entry.put("running", agent.jobs.size());
+            entry.put("labels", agent.labels);
+            entry.put("lastSeenMillisAgo", now - agent.lastSeenMillis);
+            registered.add(entry);
+        }
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("agents", registered);
+        metrics.put("leased", leases.size());
+        metrics.put("assigned", assigned.get());
+        metrics.put("completed", completed.get());
+        metrics.put("expired", expired.get());
+        return metrics;
+    }
+
+    private void register(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        JSONObject body = readJson(request);
+        Map<String, String> labels = new HashMap<>();
+        JSONObject advertised = body.optJSONObject("labels");
+        if (advertised != null) {
+            for (String key : advertised.keySet()) {
+                labels.put(key, String.valueOf(advertised.get(key)));
+            }
+        }
+        Agent agent = new Agent(UUID.randomUUID().toString(), body.optString("name", "agent"),
+                Math.max(1, body.optInt("capacity", 1)), labels, System.currentTimeMillis());
+        agents.put(agent.id, agent);
+        System.out.println("Build agent " + agent.name + " registered (capacity " + agent.capacity
+                + ", labels " + labels + ")");
+        response.getWriter().println(new JSONObject()
+                .put("agentId", agent.id)
+                .put("leaseMillis", leaseMillis)
+                .put("pollMillis", pollMillis));
+    }
+
+    private void poll(Agent agent, HttpServletResponse response) throws IOException {
+        if (agent.jobs.size() >= agent.capacity) {
+            error(response, HttpServletResponse.SC_CONFLICT, "Agent is at capacity");
+            return;
+        }
+        JobQueue.BuildJob job;
+        try {
+            job = backend.take(candidate -> AgentLabels.satisfies(agent.labels, AgentLabels.requirementsOf(candidate)),
+                    pollMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Coordinator is shutting down");
+            return;
+        }
+        if (job == null) {
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            return;
+        }
+
+        String baselineSHA;
+        try {
+            baselineSHA = backend.started(job);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Starting job " + job.getId() + " on agent " + agent.name + " failed: " + e.getMessage());
+            backend.lost(job);
+            error(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Job could not be started");
+            return;
+        }
+        BuildTimeouts timeouts = BuildTimeouts.of(job);
+        // Leased before answering: if the answer never arrives, the lease expires and the job is queued again
+        agent.lastSeenMillis = System.currentTimeMillis();
+        leases.put(job.getId(), new Lease(job, agent, agent.lastSeenMillis + leaseMillis));
+        agent.jobs.add(job.getId());
+        assigned.incrementAndGet();
+        System.out.println("Job " + job.getId() + " (" + job.commitSHA + ") assigned to agent " + agent.name);
+
+        response.getWriter().println(new JSONObject()
+                .put("id", job.getId())
+                .put("repoOwner", job.repoOwner)
+                .put("repoName", job.repoName)
+                .put("commitSha", job.commitSHA)
+                .put("branchName", job.branchName)
+                .put("priority", job.priority.name())
+                .put("enqueuedAt", job.enqueuedAtMillis)
+                .put("baselineSha", baselineSHA == null ? JSONObject.NULL : baselineSHA)
+                .put("timeoutMillis", timeouts.getTotalMillis())
+                .put("inactivityMillis", timeouts.getInactivityMillis()));
+    }
+
+    private void heartbeat(Agent agent, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        JSONObject jobs = readJson(request).optJSONObject("jobs");
+        JSONArray cancel = new JSONArray();
+        long now = System.currentTimeMillis();
+        if (jobs != null) {
+            for (String key : jobs.keySet()) {
+                long jobId = Long.parseLong(key);
+                Lease lease = leases.get(jobId);
+                if (lease == null || lease.agent != agent) {
+                    // Expired and queued again: the agent must not report it any more
+                    cancel.put(jobId);
+                    continue;
+                }
+                lease.expiresAtMillis = now + leaseMillis;
+                if (lease.job.isCancelled()) {
+                    cancel.put(jobId);
+                }
+                JSONObject state = jobs.optJSONObject(key);
+                if (state != null && state.has("phase")) {
+                    String phase = state.getString("phase");
+                    backend.phase(lease.job, BuildPhase.valueOf(phase), state.optString("description", phase));
+                }
+            }
+        }
+        response.getWriter().println(new JSONObject().put("cancel", cancel));
+    }
+
+    private void log(Lease lease, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        int from = Integer.parseInt(request.getParameter("from"));
+        List<String> lines = new ArrayList<>();
+        request.setCharacterEncoding("UTF-8");
+        try (BufferedReader reader = request.getReader()) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        synchronized (lease) {
+            if (from > lease.linesReceived) {
+                error(response, HttpServletResponse.SC_BAD_REQUEST, "Expected lines from " + lease.linesReceived);
+                return;
+            }
+            // Lines sent again after a lost answer are skipped
+            int duplicates = lease.linesReceived - from;
+            if (duplicates < lines.size()) {
+                backend.log(lease.job, lines.subList(duplicates, lines.size()));
+                lease.linesReceived = from + lines.size();
+            }
+        }
+        response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+
+    private void result(Lease lease, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        JSONObject body = readJson(request);
+        TestStatus status = TestStatus.valueOf(body.getString("status"));
+        JSONArray testCases = body.optJSONArray("testCases");
+        boolean stopped = status == TestStatus.CANCELLED || status == TestStatus.TIMED_OUT;
+        // The test cases wait for the result writer in a file, not in memory
+        BuildExecutor.Outcome outcome = stopped
+                ? null
+                : new BuildExecutor.Outcome(status == TestStatus.SUCCESS,
+                        testCases == null ? null : ResultWriter.testCasesToFile(testCases, lease.job.getId()),
+                        new BuildSandbox.Usage(body.isNull("peakMemoryBytes") ? null : body.getLong("peakMemoryBytes"),
+                                body.isNull("cpuMillis") ? null : body.getLong("cpuMillis"), false));
+        if (!leases.remove(lease.job.getId(), lease)) {
+            if (outcome != null && outcome.getTestCases() != null) {
+                outcome.getTestCases().delete();
+            }
+            error(response, HttpServletResponse.SC_CONFLICT, "Job is not leased to this agent");
+            return;
+        }
+        if (status == TestStatus.TIMED_OUT) {
+            lease.job.timeOut(body.optString("reason", "Timed out"));
+        } else if (status == TestStatus.CANCELLED) {
+            // Usually cancelled here already (superseded or on request), which keeps that reason
+            lease.job.cancel(body.optString("reason", "Cancelled on the build agent"));
+        }
+        lease.agent.jobs.remove(lease.job.getId());
+        completed.incrementAndGet();
+        backend.finished(lease.job, outcome);
+        response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+
+    /**
+     * Gives the jobs of expired leases back to the queue and forgets agents that are gone.
+     */
+    void expireLeases(long nowMillis) {
+        for (Lease lease : leases.values()) {
+            if (lease.expiresAtMillis < nowMillis && leases.remove(lease.job.getId(), lease)) {
+                lease.agent.jobs.remove(lease.job.getId());
+                expired.incrementAndGet();
+                System.err.println("Lease of job " + lease.job.getId() + " on agent " + lease.agent.name
+                        + " expired");
+                backend.lost(lease.job);
+            }
+        }
+        agents.values().removeIf(agent -> {
+            boolean gone = agent.jobs.isEmpty() && agent.lastSeenMillis + leaseMillis < nowMillis;
+            if (gone) {
+                System.out.println("Build agent " + agent.name + " is gone");
+            }
+            return gone;
+        });
+    }
+
+    private boolean isAuthorized(HttpServletRequest request) {
+        String header = request.getHeader("Authorization");
+        if (header == null || !header.startsWith("Bearer ")) {
+            return false;
+        }
+        byte[] presented = header.substring("Bearer ".length()).trim().getBytes(StandardCharsets.UTF_8);
+        return MessageDigest.isEqual(presented, token);
+    }
+
+    private static JSONObject readJson(HttpServletRequest request) throws IOException {
+        String body = new String(request.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        return body.isBlank() ? new JSONObject() : new JSONObject(body);
+    }
+
+    private static void error(HttpServletResponse response, int status, String message) throws IOException {
+        response.setStatus(status);
+        response.getWriter().println(new JSONObject().put("error", message));
+    }
+
+    /**
+     * Takes jobs from the JobQueue and stores the builds of agents like the
+     * server's own builds: a pending row and a live log while they run, then
+     * the result, the archived log and the GitHub status.
+     */
+    static class QueueBackend implements Backend {
+        private final Map<Long, RemoteBuild> builds = new ConcurrentHashMap<>();
+
+        private static class RemoteBuild {
+            final TestResultEntity testResult;
+            final BuildLog log;
+
+            RemoteBuild(TestResultEntity testResult, BuildLog log) {
+                this.testResult = testResult;
+                this.log = log;
+            }
+        }
+
+        @Override
+        public JobQueue.BuildJob take(Predicate<JobQueue.BuildJob> eligible, long timeoutMillis)
+                throws InterruptedException {
+            return JobQueue.takeJob(eligible, timeoutMillis);
+        }
+
+        @Override
+        public String started(JobQueue.BuildJob job) throws IOException {
+            TestResultEntity testResult = BuildManager.getLifecycle().started(job);
+            BuildLog log;
+            try {
+                log = BuildLog.open(job);
+            } catch (IOException e) {
+                BuildManager.abandon(job, testResult, TestStatus.CANCELLED);
+                throw e;
+            }
+            builds.put(job.getId(), new RemoteBuild(testResult, log));
+            return BuildManager.baselineOf(job);
+        }
+
+        @Override
+        public void phase(JobQueue.BuildJob job, BuildPhase phase, String description) {
+            RemoteBuild build = builds.get(job.getId());
+            if (build != null) {
+                BuildManager.getLifecycle().advance(job, build.testResult, phase, description);
+            }
+        }
+
+        @Override
+        public void log(JobQueue.BuildJob job, List<String> lines) {
+            RemoteBuild build = builds.get(job.getId());
+            if (build != null) {
+                lines.forEach(build.log::append);
+            }
+        }
+
+        @Override
+        public void finished(JobQueue.BuildJob job, BuildExecutor.Outcome outcome) {
+            RemoteBuild build = builds.remove(job.getId());
+            try {
+                if (build != null && outcome != null) {
+                    BuildManager.complete(job, build.log, build.testResult, outcome);
+                } else if (build != null) {
+                    closeQuietly(build.log);
+                    BuildManager.abandon(job, build.testResult);
+                } else if (outcome != null && outcome.getTestCases() != null) {
+                    outcome.getTestCases().delete();
+                }
+                BuildWorker.reportStatus(job, outcome != null && outcome.isSuccess());
+            } finally {
+                JobQueue.jobFinished(job);
+            }
+        }
+
+        @Override
+        public void lost(JobQueue.BuildJob job) {
+            RemoteBuild build = builds.remove(job.getId());
+            if (build != null) {
+                build.log.append("Build agent lost, the job is queued again");
+                closeQuietly(build.log);
+                // The next attempt stores a row of its own
+                BuildManager.abandon(job, build.testResult, TestStatus.CANCELLED);
+            }
+            JobQueue.requeue(job);
+        }
+
+        private static void closeQuietly(BuildLog log) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                System.err.println("Closing a build log failed: " + e.getMessage());
+            }
+        }
+    }
+}
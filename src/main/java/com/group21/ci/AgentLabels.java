@@ -0,0 +1,113 @@
+package com.group21.ci;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * AgentLabels describes build hosts and decides which jobs they may build.
+ * - Every host (the server's own BuildWorkers and every BuildAgent) advertises
+ *   "jdk" (feature version), "cores" and "os", plus the labels of "ci.agent.labels",
+ *   e.g. "docker=true,region=eu".
+ * - Jobs of a repository may require labels through "ci.agents.requirements",
+ *   e.g. "team/app:jdk=17,docker=true;team/ml:cores=16". Numeric requirements are
+ *   minimums, all others must match exactly. Jobs of other repositories run anywhere.
+ */
+public final class AgentLabels {
+    private static final Map<String, Map<String, String>> REQUIREMENTS =
+            parseRequirements(CiConfig.getString("ci.agents.requirements", ""));
+    private static final Map<String, String> LOCAL = detectLocal();
+
+    private AgentLabels() {
+    }
+
+    /**
+     * @return The labels of this host.
+     */
+    public static Map<String, String> local() {
+        return LOCAL;
+    }
+
+    /**
+     * @return The labels a host needs to build the job; empty if it can run anywhere.
+     */
+    public static Map<String, String> requirementsOf(JobQueue.BuildJob job) {
+        return REQUIREMENTS.getOrDefault(job.repoOwner + "/" + job.repoName, Collections.emptyMap());
+    }
+
+    /**
+     * @param labels       The labels of a host.
+     * @param requirements The labels required by a job.
+     * @return true if the host may build the job.
+     */
+    public static boolean satisfies(Map<String, String> labels, Map<String, String> requirements) {
+        for (Map.Entry<String, String> required : requirements.entrySet()) {
+            String value = labels.get(required.getKey());
+            if (value == null) {
+                return false;
+            }
+            if (isNumber(required.getValue()) && isNumber(value)) {
+                if (Long.parseLong(value) < Long.parseLong(required.getValue())) {
+                    return false;
+                }
+            } else if (!value.equals(required.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses "key=value,key=value" into labels.
+     *
+     * @throws IllegalArgumentException If a label is malformed.
+     */
+    static Map<String, String> parseLabels(String labels) {
+        Map<String, String> parsed = new TreeMap<>();
+        for (String label : labels.split(",")) {
+            if (label.isBlank()) {
+                continue;
+            }
+            String[] pair = label.trim().split("=");
+            if (pair.length != 2 || pair[0].isBlank()) {
+                throw new IllegalArgumentException("Invalid label: " + label);
+            }
+            parsed.put(pair[0].trim(), pair[1].trim());
+        }
+        return parsed;
+    }
+
+    /**
+     * Parses "owner/repo:key=value,...;..." into the requirements per repository.
+     *
+     * @throws IllegalArgumentException If the specification is malformed.
+     */
+    static Map<String, Map<String, String>> parseRequirements(String specification) {
+        Map<String, Map<String, String>> parsed = new HashMap<>();
+        for (String entry : specification.split(";")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int colon = entry.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Invalid agent requirement: " + entry);
+            }
+            parsed.put(entry.substring(0, colon).trim(), parseLabels(entry.substring(colon + 1)));
+        }
+        return parsed;
+    }
+
+    private static Map<String, String> detectLocal() {
+        Map<String, String> labels = new TreeMap<>();
+        labels.put("jdk", String.valueOf(Runtime.version().feature()));
+        labels.put("cores", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        labels.put("os", System.getProperty("os.name").toLowerCase().replace(' ', '-'));
+        labels.putAll(parseLabels(CiConfig.getString("ci.agent.labels", "")));
+        return Collections.unmodifiableMap(labels);
+    }
+
+    private static boolean isNumber(String value) {
+        return value.matches("\\d{1,18}");
+    }
+}
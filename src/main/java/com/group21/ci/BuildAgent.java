@@ -0,0 +1,463 @@
+package com.group21.ci;
+
+import com.group21.ci.entity.BuildPhase;
+import com.group21.ci.entity.TestStatus;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BuildAgent is a build host of its own process, taking jobs from the
+ * AgentCoordinator of a CI server over HTTP.
+ * - Registers with "ci.agent.coordinator" (default: "http://localhost:8080") using
+ *   "ci.agents.token", advertising "ci.agent.capacity" (default: half the available
+ *   cores) and its labels (see AgentLabels).
+ * - Long-polls for a job whenever a build slot is free and builds it with a
+ *   BuildExecutor on local mirrors, caches and workspaces.
+ * - Ships the log lines every "ci.agent.logFlushMillis" (default: 500) and sends
+ *   heartbeats with the phases of its builds three times per lease.
+ * - Posts the result when a build ends. A build the coordinator no longer leases
+ *   to the agent is cancelled; if the coordinator forgot the agent (e.g. after a
+ *   restart), all builds are cancelled and the agent registers again.
+ *
+ * Start it with "java -cp ... com.group21.ci.BuildAgent"; several agents on one
+ * host need their own "ci.workspace.root", "ci.mirror.root" and "ci.log.dir".
+ */
+public class BuildAgent {
+    private final URI coordinator;
+    private final String token;
+    private final String name;
+    private final int capacity;
+    private final Map<String, String> labels;
+    private final BuildExecutor executor;
+    private final long logFlushMillis;
+
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+    private final Semaphore slots;
+    private final ExecutorService builds;
+    private final ScheduledExecutorService scheduler;
+    private final Map<Long, RemoteJob> running = new ConcurrentHashMap<>();
+    private final AtomicLong built = new AtomicLong();
+    private volatile String agentId;
+    private volatile long leaseMillis;
+    private volatile long pollMillis;
+    private volatile boolean stopped;
+    private Thread poller;
+
+    /**
+     * A job this agent builds.
+     */
+    private static class RemoteJob {
+        final JobQueue.BuildJob job;
+        final String baselineSHA;
+        final BuildTimeouts timeouts;
+        final Object shipLock = new Object();
+        // Lines written to the log but not yet acknowledged by the coordinator, guarded by the job
+        private final List<String> unsent = new ArrayList<>();
+        private int shipped;
+        volatile BuildPhase phase = BuildPhase.CLONING;
+        volatile String description = "Checking out the commit";
+
+        RemoteJob(JobQueue.BuildJob job, String baselineSHA, BuildTimeouts timeouts) {
+            this.job = job;
+            this.baselineSHA = baselineSHA;
+            this.timeouts = timeouts;
+        }
+
+        synchronized void add(String line) {
+            unsent.add(line);
+        }
+
+        void phase(BuildPhase phase, String description) {
+            this.description = description;
+            this.phase = phase;
+        }
+    }
+
+    /**
+     * Creates a BuildAgent configured from the CI settings.
+     */
+    public BuildAgent() {
+        this(URI.create(CiConfig.getString("ci.agent.coordinator", "http://localhost:8080")),
+                CiConfig.getString("ci.agents.token", ""),
+                CiConfig.getString("ci.agent.name", defaultName()),
+                CiConfig.getInt("ci.agent.capacity", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+                AgentLabels.local(),
+                // Without the database there is no test history, so shards are split by class count
+                new BuildExecutor(new WorkspaceManager(), new MirrorCache(), new MavenCache(),
+                        new TestImpactAnalyzer(), new TestSharder(CiConfig.getInt("ci.shards", 1), 0, null),
+                        new BuildSandbox()),
+                CiConfig.getLong("ci.agent.logFlushMillis", 500));
+    }
+
+    /**
+     * @param coordinator    The base URL of the CI server.
+     * @param token          The token of the agent endpoints.
+     * @param name           The name shown by the coordinator.
+     * @param capacity       The number of builds to run at once.
+     * @param labels         The labels jobs are matched against.
+     * @param executor       Runs the builds.
+     * @param logFlushMillis How often log lines are shipped.
+     */
+    public BuildAgent(URI coordinator, String token, String name, int capacity, Map<String, String> labels,
+                      BuildExecutor executor, long logFlushMillis) {
+        this.coordinator = coordinator;
+        this.token = token;
+        this.name = name;
+        this.capacity = Math.max(1, capacity);
+        this.labels = labels;
+        this.executor = executor;
+        this.logFlushMillis = Math.max(10, logFlushMillis);
+        this.slots = new Semaphore(this.capacity);
+        AtomicInteger threads = new AtomicInteger();
+        this.builds = Executors.newFixedThreadPool(this.capacity, runnable -> {
+            Thread thread = new Thread(runnable, "build-agent-" + threads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "build-agent-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static void main(String[] args) {
+        BuildAgent agent = new BuildAgent();
+        Runtime.getRuntime().addShutdownHook(new Thread(agent::close, "build-agent-shutdown"));
+        agent.start();
+    }
+
+    /**
+     * Registers with the coordinator and starts taking jobs.
+     */
+    public synchronized void start() {
+        if (poller != null) {
+            return;
+        }
+        poller = new Thread(this::pollLoop, "build-agent-poller");
+        poller.start();
+    }
+
+    /**
+     * Stops taking jobs and cancels the running builds; the coordinator queues
+     * them again once their leases expire.
+     */
+    public void close() {
+        stopped = true;
+        synchronized (this) {
+            if (poller != null) {
+                poller.interrupt();
+            }
+        }
+        running.values().forEach(remote -> remote.job.cancel("Build agent stopped"));
+        scheduler.shutdownNow();
+        builds.shutdown();
+    }
+
+    /**
+     * @return The number of builds whose result reached the coordinator.
+     */
+    public long getBuiltCount() {
+        return built.get();
+    }
+
+    private void pollLoop() {
+        try {
+            register(null);
+            if (stopped) {
+                return;
+            }
+            long heartbeatMillis = Math.max(10, leaseMillis / 3);
+            scheduler.scheduleWithFixedDelay(this::heartbeat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+            scheduler.scheduleWithFixedDelay(this::shipLogs, logFlushMillis, logFlushMillis, TimeUnit.MILLISECONDS);
+            while (!stopped) {
+                slots.acquire();
+                RemoteJob remote = null;
+                try {
+                    remote = poll();
+                } catch (IOException | JSONException e) {
+                    System.err.println("Polling " + coordinator + " failed: " + e.getMessage());
+                    Thread.sleep(1000);
+                } finally {
+                    if (remote == null) {
+                        slots.release();
+                    }
+                }
+                if (remote != null) {
+                    RemoteJob job = remote;
+                    running.put(job.job.getId(), job);
+                    builds.execute(() -> build(job));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Registers with the coordinator, retrying with backoff until it answers.
+     *
+     * @param staleId The id the coordinator did not know any more, or null for the first registration;
+     *                nothing is done if another thread registered again in the meantime.
+     */
+    private synchronized void register(String staleId) throws InterruptedException {
+        if (staleId != null && !staleId.equals(agentId)) {
+            return;
+        }
+        long backoff = 1000;
+        while (!stopped) {
+            try {
+                JSONObject body = new JSONObject()
+                        .put("name", name)
+                        .put("capacity", capacity)
+                        .put("labels", new JSONObject(labels));
+                HttpResponse<String> response = post("/api/agents/register", "application/json", body.toString(),
+                        Duration.ofSeconds(30));
+                if (response.statusCode() == 200) {
+                    JSONObject registration = new JSONObject(response.body());
+                    leaseMillis = registration.getLong("leaseMillis");
+                    pollMillis = registration.getLong("pollMillis");
+                    agentId = registration.getString("agentId");
+                    System.out.println("Registered with " + coordinator + " as " + name + " (capacity " + capacity
+                            + ", labels " + labels + ")");
+                    return;
+                }
+                System.err.println("Registering with " + coordinator + " failed: HTTP " + response.statusCode());
+            } catch (IOException | JSONException e) {
+                System.err.println("Registering with " + coordinator + " failed: " + e.getMessage());
+            }
+            Thread.sleep(backoff);
+            backoff = Math.min(backoff * 2, 30_000);
+        }
+    }
+
+    /**
+     * Asks the coordinator for a job, waiting up to its poll timeout.
+     *
+     * @return The job, or null if none came up.
+     */
+    private RemoteJob poll() throws IOException, InterruptedException {
+        String id = agentId;
+        HttpResponse<String> response = post("/api/agents/" + id + "/poll", "application/json", "",
+                Duration.ofMillis(pollMillis + 30_000));
+        if (response.statusCode() == 404) {
+            register(id);
+            return null;
+        }
+        if (response.statusCode() == 204) {
+            return null;
+        }
+        if (response.statusCode() != 200) {
+            throw new IOException("HTTP " + response.statusCode());
+        }
+        JSONObject json = new JSONObject(response.body());
+        JobQueue.BuildJob job = new JobQueue.BuildJob(json.getLong("id"), json.getString("repoOwner"),
+                json.getString("repoName"), json.getString("commitSha"), json.getString("branchName"),
+                JobPriority.valueOf(json.getString("priority")), json.getLong("enqueuedAt"));
+        // The timeouts of the server apply; an older server sends none
+        BuildTimeouts timeouts = json.has("timeoutMillis")
+                ? new BuildTimeouts(json.getLong("timeoutMillis"), json.getLong("inactivityMillis"))
+                : BuildTimeouts.of(job);
+        return new RemoteJob(job, json.isNull("baselineSha") ? null : json.getString("baselineSha"), timeouts);
+    }
+
+    /**
+     * Builds a job and reports its result; runs on a build thread.
+     */
+    private void build(RemoteJob remote) {
+        JobQueue.BuildJob job = remote.job;
+        BuildExecutor.Outcome outcome = null;
+        try {
+            try (BuildLog log = BuildLog.open(job, remote::add)) {
+                log.append("Building on agent " + name);
+                outcome = executor.execute(job, log, remote.baselineSHA, remote.timeouts, remote::phase);
+            } catch (Exception e) {
+                System.err.println("Build of " + job.commitSHA + " failed: " + e.getMessage());
+                e.printStackTrace();
+            }
+            if (stopped) {
+                // Not reported: the coordinator queues the job again
+                return;
+            }
+            TestStatus status = job.isCancelled() ? job.stoppedStatus()
+                    : outcome != null && outcome.isSuccess() ? TestStatus.SUCCESS : TestStatus.FAILED;
+            // The log is closed, so all of its lines are in the buffer
+            ship(remote);
+            sendResult(remote, status, job.getCancelReason(), outcome);
+        } finally {
+            if (outcome != null && outcome.getTestCases() != null) {
+                outcome.getTestCases().delete();
+            }
+            running.remove(job.getId());
+            slots.release();
+        }
+    }
+
+    private void sendResult(RemoteJob remote, TestStatus status, String reason, BuildExecutor.Outcome outcome) {
+        JSONObject body = new JSONObject()
+                .put("status", status.name())
+                .put("reason", reason == null ? JSONObject.NULL : reason)
+                .put("peakMemoryBytes", outcome == null || outcome.getUsage().getPeakMemoryBytes() == null
+                        ? JSONObject.NULL : outcome.getUsage().getPeakMemoryBytes())
+                .put("cpuMillis", outcome == null || outcome.getUsage().getCpuMillis() == null
+                        ? JSONObject.NULL : outcome.getUsage().getCpuMillis())
+                .put("testCases", outcome == null || outcome.getTestCases() == null
+                        ? new JSONArray() : ResultWriter.testCasesToJson(outcome.getTestCases()));
+        for (int attempt = 1; attempt <= 3 && !stopped; attempt++) {
+            try {
+                HttpResponse<String> response = post(jobPath(remote) + "/result", "application/json",
+                        body.toString(), Duration.ofSeconds(30));
+                if (response.statusCode() / 100 == 2) {
+                    built.incrementAndGet();
+                    System.out.println("Job " + remote.job.getId() + " finished: " + status);
+                    return;
+                }
+                if (response.statusCode() == 404 || response.statusCode() == 409) {
+                    System.err.println("Result of job " + remote.job.getId() + " was refused, the job moved on");
+                    return;
+                }
+                System.err.println("Sending the result of job " + remote.job.getId() + " failed: HTTP "
+                        + response.statusCode());
+            } catch (IOException e) {
+                System.err.println("Sending the result of job " + remote.job.getId() + " failed: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                Thread.sleep(1000L * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Renews the leases of the running jobs, reports their phases and cancels the
+     * jobs the coordinator asks for.
+     */
+    private void heartbeat() {
+        String id = agentId;
+        JSONObject jobs = new JSONObject();
+        for (RemoteJob remote : running.values()) {
+            jobs.put(String.valueOf(remote.job.getId()), new JSONObject()
+                    .put("phase", remote.phase.name())
+                    .put("description", remote.description));
+        }
+        try {
+            HttpResponse<String> response = post("/api/agents/" + id + "/heartbeat", "application/json",
+                    new JSONObject().put("jobs", jobs).toString(), Duration.ofSeconds(30));
+            if (response.statusCode() == 404) {
+                // The coordinator forgot this agent and queued its jobs again
+                System.err.println("Coordinator does not know this agent any more, cancelling " + running.size()
+                        + " builds");
+                running.values().forEach(remote -> remote.job.cancel("Build agent lost by the coordinator"));
+                register(id);
+            } else if (response.statusCode() == 200) {
+                JSONArray cancel = new JSONObject(response.body()).optJSONArray("cancel");
+                for (int i = 0; cancel != null && i < cancel.length(); i++) {
+                    RemoteJob remote = running.get(cancel.getLong(i));
+                    if (remote != null && remote.job.cancel("Cancelled by the coordinator")) {
+                        System.out.println("Coordinator cancelled job " + remote.job.getId());
+                    }
+                }
+            } else {
+                System.err.println("Heartbeat failed: HTTP " + response.statusCode());
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Heartbeat failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void shipLogs() {
+        for (RemoteJob remote : running.values()) {
+            ship(remote);
+        }
+    }
+
+    /**
+     * Sends the unacknowledged log lines of a job; on failure they are sent again
+     * with the next shipment.
+     */
+    private void ship(RemoteJob remote) {
+        synchronized (remote.shipLock) {
+            List<String> lines;
+            int from;
+            synchronized (remote) {
+                if (remote.unsent.isEmpty()) {
+                    return;
+                }
+                lines = new ArrayList<>(remote.unsent);
+                from = remote.shipped;
+            }
+            StringBuilder body = new StringBuilder();
+            for (String line : lines) {
+                body.append(line).append('\n');
+            }
+            try {
+                HttpResponse<String> response = post(jobPath(remote) + "/log?from=" + from,
+                        "text/plain; charset=UTF-8", body.toString(), Duration.ofSeconds(30));
+                if (response.statusCode() / 100 == 2) {
+                    synchronized (remote) {
+                        remote.unsent.subList(0, lines.size()).clear();
+                        remote.shipped += lines.size();
+                    }
+                } else if (response.statusCode() == 404 || response.statusCode() == 409) {
+                    remote.job.cancel("Job is no longer leased to this agent");
+                }
+            } catch (IOException e) {
+                System.err.println("Shipping the log of job " + remote.job.getId() + " failed: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private String jobPath(RemoteJob remote) {
+        return "/api/agents/" + agentId + "/jobs/" + remote.job.getId();
+    }
+
+    private HttpResponse<String> post(String path, String contentType, String body, Duration timeout)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(coordinator.resolve(path))
+                .timeout(timeout)
+                .header("Authorization", "Bearer " + token)
+                .header("Content-Type", contentType)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String defaultName() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "agent";
+        }
+        return host + "-" + ProcessHandle.current().pid();
+    }
+}
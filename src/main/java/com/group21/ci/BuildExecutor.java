@@ -0,0 +1,272 @@
+package com.group21.ci;
+
+import com.group21.ci.dao.TestCaseFile;
+import com.group21.ci.entity.BuildPhase;
+import org.eclipse.jgit.api.errors.GitAPIException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * BuildExecutor runs the build of one job on the local host, without touching
+ * the database, so that both the server's BuildWorkers and remote BuildAgents
+ * can use it.
+ * - Checks out the commit from a local mirror into a per-job workspace.
+ * - Runs the tests affected since a baseline commit, optionally in shards.
+ * - Streams all output to the job's BuildLog and reports phase changes.
+ * - Decides the outcome from the Maven exit code and the Surefire reports.
+ * - Stops the build once it exceeds its BuildTimeouts (see BuildWatchdog).
+ * - Runs the build processes in a resource-limited cgroup and measures their
+ *   peak memory and CPU time (see BuildSandbox).
+ */
+public class BuildExecutor {
+    private final WorkspaceManager workspaceManager;
+    private final MirrorCache mirrorCache;
+    private final MavenCache mavenCache;
+    private final TestImpactAnalyzer impactAnalyzer;
+    private final TestSharder testSharder;
+    private final BuildSandbox sandbox;
+
+    /**
+     * The outcome of a build that ran to the end.
+     */
+    public static class Outcome {
+        private final boolean success;
+        private final TestCaseFile testCases;
+        private final BuildSandbox.Usage usage;
+
+        Outcome(boolean success, TestCaseFile testCases) {
+            this(success, testCases, BuildSandbox.Usage.NONE);
+        }
+
+        Outcome(boolean success, TestCaseFile testCases, BuildSandbox.Usage usage) {
+            this.success = success;
+            this.testCases = testCases;
+            this.usage = usage;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        /**
+         * @return The file with the test cases of the Surefire reports, not yet linked to a build, or null if none.
+         */
+        public TestCaseFile getTestCases() {
+            return testCases;
+        }
+
+        /**
+         * @return The resources the build used.
+         */
+        public BuildSandbox.Usage getUsage() {
+            return usage;
+        }
+    }
+
+    public BuildExecutor(WorkspaceManager workspaceManager, MirrorCache mirrorCache, MavenCache mavenCache,
+                         TestImpactAnalyzer impactAnalyzer, TestSharder testSharder, BuildSandbox sandbox) {
+        this.workspaceManager = workspaceManager;
+        this.mirrorCache = mirrorCache;
+        this.mavenCache = mavenCache;
+        this.impactAnalyzer = impactAnalyzer;
+        this.testSharder = testSharder;
+        this.sandbox = sandbox;
+    }
+
+    /**
+     * Builds a job in a fresh workspace, which is handed back to the WorkspaceManager
+     * when the build ends.
+     *
+     * @param job         The job describing the repository, branch and commit to build.
+     * @param log         The log of the job.
+     * @param baselineSHA The last green commit of the branch for the test selection, or null.
+     * @param timeouts    The limits after which the build is timed out.
+     * @param phases      Called with the phase and a description whenever the build moves on;
+     *                    a phase may be reported more than once.
+     * @return The outcome, or null if the job was cancelled or timed out.
+     * @throws GitAPIException      If the commit cannot be checked out.
+     * @throws IOException          If the workspace or a build process cannot be set up.
+     * @throws InterruptedException If the build is interrupted.
+     */
+    public Outcome execute(JobQueue.BuildJob job, BuildLog log, String baselineSHA, BuildTimeouts timeouts,
+                           BiConsumer<BuildPhase, String> phases)
+            throws GitAPIException, IOException, InterruptedException {
+        String commitSha = job.commitSHA;
+        File repoDirectory = null;
+        BuildWatchdog.Watch watch = BuildWatchdog.getShared().watch(job, log, timeouts);
+        try (watch; BuildSandbox.Slice slice = sandbox.open(job)) {
+            repoDirectory = workspaceManager.allocate(job);
+            System.out.println("Building " + commitSha + " (job " + job.getId() + ", log " + log.getFile() + ")");
+            log.append("Checking out " + job.repoOwner + "/" + job.repoName + " " + commitSha
+                    + " (" + job.branchName + ")");
+
+            // Check out the exact commit from the local mirror of the repository
+            mirrorCache.checkout(job.repoOwner, job.repoName, job.branchName, commitSha, repoDirectory);
+            if (job.isCancelled()) {
+                System.out.println("Build of " + commitSha + " was cancelled");
+                return null;
+            }
+
+            // Only run the tests affected since the last green build of the branch
+            TestImpactAnalyzer.Selection selection = impactAnalyzer.select(job, repoDirectory, baselineSHA);
+            log.append("Test selection: " + (selection.isFullRun() ? "all tests" : selection.getArguments())
+                    + " (" + selection.getReason() + ")");
+
+            // Use the shared dependency cache, offline once the repository is warm
+            MavenCache.BuildSettings mavenSettings = mavenCache.prepare(job, repoDirectory, log);
+            List<String> mavenArguments = new ArrayList<>(mavenSettings.getArguments());
+            mavenArguments.addAll(selection.getArguments());
+
+            int exitCode;
+            List<List<String>> shards = testSharder.plan(job, repoDirectory, selection);
+            phases.accept(BuildPhase.BUILDING, "Compiling");
+            if (shards.isEmpty()) {
+                // Surefire announces the start of the tests with its "T E S T S" banner
+                exitCode = runMaven(job, log, slice, repoDirectory, mavenArguments, "", line -> {
+                    if (line.contains("T E S T S")) {
+                        phases.accept(BuildPhase.TESTING, "Running tests");
+                    }
+                }, "clean", "test");
+            } else {
+                // Compile once, then run the shards as parallel Surefire invocations
+                exitCode = runMaven(job, log, slice, repoDirectory, mavenArguments, "", null, "clean", "test-compile");
+                if (exitCode == 0 && !job.isCancelled()) {
+                    phases.accept(BuildPhase.TESTING, "Running tests in " + shards.size() + " shards");
+                    // The shards choose their own test classes, but keep the module selection of the compile step
+                    List<String> shardArguments = new ArrayList<>(mavenSettings.getArguments());
+                    shardArguments.addAll(selection.getModuleArguments());
+                    exitCode = runShards(job, log, slice, repoDirectory, shardArguments, shards);
+                }
+            }
+
+            BuildSandbox.Usage usage = slice.usage();
+            if (usage.getPeakMemoryBytes() != null || usage.getCpuMillis() != null) {
+                log.append("Peak memory: " + (usage.getPeakMemoryBytes() == null ? "unknown"
+                        : usage.getPeakMemoryBytes() / (1024 * 1024) + " MB") + ", CPU time: "
+                        + (usage.getCpuMillis() == null ? "unknown" : usage.getCpuMillis() + " ms"));
+            }
+            if (usage.isOomKilled()) {
+                log.append("Build processes were killed for exceeding the memory limit of the sandbox");
+            }
+
+            if (job.isCancelled()) {
+                System.out.println("Build of " + commitSha + " was cancelled");
+                return null;
+            }
+            // Only a single unfiltered `mvn test` is known to have resolved every plugin
+            mavenCache.buildCompleted(job, mavenSettings, exitCode, shards.isEmpty() && selection.isFullRun());
+
+            // Decide the result from the exit code and the Surefire reports
+            List<File> reports = SurefireReportParser.findReports(repoDirectory);
+            SurefireReportParser.Summary summary = SurefireReportParser.summarize(reports);
+            boolean testSuccess = exitCode == 0 && summary.isSuccessful();
+            log.append("Tests run: " + summary.getTests() + ", Failures: " + summary.getFailures()
+                    + ", Errors: " + summary.getErrors() + ", Skipped: " + summary.getSkipped());
+
+            // The test cases go straight to a file, however many there are
+            try (TestCaseFile.Writer testCases = TestCaseFile.create(job.getId())) {
+                SurefireReportParser.parse(reports, testCases::add);
+                return new Outcome(testSuccess, testCases.finish(), usage);
+            }
+        } finally {
+            if (repoDirectory != null) {
+                workspaceManager.release(repoDirectory);
+            }
+        }
+    }
+
+    /**
+     * @return The manager of the build workspaces.
+     */
+    public WorkspaceManager getWorkspaceManager() {
+        return workspaceManager;
+    }
+
+    /**
+     * @return The cgroup sandbox of the builds.
+     */
+    public BuildSandbox getSandbox() {
+        return sandbox;
+    }
+
+    /**
+     * Runs Maven in the workspace, streaming its output to the job's log.
+     *
+     * @param job       The job the process belongs to (for cancellation).
+     * @param log       The log of the job.
+     * @param slice     The cgroup to run Maven in.
+     * @param directory The workspace to run in.
+     * @param arguments Options passed before the goals.
+     * @param prefix    Written in front of every output line.
+     * @param listener  Called for every line of standard output, or null.
+     * @param goals     The goals or phases to run.
+     * @return The exit code of Maven.
+     */
+    private static int runMaven(JobQueue.BuildJob job, BuildLog log, BuildSandbox.Slice slice, File directory,
+                                List<String> arguments, String prefix, Consumer<String> listener, String... goals)
+            throws IOException, InterruptedException {
+        Process maven = startMaven(job, log, slice, directory, arguments, prefix, listener, goals);
+        int exitCode = maven.waitFor();
+        log.awaitPumps();
+        log.append(prefix + "Maven exited with code " + exitCode);
+        return exitCode;
+    }
+
+    /**
+     * Runs the test shards in parallel on the compiled workspace. The shards run
+     * disjoint test classes and Surefire writes one report file per class, so
+     * they share target/surefire-reports without overwriting each other.
+     *
+     * @return 0 if all shards succeeded, otherwise the first non-zero exit code.
+     */
+    private static int runShards(JobQueue.BuildJob job, BuildLog log, BuildSandbox.Slice slice, File directory,
+                                 List<String> mavenArguments, List<List<String>> shards)
+            throws IOException, InterruptedException {
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            List<String> arguments = new ArrayList<>(mavenArguments);
+            arguments.add("-Dtest=" + String.join(",", shards.get(i)));
+            arguments.add("-Dsurefire.failIfNoSpecifiedTests=false");
+            processes.add(startMaven(job, log, slice, directory, arguments, "[shard " + i + "] ", null,
+                    "surefire:test"));
+        }
+
+        int exitCode = 0;
+        for (int i = 0; i < processes.size(); i++) {
+            int shardExitCode = processes.get(i).waitFor();
+            log.append("[shard " + i + "] Maven exited with code " + shardExitCode);
+            if (exitCode == 0) {
+                exitCode = shardExitCode;
+            }
+        }
+        log.awaitPumps();
+        return exitCode;
+    }
+
+    private static Process startMaven(JobQueue.BuildJob job, BuildLog log, BuildSandbox.Slice slice, File directory,
+                                      List<String> arguments, String prefix, Consumer<String> listener,
+                                      String... goals) throws IOException {
+        List<String> mvnCommand = new ArrayList<>();
+        mvnCommand.add("mvn");
+        mvnCommand.addAll(arguments);
+        mvnCommand.addAll(Arrays.asList(goals));
+        log.append(prefix + "Running " + String.join(" ", mvnCommand));
+
+        // All shards of a build share its cgroup, so the limits apply to the build as a whole
+        ProcessBuilder mvnBuilder = new ProcessBuilder(slice.wrap(mvnCommand));
+        mvnBuilder.directory(directory);
+        Process maven = mvnBuilder.start();
+        job.addProcess(maven);
+
+        // Drain stdout and stderr on the log pumps
+        log.pump(maven.getInputStream(), false, prefix, listener);
+        log.pump(maven.getErrorStream(), true, prefix, null);
+        return maven;
+    }
+}
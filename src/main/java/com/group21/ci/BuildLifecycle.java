@@ -0,0 +1,192 @@
+package com.group21.ci;
+
+import com.group21.ci.entity.BuildPhase;
+import com.group21.ci.entity.TestResultEntity;
+import com.group21.ci.entity.TestStatus;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BuildLifecycle tracks a job through its phases (queued, cloning, building,
+ * testing, done) and reports them to GitHub as "pending" statuses.
+ * - When a worker takes a job, the build is stored as a PENDING row that records
+ *   when the job was queued and started; its phase is updated as it advances, and
+ *   the finished result completes the same row. The build page thus shows running
+ *   builds, and time in queue and time in build can be told apart per job.
+ * - These rows are written through the ResultWriter like finished results, so a
+ *   slow or unavailable database delays neither a build nor a cancel request.
+ *   They do not know their row id; the job id ties them to the pending row.
+ * - Pending statuses link to the build page under "ci.server.url" (no link if unset).
+ * - Only meaningful transitions are reported: the first status of a commit always,
+ *   a later phase only if "ci.status.pendingIntervalMillis" (default: 10000) passed
+ *   since the last status of the job, so short phases never reach GitHub.
+ */
+public class BuildLifecycle {
+    private final ResultWriter resultWriter;
+    private final String serverUrl;
+    private final long pendingIntervalMillis;
+
+    private final AtomicLong reported = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    /**
+     * Creates a BuildLifecycle configured from the CI settings.
+     *
+     * @param resultWriter The write-behind stage storing the builds.
+     */
+    public BuildLifecycle(ResultWriter resultWriter) {
+        this(resultWriter, CiConfig.getString("ci.server.url", ""),
+                CiConfig.getLong("ci.status.pendingIntervalMillis", 10_000));
+    }
+
+    /**
+     * @param resultWriter          The write-behind stage storing the builds.
+     * @param serverUrl             The public URL of this server, or "" to send statuses without a link.
+     * @param pendingIntervalMillis The minimum time between two pending statuses of a job.
+     */
+    public BuildLifecycle(ResultWriter resultWriter, String serverUrl, long pendingIntervalMillis) {
+        this.resultWriter = resultWriter;
+        this.serverUrl = serverUrl.endsWith("/") ? serverUrl.substring(0, serverUrl.length() - 1) : serverUrl;
+        this.pendingIntervalMillis = Math.max(0, pendingIntervalMillis);
+    }
+
+    /**
+     * Reports that a commit is waiting for a build worker.
+     *
+     * @param job       The queued job.
+     * @param commitSHA The commit of the job when it was queued (a queued job's commit can be replaced).
+     */
+    public void queued(JobQueue.BuildJob job, String commitSHA) {
+        report(job, commitSHA, BuildPhase.QUEUED, "Waiting for a build worker");
+    }
+
+    /**
+     * Queues the pending row of a job that a worker has just taken for storage
+     * and reports that it is checking out the commit.
+     *
+     * @param job The job.
+     * @return The row of the build, without id.
+     */
+    public TestResultEntity started(JobQueue.BuildJob job) {
+        TestResultEntity build = new TestResultEntity(job.commitSHA, TestStatus.PENDING, "", LocalDateTime.now());
+        build.setPhase(BuildPhase.CLONING);
+        build.setRepoOwner(job.repoOwner);
+        build.setRepoName(job.repoName);
+        build.setBranchName(job.branchName);
+        build.setQueuedAt(toDateTime(job.enqueuedAtMillis));
+        build.setStartedAt(toDateTime(job.startedAtMillis));
+        build.setJobId(job.getId());
+        resultWriter.submit(build.copy(), List.of());
+        report(job, job.commitSHA, BuildPhase.CLONING, "Checking out the commit");
+        return build;
+    }
+
+    /**
+     * Queues a job that was cancelled before a worker took it for storage as a
+     * finished, CANCELLED build without a start time.
+     *
+     * @param job The cancelled job.
+     * @return The queued row.
+     */
+    public TestResultEntity cancelled(JobQueue.BuildJob job) {
+        TestResultEntity build = new TestResultEntity(job.commitSHA, TestStatus.CANCELLED, "", LocalDateTime.now());
+        build.setPhase(BuildPhase.DONE);
+        build.setRepoOwner(job.repoOwner);
+        build.setRepoName(job.repoName);
+        build.setBranchName(job.branchName);
+        build.setQueuedAt(toDateTime(job.enqueuedAtMillis));
+        build.setJobId(job.getId());
+        resultWriter.submit(build, List.of());
+        return build;
+    }
+
+    /**
+     * Moves a running build to a later phase. Going back to an earlier or the
+     * same phase is ignored, so callers may signal a phase more than once.
+     *
+     * @param job         The job.
+     * @param build       The row returned by started().
+     * @param phase       The phase the build has reached.
+     * @param description The description of the pending status.
+     */
+    public void advance(JobQueue.BuildJob job, TestResultEntity build, BuildPhase phase, String description) {
+        synchronized (build) {
+            if (build.getPhase() != null && build.getPhase().compareTo(phase) >= 0) {
+                return;
+            }
+            build.setPhase(phase);
+            resultWriter.submit(build.copy(), List.of());
+        }
+        report(job, job.commitSHA, phase, description);
+    }
+
+    /**
+     * Completes the row of a build with its outcome; the caller stores it.
+     *
+     * @param build  The row returned by started().
+     * @param status The outcome of the build.
+     */
+    public void finished(TestResultEntity build, TestStatus status) {
+        synchronized (build) {
+            build.setStatus(status);
+            build.setPhase(BuildPhase.DONE);
+            build.setTimestamp(LocalDateTime.now());
+        }
+    }
+
+    /**
+     * @param commitSHA A built commit.
+     * @return The URL of the build page of the commit, or null if "ci.server.url" is not set.
+     */
+    public String targetUrl(String commitSHA) {
+        return serverUrl.isEmpty() ? null : serverUrl + "/builds/" + commitSHA;
+    }
+
+    /**
+     * @return How many pending statuses were sent and skipped.
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("reported", reported.get());
+        metrics.put("skipped", skipped.get());
+        return metrics;
+    }
+
+    private void report(JobQueue.BuildJob job, String commitSHA, BuildPhase phase, String description) {
+        if (!shouldReport(job, commitSHA, phase, System.currentTimeMillis())) {
+            skipped.incrementAndGet();
+            return;
+        }
+        reported.incrementAndGet();
+        StatusReporter.sendStatus(job.repoOwner, job.repoName, commitSHA, "pending", description,
+                targetUrl(commitSHA));
+    }
+
+    /**
+     * Decides whether a phase is worth a pending status and, if so, records it as reported.
+     * A phase before or equal to the last reported one of the commit is never reported.
+     */
+    boolean shouldReport(JobQueue.BuildJob job, String commitSHA, BuildPhase phase, long nowMillis) {
+        synchronized (job) {
+            boolean sameCommit = commitSHA.equals(job.reportedSHA);
+            if (sameCommit && (job.reportedPhase.compareTo(phase) >= 0
+                    || nowMillis - job.reportedAtMillis < pendingIntervalMillis)) {
+                return false;
+            }
+            job.reportedSHA = commitSHA;
+            job.reportedPhase = phase;
+            job.reportedAtMillis = nowMillis;
+            return true;
+        }
+    }
+
+    private static LocalDateTime toDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+}
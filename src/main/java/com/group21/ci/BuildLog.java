@@ -0,0 +1,326 @@
+package com.group21.ci;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * BuildLog is the asynchronous log pipeline of one build job.
+ * - Dedicated pump threads drain the stdout and stderr of build processes, so a
+ *   chatty build can never block on a full pipe.
+ * - Lines go through a bounded ring buffer; when it is full the pumps (and thus
+ *   the build) are slowed down instead of using unbounded memory.
+ * - A writer thread appends lines in batches to a per-job log file, stamping each
+ *   batch with one timestamp.
+ * - The finished log can optionally be gzip-compressed.
+ * - Lines can also be handed to a consumer as they are written, e.g. to ship them
+ *   from a BuildAgent to the coordinator.
+ *
+ * Logs are written to "ci.log.dir" (default: "build-logs"). The buffer size is
+ * "ci.log.bufferLines" (default: 10000) and compression is "ci.log.compress"
+ * (default: false).
+ */
+public class BuildLog implements Closeable {
+    private static final File LOG_DIR = new File(CiConfig.getString("ci.log.dir", "build-logs"));
+    private static final int BUFFER_LINES = Math.max(16, CiConfig.getInt("ci.log.bufferLines", 10_000));
+    private static final boolean COMPRESS = CiConfig.getBoolean("ci.log.compress", false);
+    private static final int BATCH_LINES = 1024;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    // Marks the end of the log in the buffer
+    private static final String END_OF_LOG = new String("<end of log>");
+
+    // Logs of jobs that are currently running, by job id
+    private static final Map<Long, BuildLog> activeLogs = new ConcurrentHashMap<>();
+
+    private final long jobId;
+    private final File file;
+    private final Consumer<String> tee;
+    private final BlockingQueue<String> buffer = new ArrayBlockingQueue<>(BUFFER_LINES);
+    private final List<Thread> pumps = new ArrayList<>();
+    private final Thread writer;
+    private volatile long lastOutputMillis = System.currentTimeMillis();
+    private volatile boolean finished;
+
+    private BuildLog(long jobId, Consumer<String> tee) throws IOException {
+        this.jobId = jobId;
+        this.tee = tee;
+        Files.createDirectories(LOG_DIR.toPath());
+        this.file = new File(LOG_DIR, jobId + ".log");
+        Writer fileWriter = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 64 * 1024);
+        this.writer = new Thread(() -> writeLoop(fileWriter), "build-log-writer-" + jobId);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Opens the log of a job and registers it as active.
+     *
+     * @param job The job the log belongs to.
+     * @return The open log.
+     * @throws IOException If the log file cannot be created.
+     */
+    public static BuildLog open(JobQueue.BuildJob job) throws IOException {
+        return open(job, null);
+    }
+
+    /**
+     * Opens the log of a job, also handing every line to a consumer on the writer
+     * thread once it is written (without the timestamp).
+     *
+     * @param job The job the log belongs to.
+     * @param tee Receives the lines, or null.
+     * @return The open log.
+     * @throws IOException If the log file cannot be created.
+     */
+    public static BuildLog open(JobQueue.BuildJob job, Consumer<String> tee) throws IOException {
+        BuildLog log = new BuildLog(job.getId(), tee);
+        activeLogs.put(job.getId(), log);
+        return log;
+    }
+
+    /**
+     * @param jobId The id of a job.
+     * @return The log of the job if it is still being written, otherwise null.
+     */
+    public static BuildLog getActive(long jobId) {
+        return activeLogs.get(jobId);
+    }
+
+    /**
+     * Finds the log file of a job, whether it is being written, finished or compressed.
+     *
+     * @param jobId The id of a job.
+     * @return The log file, or null if the job has no log.
+     */
+    public static File findLogFile(long jobId) {
+        File plain = new File(LOG_DIR, jobId + ".log");
+        if (plain.isFile()) {
+            return plain;
+        }
+        File compressed = new File(LOG_DIR, jobId + ".log.gz");
+        return compressed.isFile() ? compressed : null;
+    }
+
+    /**
+     * Deletes the per-job log files of finished jobs that were last written
+     * before a cutoff; their content is archived in the LogStore.
+     *
+     * @param cutoffMillis Files older than this (epoch milliseconds) are deleted.
+     * @return The number of deleted files.
+     */
+    public static int deleteLogsOlderThan(long cutoffMillis) {
+        File[] files = LOG_DIR.listFiles(file -> file.isFile() && file.lastModified() < cutoffMillis);
+        if (files == null) {
+            return 0;
+        }
+        int deleted = 0;
+        for (File file : files) {
+            String name = file.getName();
+            String jobId = name.substring(0, name.indexOf('.') < 0 ? name.length() : name.indexOf('.'));
+            boolean active = jobId.matches("\\d+") && activeLogs.containsKey(Long.parseLong(jobId));
+            if (!active && file.delete()) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Starts a pump thread that copies the lines of a process stream into the log.
+     *
+     * @param stream   The stdout or stderr of a build process.
+     * @param stderr   Whether the stream is stderr; its lines are prefixed with "[stderr]".
+     * @param listener Called on the pump thread for every line, or null.
+     */
+    public void pump(InputStream stream, boolean stderr, Consumer<String> listener) {
+        pump(stream, stderr, "", listener);
+    }
+
+    /**
+     * Starts a pump thread that copies the lines of a process stream into the
+     * log, prefixing every line (e.g. with the shard it comes from).
+     *
+     * @param stream   The stdout or stderr of a build process.
+     * @param stderr   Whether the stream is stderr; its lines are prefixed with "[stderr]".
+     * @param prefix   Written in front of every line.
+     * @param listener Called on the pump thread for every line, or null.
+     */
+    public void pump(InputStream stream, boolean stderr, String prefix, Consumer<String> listener) {
+        String linePrefix = prefix + (stderr ? "[stderr] " : "");
+        Thread pump = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (listener != null) {
+                        listener.accept(line);
+                    }
+                    append(linePrefix.isEmpty() ? line : linePrefix + line);
+                }
+            } catch (IOException e) {
+                // The process was destroyed; nothing more to read
+            }
+        }, "build-log-" + (stderr ? "stderr-" : "stdout-") + jobId);
+        pump.setDaemon(true);
+        pump.start();
+        synchronized (pumps) {
+            pumps.add(pump);
+        }
+    }
+
+    /**
+     * Appends a line to the log, waiting while the buffer is full.
+     *
+     * @param line The line without line terminator.
+     */
+    public void append(String line) {
+        lastOutputMillis = System.currentTimeMillis();
+        try {
+            buffer.put(line);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits until all pumps have copied their streams to the end.
+     */
+    public void awaitPumps() throws InterruptedException {
+        List<Thread> started;
+        synchronized (pumps) {
+            started = new ArrayList<>(pumps);
+            pumps.clear();
+        }
+        for (Thread pump : started) {
+            pump.join();
+        }
+    }
+
+    /**
+     * @return The time of the last appended line, in epoch milliseconds.
+     */
+    public long getLastOutputMillis() {
+        return lastOutputMillis;
+    }
+
+    /**
+     * @return true once the log was closed and all lines are written.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return The file the log is written to.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Flushes the remaining lines, closes the file and compresses it if enabled.
+     */
+    @Override
+    public void close() throws IOException {
+        if (finished) {
+            return;
+        }
+        try {
+            awaitPumps();
+            buffer.put(END_OF_LOG);
+            writer.join();
+            // Compress before deactivating so viewers never see a half-written archive
+            if (COMPRESS) {
+                compress();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            finished = true;
+            activeLogs.remove(jobId, this);
+        }
+    }
+
+    private void writeLoop(Writer fileWriter) {
+        List<String> batch = new ArrayList<>(BATCH_LINES);
+        try (Writer out = fileWriter) {
+            while (true) {
+                String first = buffer.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                buffer.drainTo(batch, BATCH_LINES - 1);
+
+                String timestamp = LocalTime.now().format(TIME_FORMAT) + " ";
+                boolean ended = false;
+                for (String line : batch) {
+                    if (line == END_OF_LOG) {
+                        ended = true;
+                        break;
+                    }
+                    out.write(timestamp);
+                    out.write(line);
+                    out.write('\n');
+                    if (tee != null) {
+                        tee.accept(line);
+                    }
+                }
+                batch.clear();
+                // Flush per batch so live viewers see progress
+                out.flush();
+                if (ended) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write build log " + file + ": " + e.getMessage());
+            discardUntilEnd();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Keeps draining the buffer after a write error so that the pumps never block.
+     */
+    private void discardUntilEnd() {
+        try {
+            while (buffer.take() != END_OF_LOG) {
+                // discard
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void compress() throws IOException {
+        File compressed = new File(file.getPath() + ".gz");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed), 64 * 1024)) {
+            Files.copy(file.toPath(), out);
+        }
+        Files.delete(file.toPath());
+    }
+}
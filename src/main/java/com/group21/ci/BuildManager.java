@@ -1,123 +1,195 @@
 package com.group21.ci;
 
 
-import com.group21.ci.dao.TestResultDAO;
+import com.group21.ci.dao.CachingTestResultDAO;
+import com.group21.ci.entity.BuildPhase;
 import com.group21.ci.entity.TestResultEntity;
 import com.group21.ci.entity.TestStatus;
 
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileWriter;
-import java.io.InputStreamReader;
-import java.time.LocalDateTime;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 
 
 /**
  * BuildManager is responsible for cloning the repository and executing the test
  * suite.
- * - Clones the repository from the provided GitHub owner and repo name.
- * - Runs `mvn test` to execute tests.
+ * - Checks out the commit from a local mirror of the provided GitHub owner and repo name.
+ * - Runs `mvn test` to execute tests, restricted to the tests affected by the commit.
  * - Returns true if tests pass, otherwise false.
  */
 public class BuildManager {
-    private static final String LOG_FILE = "test_results.log";
-    private static final TestResultDAO testResultDAO = new TestResultDAO();
+    private static final CachingTestResultDAO testResultDAO = new CachingTestResultDAO(
+            CiConfig.getInt("ci.cache.builds", 1000), CiConfig.getLong("ci.cache.ttlSeconds", 60) * 1000);
+    private static final BuildExecutor executor = new BuildExecutor(new WorkspaceManager(), new MirrorCache(),
+            new MavenCache(), new TestImpactAnalyzer(), new TestSharder(), new BuildSandbox());
+    private static final LogStore logStore = new LogStore();
+    private static final ResultWriter resultWriter = startResultWriter();
+    private static final BuildLifecycle lifecycle = new BuildLifecycle(resultWriter);
+
     /**
      * Executes the build process for a given repository.
-     * - Constructs the repository URL dynamically.
-     * - Clones the repository into a local directory.
-     * - Runs `mvn test` to execute tests.
+     * - Checks out the commit from the repository mirror into a fresh per-job workspace directory.
+     * - Runs `mvn test` to execute tests, streaming its output to the job's BuildLog.
      * - Returns true if tests pass successfully, otherwise false.
-     * - Clears the cloned repository directory after execution.
+     * - Releases the workspace (asynchronous cleanup) after execution.
      *
      * @param repoOwner The owner of the repository.
      * @param repoName  The name of the repository.
      * @param branchName    The branch to be tested of the repository.
      * @return true if tests pass successfully, false otherwise.
      */
-    @SuppressWarnings("deprecation")
     public static boolean runBuild(String repoOwner, String repoName, String branchName, String commitSha) {
-        try {
-            String repoUrl = "https://github.com/" + repoOwner + "/" + repoName + ".git";
-            System.out.println("Cloning repository...");
-
-            // Clone the repository
-            Process clone = Runtime.getRuntime().exec("git clone --branch " + branchName + " " + repoUrl + " repo");
-            clone.waitFor();
-
-            // Ensure the latest code is pulled
-            ProcessBuilder pullProcess = new ProcessBuilder("git", "pull");
-            pullProcess.directory(new File("repo"));
-            pullProcess.start().waitFor();
-
-            System.out.println("Running tests in the cloned repository...");
-
-            ProcessBuilder mvnTestBuilder = new ProcessBuilder("mvn", "clean", "test");
-            File repoDirectory = new File("repo");
-            mvnTestBuilder.directory(repoDirectory);
-            Process mvnTest = mvnTestBuilder.start();
-
-            BufferedReader reader = new BufferedReader(new InputStreamReader(mvnTest.getInputStream()));
-            FileWriter logWriter = new FileWriter(LOG_FILE, true);
-            String line;
-            boolean hasFailures = false;
-
-            while ((line = reader.readLine()) != null) {
-                System.out.println(line);
-                logWriter.write(LocalDateTime.now() + " - " + line + "\n");
-
-                // Check for failures in test output
-                if (line.contains("Failures:") && !line.contains("Failures: 0")) {
-                    hasFailures = true;
-                }
-            }
-
-            int exitCode = mvnTest.waitFor();
-            boolean testSuccess = (exitCode == 0);
-
-            // Store test result in database
-            TestResultEntity testResult = new TestResultEntity(
-                    commitSha,
-                    testSuccess && !hasFailures ? TestStatus.SUCCESS : TestStatus.FAILED,
-                    "", // Log output not needed in DB
-                    LocalDateTime.now()
-            );
-            testResultDAO.saveTestResult(testResult);
-
-            System.out.println("Test result stored: " + (testResult.getStatus() == TestStatus.SUCCESS ? "SUCCESS" : "FAILED"));
-
-            logWriter.close();
-//            deleteDirectory(repoDirectory);
+        return runBuild(new JobQueue.BuildJob(repoOwner, repoName, commitSha, branchName));
+    }
 
-            return testSuccess && !hasFailures;
+    /**
+     * Executes the build process for a queued job in its own workspace (see BuildExecutor).
+     * The build is stored as pending when it starts and its phases are reported
+     * through the BuildLifecycle. The Maven process is registered on the job so
+     * that a superseded build can be cancelled; a cancelled build is stored as CANCELLED,
+     * one stopped by its timeouts (see BuildTimeouts) as TIMED_OUT.
+     *
+     * @param job The job describing the repository, branch and commit to build.
+     * @return true if tests pass successfully, false otherwise (including cancellation).
+     */
+    public static boolean runBuild(JobQueue.BuildJob job) {
+        TestResultEntity testResult = lifecycle.started(job);
+        try (BuildLog log = BuildLog.open(job)) {
+            BuildExecutor.Outcome outcome = executor.execute(job, log, baselineOf(job), BuildTimeouts.of(job),
+                    (phase, description) -> lifecycle.advance(job, testResult, phase, description));
+            if (outcome == null) {
+                return false;
+            }
+            complete(job, log, testResult, outcome);
+            return outcome.isSuccess();
         } catch (Exception e) {
             e.printStackTrace();
             return false;
+        } finally {
+            if (testResult.getPhase() != BuildPhase.DONE) {
+                abandon(job, testResult);
+            }
         }
     }
 
+    /**
+     * @return The last green commit of the job's branch, against which the tests are selected, or null.
+     */
+    static String baselineOf(JobQueue.BuildJob job) {
+        TestResultEntity baseline = testResultDAO.getLastSuccessfulBuild(job.repoOwner, job.repoName, job.branchName);
+        return baseline == null ? null : baseline.getCommitSha();
+    }
 
     /**
-     * Helper method to deletes a directory its contents.
+     * Stores the outcome of a build, wherever it ran: the row of the build is
+     * completed, its log archived in the LogStore, and both are handed to the
+     * write-behind stage; the job does not wait for the database.
      *
-     * @param directory The directory to be deleted.
+     * @param job        The built job.
+     * @param log        The log of the job; closed by this method.
+     * @param testResult The row returned by BuildLifecycle.started().
+     * @param outcome    The outcome of the build.
+     */
+    static void complete(JobQueue.BuildJob job, BuildLog log, TestResultEntity testResult,
+                         BuildExecutor.Outcome outcome) {
+        lifecycle.finished(testResult, outcome.isSuccess() ? TestStatus.SUCCESS : TestStatus.FAILED);
+        testResult.setPeakMemoryBytes(outcome.getUsage().getPeakMemoryBytes());
+        testResult.setCpuMillis(outcome.getUsage().getCpuMillis());
+        archiveLog(job, log, testResult);
+        if (outcome.getTestCases() == null) {
+            resultWriter.submit(testResult, List.of());
+        } else {
+            resultWriter.submit(testResult, outcome.getTestCases());
+        }
+        System.out.println("Test result queued: " + (outcome.isSuccess() ? "SUCCESS" : "FAILED"));
+    }
+
+    /**
+     * Completes the pending row of a build that was cancelled, timed out or could
+     * not run, so it does not stay pending forever.
+     */
+    static void abandon(JobQueue.BuildJob job, TestResultEntity testResult) {
+        abandon(job, testResult, job.stoppedStatus());
+    }
+
+    /**
+     * Completes the pending row of a build that did not finish with the given status.
+     */
+    static void abandon(JobQueue.BuildJob job, TestResultEntity testResult, TestStatus status) {
+        lifecycle.finished(testResult, status);
+        resultWriter.submit(testResult, List.of());
+    }
+
+    /**
+     * Closes the log of a finished build and stores it in the LogStore,
+     * referencing it from the build record. A build whose log cannot be
+     * archived is still stored, without the reference.
      */
-    private static void deleteDirectory(File directory) {
-        if (directory.exists()) {
-            File[] files = directory.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                    if (file.isDirectory()) {
-                        deleteDirectory(file);
-                    } else {
-                        file.delete();
-                    }
-                }
+    private static void archiveLog(JobQueue.BuildJob job, BuildLog log, TestResultEntity testResult) {
+        try {
+            log.close();
+            File logFile = BuildLog.findLogFile(job.getId());
+            if (logFile == null) {
+                return;
             }
-            directory.delete();
+            LogStore.LogRef stored = logStore.store(logFile);
+            testResult.setLogHash(stored.getHash());
+            testResult.setLogSize(stored.getSize());
+        } catch (IOException e) {
+            System.err.println("Archiving the log of job " + job.getId() + " failed: " + e.getMessage());
         }
     }
-}
 
+    /**
+     * @return The manager of the build workspaces.
+     */
+    public static WorkspaceManager getWorkspaceManager() {
+        return executor.getWorkspaceManager();
+    }
+
+    /**
+     * @return The tracker of build phases and pending statuses.
+     */
+    public static BuildLifecycle getLifecycle() {
+        return lifecycle;
+    }
+
+    /**
+     * @return The archive of finished build logs.
+     */
+    public static LogStore getLogStore() {
+        return logStore;
+    }
+
+    /**
+     * @return The DAO for stored builds; shared so that stored results invalidate its cache.
+     */
+    public static CachingTestResultDAO getTestResultDAO() {
+        return testResultDAO;
+    }
+
+    /**
+     * @return Counters of the write-behind stage that stores build results.
+     */
+    public static Map<String, Object> getResultWriterMetrics() {
+        return resultWriter.getMetrics();
+    }
+
+    /**
+     * @return Whether builds run in cgroups, and counters of their slices.
+     */
+    public static Map<String, Object> getSandboxMetrics() {
+        return executor.getSandbox().getMetrics();
+    }
 
+    private static ResultWriter startResultWriter() {
+        ResultWriter writer = new ResultWriter(testResultDAO);
+        writer.start();
+        // Store (or spool) queued results before the JVM exits
+        Runtime.getRuntime().addShutdownHook(new Thread(writer::close, "result-writer-shutdown"));
+        return writer;
+    }
+}
@@ -0,0 +1,330 @@
+package com.group21.ci;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BuildSandbox runs the processes of every build in a cgroup v2 slice of its own,
+ * so concurrent builds cannot starve each other or push the host out of memory,
+ * and measures what each build used.
+ * - Enabled by "ci.sandbox.enabled" (default: false). Slices are created below
+ *   "ci.sandbox.cgroupRoot" (default: "/sys/fs/cgroup/ci-builds"), which is created
+ *   if missing. The server needs write access to it and to the cgroup.procs of the
+ *   common ancestor with its own cgroup: run it as root or in a delegated subtree
+ *   (systemd "Delegate=yes").
+ * - Limits per build: "ci.sandbox.cpus" (default: 0, no limit; e.g. 1.5 cores),
+ *   "ci.sandbox.memoryMb" (default: 0, no limit; without swap, and the kernel kills
+ *   the whole build when it is exceeded) and "ci.sandbox.ioWeight" (default: 100,
+ *   1 to 10000).
+ * - Build processes enter the slice through a shell that writes its pid to the
+ *   slice's cgroup.procs and then execs the command, so Maven and all its forks
+ *   start inside it.
+ * - When the build ends, the peak memory (memory.peak) and CPU time (cpu.stat) of
+ *   the slice are read for the build record, processes left behind are killed and
+ *   the slice is removed.
+ * Without cgroup v2 or write access, builds run without limits as before.
+ */
+public class BuildSandbox {
+    private static final String SLICE_PREFIX = "job-";
+
+    private final File root;
+    private final double cpus;
+    private final long memoryBytes;
+    private final int ioWeight;
+    private final boolean available;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong oomKilled = new AtomicLong();
+
+    /**
+     * What a build used, as far as it could be measured.
+     */
+    public static class Usage {
+        static final Usage NONE = new Usage(null, null, false);
+
+        private final Long peakMemoryBytes;
+        private final Long cpuMillis;
+        private final boolean oomKilled;
+
+        public Usage(Long peakMemoryBytes, Long cpuMillis, boolean oomKilled) {
+            this.peakMemoryBytes = peakMemoryBytes;
+            this.cpuMillis = cpuMillis;
+            this.oomKilled = oomKilled;
+        }
+
+        /**
+         * @return The peak memory of all processes of the build in bytes, or null if unknown.
+         */
+        public Long getPeakMemoryBytes() {
+            return peakMemoryBytes;
+        }
+
+        /**
+         * @return The CPU time of all processes of the build in milliseconds, or null if unknown.
+         */
+        public Long getCpuMillis() {
+            return cpuMillis;
+        }
+
+        /**
+         * @return true if the kernel killed processes of the build for exceeding its memory limit.
+         */
+        public boolean isOomKilled() {
+            return oomKilled;
+        }
+    }
+
+    /**
+     * The cgroup of one build; closing it kills what is left in it and removes it.
+     */
+    public class Slice implements Closeable {
+        // Null if the build runs without a cgroup
+        private final File directory;
+
+        Slice(File directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * @param command A command line to run for the build.
+         * @return The command line that runs it inside the slice.
+         */
+        public List<String> wrap(List<String> command) {
+            if (directory == null) {
+                return command;
+            }
+            List<String> wrapped = new ArrayList<>(List.of("sh", "-c", "echo $$ > \"$0\" && exec \"$@\"",
+                    new File(directory, "cgroup.procs").getPath()));
+            wrapped.addAll(command);
+            return wrapped;
+        }
+
+        /**
+         * @return What the processes of the slice used so far.
+         */
+        public Usage usage() {
+            if (directory == null) {
+                return Usage.NONE;
+            }
+            Long peak = readLong(new File(directory, "memory.peak"));
+            Long cpuMicros = readKey(new File(directory, "cpu.stat"), "usage_usec");
+            Long oomKills = readKey(new File(directory, "memory.events"), "oom_kill");
+            return new Usage(peak, cpuMicros == null ? null : cpuMicros / 1000, oomKills != null && oomKills > 0);
+        }
+
+        @Override
+        public void close() {
+            if (directory == null) {
+                return;
+            }
+            if (usage().isOomKilled()) {
+                oomKilled.incrementAndGet();
+            }
+            if (removeSlice(directory)) {
+                active.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Creates a BuildSandbox configured from the CI settings.
+     */
+    public BuildSandbox() {
+        this(CiConfig.getBoolean("ci.sandbox.enabled", false)
+                        ? new File(CiConfig.getString("ci.sandbox.cgroupRoot", "/sys/fs/cgroup/ci-builds"))
+                        : null,
+                CiConfig.getDouble("ci.sandbox.cpus", 0),
+                CiConfig.getLong("ci.sandbox.memoryMb", 0) * 1024 * 1024,
+                CiConfig.getInt("ci.sandbox.ioWeight", 100));
+    }
+
+    /**
+     * @param root        The cgroup v2 directory to create the slices in, or null to run builds unconfined.
+     * @param cpus        The CPU quota of a build in cores, or 0 for none.
+     * @param memoryBytes The memory limit of a build, or 0 for none.
+     * @param ioWeight    The IO weight of a build (1 to 10000).
+     */
+    public BuildSandbox(File root, double cpus, long memoryBytes, int ioWeight) {
+        this.root = root;
+        this.cpus = Math.max(0, cpus);
+        this.memoryBytes = Math.max(0, memoryBytes);
+        this.ioWeight = Math.max(1, Math.min(10_000, ioWeight));
+        this.available = root != null && prepareRoot();
+    }
+
+    /**
+     * @return true if builds run in cgroups.
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * Creates the slice of a build with the configured limits. If it cannot be
+     * created, the build runs without limits.
+     *
+     * @param job The job to build.
+     * @return The slice; a no-op slice if the sandbox is not available.
+     */
+    public Slice open(JobQueue.BuildJob job) {
+        if (!available) {
+            return new Slice(null);
+        }
+        File directory = new File(root, SLICE_PREFIX + job.getId());
+        try {
+            // A slice of the same job left by a crash is cleaned up first
+            removeSlice(directory);
+            Files.createDirectory(directory.toPath());
+        } catch (IOException e) {
+            System.err.println("Creating the cgroup of job " + job.getId() + " failed, building without limits: "
+                    + e.getMessage());
+            return new Slice(null);
+        }
+        if (cpus > 0) {
+            writeLimit(directory, "cpu.max", Math.round(cpus * 100_000) + " 100000");
+        }
+        if (memoryBytes > 0) {
+            writeLimit(directory, "memory.max", String.valueOf(memoryBytes));
+            writeLimit(directory, "memory.swap.max", "0");
+            // One process over the limit ends the whole build instead of leaving it half-dead
+            writeLimit(directory, "memory.oom.group", "1");
+        }
+        writeLimit(directory, "io.weight", "default " + ioWeight);
+        created.incrementAndGet();
+        active.incrementAndGet();
+        return new Slice(directory);
+    }
+
+    /**
+     * @return Whether the sandbox is available, and the number of active and created slices and OOM-killed builds.
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("available", available);
+        metrics.put("active", active.get());
+        metrics.put("created", created.get());
+        metrics.put("oomKilled", oomKilled.get());
+        return metrics;
+    }
+
+    /**
+     * Creates the root cgroup if needed, enables the controllers for the slices
+     * and removes slices left behind by a crash.
+     *
+     * @return true if the root is a writable cgroup v2 directory.
+     */
+    private boolean prepareRoot() {
+        File parent = root.getAbsoluteFile().getParentFile();
+        if (!root.isDirectory() && parent != null && new File(parent, "cgroup.controllers").isFile()) {
+            enableControllers(parent);
+            if (!root.mkdir()) {
+                System.err.println("Creating the cgroup " + root + " failed");
+            }
+        }
+        if (!new File(root, "cgroup.controllers").isFile() || !Files.isWritable(root.toPath())) {
+            System.err.println(root + " is not a writable cgroup v2 directory, builds run without resource limits");
+            return false;
+        }
+        enableControllers(root);
+        File[] slices = root.listFiles(file -> file.isDirectory() && file.getName().startsWith(SLICE_PREFIX));
+        for (File slice : slices == null ? new File[0] : slices) {
+            removeSlice(slice);
+        }
+        System.out.println("Builds run in cgroups below " + root + " (cpus " + cpus + ", memory "
+                + memoryBytes / (1024 * 1024) + " MB, io weight " + ioWeight + ")");
+        return true;
+    }
+
+    private static void enableControllers(File cgroup) {
+        for (String controller : List.of("cpu", "memory", "io")) {
+            try {
+                Files.write(new File(cgroup, "cgroup.subtree_control").toPath(),
+                        ("+" + controller).getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                // The controller is not available here; its limits are skipped
+            }
+        }
+    }
+
+    private static void writeLimit(File directory, String file, String value) {
+        try {
+            Files.write(new File(directory, file).toPath(), value.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.err.println("Setting " + file + " of " + directory + " failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Kills the processes left in a slice and removes it.
+     *
+     * @return true if the slice existed and was removed.
+     */
+    private static boolean removeSlice(File directory) {
+        if (!directory.isDirectory()) {
+            return false;
+        }
+        File kill = new File(directory, "cgroup.kill");
+        File procs = new File(directory, "cgroup.procs");
+        try {
+            if (kill.isFile()) {
+                Files.write(kill.toPath(), "1".getBytes(StandardCharsets.UTF_8));
+            } else if (procs.isFile()) {
+                // Kernels before 5.14 have no cgroup.kill
+                for (String pid : Files.readAllLines(procs.toPath())) {
+                    if (!pid.isBlank()) {
+                        ProcessHandle.of(Long.parseLong(pid.trim())).ifPresent(ProcessHandle::destroyForcibly);
+                    }
+                }
+            }
+            // A cgroup can only be removed once its last process is gone
+            long deadline = System.currentTimeMillis() + 5000;
+            while (procs.isFile() && !Files.readString(procs.toPath()).isBlank()
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            Files.delete(directory.toPath());
+            return true;
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Removing the cgroup " + directory + " failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private static Long readLong(File file) {
+        try {
+            return Long.parseLong(Files.readString(file.toPath()).trim());
+        } catch (IOException | NumberFormatException e) {
+            // memory.peak needs Linux 5.19
+            return null;
+        }
+    }
+
+    /**
+     * Reads a value of a flat-keyed cgroup file such as cpu.stat ("usage_usec 1234").
+     */
+    private static Long readKey(File file, String key) {
+        try {
+            for (String line : Files.readAllLines(file.toPath())) {
+                String[] pair = line.trim().split("\\s+");
+                if (pair.length == 2 && pair[0].equals(key)) {
+                    return Long.parseLong(pair[1]);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not available
+        }
+        return null;
+    }
+}
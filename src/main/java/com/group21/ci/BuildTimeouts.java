@@ -0,0 +1,113 @@
+package com.group21.ci;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * BuildTimeouts limits how long a build may run before it is stopped and stored
+ * as TIMED_OUT (see BuildWatchdog).
+ * - "ci.build.timeoutMinutes" (default: 60) limits the wall-clock time of a build,
+ *   "ci.build.inactivityMinutes" (default: 15) the time without a line of output,
+ *   e.g. a hung test or a process waiting for input; 0 disables a limit.
+ * - "ci.build.timeouts" overrides them per repository, in minutes, e.g.
+ *   "team/app:total=120,inactivity=30;team/docs:total=10".
+ * The server decides the timeouts of a job and hands them to the BuildAgent building it.
+ */
+public final class BuildTimeouts {
+    private static final BuildTimeouts DEFAULTS = new BuildTimeouts(
+            CiConfig.getLong("ci.build.timeoutMinutes", 60) * 60_000,
+            CiConfig.getLong("ci.build.inactivityMinutes", 15) * 60_000);
+    private static final Map<String, BuildTimeouts> BY_REPO = parseConfigured();
+
+    private final long totalMillis;
+    private final long inactivityMillis;
+
+    /**
+     * @param totalMillis      The maximum wall-clock time of a build, or 0 for none.
+     * @param inactivityMillis The maximum time without output, or 0 for none.
+     */
+    public BuildTimeouts(long totalMillis, long inactivityMillis) {
+        this.totalMillis = Math.max(0, totalMillis);
+        this.inactivityMillis = Math.max(0, inactivityMillis);
+    }
+
+    /**
+     * @return The timeouts configured for the repository of the job.
+     */
+    public static BuildTimeouts of(JobQueue.BuildJob job) {
+        return BY_REPO.getOrDefault(job.repoOwner + "/" + job.repoName, DEFAULTS);
+    }
+
+    /**
+     * @return The maximum wall-clock time of a build in milliseconds, or 0 for none.
+     */
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    /**
+     * @return The maximum time without output in milliseconds, or 0 for none.
+     */
+    public long getInactivityMillis() {
+        return inactivityMillis;
+    }
+
+    /**
+     * Reads "ci.build.timeouts"; a malformed value is logged and ignored, so every
+     * repository falls back to the defaults instead of failing its builds.
+     */
+    private static Map<String, BuildTimeouts> parseConfigured() {
+        String specification = CiConfig.getString("ci.build.timeouts", "");
+        try {
+            return parse(specification, DEFAULTS);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid ci.build.timeouts: " + e.getMessage() + ", using the default timeouts");
+            return Map.of();
+        }
+    }
+
+    /**
+     * Parses "owner/repo:total=N,inactivity=N;..." (minutes); a repository keeps
+     * the default of a limit it does not name.
+     *
+     * @throws IllegalArgumentException If the specification is malformed.
+     */
+    static Map<String, BuildTimeouts> parse(String specification, BuildTimeouts defaults) {
+        Map<String, BuildTimeouts> parsed = new HashMap<>();
+        for (String entry : specification.split(";")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int colon = entry.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Invalid build timeout: " + entry);
+            }
+            long total = defaults.totalMillis;
+            long inactivity = defaults.inactivityMillis;
+            for (String limit : entry.substring(colon + 1).split(",")) {
+                String[] pair = limit.trim().split("=");
+                if (pair.length != 2) {
+                    throw new IllegalArgumentException("Invalid build timeout: " + entry);
+                }
+                long millis;
+                try {
+                    millis = Long.parseLong(pair[1].trim()) * 60_000;
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid build timeout: " + entry);
+                }
+                if (millis < 0) {
+                    throw new IllegalArgumentException("Invalid build timeout: " + entry);
+                }
+                if ("total".equals(pair[0].trim())) {
+                    total = millis;
+                } else if ("inactivity".equals(pair[0].trim())) {
+                    inactivity = millis;
+                } else {
+                    throw new IllegalArgumentException("Unknown build timeout: " + pair[0]);
+                }
+            }
+            parsed.put(entry.substring(0, colon).trim(), new BuildTimeouts(total, inactivity));
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,142 @@
+package com.group21.ci;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BuildWatchdog stops builds that exceed their BuildTimeouts, so that a hung
+ * test or a process waiting for input cannot pin a builder forever.
+ * - A build is watched from the moment it starts until its BuildExecutor returns.
+ * - Once a limit is exceeded, the reason is written to the build log and the job
+ *   is timed out: its processes are destroyed together with their descendants
+ *   and the build is stored as TIMED_OUT.
+ * - Builds are checked every second on a single daemon thread.
+ */
+public class BuildWatchdog {
+    private static final BuildWatchdog shared = new BuildWatchdog(1000);
+
+    private final long checkIntervalMillis;
+    private final Map<Long, Watch> watched = new ConcurrentHashMap<>();
+    private final AtomicLong timedOut = new AtomicLong();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * A watched build; closing it ends the watch.
+     */
+    public class Watch implements AutoCloseable {
+        final JobQueue.BuildJob job;
+        final BuildLog log;
+        final BuildTimeouts timeouts;
+        final long startedAtMillis;
+
+        Watch(JobQueue.BuildJob job, BuildLog log, BuildTimeouts timeouts, long startedAtMillis) {
+            this.job = job;
+            this.log = log;
+            this.timeouts = timeouts;
+            this.startedAtMillis = startedAtMillis;
+        }
+
+        /**
+         * @return The limit the build exceeded at the given time, or null if it is within its limits.
+         */
+        String exceeded(long nowMillis) {
+            long total = timeouts.getTotalMillis();
+            if (total > 0 && nowMillis - startedAtMillis > total) {
+                return "Timed out after " + describe(total);
+            }
+            long inactivity = timeouts.getInactivityMillis();
+            if (inactivity > 0 && nowMillis - Math.max(startedAtMillis, log.getLastOutputMillis()) > inactivity) {
+                return "No output for " + describe(inactivity);
+            }
+            return null;
+        }
+
+        @Override
+        public void close() {
+            watched.remove(job.getId(), this);
+        }
+    }
+
+    /**
+     * @param checkIntervalMillis How often the watched builds are checked.
+     */
+    public BuildWatchdog(long checkIntervalMillis) {
+        this.checkIntervalMillis = Math.max(10, checkIntervalMillis);
+    }
+
+    /**
+     * @return The watchdog shared by all builds of this process.
+     */
+    public static BuildWatchdog getShared() {
+        return shared;
+    }
+
+    /**
+     * Starts watching a build, starting the check thread on first use.
+     *
+     * @param job      The job being built.
+     * @param log      The log of the job; its last output time tells inactivity.
+     * @param timeouts The limits of the build.
+     * @return The watch, to be closed when the build ends.
+     */
+    public Watch watch(JobQueue.BuildJob job, BuildLog log, BuildTimeouts timeouts) {
+        synchronized (this) {
+            if (scheduler == null) {
+                scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "build-watchdog");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                scheduler.scheduleWithFixedDelay(() -> {
+                    try {
+                        check(System.currentTimeMillis());
+                    } catch (RuntimeException e) {
+                        System.err.println("Checking build timeouts failed: " + e.getMessage());
+                    }
+                }, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        Watch watch = new Watch(job, log, timeouts, System.currentTimeMillis());
+        watched.put(job.getId(), watch);
+        return watch;
+    }
+
+    /**
+     * Times out every watched build that exceeded one of its limits.
+     */
+    void check(long nowMillis) {
+        for (Watch watch : watched.values()) {
+            String reason = watch.exceeded(nowMillis);
+            if (reason == null || watch.job.isCancelled()) {
+                continue;
+            }
+            watch.log.append("Build stopped: " + reason);
+            if (watch.job.timeOut(reason)) {
+                timedOut.incrementAndGet();
+                System.err.println("Build of " + watch.job.commitSHA + " (job " + watch.job.getId() + "): " + reason);
+            }
+        }
+    }
+
+    /**
+     * @return The number of watched builds and of builds timed out so far.
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("watched", watched.size());
+        metrics.put("timedOut", timedOut.get());
+        return metrics;
+    }
+
+    private static String describe(long millis) {
+        if (millis % 60_000 == 0) {
+            return millis / 60_000 + " minutes";
+        }
+        return millis % 1000 == 0 ? millis / 1000 + " seconds" : millis + " ms";
+    }
+}
@@ -2,38 +2,74 @@ package com.group21.ci;
 
 
 /**
- * BuildWorker is responsible for processing individual CI jobs.
- * - It retrieves a job from the JobQueue.
+ * BuildWorker is a long-lived consumer of the JobQueue.
+ * - It takes the next job from the JobQueue, blocking while the queue is empty.
  * - Runs the build process (compilation and tests).
- * - Reports the result back to GitHub.
+ * - Reports the result back to GitHub, linked to the build page.
  */
 public class BuildWorker implements Runnable {
-    private final JobQueue.BuildJob job; // The job containing repo owner, name, and commit details
 
 
     /**
-     * Constructor for BuildWorker.
-     *
-     * @param job The CI job containing the repository owner, name, and commit SHA.
+     * Takes jobs from the queue until the worker thread is interrupted.
      */
-    public BuildWorker(JobQueue.BuildJob job) {
-        this.job = job;
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            JobQueue.BuildJob job;
+            try {
+                job = JobQueue.takeJob();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            try {
+                process(job);
+            } catch (RuntimeException e) {
+                // Keep the worker alive for the next job
+                System.err.println("Build worker failed on commit " + job.commitSHA + ": " + e.getMessage());
+                e.printStackTrace();
+            } finally {
+                JobQueue.jobFinished(job);
+            }
+        }
     }
 
 
     /**
-     * Runs the CI job:
+     * Runs a single CI job:
      * - Clones the repository.
      * - Runs the build and tests.
      * - Reports the build status to GitHub.
+     *
+     * @param job The CI job containing the repository owner, name, and commit SHA.
      */
-    @Override
-    public void run() {
+    void process(JobQueue.BuildJob job) {
         System.out.println("Processing job for commit: " + job.commitSHA);
 
 
         // Run build process and tests
-        boolean buildSuccess = BuildManager.runBuild(job.repoOwner, job.repoName, job.branchName, job.commitSHA);
+        boolean buildSuccess = BuildManager.runBuild(job);
+        reportStatus(job, buildSuccess);
+    }
+
+
+    /**
+     * Reports the final status of a build to GitHub, wherever it ran.
+     *
+     * @param job          The built job.
+     * @param buildSuccess Whether the build and its tests passed.
+     */
+    static void reportStatus(JobQueue.BuildJob job, boolean buildSuccess) {
+        String targetUrl = BuildManager.getLifecycle().targetUrl(job.commitSHA);
+
+        // A cancelled build was superseded, cancelled on request or timed out
+        if (job.isCancelled()) {
+            StatusReporter.sendStatus(job.repoOwner, job.repoName, job.commitSHA, "error",
+                    job.getCancelReason(), targetUrl);
+            return;
+        }
 
 
         // Determine final status (pass only if both build & test succeed)
@@ -41,6 +77,7 @@ public class BuildWorker implements Runnable {
 
 
         // Send status update to GitHub repository with correct repository details
-        StatusReporter.sendStatus(job.repoOwner, job.repoName, job.commitSHA, finalStatus);
+        StatusReporter.sendStatus(job.repoOwner, job.repoName, job.commitSHA, finalStatus ? "success" : "failure",
+                "CI Build " + (finalStatus ? "passed" : "failed"), targetUrl);
     }
 }
@@ -0,0 +1,85 @@
+package com.group21.ci;
+
+/**
+ * CiConfig resolves tunable settings of the CI server.
+ * - A key such as "ci.queue.capacity" is first looked up as a JVM system property
+ *   (-Dci.queue.capacity=50).
+ * - Otherwise the matching environment variable is used (CI_QUEUE_CAPACITY=50).
+ * - Otherwise the supplied default is returned.
+ */
+public final class CiConfig {
+
+    private CiConfig() {
+    }
+
+    /**
+     * Looks up a string setting.
+     *
+     * @param key          The dotted setting name, e.g. "ci.workers".
+     * @param defaultValue The value used when the setting is not configured.
+     * @return The configured value or the default.
+     */
+    public static String getString(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null || value.isEmpty()) {
+            value = System.getenv(key.toUpperCase().replace('.', '_').replace('-', '_'));
+        }
+        return (value == null || value.isEmpty()) ? defaultValue : value.trim();
+    }
+
+    /**
+     * Looks up an integer setting, falling back to the default on malformed values.
+     */
+    public static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid integer for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Looks up a long setting, falling back to the default on malformed values.
+     */
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Looks up a decimal setting, falling back to the default on malformed values.
+     */
+    public static double getDouble(String key, double defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Looks up a boolean setting ("true"/"false").
+     */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
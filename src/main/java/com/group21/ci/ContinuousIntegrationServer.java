@@ -1,34 +1,42 @@
 package com.group21.ci;
 
-import com.group21.ci.dao.TestResultDAO;
-import com.group21.ci.entity.TestResultEntity;
 //import com.google.gson.Gson;
+import com.group21.ci.dao.HibernateUtil;
+import com.group21.ci.dao.TestCaseResultDAO;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.AbstractHandler;
-import org.eclipse.jetty.util.ajax.JSON;
+import org.json.JSONObject;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
+import java.security.MessageDigest;
 
 /**
  * Continuous Integration Server
  * - Handles webhook events
+ * - Hands jobs to remote build agents
+ * - Cancels queued and running builds on request
  * - Serves the history of past builds
  */
 public class ContinuousIntegrationServer extends AbstractHandler {
-    private static final TestResultDAO testResultDAO = new TestResultDAO();
-    private static final JSON json = new JSON(); // JSON Serializer
+    private static final HistoryApi historyApi = new HistoryApi(BuildManager.getTestResultDAO(),
+            new TestCaseResultDAO(), BuildManager.getLogStore());
+    private static final AgentCoordinator agentCoordinator = new AgentCoordinator();
+    private static final byte[] apiToken = CiConfig.getString("ci.api.token", "").getBytes(StandardCharsets.UTF_8);
 
     public static void main(String[] args) throws Exception {
         Server server = new Server(8080);
         server.setHandler(new ContinuousIntegrationServer());
+        JobQueue.start();
+        agentCoordinator.start();
+        new RetentionJob().start();
 
         server.start();
         System.out.println("CI Server running on port 8080...");
@@ -42,23 +50,76 @@ public class ContinuousIntegrationServer extends AbstractHandler {
         response.setCharacterEncoding("UTF-8");
         baseRequest.setHandled(true);
 
-        // Handle webhook request
+        // Handle webhook request: acknowledged here, parsed and queued on the ingestion threads
         if ("/webhook".equals(target) && "POST".equalsIgnoreCase(request.getMethod())) {
-            WebhookHandler.processWebhook(request);
-            response.getWriter().println("Webhook processed");
+            int status = WebhookHandler.processWebhook(request);
+            response.setStatus(status);
+            if (status == HttpServletResponse.SC_SERVICE_UNAVAILABLE) {
+                // Backpressure: ask GitHub to redeliver later instead of queueing unbounded work
+                response.setHeader("Retry-After", "60");
+                response.getWriter().println("Webhook queue is full");
+            } else if (status == HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE) {
+                response.getWriter().println("Payload too large");
+            } else if (status == HttpServletResponse.SC_ACCEPTED) {
+                response.getWriter().println("Webhook accepted");
+            } else if (status == HttpServletResponse.SC_OK) {
+                response.getWriter().println("Delivery already received");
+            } else if (status == HttpServletResponse.SC_UNAUTHORIZED) {
+                response.getWriter().println("Invalid signature");
+            } else {
+                response.getWriter().println("Invalid webhook");
+            }
+            return;
+        }
+
+        // Handle the protocol of remote build agents
+        if (target.startsWith("/api/agents/")) {
+            agentCoordinator.handle(target, request, response);
+            return;
+        }
+
+        // Cancel a queued or running build job
+        if (target.startsWith("/api/builds/") && target.endsWith("/cancel")
+                && "POST".equalsIgnoreCase(request.getMethod())) {
+            handleCancelBuild(request, response, target);
             return;
         }
 
-        // Handle API request for build history (All builds)
+        // Stream the (live) log of a build job
+        if (target.startsWith("/api/builds/") && target.endsWith("/log")) {
+            handleBuildLog(request, response, target);
+            return;
+        }
+
+        // Handle API request for server metrics
+        if ("/api/metrics".equals(target)) {
+            handleMetrics(response);
+            return;
+        }
+
+        // Handle API request for build history (one page of builds)
         if ("/api/history".equals(target)) {
-            handleBuildHistory(response);
+            historyApi.handleHistory(request, response);
+            return;
+        }
+
+        // Handle API request for all builds matching the filters
+        if ("/api/history/export".equals(target)) {
+            historyApi.handleExport(request, response);
+            return;
+        }
+
+        // Handle API request for the archived log of a build
+        if (target.startsWith("/api/history/") && target.endsWith("/log")) {
+            String buildId = target.substring("/api/history/".length(), target.length() - "/log".length());
+            historyApi.handleBuildLog(request, response, buildId);
             return;
         }
 
         // Handle API request for a specific build details
         if (target.startsWith("/api/history/")) {
-            String commitSha = target.substring("/api/history/".length());
-            handleBuildDetails(response, commitSha);
+            String buildId = target.substring("/api/history/".length());
+            historyApi.handleBuildDetails(request, response, buildId);
             return;
         }
 
@@ -84,7 +145,7 @@ public class ContinuousIntegrationServer extends AbstractHandler {
         // Serve a specific build details page
         if (target.startsWith("/builds/")) {
             String commitSha = target.substring("/builds/".length());
-            serveBuildDetailsPage(response, commitSha);
+            historyApi.serveBuildDetailsPage(request, response, commitSha);
             return;
         }
 
@@ -108,22 +169,80 @@ public class ContinuousIntegrationServer extends AbstractHandler {
 //    }
 
     /**
-     * Returns details for a specific build in JSON format.
+     * Streams the log of a build job, following it while the build is running.
      */
-    private void handleBuildDetails(HttpServletResponse response, String commitSha) throws IOException {
+    private void handleBuildLog(HttpServletRequest request, HttpServletResponse response, String target)
+            throws IOException {
+        String jobId = target.substring("/api/builds/".length(), target.length() - "/log".length());
         try {
-            TestResultEntity result = testResultDAO.getTestResultById(Integer.parseInt(commitSha));
-            if (result != null) {
-                response.setContentType("application/json");
-                response.getWriter().println(json.toJSON(result));
-            } else {
-                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                response.getWriter().println("{\"error\": \"Build not found\"}");
-            }
-        } catch (Exception e) {
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            response.getWriter().println("{\"error\": \"Failed to fetch build details\"}");
+            LogStreamer.stream(request, response, Long.parseLong(jobId));
+        } catch (NumberFormatException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().println("{\"error\": \"Invalid build id\"}");
+        }
+    }
+
+    /**
+     * Cancels a build job: a queued job is removed from the queue, a running one
+     * is stopped with all of its processes. The request needs "Authorization: Bearer &lt;token&gt;"
+     * with "ci.api.token"; without a token the endpoint is disabled.
+     */
+    private void handleCancelBuild(HttpServletRequest request, HttpServletResponse response, String target)
+            throws IOException {
+        response.setContentType("application/json");
+        if (apiToken.length == 0) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.getWriter().println("{\"error\": \"Cancelling builds is disabled, set ci.api.token\"}");
+            return;
         }
+        if (!isAuthorized(request)) {
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            response.getWriter().println("{\"error\": \"Invalid API token\"}");
+            return;
+        }
+        long jobId;
+        try {
+            jobId = Long.parseLong(target.substring("/api/builds/".length(), target.length() - "/cancel".length()));
+        } catch (NumberFormatException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().println("{\"error\": \"Invalid build id\"}");
+            return;
+        }
+        String state = JobQueue.cancelJob(jobId, "Cancelled on request");
+        if (state == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.getWriter().println("{\"error\": \"Build is neither queued nor running\"}");
+            return;
+        }
+        // A running build stops asynchronously
+        response.setStatus("running".equals(state) ? HttpServletResponse.SC_ACCEPTED : HttpServletResponse.SC_OK);
+        response.getWriter().println(new JSONObject().put("id", jobId).put("cancelled", state));
+    }
+
+    private static boolean isAuthorized(HttpServletRequest request) {
+        String header = request.getHeader("Authorization");
+        return header != null && header.startsWith("Bearer ") && MessageDigest.isEqual(
+                header.substring("Bearer ".length()).trim().getBytes(StandardCharsets.UTF_8), apiToken);
+    }
+
+    /**
+     * Returns queue and worker metrics in JSON format.
+     */
+    private void handleMetrics(HttpServletResponse response) throws IOException {
+        JSONObject metrics = new JSONObject();
+        metrics.put("webhooks", WebhookHandler.getMetrics());
+        metrics.put("queue", JobQueue.getMetrics());
+        metrics.put("agents", agentCoordinator.getMetrics());
+        metrics.put("watchdog", BuildWatchdog.getShared().getMetrics());
+        metrics.put("sandbox", BuildManager.getSandboxMetrics());
+        metrics.put("logViewers", LogStreamer.getViewerCount());
+        metrics.put("resultWriter", BuildManager.getResultWriterMetrics());
+        metrics.put("buildCache", BuildManager.getTestResultDAO().getMetrics());
+        metrics.put("statusReporter", StatusReporter.getShared().getMetrics());
+        metrics.put("pendingStatuses", BuildManager.getLifecycle().getMetrics());
+        metrics.put("connectionPool", HibernateUtil.getPoolMetrics(HibernateUtil.getSessionFactory()));
+        response.setContentType("application/json");
+        response.getWriter().println(metrics.toString());
     }
 
     /**
@@ -140,53 +259,4 @@ public class ContinuousIntegrationServer extends AbstractHandler {
             response.getWriter().println("{\"error\": \"Failed to load history page\"}");
         }
     }
-
-    /**
-     * Serves an HTML page for a specific build's details.
-     */
-    private void handleBuildHistory(HttpServletResponse response) throws IOException {
-        List<TestResultEntity> buildResults = testResultDAO.getAllTestResults();
-        System.out.println("Building history page with " + buildResults.size() + " entries."); // 添加日志
-
-        StringBuilder html = new StringBuilder("<html><body><h2>Build History</h2><ul>");
-        for (TestResultEntity result : buildResults) {
-            html.append("<li><a href='/builds/")
-                    .append(result.getCommitSha())
-                    .append("'>")
-                    .append(result.getCommitSha())
-                    .append("</a> - ")
-                    .append(result.getStatus().toString())
-                    .append(" - ")
-                    .append(result.getTimestamp())
-                    .append("</li>");
-        }
-        html.append("</ul></body></html>");
-
-        response.getWriter().println(html.toString());
-    }
-
-    private void serveBuildDetailsPage(HttpServletResponse response, String commitSha) throws IOException {
-        TestResultEntity result = testResultDAO.getTestResultByCommitSha(commitSha);
-
-        if (result == null) {
-            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-            response.getWriter().println("<html><body><h2>Build Not Found</h2></body></html>");
-            return;
-        }
-
-        StringBuilder html = new StringBuilder("<html><body>");
-        html.append("<h2>Build Details</h2>");
-        html.append("<p><strong>Commit SHA:</strong> ").append(result.getCommitSha()).append("</p>");
-        html.append("<p><strong>Status:</strong> ").append(result.getStatus()).append("</p>");
-        html.append("<p><strong>Timestamp:</strong> ").append(result.getTimestamp()).append("</p>");
-//        html.append("<h3>Test Log:</h3><pre>").append(result.getTestLog()).append("</pre>");
-        html.append("<a href='/api/history'>Back to Build History</a>");
-        html.append("</body></html>");
-
-        response.getWriter().println(html.toString());
-    }
-
-
 }
-
-
@@ -0,0 +1,181 @@
+package com.group21.ci;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * FairSharePolicy orders waiting jobs by priority class, then shares the workers
+ * fairly between repositories.
+ * - Jobs of a higher JobPriority start first: default-branch builds before
+ *   pull-request builds before other branches.
+ * - Aging: for every "ci.schedule.agingMinutes" (default: 10) a job waits, it
+ *   moves up one class, so a flood of default-branch builds cannot starve the
+ *   rest forever.
+ * - Within a class, repositories get workers by weighted fair queuing: every
+ *   started job advances the virtual time of its repository by 1/weight, and the
+ *   repository that is furthest behind goes next. A repository that was idle
+ *   starts at the current virtual time, so it cannot save up a share. Within a
+ *   repository, jobs keep their queue order.
+ * - Caps: a repository runs at most "ci.schedule.maxRunningPerRepo" (default: 0,
+ *   no cap) jobs at once. Default-branch builds are exempt, so merge-blocking
+ *   builds never wait behind the feature branches of their own repository.
+ * - Weights and caps of single repositories are set by "ci.schedule.repos", e.g.
+ *   "team/app:weight=3,maxRunning=4;team/docs:weight=0.5" (default weight: 1).
+ */
+public class FairSharePolicy implements SchedulingPolicy {
+    private final long agingMillis;
+    private final int defaultMaxRunning;
+    private final Map<String, Share> shares;
+
+    // Repositories whose virtual time is ahead of the clock; others are at the clock
+    private final Map<String, Double> virtualTimes = new HashMap<>();
+    private double virtualClock;
+    private final Map<String, Integer> runningByRepo = new HashMap<>();
+
+    /**
+     * The configured share of a repository.
+     */
+    private static class Share {
+        final double weight;
+        final int maxRunning;
+
+        Share(double weight, int maxRunning) {
+            this.weight = weight;
+            this.maxRunning = maxRunning;
+        }
+    }
+
+    /**
+     * Creates a FairSharePolicy configured from the CI settings.
+     */
+    public FairSharePolicy() {
+        this(CiConfig.getLong("ci.schedule.agingMinutes", 10) * 60_000,
+                CiConfig.getInt("ci.schedule.maxRunningPerRepo", 0),
+                CiConfig.getString("ci.schedule.repos", ""));
+    }
+
+    /**
+     * @param agingMillis       How long a job waits before it moves up one priority class, 0 to disable aging.
+     * @param maxRunningPerRepo The number of jobs a repository may run at once, 0 for no cap.
+     * @param repoSpecification Weights and caps of single repositories, "owner/repo:weight=N,maxRunning=N;...".
+     * @throws IllegalArgumentException If the specification is malformed.
+     */
+    public FairSharePolicy(long agingMillis, int maxRunningPerRepo, String repoSpecification) {
+        this.agingMillis = Math.max(0, agingMillis);
+        this.defaultMaxRunning = Math.max(0, maxRunningPerRepo);
+        this.shares = parseShares(repoSpecification);
+    }
+
+    @Override
+    public JobQueue.BuildJob select(List<JobQueue.BuildJob> waiting, long nowMillis) {
+        JobQueue.BuildJob best = null;
+        int bestClass = 0;
+        double bestTime = 0;
+        for (JobQueue.BuildJob job : waiting) {
+            String repo = repoKey(job);
+            if (job.priority != JobPriority.DEFAULT_BRANCH && isAtCap(repo)) {
+                continue;
+            }
+            int priorityClass = effectiveClass(job, nowMillis);
+            double time = virtualTimes.getOrDefault(repo, virtualClock);
+            // Strict comparisons keep the earlier job on ties
+            if (best == null || priorityClass < bestClass || (priorityClass == bestClass && time < bestTime)) {
+                best = job;
+                bestClass = priorityClass;
+                bestTime = time;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public void started(JobQueue.BuildJob job) {
+        String repo = repoKey(job);
+        double start = virtualTimes.getOrDefault(repo, virtualClock);
+        virtualClock = Math.max(virtualClock, start);
+        virtualTimes.put(repo, start + 1 / shareOf(repo).weight);
+        // Repositories the clock caught up with behave as if they were new
+        virtualTimes.values().removeIf(time -> time <= virtualClock);
+        runningByRepo.merge(repo, 1, Integer::sum);
+    }
+
+    @Override
+    public void finished(JobQueue.BuildJob job) {
+        runningByRepo.computeIfPresent(repoKey(job), (repo, running) -> running > 1 ? running - 1 : null);
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("name", "fair");
+        metrics.put("runningByRepo", new TreeMap<>(runningByRepo));
+        return metrics;
+    }
+
+    /**
+     * The priority class of a job after aging; 0 is the highest.
+     */
+    int effectiveClass(JobQueue.BuildJob job, long nowMillis) {
+        int priorityClass = job.priority.ordinal();
+        if (agingMillis > 0) {
+            long waited = Math.max(0, nowMillis - job.enqueuedAtMillis);
+            priorityClass -= (int) Math.min(priorityClass, waited / agingMillis);
+        }
+        return priorityClass;
+    }
+
+    private boolean isAtCap(String repo) {
+        int maxRunning = shareOf(repo).maxRunning;
+        return maxRunning > 0 && runningByRepo.getOrDefault(repo, 0) >= maxRunning;
+    }
+
+    private Share shareOf(String repo) {
+        Share share = shares.get(repo);
+        return share != null ? share : new Share(1, defaultMaxRunning);
+    }
+
+    private static String repoKey(JobQueue.BuildJob job) {
+        return job.repoOwner + "/" + job.repoName;
+    }
+
+    /**
+     * Parses "owner/repo:weight=N,maxRunning=N;..." into shares.
+     *
+     * @throws IllegalArgumentException If the specification is malformed.
+     */
+    private Map<String, Share> parseShares(String specification) {
+        Map<String, Share> parsed = new HashMap<>();
+        for (String entry : specification.split(";")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int colon = entry.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Invalid repository share: " + entry);
+            }
+            double weight = 1;
+            int maxRunning = defaultMaxRunning;
+            for (String setting : entry.substring(colon + 1).split(",")) {
+                String[] pair = setting.trim().split("=");
+                try {
+                    if (pair.length == 2 && "weight".equals(pair[0].trim())) {
+                        weight = Double.parseDouble(pair[1].trim());
+                    } else if (pair.length == 2 && "maxRunning".equals(pair[0].trim())) {
+                        maxRunning = Integer.parseInt(pair[1].trim());
+                    } else {
+                        throw new IllegalArgumentException("Invalid repository share setting: " + setting);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid repository share setting: " + setting);
+                }
+            }
+            if (!(weight > 0) || maxRunning < 0) {
+                throw new IllegalArgumentException("Invalid repository share: " + entry);
+            }
+            parsed.put(entry.substring(0, colon).trim(), new Share(weight, maxRunning));
+        }
+        return parsed;
+    }
+}
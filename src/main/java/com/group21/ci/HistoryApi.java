@@ -0,0 +1,480 @@
+package com.group21.ci;
+
+import com.group21.ci.dao.BuildSummary;
+import com.group21.ci.dao.HistoryQuery;
+import com.group21.ci.dao.TestCaseResultDAO;
+import com.group21.ci.dao.TestResultDAO;
+import com.group21.ci.entity.BuildPhase;
+import com.group21.ci.entity.TestCaseResultEntity;
+import com.group21.ci.entity.TestResultEntity;
+import com.group21.ci.entity.TestStatus;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONWriter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * HistoryApi serves the build history endpoints as streamed JSON.
+ * - Rows are scrolled from the database and written to the response one at a
+ *   time, so memory use does not depend on the number of builds.
+ * - /api/history returns one page, /api/history/export every matching build
+ *   (e.g. for nightly dashboard imports) and /api/history/{id} one build with
+ *   all its test cases, /api/history/{id}/log its full log from the LogStore
+ *   (with HTTP Range support for reading parts of large logs).
+ * - /builds/{commitSha} renders the same build details as an HTML page.
+ * - Both single-build views carry an ETag; a matching If-None-Match is
+ *   answered with 304 and no body.
+ */
+public class HistoryApi {
+    private static final int WRITE_BUFFER_CHARS = 16 * 1024;
+
+    private final TestResultDAO testResultDAO;
+    private final TestCaseResultDAO testCaseResultDAO;
+    private final LogStore logStore;
+
+    /**
+     * Creates a HistoryApi on the production database.
+     */
+    public HistoryApi() {
+        this(new TestResultDAO(), new TestCaseResultDAO());
+    }
+
+    /**
+     * @param testResultDAO     Source of the builds.
+     * @param testCaseResultDAO Source of the test cases of a build.
+     */
+    public HistoryApi(TestResultDAO testResultDAO, TestCaseResultDAO testCaseResultDAO) {
+        this(testResultDAO, testCaseResultDAO, new LogStore());
+    }
+
+    /**
+     * @param testResultDAO     Source of the builds.
+     * @param testCaseResultDAO Source of the test cases of a build.
+     * @param logStore          Source of the build logs.
+     */
+    public HistoryApi(TestResultDAO testResultDAO, TestCaseResultDAO testCaseResultDAO, LogStore logStore) {
+        this.testResultDAO = testResultDAO;
+        this.testCaseResultDAO = testCaseResultDAO;
+        this.logStore = logStore;
+    }
+
+    /**
+     * Returns one page of the build history.
+     * - Filters: owner, repo, branch, status, from, to (ISO date or date-time).
+     * - Sorting: order=desc (newest first, default) or order=asc.
+     * - Paging: limit (default 50, max 500) and the cursor returned as "nextCursor".
+     */
+    public void handleHistory(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        HistoryQuery query = parseOrReject(request, response);
+        if (query == null) {
+            return;
+        }
+        response.setContentType("application/json;charset=utf-8");
+        try (Writer out = openWriter(response)) {
+            JSONWriter json = new JSONWriter(out);
+            json.object().key("builds").array();
+            String nextCursor = testResultDAO.streamBuilds(query, build -> writeBuild(json, build));
+            json.endArray().key("nextCursor").value(nextCursor == null ? JSONObject.NULL : nextCursor).endObject();
+        } catch (JSONException e) {
+            System.err.println("Streaming build history failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns all builds matching the same filters as handleHistory() as one
+     * JSON array, without paging.
+     */
+    public void handleExport(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        HistoryQuery query = parseOrReject(request, response);
+        if (query == null) {
+            return;
+        }
+        response.setContentType("application/json;charset=utf-8");
+        try (Writer out = openWriter(response)) {
+            JSONWriter json = new JSONWriter(out);
+            json.array();
+            long count = testResultDAO.exportBuilds(query, build -> writeBuild(json, build));
+            json.endArray();
+            System.out.println("Exported " + count + " builds");
+        } catch (JSONException e) {
+            // Usually the client went away; the scroll is closed by the DAO
+            System.err.println("Build history export aborted: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns one build, including its test log and all its test cases.
+     *
+     * @param buildId The id of the build, as given in the history.
+     */
+    public void handleBuildDetails(HttpServletRequest request, HttpServletResponse response, String buildId)
+            throws IOException {
+        TestResultEntity result = findBuild(response, buildId);
+        if (result == null) {
+            return;
+        }
+        if (notModified(request, response, etagOf(result, "json"))) {
+            return;
+        }
+
+        response.setContentType("application/json;charset=utf-8");
+        try (Writer out = openWriter(response)) {
+            JSONWriter json = new JSONWriter(out);
+            json.object()
+                    .key("id").value(result.getId())
+                    .key("commitSha").value(result.getCommitSha())
+                    .key("status").value(result.getStatus().toString())
+                    .key("timestamp").value(result.getTimestamp().toString())
+                    .key("repoOwner").value(nullable(result.getRepoOwner()))
+                    .key("repoName").value(nullable(result.getRepoName()))
+                    .key("branchName").value(nullable(result.getBranchName()))
+                    .key("testLog").value(result.getTestLog())
+                    .key("logHash").value(nullable(result.getLogHash()))
+                    .key("logSize").value(result.getLogSize() == null ? JSONObject.NULL : result.getLogSize())
+                    .key("peakMemoryBytes").value(result.getPeakMemoryBytes() == null
+                            ? JSONObject.NULL : result.getPeakMemoryBytes())
+                    .key("cpuMillis").value(result.getCpuMillis() == null ? JSONObject.NULL : result.getCpuMillis())
+                    .key("jobId").value(nullable(result.getJobId()));
+            writeLifecycle(json, result.getPhase(), result.getQueuedAt(), result.getStartedAt(),
+                    result.getTimestamp(), result.getStatus());
+            json.key("testCases").array();
+            testCaseResultDAO.forEachTestCase(result.getId(), testCase -> writeTestCase(json, testCase));
+            json.endArray().endObject();
+        } catch (JSONException e) {
+            System.err.println("Streaming build " + buildId + " failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the full log of a build as plain text.
+     * - A "Range: bytes=first-last" header (also "first-" and "-suffixLength")
+     *   returns only that part with 206 Partial Content; only the compressed
+     *   chunks covering the range are read.
+     * - The log is content-addressed, so its hash is its ETag.
+     *
+     * @param buildId The id of the build, as given in the history.
+     */
+    public void handleBuildLog(HttpServletRequest request, HttpServletResponse response, String buildId)
+            throws IOException {
+        TestResultEntity result = findBuild(response, buildId);
+        if (result == null) {
+            return;
+        }
+        if (!logStore.contains(result.getLogHash())) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.setContentType("application/json");
+            response.getWriter().println("{\"error\": \"No log archived for this build\"}");
+            return;
+        }
+        String hash = result.getLogHash();
+        if (notModified(request, response, "\"" + hash + "\"")) {
+            return;
+        }
+
+        long size = logStore.size(hash);
+        long[] range = parseRange(request.getHeader("Range"), size);
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setContentType("text/plain;charset=utf-8");
+        if (range == null) {
+            response.setContentLengthLong(size);
+            logStore.read(hash, 0, size, response.getOutputStream());
+            return;
+        }
+        if (range.length == 0) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader("Content-Range", "bytes */" + size);
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size);
+        response.setContentLengthLong(range[1] - range[0] + 1);
+        logStore.read(hash, range[0], range[1] - range[0] + 1, response.getOutputStream());
+    }
+
+    /**
+     * Parses a single-range "Range: bytes=..." header.
+     *
+     * @param header The header value, or null.
+     * @param size   The size of the log.
+     * @return null to send the whole log (no or unsupported header), an empty
+     * array if the range is not satisfiable, otherwise the first and last byte.
+     */
+    static long[] parseRange(String header, long size) {
+        if (header == null || !header.startsWith("bytes=") || header.contains(",")) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            long first;
+            long last;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    return new long[0];
+                }
+                first = Math.max(0, size - suffix);
+                last = size - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = dash == spec.length() - 1
+                        ? size - 1
+                        : Math.min(size - 1, Long.parseLong(spec.substring(dash + 1)));
+            }
+            if (first < 0 || first >= size || last < first) {
+                return new long[0];
+            }
+            return new long[]{first, last};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Serves an HTML page for a specific build's details, listing its test
+     * cases as they are read from the database.
+     *
+     * @param commitSha The commit the build ran for.
+     */
+    public void serveBuildDetailsPage(HttpServletRequest request, HttpServletResponse response, String commitSha)
+            throws IOException {
+        TestResultEntity result = testResultDAO.getTestResultByCommitSha(commitSha);
+
+        if (result == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.getWriter().println("<html><body><h2>Build Not Found</h2></body></html>");
+            return;
+        }
+        if (notModified(request, response, etagOf(result, "html"))) {
+            return;
+        }
+
+        response.setContentType("text/html;charset=utf-8");
+        try (Writer out = openWriter(response)) {
+            out.write("<html><body><h2>Build Details</h2>");
+            out.write("<p><strong>Commit SHA:</strong> " + escapeHtml(result.getCommitSha()) + "</p>");
+            out.write("<p><strong>Status:</strong> " + result.getStatus()
+                    + (result.getStatus() == TestStatus.PENDING ? " (" + result.getPhase() + ")" : "") + "</p>");
+            out.write("<p><strong>Timestamp:</strong> " + result.getTimestamp() + "</p>");
+            if (result.getJobId() != null) {
+                // The job id addresses the build in /api/builds/{jobId}/log and /cancel
+                out.write("<p><strong>Job:</strong> " + result.getJobId()
+                        + (result.getStatus() == TestStatus.PENDING
+                        ? " (<a href='/api/builds/" + result.getJobId() + "/log'>live log</a>)" : "") + "</p>");
+            }
+            if (result.getLogHash() != null) {
+                out.write("<p><a href='/api/history/" + result.getId() + "/log'>Full log</a> ("
+                        + result.getLogSize() + " bytes)</p>");
+            }
+            if (result.getPeakMemoryBytes() != null || result.getCpuMillis() != null) {
+                out.write("<p><strong>Peak memory:</strong> " + (result.getPeakMemoryBytes() == null ? "unknown"
+                        : result.getPeakMemoryBytes() / (1024 * 1024) + " MB") + ", <strong>CPU time:</strong> "
+                        + (result.getCpuMillis() == null ? "unknown" : result.getCpuMillis() + " ms") + "</p>");
+            }
+            out.write("<table border='1'><tr><th>Test</th><th>Outcome</th><th>Duration (ms)</th></tr>");
+            testCaseResultDAO.forEachTestCase(result.getId(), testCase -> {
+                try {
+                    out.write("<tr><td>" + escapeHtml(testCase.getClassName() + "." + testCase.getTestName())
+                            + "</td><td>" + testCase.getOutcome() + "</td><td>" + testCase.getDurationMillis()
+                            + "</td></tr>");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            out.write("</table><a href='/history'>Back to Build History</a></body></html>");
+        } catch (UncheckedIOException e) {
+            System.err.println("Streaming build page " + commitSha + " failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the history filters from the query string.
+     *
+     * @throws IllegalArgumentException If a parameter is malformed.
+     */
+    static HistoryQuery parseHistoryQuery(HttpServletRequest request) {
+        HistoryQuery query = new HistoryQuery()
+                .setRepoOwner(emptyToNull(request.getParameter("owner")))
+                .setRepoName(emptyToNull(request.getParameter("repo")))
+                .setBranchName(emptyToNull(request.getParameter("branch")))
+                .setFrom(parseTime(request.getParameter("from"), "from"))
+                .setTo(parseTime(request.getParameter("to"), "to"))
+                .setCursor(emptyToNull(request.getParameter("cursor")));
+
+        String status = emptyToNull(request.getParameter("status"));
+        if (status != null) {
+            try {
+                query.setStatus(TestStatus.valueOf(status.toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid status: " + status);
+            }
+        }
+
+        String order = emptyToNull(request.getParameter("order"));
+        if (order != null && !order.equalsIgnoreCase("asc") && !order.equalsIgnoreCase("desc")) {
+            throw new IllegalArgumentException("Invalid order: " + order);
+        }
+        query.setAscending("asc".equalsIgnoreCase(order));
+
+        String limit = emptyToNull(request.getParameter("limit"));
+        if (limit != null) {
+            try {
+                query.setLimit(Integer.parseInt(limit));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid limit: " + limit);
+            }
+        }
+        return query;
+    }
+
+    private TestResultEntity findBuild(HttpServletResponse response, String buildId) throws IOException {
+        TestResultEntity result;
+        try {
+            result = testResultDAO.getTestResultById(Long.parseLong(buildId));
+        } catch (NumberFormatException e) {
+            result = null;
+        }
+        if (result == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.setContentType("application/json");
+            response.getWriter().println("{\"error\": \"Build not found\"}");
+        }
+        return result;
+    }
+
+    private static HistoryQuery parseOrReject(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        try {
+            return parseHistoryQuery(request);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.setContentType("application/json");
+            response.getWriter().println(new JSONObject().put("error", e.getMessage()).toString());
+            return null;
+        }
+    }
+
+    /**
+     * The entity tag of a build view. A stored build only changes with its
+     * status and phase, and later when RetentionJob clears its test_log, so
+     * id, status, phase and the length of the test log identify its content.
+     */
+    static String etagOf(TestResultEntity result, String view) {
+        return "\"" + result.getId() + "-" + result.getStatus() + "-" + result.getPhase() + "-"
+                + result.getTestLog().length() + "-" + view + "\"";
+    }
+
+    /**
+     * Sets the ETag and answers 304 Not Modified if the client already has it.
+     *
+     * @return true if the response is complete.
+     */
+    private static boolean notModified(HttpServletRequest request, HttpServletResponse response, String etag) {
+        response.setHeader("ETag", etag);
+        // Clients may keep the view but must revalidate it, since the status can change
+        response.setHeader("Cache-Control", "no-cache");
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A buffered writer on the raw output stream: unlike the servlet's
+     * PrintWriter it reports a disconnected client as an exception, which
+     * stops the database scroll.
+     */
+    private static Writer openWriter(HttpServletResponse response) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8),
+                WRITE_BUFFER_CHARS);
+    }
+
+    private static void writeBuild(JSONWriter json, BuildSummary build) {
+        json.object()
+                .key("id").value(build.getId())
+                .key("commitSha").value(build.getCommitSha())
+                .key("status").value(build.getStatus().toString())
+                .key("timestamp").value(build.getTimestamp().toString())
+                .key("repoOwner").value(nullable(build.getRepoOwner()))
+                .key("repoName").value(nullable(build.getRepoName()))
+                .key("branchName").value(nullable(build.getBranchName()))
+                .key("jobId").value(nullable(build.getJobId()));
+        writeLifecycle(json, build.getPhase(), build.getQueuedAt(), build.getStartedAt(), build.getTimestamp(),
+                build.getStatus());
+        json.endObject();
+    }
+
+    /**
+     * Writes the phase of a build and how long it waited in the queue and ran;
+     * the build time is only known once the build is done.
+     */
+    private static void writeLifecycle(JSONWriter json, BuildPhase phase, LocalDateTime queuedAt,
+                                       LocalDateTime startedAt, LocalDateTime timestamp, TestStatus status) {
+        json.key("phase").value(phase == null ? JSONObject.NULL : phase.toString())
+                .key("queueMillis").value(queuedAt == null || startedAt == null
+                        ? JSONObject.NULL
+                        : Duration.between(queuedAt, startedAt).toMillis())
+                .key("buildMillis").value(startedAt == null || status == TestStatus.PENDING
+                        ? JSONObject.NULL
+                        : Duration.between(startedAt, timestamp).toMillis());
+    }
+
+    private static void writeTestCase(JSONWriter json, TestCaseResultEntity testCase) {
+        json.object()
+                .key("className").value(testCase.getClassName())
+                .key("testName").value(testCase.getTestName())
+                .key("durationMillis").value(testCase.getDurationMillis())
+                .key("outcome").value(testCase.getOutcome().toString())
+                .endObject();
+    }
+
+    private static String escapeHtml(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+                .replace("\"", "&quot;").replace("'", "&#39;");
+    }
+
+    private static Object nullable(Object value) {
+        return value == null ? JSONObject.NULL : value;
+    }
+
+    private static LocalDateTime parseTime(String value, String name) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return value.contains("T") ? LocalDateTime.parse(value) : LocalDate.parse(value).atStartOfDay();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+}
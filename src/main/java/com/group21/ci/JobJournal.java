@@ -0,0 +1,556 @@
+package com.group21.ci;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * JobJournal makes the job queue durable: every change of a job is appended
+ * to a memory-mapped journal file, and the jobs that were queued or running
+ * are recovered from it on startup.
+ * - An append is a copy into the mapped file, without a system call, so it
+ *   takes microseconds. Once written, a record survives a crash of the server
+ *   process because the kernel owns the pages.
+ * - A background thread forces the written records to disk every
+ *   "ci.queue.fsyncMillis" milliseconds (default: 20), committing all records
+ *   of that interval with one fsync; that bounds what an OS crash can lose.
+ * - Every record carries a CRC, so a record torn by a crash ends the journal.
+ * - Records of finished jobs are dropped by compaction, which rewrites the
+ *   live jobs into a second file on the background thread, without holding the
+ *   lock; the records appended meanwhile are copied over when it replaces the
+ *   journal. It runs after a group commit once the file ("ci.queue.journalKiB"
+ *   KiB, default: 4096) is half full, or right away when an append does not fit,
+ *   and grows the file if the live jobs need it. Until it replaces a full file,
+ *   the records are kept in memory only.
+ *
+ * The journal lives in "ci.queue.journal" (default: "job-journal/jobs.journal").
+ */
+public class JobJournal implements Closeable {
+    private static final int MAGIC = 0x43494A51; // "CIJQ"
+    private static final int HEADER_SIZE = 8;
+    private static final byte ENQUEUED = 1;
+    private static final byte SUPERSEDED = 2;
+    private static final byte STARTED = 3;
+    private static final byte FINISHED = 4;
+
+    private final File file;
+    private final File compactedFile;
+    private final long fsyncMillis;
+
+    // Guarded by this
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private final Map<Long, Entry> live = new LinkedHashMap<>();
+    private ScheduledExecutorService flusher;
+    // Records appended while a compaction writes the second file, or null
+    private List<byte[]> carried;
+    // Set once an append did not fit; the records wait in live for the compaction
+    private boolean full;
+
+    private volatile boolean dirty;
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong forced = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+
+    /**
+     * A job that was queued or running when the journal was last written.
+     */
+    public static class Entry {
+        private final long id;
+        private final String repoOwner;
+        private final String repoName;
+        private String commitSHA;
+        private final String branchName;
+        private final long enqueuedAtMillis;
+        private final JobPriority priority;
+        private int attempts;
+
+        Entry(long id, String repoOwner, String repoName, String commitSHA, String branchName,
+              long enqueuedAtMillis, JobPriority priority, int attempts) {
+            this.id = id;
+            this.repoOwner = repoOwner;
+            this.repoName = repoName;
+            this.commitSHA = commitSHA;
+            this.branchName = branchName;
+            this.enqueuedAtMillis = enqueuedAtMillis;
+            this.priority = priority;
+            this.attempts = attempts;
+        }
+
+        public long getId() { return id; }
+        public String getRepoOwner() { return repoOwner; }
+        public String getRepoName() { return repoName; }
+        public String getCommitSHA() { return commitSHA; }
+        public String getBranchName() { return branchName; }
+        public long getEnqueuedAtMillis() { return enqueuedAtMillis; }
+        public JobPriority getPriority() { return priority; }
+
+        /** @return How often a worker started the job; more than 0 means it was interrupted while running. */
+        public int getAttempts() { return attempts; }
+    }
+
+    /**
+     * Creates a JobJournal configured from the CI settings.
+     */
+    public JobJournal() {
+        this(new File(CiConfig.getString("ci.queue.journal", "job-journal/jobs.journal")),
+                CiConfig.getInt("ci.queue.journalKiB", 4096) * 1024,
+                CiConfig.getLong("ci.queue.fsyncMillis", 20));
+    }
+
+    /**
+     * @param file        The journal file.
+     * @param capacity    The initial size of the file in bytes.
+     * @param fsyncMillis The interval of the group commit.
+     */
+    public JobJournal(File file, int capacity, long fsyncMillis) {
+        this.file = file;
+        this.compactedFile = new File(file.getPath() + ".compact");
+        this.capacity = Math.max(4096, capacity);
+        this.fsyncMillis = Math.max(1, fsyncMillis);
+    }
+
+    /**
+     * Opens the journal, reads the jobs that were not finished and starts the group commit.
+     *
+     * @return The jobs that were queued or running, in the order they were queued.
+     */
+    public synchronized List<Entry> recover() throws IOException {
+        if (channel != null) {
+            throw new IllegalStateException("Journal already open");
+        }
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        if (file.isFile()) {
+            capacity = (int) Math.max(capacity, file.length());
+            map(file);
+            readRecords();
+        }
+        // Start from a clean file without finished jobs or a torn tail
+        List<byte[]> records = snapshot();
+        install(writeCompacted(records, grow(records)));
+
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "job-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, fsyncMillis, fsyncMillis, TimeUnit.MILLISECONDS);
+        return new ArrayList<>(live.values());
+    }
+
+    /**
+     * Records a new job.
+     */
+    public void enqueued(long id, String repoOwner, String repoName, String commitSHA, String branchName,
+                         long enqueuedAtMillis, JobPriority priority) {
+        Entry entry = new Entry(id, repoOwner, repoName, commitSHA, branchName, enqueuedAtMillis, priority, 0);
+        synchronized (this) {
+            live.put(id, entry);
+            append(encodeEnqueued(entry));
+        }
+    }
+
+    /**
+     * Records that the commit of a queued job was replaced by a newer one.
+     */
+    public void superseded(long id, String commitSHA) {
+        byte[] sha = commitSHA.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(1 + 8 + 2 + sha.length);
+        record.put(SUPERSEDED).putLong(id).putShort((short) sha.length).put(sha);
+        synchronized (this) {
+            Entry entry = live.get(id);
+            if (entry != null) {
+                entry.commitSHA = commitSHA;
+            }
+            append(record.array());
+        }
+    }
+
+    /**
+     * Records that a worker started the job.
+     */
+    public void started(long id) {
+        synchronized (this) {
+            Entry entry = live.get(id);
+            if (entry != null) {
+                entry.attempts++;
+            }
+            append(ByteBuffer.allocate(9).put(STARTED).putLong(id).array());
+        }
+    }
+
+    /**
+     * Records that the job is finished (or given up); it is not recovered any more.
+     */
+    public void finished(long id) {
+        synchronized (this) {
+            live.remove(id);
+            append(ByteBuffer.allocate(9).put(FINISHED).putLong(id).array());
+        }
+    }
+
+    /**
+     * Forces the journal to disk and closes it.
+     */
+    @Override
+    public void close() {
+        ScheduledExecutorService stopping;
+        synchronized (this) {
+            stopping = flusher;
+            flusher = null;
+        }
+        if (stopping != null) {
+            stopping.shutdownNow();
+            try {
+                stopping.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (channel == null) {
+                return;
+            }
+            if (full) {
+                // The last records are only in memory
+                try {
+                    List<byte[]> records = snapshot();
+                    install(writeCompacted(records, grow(records)));
+                } catch (IOException e) {
+                    System.err.println("Compacting the job journal failed, recent jobs are not durable: "
+                            + e.getMessage());
+                }
+            }
+            buffer.force();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Closing the job journal failed: " + e.getMessage());
+            }
+            channel = null;
+            buffer = null;
+        }
+    }
+
+    /**
+     * @return Counters and fill level of the journal.
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        synchronized (this) {
+            metrics.put("liveJobs", live.size());
+            metrics.put("usedBytes", buffer == null ? 0 : buffer.position());
+            metrics.put("capacityBytes", capacity);
+        }
+        metrics.put("appended", appended.get());
+        metrics.put("fsyncs", forced.get());
+        metrics.put("compactions", compactions.get());
+        return metrics;
+    }
+
+    /**
+     * Writes a record at the end of the journal, unless it is full.
+     */
+    private void append(byte[] body) {
+        if (buffer == null) {
+            return;
+        }
+        appended.incrementAndGet();
+        if (carried != null) {
+            carried.add(body);
+        }
+        if (full || !fits(buffer, body)) {
+            // Live already holds the record, and the compaction writes all of live
+            if (!full && flusher != null) {
+                flusher.execute(this::flush);
+            }
+            full = true;
+            return;
+        }
+        write(buffer, body);
+        dirty = true;
+    }
+
+    /**
+     * @return true if the record fits, keeping room for the zero length that marks the end.
+     */
+    private static boolean fits(ByteBuffer target, byte[] body) {
+        return target.remaining() >= 4 + body.length + 4 + 4;
+    }
+
+    /**
+     * Writes a record at the position of the buffer. The length prefix is written
+     * last, so a record cut off by a crash is never read.
+     */
+    private static void write(ByteBuffer target, byte[] body) {
+        int start = target.position();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        target.position(start + 4);
+        target.put(body);
+        target.putInt((int) crc.getValue());
+        target.putInt(start, body.length);
+    }
+
+    /**
+     * The group commit: one fsync for everything appended since the last one.
+     * It runs outside the lock, so appends never wait for the disk. Compacts
+     * the journal once it is half full or an append did not fit.
+     */
+    private void flush() {
+        MappedByteBuffer current;
+        boolean compact;
+        synchronized (this) {
+            if (buffer == null) {
+                return;
+            }
+            compact = full || buffer.position() > capacity / 2;
+            if (!dirty && !compact) {
+                return;
+            }
+            dirty = false;
+            current = buffer;
+        }
+        current.force();
+        forced.incrementAndGet();
+        if (compact) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the live jobs into the second file while appends go on, then
+     * copies the records appended meanwhile over and swaps the files under the lock.
+     * Runs on the flusher thread only.
+     */
+    private void compact() {
+        List<byte[]> records;
+        int size;
+        synchronized (this) {
+            records = snapshot();
+            size = grow(records);
+            carried = new ArrayList<>();
+        }
+        Compacted compacted = null;
+        try {
+            compacted = writeCompacted(records, size);
+            synchronized (this) {
+                if (buffer == null) {
+                    // Closed meanwhile
+                    return;
+                }
+                for (byte[] record : carried) {
+                    if (!fits(compacted.buffer, record)) {
+                        throw new IOException("Records appended during the compaction do not fit");
+                    }
+                    write(compacted.buffer, record);
+                }
+                dirty |= !carried.isEmpty();
+                install(compacted);
+                compacted = null;
+            }
+        } catch (IOException e) {
+            System.err.println("Compacting the job journal failed: " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                carried = null;
+            }
+            if (compacted != null) {
+                compacted.discard();
+            }
+        }
+    }
+
+    private void readRecords() {
+        if (buffer.getInt(0) != MAGIC) {
+            System.err.println("Ignoring job journal " + file + " with an unknown format");
+            return;
+        }
+        buffer.position(HEADER_SIZE);
+        while (buffer.remaining() >= 8) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining() - 4) {
+                break;
+            }
+            byte[] body = new byte[length];
+            buffer.get(body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if (buffer.getInt() != (int) crc.getValue()) {
+                System.err.println("Job journal ends with a torn record at " + start);
+                break;
+            }
+            apply(ByteBuffer.wrap(body));
+        }
+    }
+
+    private void apply(ByteBuffer record) {
+        byte type = record.get();
+        long id = record.getLong();
+        if (type == ENQUEUED) {
+            long enqueuedAtMillis = record.getLong();
+            int attempts = record.getInt();
+            String repoOwner = readString(record);
+            String repoName = readString(record);
+            String commitSHA = readString(record);
+            String branchName = readString(record);
+            // Journals written before jobs had a priority end here
+            JobPriority priority = record.hasRemaining()
+                    ? JobPriority.values()[record.get()]
+                    : JobPriority.of(branchName, null);
+            live.put(id, new Entry(id, repoOwner, repoName, commitSHA, branchName, enqueuedAtMillis,
+                    priority, attempts));
+        } else if (type == SUPERSEDED) {
+            Entry entry = live.get(id);
+            String commitSHA = readString(record);
+            if (entry != null) {
+                entry.commitSHA = commitSHA;
+            }
+        } else if (type == STARTED) {
+            Entry entry = live.get(id);
+            if (entry != null) {
+                entry.attempts++;
+            }
+        } else if (type == FINISHED) {
+            live.remove(id);
+        }
+    }
+
+    /**
+     * The second file of a compaction, mapped and positioned after its records.
+     */
+    private static class Compacted {
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        final int capacity;
+
+        Compacted(FileChannel channel, MappedByteBuffer buffer, int capacity) {
+            this.channel = channel;
+            this.buffer = buffer;
+            this.capacity = capacity;
+        }
+
+        void discard() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Closing the compacted job journal failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return The live jobs as records. Called with the lock held.
+     */
+    private List<byte[]> snapshot() {
+        List<byte[]> records = new ArrayList<>(live.size());
+        for (Entry entry : live.values()) {
+            records.add(encodeEnqueued(entry));
+        }
+        return records;
+    }
+
+    /**
+     * @return The file size at which the records fill at most half of the file. Called with the lock held.
+     */
+    private int grow(List<byte[]> records) {
+        long needed = HEADER_SIZE + 4;
+        for (byte[] record : records) {
+            needed += 4 + record.length + 4;
+        }
+        int size = capacity;
+        while (needed * 2 > size) {
+            size *= 2;
+        }
+        return size;
+    }
+
+    /**
+     * Writes the records into a fresh second file and forces it to disk.
+     */
+    private Compacted writeCompacted(List<byte[]> records, int size) throws IOException {
+        FileChannel target = FileChannel.open(compactedFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            MappedByteBuffer mapped = target.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            mapped.putInt(MAGIC).putInt(1);
+            for (byte[] record : records) {
+                write(mapped, record);
+            }
+            mapped.force();
+            return new Compacted(target, mapped, size);
+        } catch (IOException | RuntimeException e) {
+            target.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces the journal with the compacted file atomically. Called with the lock held.
+     */
+    private void install(Compacted compacted) throws IOException {
+        Files.move(compactedFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        FileChannel previous = channel;
+        channel = compacted.channel;
+        buffer = compacted.buffer;
+        capacity = compacted.capacity;
+        full = false;
+        compactions.incrementAndGet();
+        if (previous != null) {
+            try {
+                previous.close();
+            } catch (IOException e) {
+                System.err.println("Closing the replaced job journal failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void map(File source) throws IOException {
+        channel = FileChannel.open(source.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private static byte[] encodeEnqueued(Entry entry) {
+        byte[][] strings = {
+                entry.repoOwner.getBytes(StandardCharsets.UTF_8),
+                entry.repoName.getBytes(StandardCharsets.UTF_8),
+                entry.commitSHA.getBytes(StandardCharsets.UTF_8),
+                entry.branchName.getBytes(StandardCharsets.UTF_8)};
+        int size = 1 + 8 + 8 + 4 + 1;
+        for (byte[] string : strings) {
+            size += 2 + string.length;
+        }
+        ByteBuffer record = ByteBuffer.allocate(size);
+        record.put(ENQUEUED).putLong(entry.id).putLong(entry.enqueuedAtMillis).putInt(entry.attempts);
+        for (byte[] string : strings) {
+            record.putShort((short) string.length).put(string);
+        }
+        record.put((byte) entry.priority.ordinal());
+        return record.array();
+    }
+
+    private static String readString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getShort() & 0xFFFF];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,50 @@
+package com.group21.ci;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The priority classes of build jobs, highest first.
+ * - DEFAULT_BRANCH: the default branch of the repository, whose builds block merges.
+ * - PULL_REQUEST: branches under review. Push events do not tell whether a branch
+ *   has an open pull request, so these are the branches starting with one of the
+ *   prefixes in "ci.schedule.pullRequestBranches" (comma-separated, default: none).
+ * - OTHER: every other branch.
+ */
+public enum JobPriority {
+    DEFAULT_BRANCH, PULL_REQUEST, OTHER;
+
+    private static final List<String> DEFAULT_BRANCHES =
+            split(CiConfig.getString("ci.schedule.defaultBranches", "main,master"));
+    private static final List<String> PULL_REQUEST_PREFIXES =
+            split(CiConfig.getString("ci.schedule.pullRequestBranches", ""));
+
+    /**
+     * Classifies a branch.
+     *
+     * @param branchName    The pushed branch.
+     * @param defaultBranch The default branch of the repository as reported by GitHub, or null if
+     *                      unknown; then the branches in "ci.schedule.defaultBranches" (default:
+     *                      "main,master") are taken as default branches.
+     * @return The priority class of builds of the branch.
+     */
+    public static JobPriority of(String branchName, String defaultBranch) {
+        if (defaultBranch != null ? defaultBranch.equals(branchName) : DEFAULT_BRANCHES.contains(branchName)) {
+            return DEFAULT_BRANCH;
+        }
+        for (String prefix : PULL_REQUEST_PREFIXES) {
+            if (branchName.startsWith(prefix)) {
+                return PULL_REQUEST;
+            }
+        }
+        return OTHER;
+    }
+
+    private static List<String> split(String list) {
+        return Arrays.stream(list.split(","))
+                .map(String::trim)
+                .filter(value -> !value.isEmpty())
+                .collect(Collectors.toList());
+    }
+}
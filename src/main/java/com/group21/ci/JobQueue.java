@@ -1,40 +1,591 @@
 package com.group21.ci;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import com.group21.ci.entity.BuildPhase;
+import com.group21.ci.entity.TestStatus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
- * JobQueue manages CI jobs by adding them to a queue and processing them
- * asynchronously.
- * - Extracts repository owner and name from the GitHub URL.
- * - Creates a BuildJob and adds it to the queue.
- * - Starts a new BuildWorker thread to process each job.
+ * JobQueue manages CI jobs by adding them to a bounded queue that is drained by
+ * a fixed pool of long-lived BuildWorker threads.
+ * - Creates a BuildJob and adds it to the queue, rejecting it when the queue is full.
+ * - Lets a SchedulingPolicy pick the job a free worker builds next ("ci.schedule.policy",
+ *   default: priority classes with fair sharing between repositories, see FairSharePolicy).
+ * - Starts the worker pool lazily on the first job (or explicitly via start()).
+ * - Coalesces pending jobs per (owner, repo, branch): a newer commit replaces a
+ *   queued older one, which is reported to GitHub as superseded.
+ * - Optionally cancels a running build once a newer commit for its branch arrives.
+ * - Cancels queued or running jobs on request (POST /api/builds/{id}/cancel).
+ * - Reports queued jobs to GitHub as pending (see BuildLifecycle).
+ * - Records every job in a JobJournal, so queued and running jobs survive a
+ *   restart: on start() they are queued again, unless a worker already started
+ *   them "ci.queue.maxAttempts" times (default: 3), in which case they are
+ *   reported to GitHub as failed.
+ * - Hands jobs to remote BuildAgents as well (see AgentCoordinator); a job whose
+ *   agent was lost is queued again, counting as an attempt.
+ * - Keeps queue depth, wait-time and build-time metrics.
+ *
+ * Pool size and capacity are read from "ci.workers" (default: half the available
+ * cores; 0 leaves all builds to agents) and "ci.queue.capacity" (default: 100). Coalescing is controlled by
+ * "ci.coalesce" (default: true) and "ci.cancelSuperseded" (default: false).
  */
 public class JobQueue {
-    // A thread-safe queue to store build jobs
-    private static final BlockingQueue<BuildJob> queue = new LinkedBlockingQueue<>();
+    private static volatile Settings settings = Settings.fromConfig();
+    // Replaced by tests, which must not touch the database
+    private static volatile Supplier<BuildLifecycle> lifecycle = BuildManager::getLifecycle;
+
+    // Guarded by JobQueue.class
+    private static boolean started;
+    private static final List<Thread> workers = new ArrayList<>();
+    // Opened by start(); null while jobs are not durable (e.g. in tests)
+    private static volatile JobJournal journal;
+    // Journal records in the order of the queue changes: added under the lock, written after it
+    private static final Queue<Consumer<JobJournal>> journalRecords = new ConcurrentLinkedQueue<>();
+
+    // Waiting jobs in queue order, the policy choosing among them, queued and running
+    // jobs per branch key, and running jobs by id, all guarded by the lock below
+    private static final Object lock = new Object();
+    private static final List<BuildJob> waiting = new ArrayList<>();
+    private static SchedulingPolicy policy = SchedulingPolicy.fromConfig();
+    private static final Map<String, BuildJob> pendingByBranch = new HashMap<>();
+    private static final Map<String, BuildJob> runningByBranch = new HashMap<>();
+    private static final Map<Long, BuildJob> runningById = new HashMap<>();
+
+    // Seeded with the start time so that job ids (and their log files) stay unique across restarts
+    private static final AtomicLong nextJobId = new AtomicLong(System.currentTimeMillis());
+    private static final AtomicLong enqueuedJobs = new AtomicLong();
+    private static final AtomicLong rejectedJobs = new AtomicLong();
+    private static final AtomicLong supersededJobs = new AtomicLong();
+    private static final AtomicLong cancelledJobs = new AtomicLong();
+    private static final AtomicLong startedJobs = new AtomicLong();
+    private static final AtomicLong totalWaitMillis = new AtomicLong();
+    private static final AtomicLong maxWaitMillis = new AtomicLong();
+    private static final AtomicLongArray startedByPriority = new AtomicLongArray(JobPriority.values().length);
+    private static final AtomicLongArray waitMillisByPriority = new AtomicLongArray(JobPriority.values().length);
+    private static final AtomicLongArray maxWaitMillisByPriority = new AtomicLongArray(JobPriority.values().length);
+    private static final AtomicLong finishedJobs = new AtomicLong();
+    private static final AtomicLong totalBuildMillis = new AtomicLong();
+    private static final AtomicLong maxBuildMillis = new AtomicLong();
+    private static final AtomicInteger runningJobs = new AtomicInteger();
+    private static final AtomicLong recoveredJobs = new AtomicLong();
+    private static final AtomicLong abandonedJobs = new AtomicLong();
+    private static final AtomicLong reassignedJobs = new AtomicLong();
+
+    /**
+     * The settings of the queue.
+     */
+    static class Settings {
+        final int workerCount;
+        final int capacity;
+        final boolean coalesce;
+        final boolean cancelSuperseded;
+        final int maxAttempts;
+        final long killGraceMillis;
+
+        Settings(int workerCount, int capacity, boolean coalesce, boolean cancelSuperseded, int maxAttempts,
+                 long killGraceMillis) {
+            this.workerCount = Math.max(0, workerCount);
+            this.capacity = Math.max(1, capacity);
+            this.coalesce = coalesce;
+            this.cancelSuperseded = cancelSuperseded;
+            this.maxAttempts = Math.max(1, maxAttempts);
+            this.killGraceMillis = Math.max(0, killGraceMillis);
+        }
+
+        /**
+         * @return The settings configured in the CI settings.
+         */
+        static Settings fromConfig() {
+            return new Settings(
+                    CiConfig.getInt("ci.workers", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+                    CiConfig.getInt("ci.queue.capacity", 100),
+                    CiConfig.getBoolean("ci.coalesce", true),
+                    CiConfig.getBoolean("ci.cancelSuperseded", false),
+                    CiConfig.getInt("ci.queue.maxAttempts", 3),
+                    CiConfig.getLong("ci.build.killGraceSeconds", 10) * 1000);
+        }
+    }
+
+    /**
+     * Empties the queue and replaces its settings and lifecycle, leaving it without
+     * journal and workers, so that tests can run it in isolation.
+     *
+     * @param newSettings  The settings to use; workerCount is ignored.
+     * @param newLifecycle Receives the queued and cancelled jobs.
+     */
+    static void reset(Settings newSettings, BuildLifecycle newLifecycle) {
+        synchronized (JobQueue.class) {
+            started = true;
+        }
+        settings = newSettings;
+        lifecycle = () -> newLifecycle;
+        journal = null;
+        journalRecords.clear();
+        synchronized (lock) {
+            waiting.clear();
+            pendingByBranch.clear();
+            runningByBranch.clear();
+            runningById.clear();
+            policy = SchedulingPolicy.fromConfig();
+        }
+    }
 
     /**
-     * Adds a new CI job to the queue and starts a BuildWorker to process it.
-     * 
-     * @param repoOwner The owner username of the repository where the commit was pushed.
-     * @param repoName The name of the repository where the commit was pushed.
-     * @param commitSHA The commit SHA for which the CI job is triggered.
-     * @param branchName The name of the branch which the commit belongs to.
+     * Recovers the jobs of the journal and starts the worker pool if it is not running yet.
      */
+    public static synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        Settings current = settings;
+        recover(new JobJournal());
+        for (int i = 0; i < current.workerCount; i++) {
+            Thread worker = new Thread(new BuildWorker(), "build-worker-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+        System.out.println("Started " + current.workerCount + " build workers (queue capacity "
+                + current.capacity + ")");
+    }
+
+    /**
+     * Opens the journal and queues the jobs that were queued or running when
+     * the server stopped, in their original order. A job that was interrupted
+     * too often is given up, so a build that crashes the server cannot loop.
+     */
+    static void recover(JobJournal jobJournal) {
+        List<JobJournal.Entry> entries;
+        try {
+            entries = jobJournal.recover();
+        } catch (IOException e) {
+            System.err.println("Job journal unavailable, queued jobs will not survive a restart: " + e.getMessage());
+            return;
+        }
+        journal = jobJournal;
+        // Builds that were running when the server stopped will never finish
+        int cancelled = BuildManager.getTestResultDAO().cancelPendingBuilds();
+        if (cancelled > 0) {
+            System.out.println("Marked " + cancelled + " interrupted builds as cancelled");
+        }
+
+        for (JobJournal.Entry entry : entries) {
+            nextJobId.accumulateAndGet(entry.getId(), Math::max);
+            BuildJob job = new BuildJob(entry.getId(), entry.getRepoOwner(), entry.getRepoName(),
+                    entry.getCommitSHA(), entry.getBranchName(), entry.getPriority(), entry.getEnqueuedAtMillis());
+            job.attempts = entry.getAttempts();
+            boolean queued = false;
+            if (entry.getAttempts() < settings.maxAttempts) {
+                synchronized (lock) {
+                    queued = waiting.size() < settings.capacity;
+                    if (queued) {
+                        waiting.add(job);
+                        pendingByBranch.put(branchKey(job.repoOwner, job.repoName, job.branchName), job);
+                        lock.notifyAll();
+                    }
+                }
+            }
+            if (queued) {
+                recoveredJobs.incrementAndGet();
+                lifecycle.get().queued(job, job.commitSHA);
+            } else {
+                abandonedJobs.incrementAndGet();
+                jobJournal.finished(job.id);
+                StatusReporter.sendStatus(job.repoOwner, job.repoName, job.commitSHA, "error",
+                        "Build interrupted by " + entry.getAttempts() + " server restarts",
+                        lifecycle.get().targetUrl(job.commitSHA));
+            }
+        }
+        if (!entries.isEmpty()) {
+            System.out.println("Recovered " + recoveredJobs.get() + " jobs from the journal, gave up "
+                    + abandonedJobs.get());
+        }
+    }
+
+    /**
+     * Adds a new CI job to the queue, classifying its branch by the configured
+     * default branches (see JobPriority).
+     *
+     * @return true if the job was queued (or merged into a queued job), false if the queue is full.
+     */
+    public static boolean addJob(String repoOwner, String repoName, String commitSHA, String branchName) {
+        return addJob(repoOwner, repoName, commitSHA, branchName, JobPriority.of(branchName, null));
+    }
 
-     /**
-     * Adds a new CI job to the queue and starts a BuildWorker to process it.
-     * 
+    /**
+     * Adds a new CI job to the queue, to be picked up by a free BuildWorker.
+     * If a job for the same branch is still waiting, its commit is replaced by the
+     * new one instead of queueing a second build.
+     *
      * @param repoOwner  The owner username of the repository where the commit was pushed.
      * @param repoName   The name of the repository where the commit was pushed.
      * @param commitSHA  The commit SHA for which the CI job is triggered.
      * @param branchName The name of the branch to which the commit belongs.
+     * @param priority   The priority class of the branch.
+     * @return true if the job was queued (or merged into a queued job), false if the queue is full.
+     */
+    public static boolean addJob(String repoOwner, String repoName, String commitSHA, String branchName,
+                                 JobPriority priority) {
+        start();
+        Settings current = settings;
+        String key = branchKey(repoOwner, repoName, branchName);
+        String supersededSHA = null;
+        BuildJob runningToCancel = null;
+        BuildJob queued;
+
+        synchronized (lock) {
+            BuildJob running = runningByBranch.get(key);
+            if (current.coalesce && current.cancelSuperseded && running != null && !running.commitSHA.equals(commitSHA)) {
+                runningToCancel = running;
+            }
+
+            BuildJob pending = current.coalesce ? pendingByBranch.get(key) : null;
+            if (pending != null) {
+                if (!pending.commitSHA.equals(commitSHA)) {
+                    supersededSHA = pending.commitSHA;
+                    pending.commitSHA = commitSHA;
+                    supersededJobs.incrementAndGet();
+                    long pendingId = pending.id;
+                    journal(record -> record.superseded(pendingId, commitSHA));
+                }
+                queued = pending;
+            } else {
+                if (waiting.size() >= current.capacity) {
+                    rejectedJobs.incrementAndGet();
+                    System.err.println("Job queue is full (" + current.capacity + " jobs), rejecting commit " + commitSHA);
+                    return false;
+                }
+                BuildJob job = new BuildJob(repoOwner, repoName, commitSHA, branchName, priority);
+                waiting.add(job);
+                pendingByBranch.put(key, job);
+                enqueuedJobs.incrementAndGet();
+                journal(record -> record.enqueued(job.id, repoOwner, repoName, commitSHA, branchName,
+                        job.enqueuedAtMillis, priority));
+                lock.notifyAll();
+                queued = job;
+            }
+        }
+        writeJournal();
+        lifecycle.get().queued(queued, commitSHA);
+
+        if (supersededSHA != null) {
+            System.out.println("Commit " + supersededSHA + " on " + key + " superseded by " + commitSHA);
+            StatusReporter.sendStatus(repoOwner, repoName, supersededSHA, "error",
+                    "Superseded by " + commitSHA);
+        }
+        if (runningToCancel != null && runningToCancel.cancel()) {
+            cancelledJobs.incrementAndGet();
+            System.out.println("Cancelling running build of " + runningToCancel.commitSHA + " on " + key);
+        }
+        return true;
+    }
+
+    /**
+     * Blocks until the scheduling policy picks a job this host may build (see AgentLabels).
+     *
+     * @return The next job to build.
+     * @throws InterruptedException If the worker is interrupted while waiting.
+     */
+    static BuildJob takeJob() throws InterruptedException {
+        return takeJob(job -> AgentLabels.satisfies(AgentLabels.local(), AgentLabels.requirementsOf(job)), -1);
+    }
+
+    /**
+     * Waits until the scheduling policy picks one of the jobs a builder accepts
+     * and records how long it waited in the queue.
+     *
+     * @param eligible      The jobs the builder may build.
+     * @param timeoutMillis How long to wait at most, or a negative value to wait forever.
+     * @return The next job to build, or null if none came up in time.
+     * @throws InterruptedException If the builder is interrupted while waiting.
+     */
+    static BuildJob takeJob(Predicate<BuildJob> eligible, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        BuildJob job;
+        synchronized (lock) {
+            // Woken when a job is queued or a running one finishes (which may lift a cap)
+            while ((job = selectJob(eligible)) == null) {
+                if (timeoutMillis < 0) {
+                    lock.wait();
+                } else {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    lock.wait(remaining);
+                }
+            }
+            waiting.remove(job);
+            job.attempts++;
+            policy.started(job);
+            // From here on the commit of this job can no longer be replaced
+            String key = branchKey(job.repoOwner, job.repoName, job.branchName);
+            pendingByBranch.remove(key, job);
+            runningByBranch.put(key, job);
+            runningById.put(job.id, job);
+            long startedId = job.id;
+            journal(record -> record.started(startedId));
+        }
+        writeJournal();
+        job.startedAtNanos = System.nanoTime();
+        job.startedAtMillis = System.currentTimeMillis();
+        long waited = (job.startedAtNanos - job.enqueuedAtNanos) / 1_000_000;
+        startedJobs.incrementAndGet();
+        totalWaitMillis.addAndGet(waited);
+        maxWaitMillis.accumulateAndGet(waited, Math::max);
+        int priority = job.priority.ordinal();
+        startedByPriority.incrementAndGet(priority);
+        waitMillisByPriority.addAndGet(priority, waited);
+        maxWaitMillisByPriority.accumulateAndGet(priority, waited, Math::max);
+        runningJobs.incrementAndGet();
+        return job;
+    }
+
+    /**
+     * Lets the policy choose among the waiting jobs accepted by a builder. Called with the lock held.
+     */
+    private static BuildJob selectJob(Predicate<BuildJob> eligible) {
+        List<BuildJob> candidates = new ArrayList<>(waiting.size());
+        for (BuildJob job : waiting) {
+            if (eligible.test(job)) {
+                candidates.add(job);
+            }
+        }
+        return policy.select(candidates, System.currentTimeMillis());
+    }
+
+    /**
+     * Puts a job taken by takeJob() back into the queue because its builder was
+     * lost, ahead of the jobs queued after it. A job that was cancelled in the
+     * meantime or already started "ci.queue.maxAttempts" times is given up and
+     * reported to GitHub instead.
+     *
+     * @param job The job.
+     * @return true if the job was queued again.
+     */
+    static boolean requeue(BuildJob job) {
+        boolean requeued;
+        synchronized (lock) {
+            String key = branchKey(job.repoOwner, job.repoName, job.branchName);
+            runningByBranch.remove(key, job);
+            runningById.remove(job.id);
+            policy.finished(job);
+            requeued = !job.isCancelled() && job.attempts < settings.maxAttempts;
+            if (requeued) {
+                waiting.add(0, job);
+                // A newer commit of the branch queued meanwhile keeps its own job
+                pendingByBranch.putIfAbsent(key, job);
+                reassignedJobs.incrementAndGet();
+            } else {
+                abandonedJobs.incrementAndGet();
+                journal(record -> record.finished(job.id));
+            }
+            lock.notifyAll();
+        }
+        writeJournal();
+        runningJobs.decrementAndGet();
+
+        String targetUrl = lifecycle.get().targetUrl(job.commitSHA);
+        if (requeued) {
+            System.out.println("Queued job " + job.id + " (" + job.commitSHA + ") again after its builder was lost");
+        } else if (job.isCancelled()) {
+            StatusReporter.sendStatus(job.repoOwner, job.repoName, job.commitSHA, "error",
+                    job.getCancelReason(), targetUrl);
+        } else {
+            StatusReporter.sendStatus(job.repoOwner, job.repoName, job.commitSHA, "error",
+                    "Build interrupted " + job.attempts + " times", targetUrl);
+        }
+        return requeued;
+    }
+
+    /**
+     * Cancels a queued or running job on request. A queued job leaves the queue
+     * and is stored as CANCELLED right away; a running job is stopped together
+     * with its processes and stored as CANCELLED by its builder (an agent learns
+     * of it with its next heartbeat).
+     *
+     * @param jobId  The id of the job.
+     * @param reason Why the job is cancelled; reported to GitHub.
+     * @return "queued" or "running" for the state the job was in, or null if it is neither queued nor running.
+     */
+    static String cancelJob(long jobId, String reason) {
+        BuildJob queued = null;
+        BuildJob running;
+        synchronized (lock) {
+            running = runningById.get(jobId);
+            for (BuildJob job : waiting) {
+                if (job.id == jobId) {
+                    queued = job;
+                    break;
+                }
+            }
+            if (queued != null) {
+                waiting.remove(queued);
+                pendingByBranch.remove(branchKey(queued.repoOwner, queued.repoName, queued.branchName), queued);
+                queued.cancel(reason);
+                long cancelledId = queued.id;
+                journal(record -> record.finished(cancelledId));
+            }
+        }
+        writeJournal();
+
+        if (queued != null) {
+            cancelledJobs.incrementAndGet();
+            System.out.println("Cancelled queued job " + jobId + " (" + queued.commitSHA + "): " + reason);
+            lifecycle.get().cancelled(queued);
+            BuildWorker.reportStatus(queued, false);
+            return "queued";
+        }
+        if (running == null) {
+            return null;
+        }
+        if (running.cancel(reason)) {
+            cancelledJobs.incrementAndGet();
+            System.out.println("Cancelling running job " + jobId + " (" + running.commitSHA + "): " + reason);
+        }
+        return "running";
+    }
+
+    /**
+     * Marks a job taken by takeJob() as finished.
+     *
+     * @param job The finished job.
      */
-    public static void addJob(String repoOwner, String repoName, String commitSHA, String branchName) {
-        BuildJob job = new BuildJob(repoOwner, repoName, commitSHA, branchName);
-        queue.add(job);
-        new Thread(new BuildWorker(job)).start();
+    static void jobFinished(BuildJob job) {
+        synchronized (lock) {
+            runningByBranch.remove(branchKey(job.repoOwner, job.repoName, job.branchName), job);
+            runningById.remove(job.id);
+            policy.finished(job);
+            journal(record -> record.finished(job.id));
+            lock.notifyAll();
+        }
+        writeJournal();
+        long built = (System.nanoTime() - job.startedAtNanos) / 1_000_000;
+        finishedJobs.incrementAndGet();
+        totalBuildMillis.addAndGet(built);
+        maxBuildMillis.accumulateAndGet(built, Math::max);
+        runningJobs.decrementAndGet();
+    }
+
+    /**
+     * Adds a journal record in the order of the queue change. Called with the lock held.
+     */
+    private static void journal(Consumer<JobJournal> record) {
+        if (journal != null) {
+            journalRecords.add(record);
+        }
+    }
+
+    /**
+     * Writes the journal records added so far, in order. Called after releasing the
+     * lock, so that the journal never holds up builders and webhooks waiting for it.
+     */
+    private static void writeJournal() {
+        JobJournal current = journal;
+        synchronized (journalRecords) {
+            Consumer<JobJournal> record;
+            while ((record = journalRecords.poll()) != null) {
+                record.accept(current);
+            }
+        }
+    }
+
+    /**
+     * Builds the key under which jobs of the same branch are coalesced.
+     */
+    private static String branchKey(String repoOwner, String repoName, String branchName) {
+        return repoOwner + "/" + repoName + "#" + branchName;
+    }
+
+    /**
+     * @return The number of jobs waiting for a worker.
+     */
+    public static int getQueueDepth() {
+        synchronized (lock) {
+            return waiting.size();
+        }
+    }
+
+    /**
+     * @return true if no further job fits into the queue.
+     */
+    public static boolean isFull() {
+        return getQueueDepth() >= settings.capacity;
+    }
+
+    /**
+     * Returns a snapshot of the queue metrics for the metrics endpoint.
+     *
+     * @return Metric names mapped to their current values.
+     */
+    public static Map<String, Object> getMetrics() {
+        long started = startedJobs.get();
+        long finished = finishedJobs.get();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        Settings configured = settings;
+        metrics.put("workers", configured.workerCount);
+        metrics.put("capacity", configured.capacity);
+        metrics.put("depth", getQueueDepth());
+        metrics.put("running", runningJobs.get());
+        metrics.put("enqueued", enqueuedJobs.get());
+        metrics.put("rejected", rejectedJobs.get());
+        metrics.put("superseded", supersededJobs.get());
+        metrics.put("cancelled", cancelledJobs.get());
+        metrics.put("started", started);
+        metrics.put("avgWaitMillis", started == 0 ? 0 : totalWaitMillis.get() / started);
+        metrics.put("maxWaitMillis", maxWaitMillis.get());
+        Map<String, Object> waitByPriority = new LinkedHashMap<>();
+        for (JobPriority priority : JobPriority.values()) {
+            long startedOfClass = startedByPriority.get(priority.ordinal());
+            Map<String, Object> waits = new LinkedHashMap<>();
+            waits.put("started", startedOfClass);
+            waits.put("avgWaitMillis", startedOfClass == 0 ? 0
+                    : waitMillisByPriority.get(priority.ordinal()) / startedOfClass);
+            waits.put("maxWaitMillis", maxWaitMillisByPriority.get(priority.ordinal()));
+            waitByPriority.put(priority.name(), waits);
+        }
+        metrics.put("waitByPriority", waitByPriority);
+        synchronized (lock) {
+            metrics.put("scheduling", policy.getMetrics());
+            // Queued jobs have no build row yet; their ids are needed to cancel them
+            List<Map<String, Object>> queuedJobs = new ArrayList<>(waiting.size());
+            for (BuildJob job : waiting) {
+                Map<String, Object> queuedJob = new LinkedHashMap<>();
+                queuedJob.put("jobId", job.id);
+                queuedJob.put("repository", job.repoOwner + "/" + job.repoName);
+                queuedJob.put("branchName", job.branchName);
+                queuedJob.put("commitSha", job.commitSHA);
+                queuedJobs.add(queuedJob);
+            }
+            metrics.put("queuedJobs", queuedJobs);
+        }
+        metrics.put("finished", finished);
+        metrics.put("avgBuildMillis", finished == 0 ? 0 : totalBuildMillis.get() / finished);
+        metrics.put("maxBuildMillis", maxBuildMillis.get());
+        metrics.put("recovered", recoveredJobs.get());
+        metrics.put("abandoned", abandonedJobs.get());
+        metrics.put("reassigned", reassignedJobs.get());
+        JobJournal current = journal;
+        if (current != null) {
+            metrics.put("journal", current.getMetrics());
+        }
+        return metrics;
     }
 
     /**
@@ -42,11 +593,29 @@ public class JobQueue {
      * Each job corresponds to a commit that triggered CI/CD processing.
      */
     public static class BuildJob {
+        final long id;
         String repoOwner;
         String repoName;
         String commitSHA;
         String branchName;
-        
+        final JobPriority priority;
+        // How often a builder took the job, guarded by the lock of the queue
+        int attempts;
+        final long enqueuedAtNanos;
+        final long enqueuedAtMillis;
+        // Set when a worker takes the job
+        volatile long startedAtNanos;
+        volatile long startedAtMillis;
+        // The last pending status sent for the job, guarded by the job (see BuildLifecycle)
+        String reportedSHA;
+        BuildPhase reportedPhase;
+        long reportedAtMillis;
+        private volatile boolean cancelled;
+        private volatile boolean timedOut;
+        private volatile String cancelReason;
+        // External processes of the job; sharded builds run several at once
+        private final List<Process> processes = new CopyOnWriteArrayList<>();
+
         /**
          * Constructs a new BuildJob with the given repository details.
          *
@@ -56,17 +625,143 @@ public class JobQueue {
          * @param branchName The branch where the commit is pushed.
          */
         public BuildJob(String repoOwner, String repoName, String commitSHA, String branchName) {
+            this(repoOwner, repoName, commitSHA, branchName, JobPriority.of(branchName, null));
+        }
+
+        BuildJob(String repoOwner, String repoName, String commitSHA, String branchName, JobPriority priority) {
+            this(nextJobId.incrementAndGet(), repoOwner, repoName, commitSHA, branchName, priority,
+                    System.currentTimeMillis());
+        }
+
+        /**
+         * Constructs a BuildJob recovered from the journal, keeping its id and queue time.
+         */
+        BuildJob(long id, String repoOwner, String repoName, String commitSHA, String branchName,
+                 JobPriority priority, long enqueuedAtMillis) {
+            this.id = id;
             this.repoOwner = repoOwner;
             this.repoName = repoName;
             this.commitSHA = commitSHA;
             this.branchName = branchName;
+            this.priority = priority;
+            this.enqueuedAtMillis = enqueuedAtMillis;
+            // Wait times of recovered jobs include the downtime
+            this.enqueuedAtNanos = System.nanoTime() - (System.currentTimeMillis() - enqueuedAtMillis) * 1_000_000;
+            this.startedAtNanos = enqueuedAtNanos;
+            this.startedAtMillis = enqueuedAtMillis;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * @return true if the build was cancelled, e.g. because a newer commit superseded it or it timed out.
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return true if the build was stopped by one of its timeouts (see BuildTimeouts).
+         */
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        /**
+         * @return Why the build was cancelled, or null if it was not.
+         */
+        public String getCancelReason() {
+            return cancelReason;
+        }
+
+        /**
+         * @return The status a build that did not run to the end is stored with.
+         */
+        TestStatus stoppedStatus() {
+            return timedOut ? TestStatus.TIMED_OUT : cancelled ? TestStatus.CANCELLED : TestStatus.FAILED;
+        }
+
+        /**
+         * Registers an external process running for this job so that cancel()
+         * can stop it. Destroys the process right away if the job was already
+         * cancelled.
+         *
+         * @param process The started git or Maven process.
+         */
+        void addProcess(Process process) {
+            processes.removeIf(finished -> !finished.isAlive());
+            processes.add(process);
+            if (cancelled) {
+                destroyProcessTree(process);
+            }
+        }
+
+        /**
+         * Cancels the job because a newer commit superseded it.
+         *
+         * @return true if this call cancelled the job, false if it was already cancelled.
+         */
+        boolean cancel() {
+            return cancel("Superseded by a newer commit");
+        }
+
+        /**
+         * Cancels the job and stops its running processes together with all
+         * their child processes (e.g. Surefire forks).
+         *
+         * @param reason Why the job is cancelled; reported to GitHub.
+         * @return true if this call cancelled the job, false if it was already cancelled.
+         */
+        boolean cancel(String reason) {
+            return stop(reason, false);
+        }
+
+        /**
+         * Cancels the job because it ran into one of its timeouts; it is stored as TIMED_OUT.
+         *
+         * @param reason Which timeout was exceeded; reported to GitHub.
+         * @return true if this call stopped the job, false if it was already cancelled.
+         */
+        boolean timeOut(String reason) {
+            return stop(reason, true);
+        }
+
+        private synchronized boolean stop(String reason, boolean timeout) {
+            if (cancelled) {
+                return false;
+            }
+            cancelReason = reason;
+            timedOut = timeout;
+            cancelled = true;
+            for (Process process : processes) {
+                destroyProcessTree(process);
+            }
+            return true;
+        }
+
+        /**
+         * Asks a process and all of its descendants to terminate, and kills those
+         * still alive after "ci.build.killGraceSeconds" (default: 10).
+         */
+        private static void destroyProcessTree(Process process) {
+            // Taken before Maven exits: its orphaned forks would no longer be its descendants
+            List<ProcessHandle> tree = new ArrayList<>();
+            process.descendants().forEach(tree::add);
+            tree.add(process.toHandle());
+            tree.forEach(ProcessHandle::destroy);
+            CompletableFuture.delayedExecutor(settings.killGraceMillis, TimeUnit.MILLISECONDS).execute(() -> {
+                process.descendants().forEach(ProcessHandle::destroyForcibly);
+                tree.stream().filter(ProcessHandle::isAlive).forEach(ProcessHandle::destroyForcibly);
+            });
         }
     }
 
     /**
      * Extracts the repository owner from the GitHub repository URL.
      * Example: "https://github.com/owner/repo.git" -> "owner"
-     * 
+     *
      * @param repoUrl The GitHub repository URL.
      * @return The repository owner.
      */
@@ -77,11 +772,11 @@ public class JobQueue {
     /**
      * Extracts the repository name from the GitHub repository URL.
      * Example: "https://github.com/owner/repo.git" -> "repo"
-     * 
+     *
      * @param repoUrl The GitHub repository URL.
      * @return The repository name without the ".git" extension.
      */
     private static String extractRepoName(String repoUrl) {
         return repoUrl.split("/")[4].replace(".git", "");
     }
-}
\ No newline at end of file
+}
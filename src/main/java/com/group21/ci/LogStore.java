@@ -0,0 +1,305 @@
+package com.group21.ci;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * LogStore keeps the full logs of finished builds on local disk, outside of the database.
+ * - Logs are content-addressed: a log is stored once under the SHA-256 of its
+ *   text and referenced from the build record by that hash and its size.
+ * - The text is compressed in chunks of "ci.logs.chunkKiB" KiB (default: 256),
+ *   each chunk an independent gzip member, so the archive is still a valid
+ *   .gz file and any range can be read by decompressing only the chunks it touches.
+ * - A small index file next to each archive holds the offsets of the chunks.
+ *   Its modification time is the last time the log was stored, which protects a
+ *   log from deletion while a new build referencing it is not in the database yet.
+ *
+ * The store lives in "ci.logs.store" (default: "log-store").
+ */
+public class LogStore {
+    private static final int INDEX_MAGIC = 0x43494C47; // "CILG"
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+
+    private final File root;
+    private final int chunkSize;
+    // Serializes the reuse of stored logs with their deletion
+    private final Object lock = new Object();
+
+    /**
+     * A stored log.
+     */
+    public static class LogRef {
+        private final String hash;
+        private final long size;
+
+        public LogRef(String hash, long size) {
+            this.hash = hash;
+            this.size = size;
+        }
+
+        /** @return The SHA-256 of the log text, in hex. */
+        public String getHash() { return hash; }
+
+        /** @return The uncompressed size of the log in bytes. */
+        public long getSize() { return size; }
+    }
+
+    /**
+     * Creates a LogStore configured from the CI settings.
+     */
+    public LogStore() {
+        this(new File(CiConfig.getString("ci.logs.store", "log-store")),
+                CiConfig.getInt("ci.logs.chunkKiB", 256) * 1024);
+    }
+
+    /**
+     * @param root      The directory of the store.
+     * @param chunkSize Uncompressed bytes per independently compressed chunk.
+     */
+    public LogStore(File root, int chunkSize) {
+        this.root = root;
+        this.chunkSize = Math.max(1024, chunkSize);
+    }
+
+    /**
+     * Stores a log file; a gzip-compressed file (.gz) is stored by its text.
+     *
+     * @param logFile The finished log.
+     * @return The reference to the stored log.
+     */
+    public LogRef store(File logFile) throws IOException {
+        try (InputStream in = logFile.getName().endsWith(".gz")
+                ? new GZIPInputStream(Files.newInputStream(logFile.toPath()), 64 * 1024)
+                : Files.newInputStream(logFile.toPath())) {
+            return store(in);
+        }
+    }
+
+    /**
+     * Stores a log, compressing it while it is read. A log that is already in
+     * the store is not written again, only marked as stored now.
+     *
+     * @param log The text of the log.
+     * @return The reference to the stored log.
+     */
+    public LogRef store(InputStream log) throws IOException {
+        Files.createDirectories(root.toPath());
+        String tempName = "tmp-" + UUID.randomUUID();
+        File tempData = new File(root, tempName + ".gz");
+        File tempIndex = new File(root, tempName + ".idx");
+        try {
+            MessageDigest digest = sha256();
+            List<Long> offsets = new ArrayList<>();
+            long size = 0;
+            byte[] chunk = new byte[chunkSize];
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(chunkSize / 4);
+            try (OutputStream out = new FileOutputStream(tempData);
+                 InputStream in = new BufferedInputStream(log, 64 * 1024)) {
+                long position = 0;
+                int length;
+                while ((length = in.readNBytes(chunk, 0, chunkSize)) > 0) {
+                    digest.update(chunk, 0, length);
+                    compressed.reset();
+                    try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                        gzip.write(chunk, 0, length);
+                    }
+                    offsets.add(position);
+                    compressed.writeTo(out);
+                    position += compressed.size();
+                    size += length;
+                }
+                offsets.add(position);
+            }
+            writeIndex(tempIndex, size, offsets);
+
+            String hash = toHex(digest.digest());
+            File data = dataFile(hash);
+            File index = indexFile(hash);
+            synchronized (lock) {
+                if (!index.isFile() || !index.setLastModified(System.currentTimeMillis())) {
+                    Files.createDirectories(data.getParentFile().toPath());
+                    Files.move(tempData.toPath(), data.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    // The index is moved last: its presence marks a complete archive
+                    Files.move(tempIndex.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            return new LogRef(hash, size);
+        } finally {
+            Files.deleteIfExists(tempData.toPath());
+            Files.deleteIfExists(tempIndex.toPath());
+        }
+    }
+
+    /**
+     * @param hash The hash of a log.
+     * @return true if the log is in the store.
+     */
+    public boolean contains(String hash) {
+        return isHash(hash) && indexFile(hash).isFile();
+    }
+
+    /**
+     * Copies a range of a stored log, decompressing only the chunks it covers.
+     *
+     * @param hash   The hash of the log.
+     * @param offset The first byte of the range.
+     * @param length The maximum number of bytes to copy.
+     * @param out    Receives the bytes.
+     * @return The number of bytes copied; less than length at the end of the log.
+     * @throws IOException If the log is not in the store or cannot be read.
+     */
+    public long read(String hash, long offset, long length, OutputStream out) throws IOException {
+        if (!contains(hash)) {
+            throw new IOException("Log " + hash + " not found");
+        }
+        Index index = readIndex(indexFile(hash));
+        if (offset < 0 || offset >= index.size || length <= 0) {
+            return 0;
+        }
+        long end = length >= index.size - offset ? index.size : offset + length;
+        int chunk = (int) (offset / index.chunkSize);
+        long copied = 0;
+        try (RandomAccessFile data = new RandomAccessFile(dataFile(hash), "r")) {
+            long position = offset;
+            while (position < end) {
+                byte[] text = readChunk(data, index, chunk);
+                int from = (int) (position - (long) chunk * index.chunkSize);
+                int to = (int) Math.min(text.length, end - (long) chunk * index.chunkSize);
+                out.write(text, from, to - from);
+                copied += to - from;
+                position += to - from;
+                chunk++;
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * @param hash The hash of a log.
+     * @return The uncompressed size of the stored log.
+     */
+    public long size(String hash) throws IOException {
+        if (!contains(hash)) {
+            throw new IOException("Log " + hash + " not found");
+        }
+        return readIndex(indexFile(hash)).size;
+    }
+
+    /**
+     * Removes a log from the store unless it was stored again recently. Callers
+     * must make sure no build in the database references it any more; builds
+     * that reference it but are still on their way to the database must have
+     * stored it after storedBeforeMillis.
+     *
+     * @param hash               The hash of the log.
+     * @param storedBeforeMillis A log last stored at or after this time is kept.
+     * @return true if the log was deleted.
+     */
+    public boolean delete(String hash, long storedBeforeMillis) throws IOException {
+        if (!isHash(hash)) {
+            return false;
+        }
+        File index = indexFile(hash);
+        synchronized (lock) {
+            if (index.isFile() && index.lastModified() >= storedBeforeMillis) {
+                return false;
+            }
+            // The index goes first, so a half-deleted log is no longer considered stored
+            boolean existed = Files.deleteIfExists(index.toPath());
+            return Files.deleteIfExists(dataFile(hash).toPath()) || existed;
+        }
+    }
+
+    private static byte[] readChunk(RandomAccessFile data, Index index, int chunk) throws IOException {
+        byte[] compressed = new byte[(int) (index.offsets[chunk + 1] - index.offsets[chunk])];
+        data.seek(index.offsets[chunk]);
+        data.readFully(compressed);
+        try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return gzip.readAllBytes();
+        }
+    }
+
+    private void writeIndex(File file, long size, List<Long> offsets) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(chunkSize);
+            out.writeLong(size);
+            out.writeInt(offsets.size());
+            for (long offset : offsets) {
+                out.writeLong(offset);
+            }
+        }
+    }
+
+    private static Index readIndex(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != INDEX_MAGIC) {
+                throw new IOException("Not a log index: " + file);
+            }
+            Index index = new Index();
+            index.chunkSize = in.readInt();
+            index.size = in.readLong();
+            index.offsets = new long[in.readInt()];
+            for (int i = 0; i < index.offsets.length; i++) {
+                index.offsets[i] = in.readLong();
+            }
+            return index;
+        }
+    }
+
+    private static class Index {
+        int chunkSize;
+        long size;
+        long[] offsets;
+    }
+
+    private File dataFile(String hash) {
+        return new File(new File(root, hash.substring(0, 2)), hash + ".log.gz");
+    }
+
+    private File indexFile(String hash) {
+        return new File(new File(root, hash.substring(0, 2)), hash + ".idx");
+    }
+
+    /**
+     * @return true if the value is a log hash (and thus safe to use in a path).
+     */
+    static boolean isHash(String value) {
+        return value != null && HASH.matcher(value).matches();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
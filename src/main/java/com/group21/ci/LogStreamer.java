@@ -0,0 +1,291 @@
+package com.group21.ci;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * LogStreamer serves build logs to many concurrent viewers without a thread per client.
+ * - Uses Servlet async I/O: a viewer only gets data written when its connection
+ *   is ready, and never blocks a Jetty thread while waiting for new log lines.
+ * - A single ticker thread polls the log files of all viewers for new output.
+ * - Plain requests get a chunked text/plain stream; clients sending
+ *   "Accept: text/event-stream" get Server-Sent Events whose ids are byte offsets.
+ * - Viewers can resume from a byte offset with "Range: bytes=N-", "Last-Event-ID: N"
+ *   or "?offset=N".
+ */
+public class LogStreamer {
+    private static final int CHUNK_BYTES = 16 * 1024;
+    private static final long POLL_MILLIS = 250;
+
+    private static final Set<Viewer> viewers = ConcurrentHashMap.newKeySet();
+    private static final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "log-streamer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        ticker.scheduleWithFixedDelay(LogStreamer::pollViewers, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private LogStreamer() {
+    }
+
+    /**
+     * Starts streaming the log of a job to the client. Returns immediately; the
+     * response is completed asynchronously once the log is finished and fully sent.
+     *
+     * @param request  The HTTP request (used for the resume offset and Accept header).
+     * @param response The HTTP response to stream to.
+     * @param jobId    The id of the build job.
+     */
+    public static void stream(HttpServletRequest request, HttpServletResponse response, long jobId)
+            throws IOException {
+        File logFile = BuildLog.findLogFile(jobId);
+        if (logFile == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.setContentType("application/json");
+            response.getWriter().println("{\"error\": \"Log not found\"}");
+            return;
+        }
+
+        long offset = resumeOffset(request);
+        String accept = request.getHeader("Accept");
+        boolean sse = accept != null && accept.contains("text/event-stream");
+
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("X-Log-Offset", Long.toString(offset));
+        if (sse) {
+            response.setContentType("text/event-stream;charset=utf-8");
+        } else {
+            response.setContentType("text/plain;charset=utf-8");
+            if (request.getHeader("Range") != null && isFinished(jobId)) {
+                long length = finishedLength(logFile);
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + offset + "-" + (length - 1) + "/" + length);
+            }
+        }
+
+        AsyncContext context = request.startAsync();
+        context.setTimeout(0);
+        Viewer viewer = new Viewer(context, jobId, logFile, offset, sse);
+        viewers.add(viewer);
+        context.getResponse().getOutputStream().setWriteListener(viewer);
+    }
+
+    /**
+     * @return The number of clients currently streaming a log.
+     */
+    public static int getViewerCount() {
+        return viewers.size();
+    }
+
+    private static void pollViewers() {
+        for (Viewer viewer : viewers) {
+            viewer.pump();
+        }
+    }
+
+    private static boolean isFinished(long jobId) {
+        return BuildLog.getActive(jobId) == null;
+    }
+
+    private static long finishedLength(File logFile) throws IOException {
+        if (!logFile.getName().endsWith(".gz")) {
+            return logFile.length();
+        }
+        long length = 0;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(logFile.toPath()))) {
+            byte[] buffer = new byte[CHUNK_BYTES];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                length += read;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Parses the offset the client wants to resume from.
+     */
+    static long resumeOffset(HttpServletRequest request) {
+        String value = null;
+        String range = request.getHeader("Range");
+        if (range != null && range.startsWith("bytes=") && range.endsWith("-")) {
+            value = range.substring("bytes=".length(), range.length() - 1);
+        } else if (request.getHeader("Last-Event-ID") != null) {
+            value = request.getHeader("Last-Event-ID");
+        } else if (request.getParameter("offset") != null) {
+            value = request.getParameter("offset");
+        }
+        try {
+            return value == null ? 0 : Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * One client following one log.
+     */
+    private static class Viewer implements WriteListener {
+        private final AsyncContext context;
+        private final long jobId;
+        private final File logFile;
+        private final boolean sse;
+        private final byte[] chunk = new byte[CHUNK_BYTES];
+        private long offset;
+        private InputStream compressed;
+        private boolean done;
+
+        Viewer(AsyncContext context, long jobId, File logFile, long offset, boolean sse) {
+            this.context = context;
+            this.jobId = jobId;
+            this.logFile = logFile;
+            this.offset = offset;
+            this.sse = sse;
+        }
+
+        @Override
+        public void onWritePossible() {
+            pump();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            finish();
+        }
+
+        /**
+         * Writes as much new log data as the connection accepts without blocking.
+         */
+        synchronized void pump() {
+            if (done) {
+                return;
+            }
+            try {
+                ServletOutputStream out = context.getResponse().getOutputStream();
+                while (out.isReady()) {
+                    // Check before reading so that no line written in between is missed
+                    boolean finished = isFinished(jobId);
+                    int read = read();
+                    if (read > 0) {
+                        write(out, read);
+                    } else if (finished) {
+                        if (sse) {
+                            out.write("event: end\ndata: \n\n".getBytes(StandardCharsets.UTF_8));
+                        }
+                        finish();
+                        return;
+                    } else {
+                        out.flush();
+                        return;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                finish();
+            }
+        }
+
+        private int read() throws IOException {
+            if (logFile.getName().endsWith(".gz")) {
+                if (compressed == null) {
+                    compressed = openCompressedAt(logFile, offset);
+                }
+                int read = compressed.read(chunk);
+                return Math.max(read, 0);
+            }
+
+            File current = logFile.isFile() ? logFile : BuildLog.findLogFile(jobId);
+            if (current == null || current.getName().endsWith(".gz")) {
+                // The log was compressed while streaming; continue from the compressed copy
+                return current == null ? 0 : readSwitchedToCompressed(current);
+            }
+            try (RandomAccessFile file = new RandomAccessFile(current, "r")) {
+                if (offset >= file.length()) {
+                    return 0;
+                }
+                file.seek(offset);
+                int read = file.read(chunk);
+                if (read <= 0) {
+                    return 0;
+                }
+                // Only send complete lines while the build is still writing
+                if (!isFinished(jobId)) {
+                    int end = read;
+                    while (end > 0 && chunk[end - 1] != '\n') {
+                        end--;
+                    }
+                    return end == 0 && read == chunk.length ? read : end;
+                }
+                return read;
+            }
+        }
+
+        private int readSwitchedToCompressed(File gzFile) throws IOException {
+            compressed = openCompressedAt(gzFile, offset);
+            return Math.max(compressed.read(chunk), 0);
+        }
+
+        private static InputStream openCompressedAt(File gzFile, long position) throws IOException {
+            InputStream in = new GZIPInputStream(Files.newInputStream(gzFile.toPath()));
+            long remaining = position;
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    break;
+                }
+                remaining -= skipped;
+            }
+            return in;
+        }
+
+        private void write(ServletOutputStream out, int length) throws IOException {
+            offset += length;
+            if (!sse) {
+                out.write(chunk, 0, length);
+                return;
+            }
+            StringBuilder event = new StringBuilder("id: ").append(offset).append('\n');
+            String text = new String(chunk, 0, length, StandardCharsets.UTF_8);
+            for (String line : text.split("\n", -1)) {
+                if (!line.isEmpty()) {
+                    event.append("data: ").append(line).append('\n');
+                }
+            }
+            event.append('\n');
+            out.write(event.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void finish() {
+            if (done) {
+                return;
+            }
+            done = true;
+            viewers.remove(this);
+            try {
+                if (compressed != null) {
+                    compressed.close();
+                }
+            } catch (IOException e) {
+                // ignore, the viewer is gone
+            }
+            context.complete();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.group21.ci;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * MavenCache manages the Maven local repository shared by all build jobs.
+ * - Every build uses the same local repository (-Dmaven.repo.local), with the
+ *   resolver's file locks enabled so concurrent builds can write to it safely.
+ * - When the hash of a repository's pom.xml files changes, dependencies are
+ *   pre-fetched once with `mvn dependency:go-offline`, writing to the build log.
+ * - Once a repository has been warmed up and passed a full online test run with
+ *   the current poms, later builds run in offline mode (-o).
+ *
+ * The cache lives in "ci.maven.repo" (default: "maven-cache/repository");
+ * offline builds can be disabled with "ci.maven.offline=false".
+ */
+public class MavenCache {
+    private final File localRepository;
+    private final File stateDirectory;
+    private final boolean offlineBuilds;
+    private final ConcurrentHashMap<String, ReentrantLock> warmupLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a MavenCache configured from the CI settings.
+     */
+    public MavenCache() {
+        this(new File(CiConfig.getString("ci.maven.repo", "maven-cache/repository")),
+                CiConfig.getBoolean("ci.maven.offline", true));
+    }
+
+    /**
+     * Creates a MavenCache with an explicit local repository.
+     *
+     * @param localRepository The Maven local repository shared by all jobs.
+     * @param offlineBuilds   Whether warm repositories are built in offline mode.
+     */
+    public MavenCache(File localRepository, boolean offlineBuilds) {
+        this.localRepository = localRepository.getAbsoluteFile();
+        this.stateDirectory = new File(this.localRepository.getParentFile(), "warmup-state");
+        this.offlineBuilds = offlineBuilds;
+    }
+
+    /**
+     * The Maven settings chosen for one build.
+     */
+    public static class BuildSettings {
+        final List<String> arguments;
+        final boolean offline;
+        final String pomHash;
+
+        BuildSettings(List<String> arguments, boolean offline, String pomHash) {
+            this.arguments = arguments;
+            this.offline = offline;
+            this.pomHash = pomHash;
+        }
+
+        /**
+         * @return The extra Maven command line arguments for the build.
+         */
+        public List<String> getArguments() {
+            return arguments;
+        }
+    }
+
+    /**
+     * Prepares the dependency cache for a build, warming it up first if the
+     * repository's pom.xml files changed since the last warmup. The warmup writes
+     * to the build log, so the watchdog does not take it for a hung build.
+     *
+     * @param job       The job about to be built.
+     * @param workspace The checked out workspace of the job.
+     * @param log       The log of the job.
+     * @return The Maven arguments to use for the build.
+     */
+    public BuildSettings prepare(JobQueue.BuildJob job, File workspace, BuildLog log)
+            throws IOException, InterruptedException {
+        String pomHash = pomHash(workspace);
+        String key = job.repoOwner + "/" + job.repoName;
+
+        ReentrantLock warmupLock = warmupLocks.computeIfAbsent(key, k -> new ReentrantLock());
+        // Another build of the repository may be warming up; keep the log alive while waiting for it
+        while (!warmupLock.tryLock(1, TimeUnit.MINUTES)) {
+            log.append("Waiting for the Maven cache warmup of " + key + "...");
+        }
+        try {
+            if (!pomHash.equals(readState(job, "pom"))) {
+                log.append("Dependencies of " + key + " changed, warming up Maven cache...");
+                List<String> command = new ArrayList<>();
+                command.add("mvn");
+                command.add("-B");
+                command.addAll(commonArguments());
+                command.add("dependency:go-offline");
+
+                Process warmup = new ProcessBuilder(command)
+                        .directory(workspace)
+                        .redirectErrorStream(true)
+                        .start();
+                job.addProcess(warmup);
+                log.pump(warmup.getInputStream(), false, "[warmup] ", null);
+                int exitCode = warmup.waitFor();
+                log.awaitPumps();
+                if (exitCode == 0) {
+                    writeState(job, "pom", pomHash);
+                } else {
+                    log.append("Maven cache warmup failed with code " + exitCode + ", building online");
+                }
+            }
+        } finally {
+            warmupLock.unlock();
+        }
+
+        boolean offline = offlineBuilds && pomHash.equals(readState(job, "offline"));
+        List<String> arguments = commonArguments();
+        if (offline) {
+            arguments.add("-o");
+        }
+        return new BuildSettings(arguments, offline, pomHash);
+    }
+
+    /**
+     * Records that a build finished. The first full online test run after a
+     * warmup also resolves the plugins that go-offline misses, so from then on
+     * the repository may be built offline. Failed builds and builds limited to
+     * some modules or tests may have stopped before resolving all of them.
+     *
+     * @param job         The finished job.
+     * @param settings    The settings returned by prepare() for the job.
+     * @param exitCode    The exit code of the Maven build.
+     * @param fullTestRun Whether the build ran `mvn test` on all modules and tests in one invocation.
+     */
+    public void buildCompleted(JobQueue.BuildJob job, BuildSettings settings, int exitCode, boolean fullTestRun) {
+        if (exitCode == 0 && fullTestRun && !settings.offline && settings.pomHash.equals(readState(job, "pom"))) {
+            writeState(job, "offline", settings.pomHash);
+        }
+    }
+
+    private List<String> commonArguments() {
+        List<String> arguments = new ArrayList<>();
+        arguments.add("-Dmaven.repo.local=" + localRepository.getAbsolutePath());
+        // Per-artifact file locks make the shared local repository safe for concurrent builds
+        arguments.add("-Daether.syncContext.named.factory=file-lock");
+        arguments.add("-Daether.syncContext.named.nameMapper=file-gav");
+        return arguments;
+    }
+
+    /**
+     * Hashes all pom.xml files of a workspace (outside build output directories).
+     *
+     * @param workspace The checked out repository.
+     * @return A hex SHA-256 over the relative paths and contents of the poms.
+     */
+    static String pomHash(File workspace) throws IOException {
+        Path root = workspace.toPath();
+        try (Stream<Path> files = Files.walk(root)) {
+            List<Path> poms = files
+                    .filter(path -> path.getFileName().toString().equals("pom.xml"))
+                    .filter(path -> !isIgnored(root.relativize(path)))
+                    .sorted()
+                    .collect(Collectors.toList());
+
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Path pom : poms) {
+                digest.update(root.relativize(pom).toString().getBytes(StandardCharsets.UTF_8));
+                digest.update(Files.readAllBytes(pom));
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean isIgnored(Path relativePath) {
+        for (Path element : relativePath) {
+            String name = element.toString();
+            if (name.equals("target") || name.equals(".git")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private File stateFile(JobQueue.BuildJob job, String kind) {
+        return new File(stateDirectory, job.repoOwner + File.separator + job.repoName + "." + kind);
+    }
+
+    private String readState(JobQueue.BuildJob job, String kind) {
+        File file = stateFile(job, kind);
+        try {
+            return file.isFile() ? new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeState(JobQueue.BuildJob job, String kind, String value) {
+        File file = stateFile(job, kind);
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.write(file.toPath(), value.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.err.println("Failed to record Maven cache state " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.group21.ci;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MirrorCache keeps a local bare mirror of every built repository and creates
+ * job worktrees from it with JGit.
+ * - The first build of a repository clones a bare mirror from GitHub.
+ * - Later builds fetch incrementally, and skip the network entirely when the
+ *   commit is already in the mirror.
+ * - Worktrees borrow the mirror's objects through git alternates, so checking out
+ *   a commit only writes the working files.
+ * - The worktree is checked out at the exact commit SHA of the job, not the branch tip.
+ *
+ * The mirrors live under "ci.mirror.root" (default: "mirrors") and are fetched
+ * from "ci.git.baseUrl" (default: "https://github.com/"). GITHUB_TOKEN is used
+ * for authentication when set. A clone or fetch fails once the remote stays
+ * silent for "ci.git.timeoutSeconds" (default: 300), so a hung connection
+ * cannot hold the lock of a repository forever.
+ */
+public class MirrorCache {
+    private final File cacheRoot;
+    private final String baseUrl;
+    private final int timeoutSeconds;
+    private final ConcurrentHashMap<String, Object> repoLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a MirrorCache configured from the CI settings.
+     */
+    public MirrorCache() {
+        this(new File(CiConfig.getString("ci.mirror.root", "mirrors")),
+                CiConfig.getString("ci.git.baseUrl", "https://github.com/"),
+                CiConfig.getInt("ci.git.timeoutSeconds", 300));
+    }
+
+    /**
+     * Creates a MirrorCache with an explicit location and remote.
+     *
+     * @param cacheRoot The directory holding the bare mirrors.
+     * @param baseUrl   The URL prefix that "owner/repo.git" is appended to.
+     */
+    public MirrorCache(File cacheRoot, String baseUrl) {
+        this(cacheRoot, baseUrl, 300);
+    }
+
+    /**
+     * Creates a MirrorCache with an explicit location, remote and network timeout.
+     *
+     * @param cacheRoot      The directory holding the bare mirrors.
+     * @param baseUrl        The URL prefix that "owner/repo.git" is appended to.
+     * @param timeoutSeconds How long a clone or fetch may wait for the remote; 0 waits forever.
+     */
+    public MirrorCache(File cacheRoot, String baseUrl, int timeoutSeconds) {
+        this.cacheRoot = cacheRoot.getAbsoluteFile();
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        this.timeoutSeconds = Math.max(0, timeoutSeconds);
+    }
+
+    /**
+     * Checks out a commit of a repository into an empty workspace directory.
+     *
+     * @param repoOwner  The owner of the repository.
+     * @param repoName   The name of the repository.
+     * @param branchName The branch the commit belongs to; it becomes the checked-out branch.
+     * @param commitSha  The exact commit to check out.
+     * @param workspace  The (empty) directory to create the worktree in.
+     * @throws IOException     If the commit cannot be found or the checkout fails.
+     * @throws GitAPIException If cloning or fetching the mirror fails.
+     */
+    public void checkout(String repoOwner, String repoName, String branchName, String commitSha, File workspace)
+            throws IOException, GitAPIException {
+        File mirror = updateMirror(repoOwner, repoName, commitSha);
+
+        try (Repository repository = new FileRepositoryBuilder()
+                .setWorkTree(workspace)
+                .setGitDir(new File(workspace, Constants.DOT_GIT))
+                .build()) {
+            repository.create();
+
+            // Share the mirror's object database instead of copying it
+            File alternates = new File(repository.getDirectory(), "objects/info/alternates");
+            Files.createDirectories(alternates.getParentFile().toPath());
+            Files.write(alternates.toPath(),
+                    (new File(mirror, "objects").getAbsolutePath() + "\n").getBytes(StandardCharsets.UTF_8));
+
+            ObjectId commitId = repository.resolve(commitSha + "^{commit}");
+            if (commitId == null) {
+                throw new IOException("Commit " + commitSha + " not found in " + repoOwner + "/" + repoName);
+            }
+
+            try (RevWalk walk = new RevWalk(repository)) {
+                RevCommit commit = walk.parseCommit(commitId);
+
+                String branchRef = Constants.R_HEADS + branchName;
+                RefUpdate branch = repository.updateRef(branchRef);
+                branch.setNewObjectId(commitId);
+                branch.forceUpdate();
+                repository.updateRef(Constants.HEAD).link(branchRef);
+
+                DirCacheCheckout checkout = new DirCacheCheckout(repository, repository.lockDirCache(),
+                        commit.getTree());
+                checkout.setFailOnConflict(true);
+                checkout.checkout();
+            }
+        }
+    }
+
+    /**
+     * Makes sure the mirror of a repository exists and contains the given commit.
+     *
+     * @param repoOwner The owner of the repository.
+     * @param repoName  The name of the repository.
+     * @param commitSha The commit the mirror must contain.
+     * @return The mirror's git directory.
+     */
+    File updateMirror(String repoOwner, String repoName, String commitSha) throws IOException, GitAPIException {
+        String key = repoOwner + "/" + repoName;
+        File mirror = new File(cacheRoot, repoOwner + File.separator + repoName + ".git");
+
+        // One clone or fetch per repository at a time; checkouts read the mirror concurrently
+        synchronized (repoLocks.computeIfAbsent(key, k -> new Object())) {
+            if (!new File(mirror, "objects").isDirectory()) {
+                System.out.println("Creating mirror of " + key + "...");
+                Git.cloneRepository()
+                        .setURI(remoteUrl(repoOwner, repoName))
+                        .setDirectory(mirror)
+                        .setMirror(true)
+                        .setTimeout(timeoutSeconds)
+                        .setCredentialsProvider(credentials())
+                        .call()
+                        .close();
+                return mirror;
+            }
+
+            try (Git git = Git.open(mirror)) {
+                if (!containsCommit(git.getRepository(), commitSha)) {
+                    System.out.println("Fetching " + key + " into mirror...");
+                    git.fetch()
+                            .setRemote(Constants.DEFAULT_REMOTE_NAME)
+                            .setRemoveDeletedRefs(true)
+                            .setTimeout(timeoutSeconds)
+                            .setCredentialsProvider(credentials())
+                            .call();
+                }
+            }
+            return mirror;
+        }
+    }
+
+    private static boolean containsCommit(Repository repository, String commitSha) throws IOException {
+        return ObjectId.isId(commitSha) && repository.getObjectDatabase().has(ObjectId.fromString(commitSha));
+    }
+
+    private String remoteUrl(String repoOwner, String repoName) {
+        return baseUrl + repoOwner + "/" + repoName + ".git";
+    }
+
+    private static CredentialsProvider credentials() {
+        String token = System.getenv("GITHUB_TOKEN");
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        return new UsernamePasswordCredentialsProvider(token, "");
+    }
+}
@@ -0,0 +1,689 @@
+package com.group21.ci;
+
+import com.group21.ci.dao.BuildResult;
+import com.group21.ci.dao.TestCaseFile;
+import com.group21.ci.dao.TestResultDAO;
+import com.group21.ci.entity.BuildPhase;
+import com.group21.ci.entity.TestCaseOutcome;
+import com.group21.ci.entity.TestCaseResultEntity;
+import com.group21.ci.entity.TestResultEntity;
+import com.group21.ci.entity.TestStatus;
+import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.exception.DataException;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ResultWriter stores build results in the background (write-behind), so a
+ * slow database never delays the completion of a build job.
+ * - Results go through a bounded queue; a writer thread waits up to
+ *   "ci.results.flushMillis" (default: 200) to collect up to
+ *   "ci.results.batchBuilds" (default: 50) builds and stores them in one
+ *   transaction with JDBC batching.
+ * - A failed transaction is retried "ci.results.attempts" times (default: 5)
+ *   with exponential backoff starting at "ci.results.backoffMillis" (default: 500).
+ * - If the database stays unavailable, or the queue (size "ci.results.queueSize",
+ *   default: 100) is full, results are appended to a local spool file
+ *   ("ci.results.spool", default: "result-spool/results.jsonl") and fsynced.
+ *   The spool is replayed in one transaction once the database is back, and on
+ *   the next start if the server crashed.
+ * - A result the database rejects (e.g. a constraint violation) is moved to a
+ *   dead-letter file next to the spool ("results.jsonl.rejected") for inspection,
+ *   and its build is stored without the test cases so it does not stay pending.
+ * - Test cases of finished builds wait in a TestCaseFile rather than in memory and
+ *   are streamed into the database; the spool only references the file, which is
+ *   deleted once its build is stored.
+ * - The pending rows of running builds and their phase changes (see BuildLifecycle)
+ *   take the same way. A replay stores only the latest state of a running build, and
+ *   one left pending by an earlier run of the server as cancelled.
+ */
+public class ResultWriter {
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final long SPOOL_RETRY_MILLIS = 10_000;
+    // Test case files younger than this at start may belong to builds finishing right now
+    private static final long ORPHAN_AGE_MILLIS = 60_000;
+
+    private final TestResultDAO testResultDAO;
+    private final BlockingQueue<BuildResult> queue;
+    private final int batchBuilds;
+    private final long flushMillis;
+    private final int attempts;
+    private final long backoffMillis;
+    private final File spoolFile;
+    private final File replayFile;
+    private final File deadLetterFile;
+    private final Object spoolLock = new Object();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong spooled = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failedAttempts = new AtomicLong();
+    private final AtomicLong settled = new AtomicLong();
+
+    // Pending builds spooled before this time were interrupted by a restart
+    private final LocalDateTime createdAt = LocalDateTime.now();
+
+    private Thread writer;
+    private volatile boolean running;
+    private long nextReplayMillis;
+
+    /**
+     * Creates a ResultWriter on the production database, configured from the CI settings.
+     */
+    public ResultWriter() {
+        this(new TestResultDAO());
+    }
+
+    /**
+     * Creates a ResultWriter on the given DAO, configured from the CI settings.
+     */
+    public ResultWriter(TestResultDAO testResultDAO) {
+        this(testResultDAO,
+                CiConfig.getInt("ci.results.queueSize", 100),
+                CiConfig.getInt("ci.results.batchBuilds", 50),
+                CiConfig.getLong("ci.results.flushMillis", 200),
+                CiConfig.getInt("ci.results.attempts", 5),
+                CiConfig.getLong("ci.results.backoffMillis", 500),
+                new File(CiConfig.getString("ci.results.spool", "result-spool/results.jsonl")));
+    }
+
+    /**
+     * @param testResultDAO The DAO used to store results.
+     * @param queueSize     How many builds may wait in memory.
+     * @param batchBuilds   The maximum number of builds stored per transaction.
+     * @param flushMillis   How long to wait for more builds before storing a batch.
+     * @param attempts      Transaction attempts before a batch is spooled.
+     * @param backoffMillis The wait before the first retry; doubled for every further retry.
+     * @param spoolFile     Where results are kept while the database is unavailable.
+     */
+    public ResultWriter(TestResultDAO testResultDAO, int queueSize, int batchBuilds, long flushMillis,
+                        int attempts, long backoffMillis, File spoolFile) {
+        this.testResultDAO = testResultDAO;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        this.batchBuilds = Math.max(1, batchBuilds);
+        this.flushMillis = Math.max(0, flushMillis);
+        this.attempts = Math.max(1, attempts);
+        this.backoffMillis = Math.max(1, backoffMillis);
+        this.spoolFile = spoolFile;
+        this.replayFile = new File(spoolFile.getPath() + ".replaying");
+        this.deadLetterFile = new File(spoolFile.getPath() + ".rejected");
+    }
+
+    /**
+     * Starts the writer thread. Results spooled before a crash are replayed first.
+     */
+    public synchronized void start() {
+        if (writer != null) {
+            return;
+        }
+        running = true;
+        writer = new Thread(this::writeLoop, "result-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues the result of a build for storage. Never blocks: if the queue is
+     * full the result is spooled to disk instead.
+     *
+     * @param testResult The build record.
+     * @param testCases  The test cases of the build.
+     */
+    public void submit(TestResultEntity testResult, List<TestCaseResultEntity> testCases) {
+        submit(new BuildResult(testResult, testCases));
+    }
+
+    /**
+     * Queues the result of a build whose test cases were parsed into a file,
+     * which is deleted once they are stored. Never blocks.
+     *
+     * @param testResult The build record.
+     * @param testCases  The file with the test cases of the build.
+     */
+    public void submit(TestResultEntity testResult, TestCaseFile testCases) {
+        submit(new BuildResult(testResult, testCases));
+    }
+
+    private void submit(BuildResult result) {
+        TestResultEntity testResult = result.getTestResult();
+        submitted.incrementAndGet();
+        if (!running || !queue.offer(result)) {
+            System.err.println("Result queue unavailable, spooling result of " + testResult.getCommitSha());
+            spool(List.of(result));
+            settled.incrementAndGet();
+        }
+    }
+
+    /**
+     * Waits until every submitted result has been stored or spooled.
+     *
+     * @param timeoutMillis The maximum time to wait.
+     * @return true if all results were handled in time.
+     */
+    public boolean awaitSettled(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (settled.get() < submitted.get()) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting results into the queue and waits until the queued ones
+     * are stored (or spooled).
+     */
+    public void close() {
+        Thread current;
+        synchronized (this) {
+            current = writer;
+            running = false;
+        }
+        if (current == null) {
+            return;
+        }
+        try {
+            current.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Anything the writer could not finish in time survives in the spool
+        List<BuildResult> left = new ArrayList<>();
+        queue.drainTo(left);
+        if (!left.isEmpty()) {
+            spool(left);
+            settled.addAndGet(left.size());
+        }
+    }
+
+    /**
+     * @return Counters of the write-behind stage.
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("queued", queue.size());
+        metrics.put("written", written.get());
+        metrics.put("spooled", spooled.get());
+        metrics.put("replayed", replayed.get());
+        metrics.put("rejected", rejected.get());
+        metrics.put("failedAttempts", failedAttempts.get());
+        metrics.put("spoolPending", spoolFile.isFile() || replayFile.isFile());
+        return metrics;
+    }
+
+    private void writeLoop() {
+        replaySpool();
+        removeOrphanedTestCaseFiles();
+        List<BuildResult> batch = new ArrayList<>(batchBuilds);
+        while (running || !queue.isEmpty()) {
+            try {
+                BuildResult first = queue.poll(flushMillis > 0 ? flushMillis : 100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    replaySpoolIfDue();
+                    continue;
+                }
+                batch.add(first);
+                // Give concurrent builds a moment to join the batch
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushMillis);
+                while (batch.size() < batchBuilds) {
+                    long remaining = deadline - System.nanoTime();
+                    BuildResult next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                // Keep results in order: older spooled results go first
+                replaySpoolIfDue();
+                if (hasSpool()) {
+                    spool(batch);
+                } else {
+                    List<BuildResult> unsaved = writeWithRetry(batch);
+                    if (!unsaved.isEmpty()) {
+                        spool(unsaved);
+                    }
+                }
+                settled.addAndGet(batch.size());
+                batch.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                // Never lose the batch because of an unexpected error
+                System.err.println("Result writer failed: " + e);
+                spool(batch);
+                settled.addAndGet(batch.size());
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Stores a batch in one transaction, retrying with backoff.
+     *
+     * @return The results that could not be stored and need to be spooled; empty if all were handled.
+     */
+    private List<BuildResult> writeWithRetry(List<BuildResult> batch) throws InterruptedException {
+        long wait = backoffMillis;
+        for (int attempt = 1; attempt <= attempts; attempt++) {
+            try {
+                testResultDAO.saveBuildResults(batch);
+                stored(batch, written);
+                return List.of();
+            } catch (RuntimeException e) {
+                failedAttempts.incrementAndGet();
+                if (isPermanent(e)) {
+                    return saveIndividually(batch, written);
+                }
+                System.err.println("Storing " + batch.size() + " build results failed (attempt " + attempt + "/"
+                        + attempts + "): " + e.getMessage());
+                if (attempt < attempts && running) {
+                    Thread.sleep(wait);
+                    wait = Math.min(MAX_BACKOFF_MILLIS, wait * 2);
+                }
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Stores results one by one after a batch hit an error that retrying
+     * cannot fix, rejecting only the results that cause it. Stops at the first
+     * other error, since the results stored so far must not be stored twice.
+     *
+     * @param results The results to store.
+     * @param counter Counts the stored results.
+     * @return The results not stored because of that error, to be spooled; empty if all were handled.
+     */
+    private List<BuildResult> saveIndividually(List<BuildResult> results, AtomicLong counter) {
+        for (int i = 0; i < results.size(); i++) {
+            BuildResult result = results.get(i);
+            try {
+                testResultDAO.saveBuildResults(List.of(result));
+                stored(List.of(result), counter);
+            } catch (RuntimeException e) {
+                if (!isPermanent(e)) {
+                    failedAttempts.incrementAndGet();
+                    System.err.println("Storing build results one by one failed, " + (results.size() - i)
+                            + " of them are kept: " + e.getMessage());
+                    return new ArrayList<>(results.subList(i, results.size()));
+                }
+                BuildResult build = reject(result, e);
+                if (build != null) {
+                    List<BuildResult> unsaved = new ArrayList<>();
+                    unsaved.add(build);
+                    unsaved.addAll(results.subList(i + 1, results.size()));
+                    return unsaved;
+                }
+            }
+        }
+        return List.of();
+    }
+
+    /**
+     * Moves a result the database rejects to the dead-letter file, together
+     * with its test case file, and stores its build without test cases.
+     *
+     * @return The build without test cases if storing it failed for another reason, to be spooled; else null.
+     */
+    private BuildResult reject(BuildResult result, RuntimeException error) {
+        String commitSha = result.getTestResult().getCommitSha();
+        rejected.incrementAndGet();
+        System.err.println("Build result of " + commitSha + " rejected by the database, keeping it in "
+                + deadLetterFile + ": " + error.getMessage());
+        synchronized (spoolLock) {
+            try {
+                append(deadLetterFile, List.of(result));
+            } catch (IOException e) {
+                System.err.println("Writing " + deadLetterFile + " failed: " + e.getMessage());
+            }
+        }
+
+        BuildResult build = new BuildResult(result.getTestResult(), List.of());
+        try {
+            testResultDAO.saveBuildResults(List.of(build));
+        } catch (RuntimeException e) {
+            if (!isPermanent(e)) {
+                failedAttempts.incrementAndGet();
+                return build;
+            }
+            System.err.println("Build " + commitSha + " is rejected even without test cases: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * @return true for errors caused by the data itself (e.g. constraint
+     * violations), which fail again on every retry.
+     */
+    static boolean isPermanent(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConstraintViolationException || cause instanceof DataException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasSpool() {
+        synchronized (spoolLock) {
+            return spoolFile.isFile() || replayFile.isFile();
+        }
+    }
+
+    private void replaySpoolIfDue() {
+        if (hasSpool() && System.currentTimeMillis() >= nextReplayMillis) {
+            replaySpool();
+        }
+    }
+
+    /**
+     * Stores all spooled results in one transaction, so a failed replay can be
+     * repeated without storing anything twice.
+     */
+    private void replaySpool() {
+        synchronized (spoolLock) {
+            try {
+                if (!replayFile.isFile()) {
+                    if (!spoolFile.isFile()) {
+                        return;
+                    }
+                    // Results spooled from now on go to a new file
+                    Files.move(spoolFile.toPath(), replayFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                }
+                List<BuildResult> results = latestStates(readSpool(replayFile));
+                List<BuildResult> unsaved = List.of();
+                if (!results.isEmpty()) {
+                    try {
+                        testResultDAO.saveBuildResults(results);
+                        stored(results, replayed);
+                    } catch (RuntimeException e) {
+                        if (!isPermanent(e)) {
+                            throw e;
+                        }
+                        unsaved = saveIndividually(results, replayed);
+                    }
+                }
+                if (!unsaved.isEmpty()) {
+                    // Only the results not stored one by one are replayed again
+                    File remaining = new File(replayFile.getPath() + ".tmp");
+                    Files.deleteIfExists(remaining.toPath());
+                    append(remaining, unsaved);
+                    Files.move(remaining.toPath(), replayFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                    throw new IOException(unsaved.size() + " of " + results.size() + " results are left");
+                }
+                Files.delete(replayFile.toPath());
+                System.out.println("Replayed " + results.size() + " spooled build results");
+            } catch (IOException | RuntimeException e) {
+                failedAttempts.incrementAndGet();
+                nextReplayMillis = System.currentTimeMillis() + SPOOL_RETRY_MILLIS;
+                System.err.println("Replaying spooled build results failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Drops the pending states of running builds that a later result of the same
+     * job supersedes, and marks the pending builds of an earlier run of the server
+     * as cancelled, like TestResultDAO.cancelPendingBuilds() does for stored rows.
+     */
+    private List<BuildResult> latestStates(List<BuildResult> results) {
+        Map<Long, Integer> lastByJob = new HashMap<>();
+        for (int i = 0; i < results.size(); i++) {
+            TestResultEntity testResult = results.get(i).getTestResult();
+            if (testResult.getId() == null && testResult.getJobId() != null) {
+                lastByJob.put(testResult.getJobId(), i);
+            }
+        }
+        List<BuildResult> latest = new ArrayList<>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            TestResultEntity testResult = results.get(i).getTestResult();
+            if (testResult.getStatus() != TestStatus.PENDING) {
+                latest.add(results.get(i));
+            } else if (testResult.getId() != null || testResult.getJobId() == null
+                    || lastByJob.get(testResult.getJobId()) == i) {
+                if (testResult.getTimestamp().isBefore(createdAt)) {
+                    testResult.setStatus(TestStatus.CANCELLED);
+                    testResult.setPhase(BuildPhase.DONE);
+                }
+                latest.add(results.get(i));
+            }
+        }
+        return latest;
+    }
+
+    private static void stored(List<BuildResult> results, AtomicLong counter) {
+        deleteTestCaseFiles(results);
+        counter.addAndGet(results.size());
+    }
+
+    private static void deleteTestCaseFiles(List<BuildResult> results) {
+        for (BuildResult result : results) {
+            if (result.getTestCaseFile() != null) {
+                result.getTestCaseFile().delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes the test case files that no spooled result references, e.g. of
+     * results that were still queued in memory when the server crashed.
+     */
+    private void removeOrphanedTestCaseFiles() {
+        long before = System.currentTimeMillis() - ORPHAN_AGE_MILLIS;
+        File[] files = TestCaseFile.directory().listFiles(file -> file.getName().startsWith("job-")
+                && file.lastModified() < before);
+        if (files == null || files.length == 0) {
+            return;
+        }
+        Set<File> referenced = new HashSet<>();
+        synchronized (spoolLock) {
+            for (File spool : List.of(spoolFile, replayFile, deadLetterFile)) {
+                try {
+                    if (spool.isFile()) {
+                        for (BuildResult result : readSpool(spool)) {
+                            if (result.getTestCaseFile() != null) {
+                                referenced.add(result.getTestCaseFile().getFile().getAbsoluteFile());
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    // Keep every file rather than losing test cases
+                    System.err.println("Reading " + spool + " failed: " + e.getMessage());
+                    return;
+                }
+            }
+        }
+        for (File file : files) {
+            if (!referenced.contains(file.getAbsoluteFile()) && file.delete()) {
+                System.out.println("Deleted orphaned test case file " + file);
+            }
+        }
+    }
+
+    private void spool(List<BuildResult> results) {
+        synchronized (spoolLock) {
+            try {
+                append(spoolFile, results);
+                spooled.addAndGet(results.size());
+            } catch (IOException e) {
+                System.err.println("Spooling " + results.size() + " build results failed, they are lost: "
+                        + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Appends results to a spool file and forces them to disk, since the file is their only copy.
+     */
+    private static void append(File file, List<BuildResult> results) throws IOException {
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            for (BuildResult result : results) {
+                out.write((toJson(result) + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            out.getFD().sync();
+        }
+    }
+
+    static String toJson(BuildResult result) {
+        TestResultEntity testResult = result.getTestResult();
+        return new JSONObject()
+                .put("id", testResult.getId() == null ? JSONObject.NULL : testResult.getId())
+                .put("commitSha", testResult.getCommitSha())
+                .put("status", testResult.getStatus().toString())
+                .put("phase", testResult.getPhase() == null ? JSONObject.NULL : testResult.getPhase().toString())
+                .put("testLog", testResult.getTestLog())
+                .put("timestamp", testResult.getTimestamp().toString())
+                .put("queuedAt", nullable(testResult.getQueuedAt()))
+                .put("startedAt", nullable(testResult.getStartedAt()))
+                .put("repoOwner", nullable(testResult.getRepoOwner()))
+                .put("repoName", nullable(testResult.getRepoName()))
+                .put("branchName", nullable(testResult.getBranchName()))
+                .put("logHash", nullable(testResult.getLogHash()))
+                .put("logSize", testResult.getLogSize() == null ? JSONObject.NULL : testResult.getLogSize())
+                .put("peakMemoryBytes", testResult.getPeakMemoryBytes() == null
+                        ? JSONObject.NULL : testResult.getPeakMemoryBytes())
+                .put("cpuMillis", testResult.getCpuMillis() == null ? JSONObject.NULL : testResult.getCpuMillis())
+                .put("jobId", testResult.getJobId() == null ? JSONObject.NULL : testResult.getJobId())
+                .put("testCases", testCasesToJson(result.getTestCases()))
+                .put("testCaseFile", result.getTestCaseFile() == null
+                        ? JSONObject.NULL : result.getTestCaseFile().getFile().getPath())
+                .toString();
+    }
+
+    /**
+     * Encodes test cases compactly as [className, testName, durationMillis, outcome] arrays.
+     */
+    static JSONArray testCasesToJson(List<TestCaseResultEntity> testCases) {
+        JSONArray json = new JSONArray();
+        for (TestCaseResultEntity testCase : testCases) {
+            json.put(new JSONArray()
+                    .put(testCase.getClassName())
+                    .put(testCase.getTestName())
+                    .put(testCase.getDurationMillis())
+                    .put(testCase.getOutcome().toString()));
+        }
+        return json;
+    }
+
+    /**
+     * Encodes the test cases of a file like testCasesToJson(List), e.g. to send them to the server.
+     */
+    static JSONArray testCasesToJson(TestCaseFile testCases) {
+        JSONArray json = new JSONArray();
+        testCases.forEach(testCase -> json.put(new JSONArray()
+                .put(testCase.getClassName())
+                .put(testCase.getTestName())
+                .put(testCase.getDurationMillis())
+                .put(testCase.getOutcome().toString())));
+        return json;
+    }
+
+    /**
+     * Writes test cases encoded by testCasesToJson() to a new TestCaseFile of the job.
+     */
+    static TestCaseFile testCasesToFile(JSONArray json, long jobId) throws IOException {
+        try (TestCaseFile.Writer testCases = TestCaseFile.create(jobId)) {
+            for (TestCaseResultEntity testCase : testCasesFromJson(json)) {
+                testCases.add(testCase);
+            }
+            return testCases.finish();
+        }
+    }
+
+    static List<TestCaseResultEntity> testCasesFromJson(JSONArray json) {
+        List<TestCaseResultEntity> testCases = new ArrayList<>(json.length());
+        for (int i = 0; i < json.length(); i++) {
+            JSONArray testCase = json.getJSONArray(i);
+            testCases.add(new TestCaseResultEntity(testCase.getString(0), testCase.getString(1),
+                    testCase.getLong(2), TestCaseOutcome.valueOf(testCase.getString(3))));
+        }
+        return testCases;
+    }
+
+    static List<BuildResult> readSpool(File file) throws IOException {
+        List<BuildResult> results = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    results.add(fromJson(new JSONObject(line)));
+                } catch (JSONException | IllegalArgumentException e) {
+                    // A line cut off by a crash while spooling
+                    System.err.println("Skipping unreadable spooled result: " + e.getMessage());
+                }
+            }
+        }
+        return results;
+    }
+
+    private static BuildResult fromJson(JSONObject json) {
+        TestResultEntity testResult = new TestResultEntity(
+                json.getString("commitSha"),
+                TestStatus.valueOf(json.getString("status")),
+                json.getString("testLog"),
+                LocalDateTime.parse(json.getString("timestamp")));
+        testResult.setId(json.isNull("id") ? null : json.getLong("id"));
+        testResult.setPhase(json.isNull("phase") ? null : BuildPhase.valueOf(json.getString("phase")));
+        testResult.setQueuedAt(json.isNull("queuedAt") ? null : LocalDateTime.parse(json.getString("queuedAt")));
+        testResult.setStartedAt(json.isNull("startedAt") ? null : LocalDateTime.parse(json.getString("startedAt")));
+        testResult.setRepoOwner(json.optString("repoOwner", null));
+        testResult.setRepoName(json.optString("repoName", null));
+        testResult.setBranchName(json.optString("branchName", null));
+        testResult.setLogHash(json.optString("logHash", null));
+        testResult.setLogSize(json.isNull("logSize") ? null : json.getLong("logSize"));
+        testResult.setPeakMemoryBytes(json.isNull("peakMemoryBytes") ? null : json.getLong("peakMemoryBytes"));
+        testResult.setCpuMillis(json.isNull("cpuMillis") ? null : json.getLong("cpuMillis"));
+        testResult.setJobId(json.isNull("jobId") ? null : json.getLong("jobId"));
+
+        TestCaseFile testCaseFile = null;
+        if (!json.isNull("testCaseFile")) {
+            File file = new File(json.getString("testCaseFile"));
+            if (file.isFile()) {
+                testCaseFile = new TestCaseFile(file);
+            } else {
+                System.err.println("Test cases of spooled build " + testResult.getCommitSha() + " are gone: " + file);
+            }
+        }
+        return new BuildResult(testResult, testCasesFromJson(json.getJSONArray("testCases")), testCaseFile);
+    }
+
+    private static Object nullable(String value) {
+        return value == null ? JSONObject.NULL : value;
+    }
+
+    private static Object nullable(LocalDateTime value) {
+        return value == null ? JSONObject.NULL : value.toString();
+    }
+}
@@ -0,0 +1,295 @@
+package com.group21.ci;
+
+import com.group21.ci.dao.TestResultDAO;
+import com.group21.ci.entity.TestResultEntity;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RetentionJob periodically deletes old builds so the build history stays small.
+ * - Every branch keeps its newest "keep" builds. Older successful builds expire after
+ *   "days" days, failed, timed out and cancelled ones after "failureDays" days
+ *   (0 = never). Pending builds never expire.
+ * - Defaults are "ci.retention.keepBuilds" (default: 50), "ci.retention.maxAgeDays"
+ *   (default: 90) and "ci.retention.failureMaxAgeDays" (default: 180). They can be
+ *   overridden per repository or branch with "ci.retention.policies", e.g.
+ *   "owner/repo:keep=20,days=30;owner/repo#main:keep=500". A branch policy wins
+ *   over a repository policy, and settings it leaves out come from the less specific one.
+ * - Builds are deleted in transactions of "ci.retention.batchSize" builds (default: 200),
+ *   pausing "ci.retention.pauseMillis" (default: 500) between them, so that
+ *   production queries never wait long for locks.
+ * - Archived logs no longer referenced by any build are removed from the LogStore,
+ *   unless a build stored them within the last day: its result may still wait in
+ *   the ResultWriter. Per-job log files and retained workspaces are removed after
+ *   "ci.retention.jobLogDays" days (default: 7).
+ * - The test_log text of builds older than "ci.retention.compactDays" days
+ *   (default: 30) is cleared; the full log stays in the LogStore.
+ *
+ * The job runs every "ci.retention.intervalMinutes" minutes (default: 60); 0 disables it.
+ */
+public class RetentionJob {
+    // Longer than a result can wait in the ResultWriter and its spool before it references its log
+    private static final long LOG_REUSE_GRACE_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final TestResultDAO testResultDAO;
+    private final LogStore logStore;
+    private final WorkspaceManager workspaceManager;
+    private final Policy defaultPolicy;
+    private final Map<String, Policy> policies;
+    private final int batchSize;
+    private final long pauseMillis;
+    private final int jobLogDays;
+    private final int compactDays;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * How long the builds of a repository or branch are kept.
+     */
+    public static class Policy {
+        private final int keepLast;
+        private final int maxAgeDays;
+        private final int failureMaxAgeDays;
+
+        /**
+         * @param keepLast          The number of newest builds that are always kept.
+         * @param maxAgeDays        Days after which successful builds expire (0 = never).
+         * @param failureMaxAgeDays Days after which failed, timed out and cancelled builds expire (0 = never).
+         */
+        public Policy(int keepLast, int maxAgeDays, int failureMaxAgeDays) {
+            this.keepLast = Math.max(0, keepLast);
+            this.maxAgeDays = Math.max(0, maxAgeDays);
+            this.failureMaxAgeDays = Math.max(0, failureMaxAgeDays);
+        }
+
+        public int getKeepLast() { return keepLast; }
+        public int getMaxAgeDays() { return maxAgeDays; }
+        public int getFailureMaxAgeDays() { return failureMaxAgeDays; }
+    }
+
+    /**
+     * The outcome of one retention run.
+     */
+    public static class Result {
+        private int deletedBuilds;
+        private int deletedLogs;
+        private int compactedBuilds;
+
+        public int getDeletedBuilds() { return deletedBuilds; }
+        public int getDeletedLogs() { return deletedLogs; }
+        public int getCompactedBuilds() { return compactedBuilds; }
+    }
+
+    /**
+     * Creates a RetentionJob for the builds of this server, configured from the CI settings.
+     */
+    public RetentionJob() {
+        this(BuildManager.getTestResultDAO(), BuildManager.getLogStore(), BuildManager.getWorkspaceManager(),
+                new Policy(CiConfig.getInt("ci.retention.keepBuilds", 50),
+                        CiConfig.getInt("ci.retention.maxAgeDays", 90),
+                        CiConfig.getInt("ci.retention.failureMaxAgeDays", 180)),
+                CiConfig.getString("ci.retention.policies", ""),
+                CiConfig.getInt("ci.retention.batchSize", 200),
+                CiConfig.getLong("ci.retention.pauseMillis", 500),
+                CiConfig.getInt("ci.retention.jobLogDays", 7),
+                CiConfig.getInt("ci.retention.compactDays", 30));
+    }
+
+    /**
+     * @param testResultDAO    The builds.
+     * @param logStore         The archived logs of the builds.
+     * @param workspaceManager The workspaces of the builds, or null.
+     * @param defaultPolicy    The policy of branches without an override.
+     * @param policies         Overrides, as in "ci.retention.policies".
+     * @param batchSize        Builds deleted per transaction.
+     * @param pauseMillis      The pause between two transactions.
+     * @param jobLogDays       Days after which per-job log files and workspaces are removed (0 = never).
+     * @param compactDays      Days after which the test_log text is cleared (0 = never).
+     */
+    public RetentionJob(TestResultDAO testResultDAO, LogStore logStore, WorkspaceManager workspaceManager,
+                        Policy defaultPolicy, String policies, int batchSize, long pauseMillis, int jobLogDays,
+                        int compactDays) {
+        this.testResultDAO = testResultDAO;
+        this.logStore = logStore;
+        this.workspaceManager = workspaceManager;
+        this.defaultPolicy = defaultPolicy;
+        this.policies = parsePolicies(policies);
+        this.batchSize = Math.max(1, batchSize);
+        this.pauseMillis = Math.max(0, pauseMillis);
+        this.jobLogDays = jobLogDays;
+        this.compactDays = compactDays;
+    }
+
+    /**
+     * Schedules the job every "ci.retention.intervalMinutes" minutes, starting after one interval.
+     */
+    public synchronized void start() {
+        long intervalMinutes = CiConfig.getLong("ci.retention.intervalMinutes", 60);
+        if (scheduler != null || intervalMinutes <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "retention");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                Result result = runOnce();
+                System.out.println("Retention deleted " + result.getDeletedBuilds() + " builds and "
+                        + result.getDeletedLogs() + " logs, compacted " + result.getCompactedBuilds() + " builds");
+            } catch (RuntimeException e) {
+                System.err.println("Retention run failed: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Applies the retention policies once.
+     *
+     * @return What was deleted.
+     */
+    public Result runOnce() throws InterruptedException {
+        Result result = new Result();
+        LocalDateTime now = LocalDateTime.now();
+        for (String[] branch : testResultDAO.listBranches()) {
+            Policy policy = policyFor(branch[0], branch[1], branch[2]);
+            LocalDateTime successCutoff = policy.getMaxAgeDays() == 0 ? null : now.minusDays(policy.getMaxAgeDays());
+            LocalDateTime failureCutoff = policy.getFailureMaxAgeDays() == 0
+                    ? null
+                    : now.minusDays(policy.getFailureMaxAgeDays());
+            while (true) {
+                List<TestResultEntity> expired = testResultDAO.findExpiredBuilds(branch[0], branch[1], branch[2],
+                        policy.getKeepLast(), successCutoff, failureCutoff, batchSize);
+                if (expired.isEmpty()) {
+                    break;
+                }
+                List<Long> ids = new ArrayList<>();
+                Set<String> logHashes = new LinkedHashSet<>();
+                for (TestResultEntity build : expired) {
+                    ids.add(build.getId());
+                    if (build.getLogHash() != null) {
+                        logHashes.add(build.getLogHash());
+                    }
+                }
+                result.deletedBuilds += testResultDAO.deleteBuilds(ids);
+                result.deletedLogs += deleteUnreferencedLogs(logHashes);
+                if (expired.size() < batchSize) {
+                    break;
+                }
+                Thread.sleep(pauseMillis);
+            }
+        }
+
+        if (compactDays > 0) {
+            int compacted;
+            do {
+                compacted = testResultDAO.compactTestLogs(now.minusDays(compactDays), batchSize);
+                result.compactedBuilds += compacted;
+                if (compacted == batchSize) {
+                    Thread.sleep(pauseMillis);
+                }
+            } while (compacted == batchSize);
+        }
+
+        if (jobLogDays > 0) {
+            long cutoffMillis = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(jobLogDays);
+            BuildLog.deleteLogsOlderThan(cutoffMillis);
+            if (workspaceManager != null) {
+                workspaceManager.evictOlderThan(cutoffMillis);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the policy of a branch: a branch override, else a repository override, else the default.
+     */
+    Policy policyFor(String repoOwner, String repoName, String branchName) {
+        String repository = repoOwner + "/" + repoName;
+        Policy policy = policies.get(repository + "#" + branchName);
+        if (policy == null) {
+            policy = policies.get(repository);
+        }
+        return policy == null ? defaultPolicy : policy;
+    }
+
+    private int deleteUnreferencedLogs(Set<String> logHashes) {
+        int deleted = 0;
+        long storedBeforeMillis = System.currentTimeMillis() - LOG_REUSE_GRACE_MILLIS;
+        for (String logHash : logHashes) {
+            // Logs are content-addressed, so other builds may share one
+            if (testResultDAO.countBuildsWithLog(logHash) > 0) {
+                continue;
+            }
+            try {
+                // A build that stored the log again is not in the database yet; the store keeps it then
+                if (logStore.delete(logHash, storedBeforeMillis)) {
+                    deleted++;
+                }
+            } catch (IOException e) {
+                System.err.println("Deleting archived log " + logHash + " failed: " + e.getMessage());
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Parses "owner/repo[#branch]:keep=N,days=N,failureDays=N;..." into policies.
+     * Settings missing in a branch policy come from its repository policy, then from the default.
+     *
+     * @throws IllegalArgumentException If the specification is malformed.
+     */
+    private Map<String, Policy> parsePolicies(String specification) {
+        Map<String, Map<String, Integer>> settings = new HashMap<>();
+        for (String entry : specification.split(";")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int colon = entry.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Invalid retention policy: " + entry);
+            }
+            Map<String, Integer> values = new HashMap<>();
+            for (String setting : entry.substring(colon + 1).split(",")) {
+                String[] pair = setting.trim().split("=");
+                if (pair.length != 2 || !List.of("keep", "days", "failureDays").contains(pair[0].trim())) {
+                    throw new IllegalArgumentException("Invalid retention setting: " + setting);
+                }
+                try {
+                    values.put(pair[0].trim(), Integer.parseInt(pair[1].trim()));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid retention setting: " + setting);
+                }
+            }
+            settings.put(entry.substring(0, colon).trim(), values);
+        }
+
+        Map<String, Policy> parsed = new HashMap<>();
+        for (Map.Entry<String, Map<String, Integer>> entry : settings.entrySet()) {
+            String target = entry.getKey();
+            int hash = target.indexOf('#');
+            Map<String, Integer> repository = hash < 0
+                    ? Map.of()
+                    : settings.getOrDefault(target.substring(0, hash), Map.of());
+            Map<String, Integer> values = entry.getValue();
+            parsed.put(target, new Policy(
+                    values.getOrDefault("keep", repository.getOrDefault("keep", defaultPolicy.getKeepLast())),
+                    values.getOrDefault("days", repository.getOrDefault("days", defaultPolicy.getMaxAgeDays())),
+                    values.getOrDefault("failureDays",
+                            repository.getOrDefault("failureDays", defaultPolicy.getFailureMaxAgeDays()))));
+        }
+        return parsed;
+    }
+}
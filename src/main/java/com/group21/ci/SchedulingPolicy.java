@@ -0,0 +1,76 @@
+package com.group21.ci;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A SchedulingPolicy decides which waiting job a free BuildWorker builds next.
+ * JobQueue calls all methods while holding its lock, so implementations need
+ * no synchronization of their own.
+ * The policy is chosen by "ci.schedule.policy": "fair" (default, see
+ * FairSharePolicy) or "fifo" (jobs in the order they were queued).
+ */
+public interface SchedulingPolicy {
+
+    /**
+     * Picks the job to start next.
+     *
+     * @param waiting   The waiting jobs in the order they were queued; must not be modified.
+     * @param nowMillis The current time.
+     * @return The job to start, or null if none of them may start now (e.g. because
+     *         of a concurrency cap); JobQueue asks again once a job finishes.
+     */
+    JobQueue.BuildJob select(List<JobQueue.BuildJob> waiting, long nowMillis);
+
+    /**
+     * Called when the job returned by select() is handed to a worker.
+     */
+    void started(JobQueue.BuildJob job);
+
+    /**
+     * Called when a started job finished.
+     */
+    void finished(JobQueue.BuildJob job);
+
+    /**
+     * @return The state of the policy for the metrics endpoint.
+     */
+    Map<String, Object> getMetrics();
+
+    /**
+     * @return The policy configured by "ci.schedule.policy".
+     */
+    static SchedulingPolicy fromConfig() {
+        String name = CiConfig.getString("ci.schedule.policy", "fair");
+        if ("fifo".equalsIgnoreCase(name)) {
+            return new Fifo();
+        }
+        if (!"fair".equalsIgnoreCase(name)) {
+            System.err.println("Unknown scheduling policy " + name + ", using fair");
+        }
+        return new FairSharePolicy();
+    }
+
+    /**
+     * Starts jobs strictly in the order they were queued.
+     */
+    class Fifo implements SchedulingPolicy {
+        @Override
+        public JobQueue.BuildJob select(List<JobQueue.BuildJob> waiting, long nowMillis) {
+            return waiting.isEmpty() ? null : waiting.get(0);
+        }
+
+        @Override
+        public void started(JobQueue.BuildJob job) {
+        }
+
+        @Override
+        public void finished(JobQueue.BuildJob job) {
+        }
+
+        @Override
+        public Map<String, Object> getMetrics() {
+            return Map.of("name", "fifo");
+        }
+    }
+}
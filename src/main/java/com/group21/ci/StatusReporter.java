@@ -1,20 +1,116 @@
 package com.group21.ci;
 
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
 
 /**
  * StatusReporter updates the GitHub commit status after a CI job execution.
- * - Sends "success" or "failure" status to the GitHub API.
+ * - Sends "pending", "success", "failure" or "error" status to the GitHub API,
+ *   optionally linking it to the build page.
  * - Associates the CI result with a specific commit.
+ * - Statuses are queued and posted by a background dispatcher with a
+ *   non-blocking, keep-alive HTTP client, so reporting never holds a build slot.
+ * - Pending statuses for the same commit and context collapse into the latest one.
+ * - At most "ci.status.maxConcurrent" requests (default: 4) are in flight per host.
+ * - Failed requests are retried "ci.status.attempts" times (default: 5) with
+ *   exponential backoff starting at "ci.status.backoffMillis" (default: 1000).
+ * - Retry-After and an exhausted X-RateLimit-Remaining pause all requests to
+ *   the host until GitHub allows them again.
+ *
+ * The API is "ci.status.apiUrl" (default: "https://api.github.com").
  */
 public class StatusReporter {
-    // 🔒 GitHub personal access token (MUST be stored securely, e.g., in
-    // environment variables)
-    private static final String GITHUB_TOKEN = "your_github_personal_access_token";
+    private static final String CONTEXT = "ci-server";
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60_000;
+    private static final long MAX_PAUSE_MILLIS = 60 * 60_000;
+
+    private static StatusReporter shared;
+
+    private final HttpClient client;
+    private final URI apiUrl;
+    private final String token;
+    private final int maxConcurrent;
+    private final int attempts;
+    private final long backoffMillis;
+
+    // Guarded by lock: the latest unsent status per commit and context, in arrival order
+    private final Object lock = new Object();
+    private final Map<String, Update> pending = new LinkedHashMap<>();
+    private final Set<String> inFlight = new HashSet<>();
+    private final Map<String, Long> pausedUntil = new LinkedHashMap<>();
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong collapsed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private Thread dispatcher;
+    private volatile boolean running;
+
+    /**
+     * One status to post.
+     */
+    private static class Update {
+        final String key;
+        final URI uri;
+        final String state;
+        final String payload;
+        int attempt;
+        long notBefore;
+
+        Update(String key, URI uri, String state, String payload) {
+            this.key = key;
+            this.uri = uri;
+            this.state = state;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * @param apiUrl        The base URL of the GitHub API.
+     * @param token         The token used to authenticate.
+     * @param maxConcurrent The maximum number of concurrent requests per host.
+     * @param attempts      Attempts per status before it is dropped.
+     * @param backoffMillis The wait before the first retry; doubled for every further retry.
+     */
+    public StatusReporter(URI apiUrl, String token, int maxConcurrent, int attempts, long backoffMillis) {
+        this.client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        this.apiUrl = apiUrl;
+        this.token = token;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.attempts = Math.max(1, attempts);
+        this.backoffMillis = Math.max(1, backoffMillis);
+    }
+
+    /**
+     * @return The reporter of this server, configured from the CI settings and started on first use.
+     */
+    public static synchronized StatusReporter getShared() {
+        if (shared == null) {
+            String apiUrl = CiConfig.getString("ci.status.apiUrl", "https://api.github.com");
+            shared = new StatusReporter(URI.create(apiUrl.endsWith("/") ? apiUrl : apiUrl + "/"),
+                    System.getenv("GITHUB_TOKEN"),
+                    CiConfig.getInt("ci.status.maxConcurrent", 4),
+                    CiConfig.getInt("ci.status.attempts", 5),
+                    CiConfig.getLong("ci.status.backoffMillis", 1000));
+            shared.start();
+        }
+        return shared;
+    }
 
     /**
      * Sends a commit status update to GitHub.
@@ -25,59 +121,257 @@ public class StatusReporter {
      * @param success   Whether the CI build was successful or failed.
      */
     public static void sendStatus(String repoOwner, String repoName, String commitSHA, boolean success) {
-        try {
-            String token = System.getenv("GITHUB_TOKEN");
-            if (token == null || token.isEmpty()) {
-                System.out.println("ERROR: GITHUB_TOKEN is not set or is empty!");
+        sendStatus(repoOwner, repoName, commitSHA, success ? "success" : "failure",
+                "CI Build " + (success ? "passed" : "failed"));
+    }
+
+    /**
+     * Queues a commit status update with an explicit state for GitHub; returns immediately.
+     *
+     * @param repoOwner   The owner of the GitHub repository (e.g., "username").
+     * @param repoName    The name of the GitHub repository (e.g., "repo-name").
+     * @param commitSHA   The SHA of the commit being reported.
+     * @param state       One of GitHub's status states: "pending", "success", "failure" or "error".
+     * @param description A short human-readable description shown next to the status.
+     */
+    public static void sendStatus(String repoOwner, String repoName, String commitSHA, String state,
+                                  String description) {
+        sendStatus(repoOwner, repoName, commitSHA, state, description, null);
+    }
+
+    /**
+     * Queues a commit status update that links to a page of this server; returns immediately.
+     *
+     * @param repoOwner   The owner of the GitHub repository (e.g., "username").
+     * @param repoName    The name of the GitHub repository (e.g., "repo-name").
+     * @param commitSHA   The SHA of the commit being reported.
+     * @param state       One of GitHub's status states: "pending", "success", "failure" or "error".
+     * @param description A short human-readable description shown next to the status.
+     * @param targetUrl   The page GitHub links the status to, or null.
+     */
+    public static void sendStatus(String repoOwner, String repoName, String commitSHA, String state,
+                                  String description, String targetUrl) {
+        String token = System.getenv("GITHUB_TOKEN");
+        if (token == null || token.isEmpty()) {
+            System.out.println("ERROR: GITHUB_TOKEN is not set or is empty!");
+            return;
+        }
+        getShared().submit(repoOwner, repoName, commitSHA, state, description, targetUrl);
+    }
+
+    /**
+     * Queues a status. A pending status of the same commit and context is replaced.
+     */
+    public void submit(String repoOwner, String repoName, String commitSHA, String state, String description) {
+        submit(repoOwner, repoName, commitSHA, state, description, null);
+    }
+
+    /**
+     * Queues a status linking to targetUrl (if not null). A pending status of the
+     * same commit and context is replaced.
+     */
+    public void submit(String repoOwner, String repoName, String commitSHA, String state, String description,
+                       String targetUrl) {
+        String statusPayload = "{ \"state\": \"" + state + "\", "
+                + "\"description\": " + JSONObject.quote(description) + ", "
+                + (targetUrl == null ? "" : "\"target_url\": " + JSONObject.quote(targetUrl) + ", ")
+                + "\"context\": \"" + CONTEXT + "\"}";
+
+        String key = repoOwner + "/" + repoName + "@" + commitSHA + "#" + CONTEXT;
+        Update update = new Update(key, apiUrl.resolve("repos/" + repoOwner + "/" + repoName + "/statuses/"
+                + commitSHA), state, statusPayload);
+        synchronized (lock) {
+            // Replacing keeps the position of the older status in the queue
+            if (pending.put(key, update) != null) {
+                collapsed.incrementAndGet();
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Starts the dispatcher thread.
+     */
+    public synchronized void start() {
+        if (dispatcher != null) {
+            return;
+        }
+        running = true;
+        dispatcher = new Thread(this::dispatchLoop, "status-reporter");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Stops the dispatcher; statuses not yet sent are dropped.
+     */
+    public synchronized void close() {
+        running = false;
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+        }
+    }
+
+    /**
+     * Waits until no status is pending or in flight.
+     *
+     * @param timeoutMillis The maximum time to wait.
+     * @return true if everything was sent (or given up) in time.
+     */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (lock) {
+            while (!pending.isEmpty() || !inFlight.isEmpty()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                lock.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Counters of the reporter.
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        synchronized (lock) {
+            metrics.put("pending", pending.size());
+            metrics.put("inFlight", inFlight.size());
+        }
+        metrics.put("sent", sent.get());
+        metrics.put("collapsed", collapsed.get());
+        metrics.put("retried", retried.get());
+        metrics.put("failed", failed.get());
+        return metrics;
+    }
+
+    private void dispatchLoop() {
+        while (running) {
+            try {
+                Update update;
+                synchronized (lock) {
+                    long now = System.currentTimeMillis();
+                    update = nextReady(now);
+                    if (update == null) {
+                        lock.wait(Math.max(1, nextWakeUp(now) - now));
+                        continue;
+                    }
+                    pending.remove(update.key);
+                    inFlight.add(update.key);
+                }
+                Semaphore permits = hostPermits.computeIfAbsent(update.uri.getHost(),
+                        host -> new Semaphore(maxConcurrent));
+                permits.acquire();
+                send(update, permits);
+            } catch (InterruptedException e) {
                 return;
             }
+        }
+    }
+
+    private Update nextReady(long now) {
+        for (Update update : pending.values()) {
+            if (!inFlight.contains(update.key) && update.notBefore <= now
+                    && pausedUntil.getOrDefault(update.uri.getHost(), 0L) <= now) {
+                return update;
+            }
+        }
+        return null;
+    }
+
+    private long nextWakeUp(long now) {
+        long wakeUp = now + 1000;
+        for (Update update : pending.values()) {
+            long ready = Math.max(update.notBefore, pausedUntil.getOrDefault(update.uri.getHost(), 0L));
+            if (!inFlight.contains(update.key)) {
+                wakeUp = Math.min(wakeUp, ready);
+            }
+        }
+        return wakeUp;
+    }
+
+    private void send(Update update, Semaphore permits) {
+        HttpRequest request = HttpRequest.newBuilder(update.uri)
+                .timeout(Duration.ofSeconds(30))
+                .header("Accept", "application/vnd.github.v3+json")
+                .header("Authorization", "token " + token)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(update.payload))
+                .build();
+        try {
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        permits.release();
+                        completed(update, response, error);
+                    });
+        } catch (RuntimeException e) {
+            permits.release();
+            completed(update, null, e);
+        }
+    }
 
-            String statusUrl = "https://api.github.com/repos/" + repoOwner + "/" + repoName + "/statuses/" + commitSHA;
-            String statusPayload = "{ \"state\": \"" + (success ? "success" : "failure") + "\", "
-                    + "\"description\": \"CI Build " + (success ? "passed" : "failed") + "\", "
-                    + "\"context\": \"ci-server\"}";
-
-            HttpURLConnection connection = (HttpURLConnection) new URL(statusUrl).openConnection();
-            connection.setRequestMethod("POST");
-
-            // Add standard GitHub headers
-            connection.setRequestProperty("Accept", "application/vnd.github.v3+json");
-            connection.setRequestProperty("Authorization", "token " + token);
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setDoOutput(true);
-
-            // Debugging output
-            System.out.println("Updating status for: " + repoOwner + "/" + repoName);
-            System.out.println("Commit SHA: " + commitSHA);
-            System.out.println("API URL: " + statusUrl);
-            System.out.println("Payload: " + statusPayload);
-            System.out.println("Authorization: token XXXXXX (Length: " + token.length() + ")");
-
-            // Send the payload
-            OutputStream os = connection.getOutputStream();
-            os.write(statusPayload.getBytes());
-            os.flush();
-            os.close();
-
-            // Read response from GitHub API
-            int responseCode = connection.getResponseCode();
-            System.out.println("GitHub API Response Code: " + responseCode);
-
-            BufferedReader reader;
-            if (responseCode >= 400) {
-                reader = new BufferedReader(new InputStreamReader(connection.getErrorStream()));
+    private void completed(Update update, HttpResponse<Void> response, Throwable error) {
+        long now = System.currentTimeMillis();
+        synchronized (lock) {
+            if (response != null) {
+                long pause = pauseMillis(response, now);
+                if (pause > 0) {
+                    pausedUntil.merge(update.uri.getHost(), now + Math.min(pause, MAX_PAUSE_MILLIS), Math::max);
+                }
+            }
+            int status = response == null ? 0 : response.statusCode();
+            boolean success = status >= 200 && status < 300;
+            boolean retry = false;
+            if (success) {
+                sent.incrementAndGet();
             } else {
-                reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+                boolean rateLimited = status == 429
+                        || (status == 403 && pausedUntil.getOrDefault(update.uri.getHost(), 0L) > now);
+                retry = error != null || status >= 500 || rateLimited;
+                System.err.println("Posting status " + update.state + " of " + update.key + " failed (attempt " + (update.attempt + 1) + "/"
+                        + attempts + "): " + (error != null ? error.getMessage() : "HTTP " + status));
             }
 
-            String line;
-            while ((line = reader.readLine()) != null) {
-                System.out.println("GitHub API Response: " + line);
+            inFlight.remove(update.key);
+            if (retry && update.attempt + 1 < attempts && running) {
+                // A newer status of the same commit makes the retry pointless
+                if (!pending.containsKey(update.key)) {
+                    update.attempt++;
+                    update.notBefore = now + Math.min(MAX_BACKOFF_MILLIS, backoffMillis << (update.attempt - 1));
+                    pending.put(update.key, update);
+                    retried.incrementAndGet();
+                }
+            } else if (!success) {
+                failed.incrementAndGet();
             }
-            reader.close();
+            lock.notifyAll();
+        }
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * @return How long GitHub asks us to wait before the next request, or 0.
+     */
+    private static long pauseMillis(HttpResponse<Void> response, long now) {
+        Optional<String> retryAfter = response.headers().firstValue("Retry-After");
+        if (retryAfter.isPresent()) {
+            try {
+                return Long.parseLong(retryAfter.get().trim()) * 1000;
+            } catch (NumberFormatException e) {
+                return 60_000;
+            }
+        }
+        Optional<String> remaining = response.headers().firstValue("X-RateLimit-Remaining");
+        if (remaining.isPresent() && remaining.get().trim().equals("0")) {
+            try {
+                long reset = Long.parseLong(response.headers().firstValue("X-RateLimit-Reset").orElse("").trim());
+                return Math.max(1000, reset * 1000 - now);
+            } catch (NumberFormatException e) {
+                return 60_000;
+            }
         }
+        return 0;
     }
-}
\ No newline at end of file
+}
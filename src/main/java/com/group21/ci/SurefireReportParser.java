@@ -0,0 +1,231 @@
+package com.group21.ci;
+
+import com.group21.ci.entity.TestCaseOutcome;
+import com.group21.ci.entity.TestCaseResultEntity;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * SurefireReportParser reads the XML reports Surefire writes to
+ * target/surefire-reports with a streaming StAX reader.
+ * - summarize() only reads the root element of every report, which is enough
+ *   to decide whether the build passed.
+ * - parse() emits one TestCaseResultEntity per test case to a consumer, so even
+ *   reports with tens of thousands of test cases are handled in bounded memory.
+ */
+public class SurefireReportParser {
+    private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+    private static final int MAX_NAME_LENGTH = 512;
+
+    private SurefireReportParser() {
+    }
+
+    /**
+     * Totals over a set of reports.
+     */
+    public static class Summary {
+        int tests;
+        int failures;
+        int errors;
+        int skipped;
+
+        public int getTests() { return tests; }
+        public int getFailures() { return failures; }
+        public int getErrors() { return errors; }
+        public int getSkipped() { return skipped; }
+
+        /**
+         * @return true if no test failed or had an error.
+         */
+        public boolean isSuccessful() {
+            return failures == 0 && errors == 0;
+        }
+    }
+
+    /**
+     * Finds all Surefire XML reports of a (possibly multi-module) workspace.
+     *
+     * @param workspace The checked out repository after the build.
+     * @return The report files, sorted by path.
+     */
+    public static List<File> findReports(File workspace) throws IOException {
+        try (Stream<Path> files = Files.walk(workspace.toPath())) {
+            return files
+                    .filter(path -> path.getFileName().toString().startsWith("TEST-")
+                            && path.getFileName().toString().endsWith(".xml")
+                            && path.getParent() != null
+                            && path.getParent().getFileName().toString().equals("surefire-reports"))
+                    .sorted()
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Sums up the counters on the root testsuite element of every report,
+     * without reading the test cases.
+     *
+     * @param reports The report files.
+     * @return The totals.
+     */
+    public static Summary summarize(List<File> reports) throws IOException {
+        Summary summary = new Summary();
+        for (File report : reports) {
+            try (InputStream in = Files.newInputStream(report.toPath())) {
+                XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+                try {
+                    while (reader.hasNext()) {
+                        if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                            if ("testsuite".equals(reader.getLocalName())) {
+                                summary.tests += intAttribute(reader, "tests");
+                                summary.failures += intAttribute(reader, "failures");
+                                summary.errors += intAttribute(reader, "errors");
+                                summary.skipped += intAttribute(reader, "skipped");
+                            }
+                            break;
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            } catch (XMLStreamException e) {
+                // An empty or garbled report (e.g. from a crashed fork) counts as an error
+                System.err.println("Unreadable test report " + report + ": " + e.getMessage());
+                summary.errors++;
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Streams all test cases of the reports to a consumer.
+     *
+     * @param reports  The report files.
+     * @param consumer Receives one (not yet persisted) TestCaseResultEntity per test case.
+     * @return The totals counted from the test cases.
+     */
+    public static Summary parse(List<File> reports, Consumer<TestCaseResultEntity> consumer) throws IOException {
+        Summary summary = new Summary();
+        for (File report : reports) {
+            try (InputStream in = Files.newInputStream(report.toPath())) {
+                XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+                try {
+                    parseTestCases(reader, consumer, summary);
+                } finally {
+                    reader.close();
+                }
+            } catch (XMLStreamException e) {
+                System.err.println("Unreadable test report " + report + ": " + e.getMessage());
+                summary.errors++;
+            }
+        }
+        return summary;
+    }
+
+    private static void parseTestCases(XMLStreamReader reader, Consumer<TestCaseResultEntity> consumer,
+                                       Summary summary) throws XMLStreamException {
+        TestCaseResultEntity current = null;
+        int depth = 0;
+        int testCaseDepth = -1;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                String element = reader.getLocalName();
+                if ("testcase".equals(element)) {
+                    current = new TestCaseResultEntity(
+                            valueOrUnknown(reader.getAttributeValue(null, "classname")),
+                            valueOrUnknown(reader.getAttributeValue(null, "name")),
+                            durationMillis(reader.getAttributeValue(null, "time")),
+                            TestCaseOutcome.PASSED);
+                    testCaseDepth = depth;
+                } else if (current != null && depth == testCaseDepth + 1) {
+                    // Direct children of a testcase tell the outcome; output text is never read
+                    if ("error".equals(element)) {
+                        current.setOutcome(TestCaseOutcome.ERROR);
+                    } else if ("failure".equals(element) && current.getOutcome() != TestCaseOutcome.ERROR) {
+                        current.setOutcome(TestCaseOutcome.FAILED);
+                    } else if ("skipped".equals(element) && current.getOutcome() == TestCaseOutcome.PASSED) {
+                        current.setOutcome(TestCaseOutcome.SKIPPED);
+                    }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (current != null && depth == testCaseDepth) {
+                    count(summary, current.getOutcome());
+                    consumer.accept(current);
+                    current = null;
+                    testCaseDepth = -1;
+                }
+                depth--;
+            }
+        }
+    }
+
+    private static void count(Summary summary, TestCaseOutcome outcome) {
+        summary.tests++;
+        switch (outcome) {
+            case FAILED:
+                summary.failures++;
+                break;
+            case ERROR:
+                summary.errors++;
+                break;
+            case SKIPPED:
+                summary.skipped++;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static int intAttribute(XMLStreamReader reader, String name) {
+        String value = reader.getAttributeValue(null, name);
+        try {
+            return value == null ? 0 : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long durationMillis(String seconds) {
+        if (seconds == null) {
+            return 0;
+        }
+        try {
+            // Surefire may format large values with grouping separators, e.g. "1,234.5"
+            return Math.round(Double.parseDouble(seconds.replace(",", "")) * 1000);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String valueOrUnknown(String value) {
+        if (value == null || value.isEmpty()) {
+            return "unknown";
+        }
+        // Fits the name columns, even for long parameterized test names
+        return value.length() > MAX_NAME_LENGTH ? value.substring(0, MAX_NAME_LENGTH) : value;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // Reports come from untrusted builds: no DTDs or external entities
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
+    }
+}
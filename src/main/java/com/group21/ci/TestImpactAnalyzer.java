@@ -0,0 +1,288 @@
+package com.group21.ci;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TestImpactAnalyzer decides which tests a commit needs to run.
+ * - Diffs the commit against the last green build of its branch with JGit.
+ * - Changed test classes are run with -Dtest; changes to main sources or
+ *   resources run the tests of their Maven module and of the modules that
+ *   depend on it (-pl ... -am -amd).
+ * - Changes that only touch documentation skip the tests (the code is still compiled).
+ * - Build files (pom.xml, .mvn/, mvnw), files outside of the known source
+ *   layout, a missing baseline and every "ci.impact.fullRunEvery"-th build of
+ *   a branch (default: 10) fall back to a full run.
+ *
+ * Selection can be turned off with "ci.impact.enabled=false".
+ */
+public class TestImpactAnalyzer {
+    private static final String[] DOC_EXTENSIONS = {".md", ".txt", ".adoc", ".rst", ".png", ".jpg", ".svg"};
+    private static final String[] DOC_FILES = {"LICENSE", "NOTICE", ".gitignore", ".gitattributes"};
+
+    private final boolean enabled;
+    private final int fullRunEvery;
+    private final ConcurrentHashMap<String, AtomicInteger> buildsPerBranch = new ConcurrentHashMap<>();
+
+    /**
+     * The tests a build should run.
+     */
+    public static class Selection {
+        private final boolean fullRun;
+        private final boolean skipTests;
+        private final Set<String> modules;
+        private final Set<String> testClasses;
+        private final String reason;
+
+        private Selection(boolean fullRun, boolean skipTests, Set<String> modules, Set<String> testClasses,
+                          String reason) {
+            this.fullRun = fullRun;
+            this.skipTests = skipTests;
+            this.modules = modules;
+            this.testClasses = testClasses;
+            this.reason = reason;
+        }
+
+        static Selection full(String reason) {
+            return new Selection(true, false, Collections.emptySet(), Collections.emptySet(), reason);
+        }
+
+        public boolean isFullRun() { return fullRun; }
+        public boolean isSkipTests() { return skipTests; }
+        public Set<String> getModules() { return modules; }
+        public Set<String> getTestClasses() { return testClasses; }
+        public String getReason() { return reason; }
+
+        /**
+         * @return The Maven arguments that restrict the build to the selection.
+         */
+        public List<String> getArguments() {
+            List<String> arguments = getModuleArguments();
+            if (!fullRun && !skipTests && !testClasses.isEmpty()) {
+                arguments.add("-Dtest=" + String.join(",", testClasses));
+                arguments.add("-Dsurefire.failIfNoSpecifiedTests=false");
+            }
+            return arguments;
+        }
+
+        /**
+         * @return The Maven arguments that restrict the build to the selection, except the choice of test classes.
+         */
+        public List<String> getModuleArguments() {
+            List<String> arguments = new ArrayList<>();
+            if (fullRun) {
+                return arguments;
+            }
+            if (skipTests) {
+                arguments.add("-DskipTests");
+                return arguments;
+            }
+            boolean rootModule = modules.contains("");
+            if (!rootModule && !modules.isEmpty()) {
+                arguments.add("-pl");
+                arguments.add(String.join(",", modules));
+                // Upstream modules are needed to compile; downstream ones are affected
+                arguments.add("-am");
+                if (testClasses.isEmpty()) {
+                    arguments.add("-amd");
+                }
+            }
+            return arguments;
+        }
+    }
+
+    /**
+     * Creates a TestImpactAnalyzer configured from the CI settings.
+     */
+    public TestImpactAnalyzer() {
+        this(CiConfig.getBoolean("ci.impact.enabled", true), CiConfig.getInt("ci.impact.fullRunEvery", 10));
+    }
+
+    /**
+     * @param enabled      Whether tests are selected at all; if false every build is a full run.
+     * @param fullRunEvery Every how many builds of a branch a full run is forced (0 = never).
+     */
+    public TestImpactAnalyzer(boolean enabled, int fullRunEvery) {
+        this.enabled = enabled;
+        this.fullRunEvery = fullRunEvery;
+    }
+
+    /**
+     * Selects the tests for a checked out commit.
+     *
+     * @param job          The job being built.
+     * @param workspace    The checked out worktree of the job.
+     * @param baselineSha  The commit of the last green build of the branch, or null.
+     * @return The selection; a full run whenever the impact cannot be determined safely.
+     */
+    public Selection select(JobQueue.BuildJob job, File workspace, String baselineSha) {
+        if (!enabled) {
+            return Selection.full("test selection disabled");
+        }
+        String branchKey = job.repoOwner + "/" + job.repoName + "#" + job.branchName;
+        int buildNumber = buildsPerBranch.computeIfAbsent(branchKey, k -> new AtomicInteger()).incrementAndGet();
+        if (fullRunEvery > 0 && buildNumber % fullRunEvery == 0) {
+            return Selection.full("periodic full run");
+        }
+        if (baselineSha == null) {
+            return Selection.full("no green build of " + job.branchName + " yet");
+        }
+        if (baselineSha.equals(job.commitSHA)) {
+            return Selection.full("rebuild of the last green commit");
+        }
+        try {
+            return select(workspace, changedPaths(workspace, baselineSha, job.commitSHA));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Test impact analysis failed, running all tests: " + e.getMessage());
+            return Selection.full("impact analysis failed");
+        }
+    }
+
+    /**
+     * Lists the paths that differ between two commits.
+     *
+     * @param workspace The worktree whose repository contains both commits.
+     * @param fromSha   The older commit.
+     * @param toSha     The newer commit.
+     * @return The changed paths, relative to the repository root (old and new paths of renames).
+     */
+    static List<String> changedPaths(File workspace, String fromSha, String toSha) throws IOException {
+        try (Repository repository = new FileRepositoryBuilder()
+                .setGitDir(new File(workspace, Constants.DOT_GIT))
+                .setMustExist(true)
+                .build();
+             RevWalk walk = new RevWalk(repository);
+             DiffFormatter diff = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+            ObjectId from = repository.resolve(fromSha + "^{commit}");
+            ObjectId to = repository.resolve(toSha + "^{commit}");
+            if (from == null || to == null) {
+                throw new IOException("Commit " + (from == null ? fromSha : toSha) + " not found");
+            }
+            RevCommit fromCommit = walk.parseCommit(from);
+            RevCommit toCommit = walk.parseCommit(to);
+
+            diff.setRepository(repository);
+            diff.setDetectRenames(true);
+            List<String> paths = new ArrayList<>();
+            for (DiffEntry entry : diff.scan(fromCommit.getTree(), toCommit.getTree())) {
+                if (!DiffEntry.DEV_NULL.equals(entry.getOldPath())) {
+                    paths.add(entry.getOldPath());
+                }
+                if (!DiffEntry.DEV_NULL.equals(entry.getNewPath()) && !entry.getNewPath().equals(entry.getOldPath())) {
+                    paths.add(entry.getNewPath());
+                }
+            }
+            return paths;
+        }
+    }
+
+    /**
+     * Maps changed paths to Maven modules and test classes.
+     *
+     * @param workspace    The checked out worktree (used to find module directories).
+     * @param changedPaths The changed paths, relative to the repository root.
+     * @return The selection.
+     */
+    static Selection select(File workspace, List<String> changedPaths) {
+        Set<String> modules = new TreeSet<>();
+        Set<String> testClasses = new TreeSet<>();
+        Set<String> testModules = new TreeSet<>();
+
+        for (String path : changedPaths) {
+            String fileName = path.substring(path.lastIndexOf('/') + 1);
+            if (isBuildFile(path, fileName)) {
+                return Selection.full("build file " + path + " changed");
+            }
+            if (isDocumentation(path, fileName)) {
+                continue;
+            }
+
+            String module = moduleOf(workspace, path);
+            String inModule = module.isEmpty() ? path : path.substring(module.length() + 1);
+            if (inModule.startsWith("src/test/java/") && fileName.endsWith(".java")) {
+                String className = inModule.substring("src/test/java/".length(), inModule.length() - ".java".length())
+                        .replace('/', '.');
+                testClasses.add(className);
+                testModules.add(module);
+            } else if (inModule.startsWith("src/")) {
+                // Main code, resources or test resources: everything in and depending on the module
+                modules.add(module);
+            } else {
+                return Selection.full("unrecognised file " + path + " changed");
+            }
+        }
+
+        if (modules.isEmpty() && testClasses.isEmpty()) {
+            return new Selection(false, true, modules, testClasses, "only documentation changed");
+        }
+        if (modules.contains("")) {
+            return Selection.full("root module changed");
+        }
+        if (!modules.isEmpty()) {
+            // Whole modules run all their tests, so single classes only widen the module list
+            modules.addAll(testModules);
+            if (modules.contains("")) {
+                return Selection.full("root module changed");
+            }
+            return new Selection(false, false, modules, Collections.emptySet(), "modules " + modules + " changed");
+        }
+        Set<String> classModules = testModules.contains("") ? Collections.emptySet() : testModules;
+        return new Selection(false, false, classModules, testClasses, "test classes " + testClasses + " changed");
+    }
+
+    private static boolean isBuildFile(String path, String fileName) {
+        return fileName.equals("pom.xml") || path.startsWith(".mvn/") || fileName.startsWith("mvnw");
+    }
+
+    private static boolean isDocumentation(String path, String fileName) {
+        if (path.startsWith("docs/") || path.startsWith(".github/")) {
+            return true;
+        }
+        for (String name : DOC_FILES) {
+            if (fileName.equals(name)) {
+                return true;
+            }
+        }
+        String lower = fileName.toLowerCase();
+        for (String extension : DOC_EXTENSIONS) {
+            if (lower.endsWith(extension) && !path.contains("/src/") && !path.startsWith("src/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the Maven module a path belongs to: the nearest directory containing a pom.xml.
+     *
+     * @return The module directory relative to the repository root, "" for the root module.
+     */
+    private static String moduleOf(File workspace, String path) {
+        int slash = path.lastIndexOf('/');
+        while (slash > 0) {
+            String directory = path.substring(0, slash);
+            if (new File(workspace, directory + "/pom.xml").isFile()) {
+                return directory;
+            }
+            slash = directory.lastIndexOf('/');
+        }
+        return "";
+    }
+}
@@ -0,0 +1,161 @@
+package com.group21.ci;
+
+import com.group21.ci.dao.TestCaseResultDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * TestSharder splits the test classes of a build into balanced shards that
+ * run as parallel Surefire invocations on the build host.
+ * - Class durations are the averages recorded for the repository over the
+ *   last "ci.shards.historyDays" days (default: 30); classes without history
+ *   are assumed to take as long as the average known class.
+ * - Shards are filled longest-processing-time first: the slowest remaining
+ *   class always goes to the shard with the least total time.
+ * - Only single-module projects are sharded; multi-module builds keep one
+ *   reactor run so that module ordering stays with Maven.
+ *
+ * The number of shards is "ci.shards" (default: 1, no sharding). Without a
+ * database (on a BuildAgent) all classes are assumed to take equally long.
+ */
+public class TestSharder {
+    private static final long DEFAULT_CLASS_MILLIS = 1000;
+
+    private final int shardCount;
+    private final int historyDays;
+    private final TestCaseResultDAO testCaseResultDAO;
+
+    /**
+     * Creates a TestSharder configured from the CI settings.
+     */
+    public TestSharder() {
+        this(CiConfig.getInt("ci.shards", 1), CiConfig.getInt("ci.shards.historyDays", 30),
+                new TestCaseResultDAO());
+    }
+
+    /**
+     * @param shardCount        The number of parallel shards; 1 disables sharding.
+     * @param historyDays       How many days of test history to average over.
+     * @param testCaseResultDAO Source of the recorded test durations, or null if there is none.
+     */
+    public TestSharder(int shardCount, int historyDays, TestCaseResultDAO testCaseResultDAO) {
+        this.shardCount = Math.max(1, shardCount);
+        this.historyDays = historyDays;
+        this.testCaseResultDAO = testCaseResultDAO;
+    }
+
+    /**
+     * @return true if builds are split into more than one shard.
+     */
+    public boolean isEnabled() {
+        return shardCount > 1;
+    }
+
+    /**
+     * Plans the shards of a build.
+     *
+     * @param job       The job being built.
+     * @param workspace The checked out worktree.
+     * @param selection The tests chosen by the impact analysis.
+     * @return The test classes of every shard, or an empty list if the build should not be sharded.
+     */
+    public List<List<String>> plan(JobQueue.BuildJob job, File workspace, TestImpactAnalyzer.Selection selection)
+            throws IOException {
+        if (!isEnabled() || selection.isSkipTests() || !selection.getModules().isEmpty() || isMultiModule(workspace)) {
+            return Collections.emptyList();
+        }
+        List<String> testClasses = selection.isFullRun()
+                ? discoverTestClasses(workspace)
+                : new ArrayList<>(selection.getTestClasses());
+        if (testClasses.size() < 2) {
+            return Collections.emptyList();
+        }
+        Map<String, Long> durations = testCaseResultDAO == null
+                ? Map.of()
+                : testCaseResultDAO.getAverageClassDurations(job.repoOwner, job.repoName,
+                        LocalDateTime.now().minusDays(historyDays));
+        return partition(testClasses, durations, shardCount);
+    }
+
+    /**
+     * Distributes test classes over shards, longest-processing-time first.
+     *
+     * @param testClasses The fully qualified test class names.
+     * @param durations   Known durations in milliseconds, by class name.
+     * @param shardCount  The maximum number of shards.
+     * @return The non-empty shards.
+     */
+    static List<List<String>> partition(List<String> testClasses, Map<String, Long> durations, int shardCount) {
+        long fallback = durations.isEmpty()
+                ? DEFAULT_CLASS_MILLIS
+                : Math.max(1, (long) durations.values().stream().mapToLong(Long::longValue).average().orElse(0));
+
+        List<String> sorted = new ArrayList<>(testClasses);
+        sorted.sort(Comparator.comparingLong((String name) -> durations.getOrDefault(name, fallback)).reversed()
+                .thenComparing(Comparator.naturalOrder()));
+
+        int count = Math.min(shardCount, sorted.size());
+        List<List<String>> shards = new ArrayList<>();
+        long[] load = new long[count];
+        PriorityQueue<Integer> leastLoaded = new PriorityQueue<>(
+                Comparator.comparingLong((Integer shard) -> load[shard]).thenComparingInt(shard -> shard));
+        for (int i = 0; i < count; i++) {
+            shards.add(new ArrayList<>());
+            leastLoaded.add(i);
+        }
+        for (String testClass : sorted) {
+            int shard = leastLoaded.poll();
+            shards.get(shard).add(testClass);
+            load[shard] += durations.getOrDefault(testClass, fallback);
+            leastLoaded.add(shard);
+        }
+        return shards;
+    }
+
+    /**
+     * Finds the test classes Surefire runs by default (Test*, *Test, *Tests, *TestCase).
+     *
+     * @param workspace The checked out worktree of a single-module project.
+     * @return The fully qualified class names, sorted.
+     */
+    static List<String> discoverTestClasses(File workspace) throws IOException {
+        Path testSources = workspace.toPath().resolve("src/test/java");
+        if (!Files.isDirectory(testSources)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> files = Files.walk(testSources)) {
+            return files
+                    .filter(path -> isTestClass(path.getFileName().toString()))
+                    .map(path -> testSources.relativize(path).toString())
+                    .map(name -> name.substring(0, name.length() - ".java".length()).replace(File.separatorChar, '.'))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static boolean isTestClass(String fileName) {
+        if (!fileName.endsWith(".java")) {
+            return false;
+        }
+        String name = fileName.substring(0, fileName.length() - ".java".length());
+        return name.startsWith("Test") || name.endsWith("Test") || name.endsWith("Tests") || name.endsWith("TestCase");
+    }
+
+    private static boolean isMultiModule(File workspace) throws IOException {
+        File pom = new File(workspace, "pom.xml");
+        return pom.isFile() && new String(Files.readAllBytes(pom.toPath()), StandardCharsets.UTF_8).contains("<modules>");
+    }
+}
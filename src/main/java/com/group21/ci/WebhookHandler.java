@@ -1,97 +1,174 @@
 package com.group21.ci;
 
 import javax.servlet.http.HttpServletRequest;
-import java.io.BufferedReader;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.Map;
 
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
 /**
  * Handles incoming webhook events from GitHub.
- * This class processes HTTP requests and extracts relevant repository
- * information.
+ * Deliveries are verified, deduplicated and acknowledged right away, and parsed
+ * off the request thread (see WebhookIngestor). Only "ref", "head_commit.id" and
+ * "repository.owner.login"/"repository.name"/"repository.default_branch" are
+ * extracted, with a streaming parser that skips everything else of the payload
+ * without building a tree.
  */
 public class WebhookHandler {
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final WebhookIngestor ingestor = new WebhookIngestor(WebhookHandler::processPayload);
 
     /**
-     * Processes a webhook request from GitHub.
-     * Extracts repository details and adds a CI job to the job queue.
-     * 
+     * The fields of a push event needed to queue a build.
+     */
+    static class PushEvent {
+        String ref;
+        String commitSHA;
+        String repoOwner;
+        String repoName;
+        // Optional; decides the priority of the build
+        String defaultBranch;
+
+        boolean isComplete() {
+            return ref != null && commitSHA != null && repoOwner != null && repoName != null;
+        }
+    }
+
+    /**
+     * Accepts a webhook request from GitHub for asynchronous processing.
+     *
      * @param request The HTTP request containing the webhook payload.
+     * @return The HTTP status to answer GitHub with: 202 if the delivery was accepted,
+     *         200 for a redelivery, 401 for a forged delivery, 413 if it is too large,
+     *         503 if the build queue or the ingestion queue is full.
      */
-    public static void processWebhook(HttpServletRequest request) {
-        try {
-            // Read the incoming request payload
-            StringBuilder payload = new StringBuilder();
-            BufferedReader reader = request.getReader();
-            String line;
+    public static int processWebhook(HttpServletRequest request) {
+        // Cheap backpressure before the body is even read; a delivery accepted while the
+        // build queue fills up is rejected by processPayload with an error status instead
+        if (JobQueue.isFull()) {
+            return HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+        }
+        return ingestor.accept(request);
+    }
 
-            while ((line = reader.readLine()) != null) {
-                payload.append(line);
-            }
+    /**
+     * @return Counters of the ingestion stage.
+     */
+    public static Map<String, Object> getMetrics() {
+        return ingestor.getMetrics();
+    }
 
-            // Parse JSON payload from GitHub webhook
-            JSONObject json = new JSONObject(payload.toString());
+    /**
+     * Processes a webhook payload: extracts repository details and adds a CI job to the job queue.
+     *
+     * If the build queue is full, the commit gets an "error" status, since GitHub was
+     * already answered with 202.
+     *
+     * @param payload The raw JSON body of the delivery.
+     * @return QUEUED if a job was queued, IGNORED if the payload is invalid, REJECTED if the build queue is full.
+     */
+    static WebhookIngestor.Result processPayload(byte[] payload) {
+        PushEvent event;
+        try {
+            event = parse(payload);
+        } catch (IOException e) {
+            System.err.println("Invalid JSON received: " + e.getMessage());
+            return WebhookIngestor.Result.IGNORED;
+        }
+        if (event == null || !event.isComplete()) {
+            System.err.println("Invalid webhook payload: missing required fields.");
+            return WebhookIngestor.Result.IGNORED;
+        }
 
-            // Print for debug
-            System.out.println("Raw Webhook Payload: " + payload.toString());
-            
-            // Validate required fields exist
-            if (!json.has("repository") || !json.has("head_commit") || !json.has("ref")) {
-                System.err.println("Invalid webhook payload: missing required fields.");
-                return;  // Exit early to prevent errors
-            }
-            
-            // Extract repository owner, name, commitSHA and branch name from webhook data,
-            // and validate required fields exist
+        String branchName = event.ref.replace("refs/heads/", "");
+        System.out.println("Webhook for " + event.repoOwner + "/" + event.repoName + " " + event.commitSHA
+                + " (" + branchName + ")");
+        if (!JobQueue.addJob(event.repoOwner, event.repoName, event.commitSHA, branchName,
+                JobPriority.of(branchName, event.defaultBranch))) {
+            StatusReporter.sendStatus(event.repoOwner, event.repoName, event.commitSHA, "error",
+                    "Not built: the build queue is full, redeliver the webhook to retry");
+            return WebhookIngestor.Result.REJECTED;
+        }
+        return WebhookIngestor.Result.QUEUED;
+    }
 
-            JSONObject repository = json.getJSONObject("repository");
-            if (!repository.has("name") || !repository.has("owner")) {
-                System.err.println("Invalid repository data.");
-                return;
+    /**
+     * Extracts the fields of a push event, skipping all other values.
+     *
+     * @return The fields found, or null if the payload is not a JSON object.
+     * @throws IOException If the payload is not valid JSON.
+     */
+    static PushEvent parse(byte[] payload) throws IOException {
+        try (JsonParser parser = JSON.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
             }
-
-            JSONObject owner = repository.getJSONObject("owner");
-            if (!owner.has("login")) {
-                System.err.println("Invalid repository owner data.");
-                return;
+            PushEvent event = new PushEvent();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("ref".equals(field)) {
+                    event.ref = textOf(parser, value);
+                } else if ("head_commit".equals(field) && value == JsonToken.START_OBJECT) {
+                    event.commitSHA = readField(parser, "id");
+                } else if ("repository".equals(field) && value == JsonToken.START_OBJECT) {
+                    readRepository(parser, event);
+                } else {
+                    parser.skipChildren();
+                }
+                if (event.isComplete()) {
+                    // Nothing else is needed; the rest (e.g. the commit list) is never tokenized
+                    return event;
+                }
             }
+            return event;
+        }
+    }
 
-            String repoOwner = owner.getString("login");
-            String repoName = repository.getString("name");
-
-            JSONObject headCommit = json.getJSONObject("head_commit");
-            if (!headCommit.has("id")) {
-                System.err.println("Invalid commit data.");
-                return;
+    /**
+     * Reads "name", "default_branch" and "owner.login" of the repository object the parser is at.
+     */
+    private static void readRepository(JsonParser parser, PushEvent event) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("name".equals(field)) {
+                event.repoName = textOf(parser, value);
+            } else if ("default_branch".equals(field)) {
+                event.defaultBranch = textOf(parser, value);
+            } else if ("owner".equals(field) && value == JsonToken.START_OBJECT) {
+                event.repoOwner = readField(parser, "login");
+            } else {
+                parser.skipChildren();
             }
+        }
+    }
 
-            String commitSHA = headCommit.getString("id");
-            String ref = json.getString("ref"); // For extracting branch name of commit
-            String branchName = ref.replace("refs/heads/", "");
-
-            // Debugging output
-            System.out.println("Extracted Repo Owner: " + repoOwner);
-            System.out.println("Extracted Repo Name: " + repoName);
-            System.out.println("Commit SHA: " + commitSHA);
-            System.out.println("Branch Name: " + branchName);
-
-            JobQueue.addJob(repoOwner, repoName, commitSHA, branchName);
-
-            // Log received webhook data
-            // System.out.println("Webhook received for repo: " + repoUrl);
-
-            // Add a new job to the queue for processing the CI pipeline
-            // JobQueue.addJob(repoUrl, commitSHA);
+    /**
+     * Reads one string field of the object the parser is at and skips the rest of the object.
+     */
+    private static String readField(JsonParser parser, String name) throws IOException {
+        String found = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (name.equals(field)) {
+                found = textOf(parser, value);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return found;
+    }
 
-        } catch (IOException e) {
-            // Print error stack trace if reading the request fails
-            System.err.println("Error reading request payload: " + e.getMessage());
-            e.printStackTrace();
-        } catch (JSONException e) {
-            System.err.println("Invalid JSON received: " + e.getMessage());
-            e.printStackTrace();
+    private static String textOf(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_STRING) {
+            return parser.getText();
         }
+        parser.skipChildren();
+        return null;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,360 @@
+package com.group21.ci;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * WebhookIngestor acknowledges webhook deliveries first and processes them afterwards.
+ * - The request body is read as bytes, up to "ci.webhook.maxKiB" KiB (default: 1024);
+ *   larger deliveries are refused with 413 without being buffered.
+ * - If "ci.webhook.secret" is set, the X-Hub-Signature-256 HMAC is computed while
+ *   the body is read and compared in constant time; forged deliveries get 401.
+ * - Deliveries are deduplicated by their X-GitHub-Delivery id: ids of the last
+ *   "ci.webhook.dedupEntries" deliveries (default: 10000) are remembered for
+ *   "ci.webhook.dedupMinutes" minutes (default: 60), and a redelivery is answered
+ *   with 200 without being processed again.
+ * - The body is put on a bounded queue ("ci.webhook.queueSize", default: 200) and
+ *   answered with 202 Accepted; a full queue is answered with 503.
+ * - "ci.webhook.threads" ingestion threads (default: 1) hand the queued payloads
+ *   to the processor, which parses them and queues the build jobs. A delivery the
+ *   build queue has no room for is forgotten again, so that GitHub's redelivery of
+ *   it is processed, and counted as rejected like a 503.
+ */
+public class WebhookIngestor {
+    private static final String SIGNATURE_PREFIX = "sha256=";
+
+    /**
+     * What the processor did with a payload.
+     */
+    public enum Result {
+        // A build job was queued
+        QUEUED,
+        // The payload is not a build request, e.g. invalid or a deleted branch
+        IGNORED,
+        // The build queue had no room for the job
+        REJECTED
+    }
+
+    /**
+     * An accepted payload and its delivery id, which may be null.
+     */
+    private static class Delivery {
+        final String id;
+        final byte[] payload;
+
+        Delivery(String id, byte[] payload) {
+            this.id = id;
+            this.payload = payload;
+        }
+    }
+
+    private final Function<byte[], Result> processor;
+    private final BlockingQueue<Delivery> payloads;
+    private final int maxBytes;
+    private final int threadCount;
+    private final SecretKeySpec secret;
+    private final int dedupEntries;
+    private final long dedupTtlMillis;
+    private final List<Thread> threads = new ArrayList<>();
+
+    // Delivery ids mapped to when they were received, oldest first; guarded by itself
+    private final Map<String, Long> deliveries;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong tooLarge = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong unauthorized = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+
+    /**
+     * Creates a WebhookIngestor configured from the CI settings.
+     *
+     * @param processor Called on an ingestion thread with every accepted payload.
+     */
+    public WebhookIngestor(Function<byte[], Result> processor) {
+        this(processor, CiConfig.getInt("ci.webhook.queueSize", 200),
+                CiConfig.getInt("ci.webhook.maxKiB", 1024) * 1024,
+                CiConfig.getInt("ci.webhook.threads", 1),
+                CiConfig.getString("ci.webhook.secret", null),
+                CiConfig.getInt("ci.webhook.dedupEntries", 10_000),
+                CiConfig.getLong("ci.webhook.dedupMinutes", 60) * 60_000);
+        if (secret == null) {
+            System.err.println("WARNING: ci.webhook.secret is not set, webhook signatures are not verified");
+        }
+    }
+
+    /**
+     * Creates a WebhookIngestor that does not verify signatures.
+     *
+     * @param processor   Called on an ingestion thread with every accepted payload.
+     * @param queueSize   The number of payloads that may wait for processing.
+     * @param maxBytes    The largest accepted payload.
+     * @param threadCount The number of ingestion threads.
+     */
+    public WebhookIngestor(Function<byte[], Result> processor, int queueSize, int maxBytes, int threadCount) {
+        this(processor, queueSize, maxBytes, threadCount, null, 10_000, 60 * 60_000);
+    }
+
+    /**
+     * @param processor      Called on an ingestion thread with every accepted payload.
+     * @param queueSize      The number of payloads that may wait for processing.
+     * @param maxBytes       The largest accepted payload.
+     * @param threadCount    The number of ingestion threads.
+     * @param secret         The webhook secret shared with GitHub, or null to accept unsigned deliveries.
+     * @param dedupEntries   The number of delivery ids remembered.
+     * @param dedupTtlMillis How long a delivery id is remembered.
+     */
+    public WebhookIngestor(Function<byte[], Result> processor, int queueSize, int maxBytes, int threadCount,
+                           String secret, int dedupEntries, long dedupTtlMillis) {
+        this.processor = processor;
+        this.payloads = new LinkedBlockingQueue<>(Math.max(1, queueSize));
+        this.maxBytes = Math.max(1, maxBytes);
+        this.threadCount = Math.max(1, threadCount);
+        this.secret = secret == null || secret.isEmpty()
+                ? null
+                : new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+        this.dedupEntries = Math.max(1, dedupEntries);
+        this.dedupTtlMillis = Math.max(0, dedupTtlMillis);
+        this.deliveries = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > WebhookIngestor.this.dedupEntries;
+            }
+        };
+    }
+
+    /**
+     * Starts the ingestion threads if they are not running yet.
+     */
+    public synchronized void start() {
+        if (!threads.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(this::ingestLoop, "webhook-ingest-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+    }
+
+    /**
+     * Reads the body of a webhook request and queues it for processing.
+     *
+     * @param request The webhook request.
+     * @return The HTTP status to answer with: 202 if the payload was queued, 200 if it
+     *         is a redelivery, 401 if its signature is missing or wrong, 413 if it is too
+     *         large, 503 if the ingestion queue is full, 400 if it could not be read.
+     */
+    public int accept(HttpServletRequest request) {
+        start();
+        long contentLength = request.getContentLengthLong();
+        if (contentLength > maxBytes) {
+            tooLarge.incrementAndGet();
+            return HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+        }
+        byte[] expectedSignature = null;
+        if (secret != null) {
+            expectedSignature = parseSignature(request.getHeader("X-Hub-Signature-256"));
+            if (expectedSignature == null) {
+                unauthorized.incrementAndGet();
+                return HttpServletResponse.SC_UNAUTHORIZED;
+            }
+        }
+
+        Mac mac = secret == null ? null : newMac();
+        byte[] payload;
+        try {
+            payload = readBody(request.getInputStream(), contentLength, mac);
+        } catch (IOException e) {
+            System.err.println("Error reading webhook payload: " + e.getMessage());
+            return HttpServletResponse.SC_BAD_REQUEST;
+        }
+        if (payload == null) {
+            tooLarge.incrementAndGet();
+            return HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+        }
+        // Constant time, so the response time does not reveal how much of a forged signature matched
+        if (mac != null && !MessageDigest.isEqual(expectedSignature, mac.doFinal())) {
+            unauthorized.incrementAndGet();
+            System.err.println("Rejecting a webhook delivery with a wrong signature");
+            return HttpServletResponse.SC_UNAUTHORIZED;
+        }
+
+        // Only authentic deliveries are remembered, so forged ones cannot block real ids
+        String deliveryId = request.getHeader("X-GitHub-Delivery");
+        if (deliveryId != null && !markDelivered(deliveryId, System.currentTimeMillis())) {
+            duplicates.incrementAndGet();
+            System.out.println("Ignoring redelivery " + deliveryId);
+            return HttpServletResponse.SC_OK;
+        }
+
+        if (!payloads.offer(new Delivery(deliveryId, payload))) {
+            rejected.incrementAndGet();
+            forget(deliveryId);
+            System.err.println("Webhook queue is full, rejecting a delivery of " + payload.length + " bytes");
+            return HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+        }
+        accepted.incrementAndGet();
+        return HttpServletResponse.SC_ACCEPTED;
+    }
+
+    /**
+     * @return Counters of the ingestion stage.
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("depth", payloads.size());
+        metrics.put("accepted", accepted.get());
+        metrics.put("rejected", rejected.get());
+        metrics.put("tooLarge", tooLarge.get());
+        metrics.put("unauthorized", unauthorized.get());
+        metrics.put("duplicates", duplicates.get());
+        metrics.put("processed", processed.get());
+        metrics.put("failed", failed.get());
+        return metrics;
+    }
+
+    /**
+     * Records a delivery id.
+     *
+     * @return false if the id was already received within the TTL.
+     */
+    boolean markDelivered(String deliveryId, long nowMillis) {
+        synchronized (deliveries) {
+            Long receivedAt = deliveries.get(deliveryId);
+            if (receivedAt != null && nowMillis - receivedAt < dedupTtlMillis) {
+                return false;
+            }
+            // Re-inserting moves the id to the end, keeping the map ordered by age
+            deliveries.remove(deliveryId);
+            deliveries.put(deliveryId, nowMillis);
+            Iterator<Long> oldest = deliveries.values().iterator();
+            while (oldest.hasNext() && nowMillis - oldest.next() >= dedupTtlMillis) {
+                oldest.remove();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Removes a delivery id again, so that GitHub's redelivery of a rejected payload is let through.
+     */
+    private void forget(String deliveryId) {
+        if (deliveryId != null) {
+            synchronized (deliveries) {
+                deliveries.remove(deliveryId);
+            }
+        }
+    }
+
+    /**
+     * Reads a body of at most maxBytes bytes, feeding every chunk to the MAC as it arrives.
+     *
+     * @param contentLength The announced length, or -1 if unknown (chunked).
+     * @param mac           Receives the body, or null.
+     * @return The body, or null if it is longer than maxBytes.
+     */
+    private byte[] readBody(InputStream in, long contentLength, Mac mac) throws IOException {
+        if (contentLength >= 0) {
+            // Sized exactly, without growing a buffer
+            byte[] body = new byte[(int) contentLength];
+            int length = 0;
+            int read;
+            while (length < body.length && (read = in.read(body, length, body.length - length)) != -1) {
+                if (mac != null) {
+                    mac.update(body, length, read);
+                }
+                length += read;
+            }
+            return length == body.length ? body : Arrays.copyOf(body, length);
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream(8192);
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (body.size() + read > maxBytes) {
+                return null;
+            }
+            if (mac != null) {
+                mac.update(buffer, 0, read);
+            }
+            body.write(buffer, 0, read);
+        }
+        return body.toByteArray();
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(secret);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return The digest of a "sha256=<hex>" signature header, or null if it is missing or malformed.
+     */
+    private static byte[] parseSignature(String header) {
+        if (header == null || !header.startsWith(SIGNATURE_PREFIX)
+                || header.length() != SIGNATURE_PREFIX.length() + 64) {
+            return null;
+        }
+        byte[] digest = new byte[32];
+        for (int i = 0; i < digest.length; i++) {
+            int high = Character.digit(header.charAt(SIGNATURE_PREFIX.length() + 2 * i), 16);
+            int low = Character.digit(header.charAt(SIGNATURE_PREFIX.length() + 2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            digest[i] = (byte) (high << 4 | low);
+        }
+        return digest;
+    }
+
+    private void ingestLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Delivery delivery;
+            try {
+                delivery = payloads.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                if (processor.apply(delivery.payload) == Result.REJECTED) {
+                    // Already answered with 202, so GitHub only sees the error status of the commit
+                    rejected.incrementAndGet();
+                    forget(delivery.id);
+                }
+                processed.incrementAndGet();
+            } catch (RuntimeException e) {
+                // Keep the thread alive for the next delivery
+                failed.incrementAndGet();
+                System.err.println("Processing a webhook failed: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+}
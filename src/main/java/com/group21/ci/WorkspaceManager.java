@@ -0,0 +1,206 @@
+package com.group21.ci;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * WorkspaceManager gives every build job its own working directory.
+ * - Allocates a fresh directory per job under a configurable root.
+ * - Releases directories asynchronously on a background cleaner thread.
+ * - Optionally retains the most recent workspaces (e.g. for debugging failed
+ *   builds) and evicts the least recently used ones once the retained count or
+ *   disk quota is exceeded.
+ *
+ * Defaults are read from "ci.workspace.root" (default: "workspaces"),
+ * "ci.workspace.retain" (default: 0) and "ci.workspace.quotaMb" (default: 2048).
+ */
+public class WorkspaceManager {
+    private final File root;
+    private final int retainCount;
+    private final long quotaBytes;
+
+    // Retained workspaces in least recently used order, with their size in bytes
+    private final LinkedHashMap<File, Long> retained = new LinkedHashMap<>(16, 0.75f, true);
+    private long retainedBytes;
+
+    private final ExecutorService cleaner = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "workspace-cleaner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Creates a WorkspaceManager configured from the CI settings.
+     */
+    public WorkspaceManager() {
+        this(new File(CiConfig.getString("ci.workspace.root", "workspaces")),
+                CiConfig.getInt("ci.workspace.retain", 0),
+                CiConfig.getLong("ci.workspace.quotaMb", 2048) * 1024 * 1024);
+    }
+
+    /**
+     * Creates a WorkspaceManager with explicit limits.
+     * Workspaces left behind by a previous run are adopted and subject to the same limits.
+     *
+     * @param root        The directory under which job workspaces are created.
+     * @param retainCount How many released workspaces to keep on disk.
+     * @param quotaBytes  The maximum total size of retained workspaces.
+     */
+    public WorkspaceManager(File root, int retainCount, long quotaBytes) {
+        this.root = root;
+        this.retainCount = Math.max(0, retainCount);
+        this.quotaBytes = quotaBytes;
+        if (!root.isDirectory() && !root.mkdirs()) {
+            throw new UncheckedIOException(new IOException("Cannot create workspace root " + root));
+        }
+        adoptLeftovers();
+    }
+
+    /**
+     * Creates an empty workspace directory for a job.
+     *
+     * @param job The job the workspace is for.
+     * @return The new, empty directory.
+     * @throws IOException If the directory cannot be created.
+     */
+    public File allocate(JobQueue.BuildJob job) throws IOException {
+        String name = sanitize(job.repoOwner) + "_" + sanitize(job.repoName) + "_" + job.getId()
+                + "_" + System.currentTimeMillis();
+        File workspace = new File(root, name);
+        if (workspace.exists()) {
+            deleteDirectory(workspace);
+        }
+        Files.createDirectories(workspace.toPath());
+        return workspace;
+    }
+
+    /**
+     * Releases a workspace once its job is done. The directory is deleted (or
+     * retained, depending on the limits) on the background cleaner thread.
+     *
+     * @param workspace A directory previously returned by allocate().
+     */
+    public void release(File workspace) {
+        cleaner.execute(() -> {
+            if (retainCount == 0) {
+                deleteDirectory(workspace);
+                return;
+            }
+            retain(workspace, sizeOf(workspace));
+        });
+    }
+
+    /**
+     * Deletes retained workspaces that were last modified before a cutoff,
+     * on the background cleaner thread.
+     *
+     * @param cutoffMillis Workspaces older than this (epoch milliseconds) are deleted.
+     */
+    public void evictOlderThan(long cutoffMillis) {
+        cleaner.execute(() -> {
+            synchronized (this) {
+                Iterator<Map.Entry<File, Long>> entries = retained.entrySet().iterator();
+                while (entries.hasNext()) {
+                    Map.Entry<File, Long> entry = entries.next();
+                    if (entry.getKey().lastModified() < cutoffMillis) {
+                        entries.remove();
+                        retainedBytes -= entry.getValue();
+                        deleteDirectory(entry.getKey());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return The number of retained workspaces (for metrics and tests).
+     */
+    public synchronized int getRetainedCount() {
+        return retained.size();
+    }
+
+    /**
+     * Waits until all previously released workspaces have been processed.
+     */
+    void awaitCleanup() throws InterruptedException {
+        try {
+            cleaner.submit(() -> { }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private synchronized void retain(File workspace, long size) {
+        retained.put(workspace, size);
+        retainedBytes += size;
+
+        Iterator<Map.Entry<File, Long>> eldest = retained.entrySet().iterator();
+        while (eldest.hasNext() && (retained.size() > retainCount || retainedBytes > quotaBytes)) {
+            Map.Entry<File, Long> entry = eldest.next();
+            eldest.remove();
+            retainedBytes -= entry.getValue();
+            deleteDirectory(entry.getKey());
+        }
+    }
+
+    /**
+     * Registers workspaces of a previous server run, oldest first, so that the
+     * retention limits also apply to them.
+     */
+    private void adoptLeftovers() {
+        File[] leftovers = root.listFiles(File::isDirectory);
+        if (leftovers == null) {
+            return;
+        }
+        Arrays.sort(leftovers, Comparator.comparingLong(File::lastModified));
+        for (File leftover : leftovers) {
+            release(leftover);
+        }
+    }
+
+    private static String sanitize(String value) {
+        return value.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private static long sizeOf(File directory) {
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            return files.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        } catch (IOException | UncheckedIOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Helper method to deletes a directory its contents.
+     *
+     * @param directory The directory to be deleted.
+     */
+    static void deleteDirectory(File directory) {
+        if (directory.exists()) {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    // Do not follow symbolic links out of the workspace
+                    if (file.isDirectory() && !Files.isSymbolicLink(file.toPath())) {
+                        deleteDirectory(file);
+                    } else {
+                        file.delete();
+                    }
+                }
+            }
+            directory.delete();
+        }
+    }
+}
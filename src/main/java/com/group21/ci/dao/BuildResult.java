@@ -0,0 +1,51 @@
+package com.group21.ci.dao;
+
+import com.group21.ci.entity.TestCaseResultEntity;
+import com.group21.ci.entity.TestResultEntity;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+
+/**
+ * The outcome of one build waiting to be stored: the build record and its test cases,
+ * either in memory or, for finished builds, in a TestCaseFile
+ */
+public class BuildResult {
+    private final TestResultEntity testResult;
+    private final List<TestCaseResultEntity> testCases;
+    private final TestCaseFile testCaseFile;
+
+
+    public BuildResult(TestResultEntity testResult, List<TestCaseResultEntity> testCases) {
+        this(testResult, testCases, null);
+    }
+
+
+    public BuildResult(TestResultEntity testResult, TestCaseFile testCaseFile) {
+        this(testResult, List.of(), testCaseFile);
+    }
+
+
+    public BuildResult(TestResultEntity testResult, List<TestCaseResultEntity> testCases, TestCaseFile testCaseFile) {
+        this.testResult = testResult;
+        this.testCases = testCases;
+        this.testCaseFile = testCaseFile;
+    }
+
+    public TestResultEntity getTestResult() { return testResult; }
+    public List<TestCaseResultEntity> getTestCases() { return testCases; }
+    public TestCaseFile getTestCaseFile() { return testCaseFile; }
+
+
+    /**
+     * Pass every test case to a consumer, reading the TestCaseFile one line at a time
+     * @param consumer receives one (not yet persisted) TestCaseResultEntity per test case
+     */
+    public void forEachTestCase(Consumer<TestCaseResultEntity> consumer) {
+        testCases.forEach(consumer);
+        if (testCaseFile != null) {
+            testCaseFile.forEach(consumer);
+        }
+    }
+}
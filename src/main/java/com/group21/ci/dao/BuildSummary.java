@@ -0,0 +1,54 @@
+package com.group21.ci.dao;
+
+import com.group21.ci.entity.BuildPhase;
+import com.group21.ci.entity.TestStatus;
+
+import java.time.LocalDateTime;
+
+
+/**
+ * Read-only projection of a TestResultEntity for list views.
+ * It never carries the test log, so listing builds does not read the TEXT column.
+ */
+public class BuildSummary {
+    private final Long id;
+    private final String commitSha;
+    private final TestStatus status;
+    private final LocalDateTime timestamp;
+    private final String repoOwner;
+    private final String repoName;
+    private final String branchName;
+    private final BuildPhase phase;
+    private final LocalDateTime queuedAt;
+    private final LocalDateTime startedAt;
+    private final Long jobId;
+
+
+    public BuildSummary(Long id, String commitSha, TestStatus status, LocalDateTime timestamp,
+                        String repoOwner, String repoName, String branchName, BuildPhase phase,
+                        LocalDateTime queuedAt, LocalDateTime startedAt, Long jobId) {
+        this.id = id;
+        this.commitSha = commitSha;
+        this.status = status;
+        this.timestamp = timestamp;
+        this.repoOwner = repoOwner;
+        this.repoName = repoName;
+        this.branchName = branchName;
+        this.phase = phase;
+        this.queuedAt = queuedAt;
+        this.startedAt = startedAt;
+        this.jobId = jobId;
+    }
+
+    public Long getId() { return id; }
+    public String getCommitSha() { return commitSha; }
+    public TestStatus getStatus() { return status; }
+    public LocalDateTime getTimestamp() { return timestamp; }
+    public String getRepoOwner() { return repoOwner; }
+    public String getRepoName() { return repoName; }
+    public String getBranchName() { return branchName; }
+    public BuildPhase getPhase() { return phase; }
+    public LocalDateTime getQueuedAt() { return queuedAt; }
+    public LocalDateTime getStartedAt() { return startedAt; }
+    public Long getJobId() { return jobId; }
+}
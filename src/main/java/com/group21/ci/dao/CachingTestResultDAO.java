@@ -0,0 +1,247 @@
+package com.group21.ci.dao;
+
+
+import com.group21.ci.entity.BuildPhase;
+import com.group21.ci.entity.TestResultEntity;
+import org.hibernate.SessionFactory;
+
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+
+
+
+/**
+ * TestResultDAO with a bounded in-process read-through cache for lookups by
+ * commit SHA and by id, which the build pages and GitHub links repeat a lot.
+ * - Entries are evicted least-recently-used above maxEntries and expire after ttlMillis.
+ * - Writes through this DAO invalidate the affected entries; a lookup that
+ *   raced with a write is not cached.
+ * - Misses are not cached, so a build shows up as soon as it is stored.
+ * Cached entities are shared between callers and must not be modified.
+ */
+public class CachingTestResultDAO extends TestResultDAO {
+    private final Map<Object, Entry> entries;
+    private final int maxEntries;
+    private final long ttlMillis;
+
+    // Incremented by every write, so loads started before it are not cached
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+
+    private static final class Entry {
+        final TestResultEntity value;
+        final long expiresAt;
+
+        Entry(TestResultEntity value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+
+    /**
+     * @param maxEntries the maximum number of cached lookups
+     * @param ttlMillis how long a cached lookup stays valid
+     */
+    public CachingTestResultDAO(int maxEntries, long ttlMillis) {
+        this(HibernateUtil.getSessionFactory(), maxEntries, ttlMillis);
+    }
+
+
+    public CachingTestResultDAO(SessionFactory sessionFactory, int maxEntries, long ttlMillis) {
+        super(sessionFactory);
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlMillis = Math.max(0, ttlMillis);
+        // Access order makes the eldest entry the least recently used one
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+                return size() > CachingTestResultDAO.this.maxEntries;
+            }
+        };
+    }
+
+
+    @Override
+    public TestResultEntity getTestResultByCommitSha(String commitSha) {
+        return lookup("sha:" + commitSha, () -> super.getTestResultByCommitSha(commitSha));
+    }
+
+
+    @Override
+    public TestResultEntity getTestResultById(long id) {
+        return lookup(id, () -> super.getTestResultById(id));
+    }
+
+
+    @Override
+    public void saveTestResult(TestResultEntity testResult) {
+        invalidate(testResult);
+        try {
+            super.saveTestResult(testResult);
+        } finally {
+            invalidate(testResult);
+        }
+    }
+
+
+    @Override
+    public void saveBuildResults(List<BuildResult> results) {
+        for (BuildResult result : results) {
+            invalidateStoredRow(result.getTestResult());
+        }
+        try {
+            super.saveBuildResults(results);
+        } finally {
+            for (BuildResult result : results) {
+                invalidateStoredRow(result.getTestResult());
+            }
+        }
+    }
+
+
+    @Override
+    public boolean updatePhase(TestResultEntity testResult, BuildPhase phase) {
+        invalidate(testResult);
+        try {
+            return super.updatePhase(testResult, phase);
+        } finally {
+            invalidate(testResult);
+        }
+    }
+
+
+    @Override
+    public int cancelPendingBuilds() {
+        clear();
+        try {
+            return super.cancelPendingBuilds();
+        } finally {
+            clear();
+        }
+    }
+
+
+    @Override
+    public void deleteTestResult(String commitSha) {
+        invalidateCommit(commitSha);
+        try {
+            super.deleteTestResult(commitSha);
+        } finally {
+            invalidateCommit(commitSha);
+        }
+    }
+
+
+    @Override
+    public int deleteBuilds(List<Long> ids) {
+        clear();
+        try {
+            return super.deleteBuilds(ids);
+        } finally {
+            clear();
+        }
+    }
+
+
+    @Override
+    public int compactTestLogs(LocalDateTime before, int limit) {
+        clear();
+        try {
+            return super.compactTestLogs(before, limit);
+        } finally {
+            clear();
+        }
+    }
+
+
+    /**
+     * Drop all cached lookups
+     */
+    public void clear() {
+        writes.incrementAndGet();
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+
+    /**
+     * @return size and hit counters of the cache
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        synchronized (entries) {
+            metrics.put("entries", entries.size());
+        }
+        metrics.put("maxEntries", maxEntries);
+        metrics.put("hits", hits.get());
+        metrics.put("misses", misses.get());
+        return metrics;
+    }
+
+
+    private TestResultEntity lookup(Object key, Supplier<TestResultEntity> loader) {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt > now) {
+                hits.incrementAndGet();
+                return entry.value;
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+        misses.incrementAndGet();
+
+        long writesBefore = writes.get();
+        TestResultEntity value = loader.get();
+        if (value != null) {
+            synchronized (entries) {
+                if (writes.get() == writesBefore) {
+                    entries.put(key, new Entry(value, now + ttlMillis));
+                }
+            }
+        }
+        return value;
+    }
+
+
+    private void invalidate(TestResultEntity testResult) {
+        writes.incrementAndGet();
+        synchronized (entries) {
+            entries.remove("sha:" + testResult.getCommitSha());
+            if (testResult.getId() != null) {
+                entries.remove(testResult.getId());
+            }
+        }
+    }
+
+
+    // A template without id may update a pending row of its commit, cached under the row id
+    private void invalidateStoredRow(TestResultEntity template) {
+        if (template.getId() == null) {
+            invalidateCommit(template.getCommitSha());
+        } else {
+            invalidate(template);
+        }
+    }
+
+
+    private void invalidateCommit(String commitSha) {
+        writes.incrementAndGet();
+        synchronized (entries) {
+            entries.remove("sha:" + commitSha);
+            entries.values().removeIf(entry -> commitSha.equals(entry.value.getCommitSha()));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.group21.ci.dao;
+
+import com.group21.ci.CiConfig;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import org.hibernate.cfg.AvailableSettings;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Builds the HikariCP pool that backs a session factory and reports its statistics.
+ * - JDBC driver, URL and credentials come from the hibernate.connection.* properties
+ *   of the Hibernate configuration, pool defaults from its hibernate.hikari.* properties.
+ * - The CI settings "ci.db.pool.maxSize", "ci.db.pool.minIdle",
+ *   "ci.db.pool.connectionTimeoutMillis", "ci.db.pool.idleTimeoutMillis" and
+ *   "ci.db.pool.maxLifetimeMillis" override those defaults.
+ */
+class ConnectionPool {
+    private static final String HIKARI_PREFIX = "hibernate.hikari.";
+
+    private ConnectionPool() {
+    }
+
+    /**
+     * Creates a pool from the connection properties of a Hibernate configuration
+     * and removes those properties, so Hibernate uses the pool instead.
+     * @param settings the properties of the Hibernate configuration
+     * @param poolName the name of the pool threads and statistics
+     * @return a started pool
+     */
+    static HikariDataSource create(Properties settings, String poolName) {
+        Properties hikari = new Properties();
+        for (String name : settings.stringPropertyNames()) {
+            if (name.startsWith(HIKARI_PREFIX)) {
+                hikari.setProperty(name.substring(HIKARI_PREFIX.length()), settings.getProperty(name));
+            }
+        }
+        HikariConfig config = new HikariConfig(hikari);
+        config.setPoolName(poolName);
+        config.setJdbcUrl((String) settings.remove(AvailableSettings.URL));
+        config.setUsername((String) settings.remove(AvailableSettings.USER));
+        config.setPassword((String) settings.remove(AvailableSettings.PASS));
+        String driver = (String) settings.remove(AvailableSettings.DRIVER);
+        if (driver != null) {
+            config.setDriverClassName(driver);
+        }
+        if (config.getJdbcUrl() != null && config.getJdbcUrl().startsWith("jdbc:mysql:")) {
+            // Lets the driver send the JDBC batches of the result writer as multi-row inserts
+            config.addDataSourceProperty("rewriteBatchedStatements", "true");
+            config.addDataSourceProperty("cachePrepStmts", "true");
+        }
+
+        // HikariConfig leaves unset sizes at -1 until the pool starts
+        int maxSize = hikari.containsKey("maximumPoolSize") ? config.getMaximumPoolSize() : 10;
+        config.setMaximumPoolSize(Math.max(1, CiConfig.getInt("ci.db.pool.maxSize", maxSize)));
+        int minIdle = hikari.containsKey("minimumIdle") ? config.getMinimumIdle() : 2;
+        config.setMinimumIdle(Math.min(config.getMaximumPoolSize(), CiConfig.getInt("ci.db.pool.minIdle", minIdle)));
+        config.setConnectionTimeout(CiConfig.getLong("ci.db.pool.connectionTimeoutMillis",
+                hikari.containsKey("connectionTimeout") ? config.getConnectionTimeout() : 5000));
+        config.setIdleTimeout(CiConfig.getLong("ci.db.pool.idleTimeoutMillis", config.getIdleTimeout()));
+        config.setMaxLifetime(CiConfig.getLong("ci.db.pool.maxLifetimeMillis", config.getMaxLifetime()));
+        config.setMetricsTrackerFactory(new AcquireLatency());
+        return new HikariDataSource(config);
+    }
+
+    /**
+     * Returns the pool statistics of a session factory built by HibernateUtil.
+     * @param sessionFactoryProperties the properties of the session factory
+     * @return active, idle, total and waiting connections and the connection acquire latency,
+     *         or an empty map if the factory is not pooled
+     */
+    static Map<String, Object> getMetrics(Map<String, Object> sessionFactoryProperties) {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        Object dataSource = sessionFactoryProperties.get(AvailableSettings.DATASOURCE);
+        if (!(dataSource instanceof HikariDataSource) || ((HikariDataSource) dataSource).isClosed()) {
+            return metrics;
+        }
+        HikariDataSource pool = (HikariDataSource) dataSource;
+        HikariPoolMXBean stats = pool.getHikariPoolMXBean();
+        metrics.put("active", stats.getActiveConnections());
+        metrics.put("idle", stats.getIdleConnections());
+        metrics.put("total", stats.getTotalConnections());
+        metrics.put("waiting", stats.getThreadsAwaitingConnection());
+        metrics.put("maxSize", pool.getMaximumPoolSize());
+        if (pool.getMetricsTrackerFactory() instanceof AcquireLatency) {
+            ((AcquireLatency) pool.getMetricsTrackerFactory()).addTo(metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * Records how long callers wait for a connection.
+     */
+    private static class AcquireLatency implements MetricsTrackerFactory, IMetricsTracker {
+        private final AtomicLong acquired = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong timeouts = new AtomicLong();
+
+        @Override
+        public IMetricsTracker create(String poolName, PoolStats poolStats) {
+            return this;
+        }
+
+        @Override
+        public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+            acquired.incrementAndGet();
+            totalNanos.addAndGet(elapsedAcquiredNanos);
+            maxNanos.accumulateAndGet(elapsedAcquiredNanos, Math::max);
+        }
+
+        @Override
+        public void recordConnectionTimeout() {
+            timeouts.incrementAndGet();
+        }
+
+        void addTo(Map<String, Object> metrics) {
+            long count = acquired.get();
+            metrics.put("acquired", count);
+            metrics.put("acquireAvgMicros", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.get() / count));
+            metrics.put("acquireMaxMicros", TimeUnit.NANOSECONDS.toMicros(maxNanos.get()));
+            metrics.put("acquireTimeouts", timeouts.get());
+        }
+    }
+}
@@ -1,14 +1,14 @@
 package com.group21.ci.dao;
 
 import org.hibernate.SessionFactory;
-import org.hibernate.cfg.Configuration;
 
 public class HibernateTestUtil {
     private static SessionFactory sessionFactory = null;
 
     public static void init(String configFile) {
         if (sessionFactory == null || sessionFactory.isClosed()) {
-            sessionFactory = new Configuration().configure(configFile).buildSessionFactory();
+            // Same pooled setup as production, only the configuration file differs
+            sessionFactory = HibernateUtil.buildSessionFactory(configFile);
         }
     }
 
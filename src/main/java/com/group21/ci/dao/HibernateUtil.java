@@ -1,14 +1,22 @@
 package com.group21.ci.dao;
 
+import com.zaxxer.hikari.HikariDataSource;
 import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.cfg.AvailableSettings;
 import org.hibernate.cfg.Configuration;
 
+import java.util.Map;
+
 
 /**
  * A Utility class providing Hibernate Instance for production
  */
 public class HibernateUtil {
-    private static final SessionFactory sessionFactory = buildSessionFactory();
+    // Built on first use, so tests can build their own factories without connecting to MySQL
+    private static class Holder {
+        private static final SessionFactory sessionFactory = buildSessionFactory();
+    }
 
     /**
      * Load default hibernate.cfg.xml and build sessionFactory
@@ -17,13 +25,46 @@ public class HibernateUtil {
      */
     private static SessionFactory buildSessionFactory() {
         try {
-            return new Configuration().configure().buildSessionFactory();
+            return buildSessionFactory("hibernate.cfg.xml");
         } catch (Throwable ex) {
             throw new ExceptionInInitializerError(ex);
         }
     }
 
+    /**
+     * Build a sessionFactory from a configuration file, on a HikariCP connection pool
+     * that is closed together with the factory
+     * @param configFile the Hibernate configuration resource
+     * @return SessionFactory
+     */
+    public static SessionFactory buildSessionFactory(String configFile) {
+        Configuration configuration = new Configuration().configure(configFile);
+        HikariDataSource dataSource = ConnectionPool.create(configuration.getProperties(), "ci-db-" + configFile);
+        configuration.getProperties().put(AvailableSettings.DATASOURCE, dataSource);
+        configuration.setSessionFactoryObserver(new SessionFactoryObserver() {
+            @Override
+            public void sessionFactoryClosed(SessionFactory factory) {
+                dataSource.close();
+            }
+        });
+        try {
+            return configuration.buildSessionFactory();
+        } catch (RuntimeException e) {
+            dataSource.close();
+            throw e;
+        }
+    }
+
     public static SessionFactory getSessionFactory() {
-        return sessionFactory;
+        return Holder.sessionFactory;
+    }
+
+    /**
+     * Statistics of the connection pool of a session factory
+     * @param sessionFactory a factory built by buildSessionFactory()
+     * @return active, idle, total and waiting connections and the connection acquire latency
+     */
+    public static Map<String, Object> getPoolMetrics(SessionFactory sessionFactory) {
+        return ConnectionPool.getMetrics(sessionFactory.getProperties());
     }
-}
\ No newline at end of file
+}
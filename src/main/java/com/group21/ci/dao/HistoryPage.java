@@ -0,0 +1,23 @@
+package com.group21.ci.dao;
+
+import java.util.List;
+
+
+/**
+ * One page of build history
+ */
+public class HistoryPage {
+    private final List<BuildSummary> builds;
+    private final String nextCursor;
+
+
+    public HistoryPage(List<BuildSummary> builds, String nextCursor) {
+        this.builds = builds;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<BuildSummary> getBuilds() { return builds; }
+
+    /** The cursor of the next page, or null if this is the last page. */
+    public String getNextCursor() { return nextCursor; }
+}
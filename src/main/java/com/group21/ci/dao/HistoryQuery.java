@@ -0,0 +1,98 @@
+package com.group21.ci.dao;
+
+import com.group21.ci.entity.TestStatus;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+
+/**
+ * Filter, sort order and cursor of a build history query.
+ * - All filters are optional; null means "any".
+ * - Results are ordered by (timestamp, id), newest first unless ascending is set.
+ * - Pages are addressed with an opaque cursor (keyset pagination): the position
+ *   of the last row of the previous page, so deep pages cost the same as the first.
+ */
+public class HistoryQuery {
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 500;
+
+    private String repoOwner;
+    private String repoName;
+    private String branchName;
+    private TestStatus status;
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private boolean ascending;
+    private int limit = DEFAULT_LIMIT;
+    private LocalDateTime afterTimestamp;
+    private Long afterId;
+
+
+    public String getRepoOwner() { return repoOwner; }
+    public HistoryQuery setRepoOwner(String repoOwner) { this.repoOwner = repoOwner; return this; }
+
+    public String getRepoName() { return repoName; }
+    public HistoryQuery setRepoName(String repoName) { this.repoName = repoName; return this; }
+
+    public String getBranchName() { return branchName; }
+    public HistoryQuery setBranchName(String branchName) { this.branchName = branchName; return this; }
+
+    public TestStatus getStatus() { return status; }
+    public HistoryQuery setStatus(TestStatus status) { this.status = status; return this; }
+
+    /** Builds run at or after this time. */
+    public LocalDateTime getFrom() { return from; }
+    public HistoryQuery setFrom(LocalDateTime from) { this.from = from; return this; }
+
+    /** Builds run before this time. */
+    public LocalDateTime getTo() { return to; }
+    public HistoryQuery setTo(LocalDateTime to) { this.to = to; return this; }
+
+    public boolean isAscending() { return ascending; }
+    public HistoryQuery setAscending(boolean ascending) { this.ascending = ascending; return this; }
+
+    public int getLimit() { return limit; }
+    public HistoryQuery setLimit(int limit) {
+        this.limit = Math.max(1, Math.min(MAX_LIMIT, limit));
+        return this;
+    }
+
+    public LocalDateTime getAfterTimestamp() { return afterTimestamp; }
+    public Long getAfterId() { return afterId; }
+
+
+    /**
+     * Continue after the row a cursor points to
+     * @param cursor a cursor from a previous page, or null for the first page
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public HistoryQuery setCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            afterTimestamp = null;
+            afterId = null;
+            return this;
+        }
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = decoded.lastIndexOf('|');
+            afterTimestamp = LocalDateTime.parse(decoded.substring(0, separator));
+            afterId = Long.parseLong(decoded.substring(separator + 1));
+            return this;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+
+
+    /**
+     * Create the cursor pointing after a row
+     * @param last the last row of a page
+     * @return an opaque, URL-safe cursor
+     */
+    public static String cursorAfter(BuildSummary last) {
+        String position = last.getTimestamp() + "|" + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+}
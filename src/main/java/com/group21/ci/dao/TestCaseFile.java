@@ -0,0 +1,160 @@
+package com.group21.ci.dao;
+
+import com.group21.ci.CiConfig;
+import com.group21.ci.entity.TestCaseOutcome;
+import com.group21.ci.entity.TestCaseResultEntity;
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.function.Consumer;
+
+
+/**
+ * The test cases of one build waiting to be stored, kept in a file instead of memory
+ * so that a build with tens of thousands of test cases never holds them all at once.
+ * One compact JSON array [className, testName, durationMillis, outcome] per line.
+ * The files live in "ci.results.testCaseDir" (default: "result-spool/test-cases")
+ * until their build is stored.
+ */
+public class TestCaseFile {
+    private final File file;
+
+
+    public TestCaseFile(File file) {
+        this.file = file;
+    }
+
+
+    /**
+     * @return the directory the test case files of this host are written to
+     */
+    public static File directory() {
+        return new File(CiConfig.getString("ci.results.testCaseDir", "result-spool/test-cases"));
+    }
+
+
+    /**
+     * Start a new test case file of a build in directory()
+     * @param jobId the id of the job the test cases belong to, used in the file name
+     * @return a writer to add the test cases to
+     * @throws IOException if the file cannot be created
+     */
+    public static Writer create(long jobId) throws IOException {
+        File directory = directory();
+        Files.createDirectories(directory.toPath());
+        // Unique even if a server and an agent on the same host handle the same job
+        return new Writer(Files.createTempFile(directory.toPath(), "job-" + jobId + "-", ".jsonl").toFile());
+    }
+
+
+    public File getFile() { return file; }
+
+
+    /**
+     * Read the test cases one at a time. A last line cut off by a crash is skipped.
+     * @param consumer receives one (not yet persisted) TestCaseResultEntity per test case
+     * @throws UncheckedIOException if the file cannot be read
+     */
+    public void forEach(Consumer<TestCaseResultEntity> consumer) {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                TestCaseResultEntity testCase;
+                try {
+                    JSONArray json = new JSONArray(line);
+                    testCase = new TestCaseResultEntity(json.getString(0), json.getString(1), json.getLong(2),
+                            TestCaseOutcome.valueOf(json.getString(3)));
+                } catch (JSONException | IllegalArgumentException e) {
+                    System.err.println("Skipping unreadable test case in " + file + ": " + e.getMessage());
+                    continue;
+                }
+                consumer.accept(testCase);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Reading test cases from " + file + " failed", e);
+        }
+    }
+
+
+    /**
+     * Delete the file once its test cases are stored
+     */
+    public void delete() {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            System.err.println("Deleting " + file + " failed: " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Appends test cases to a new file; closing it without finish() deletes the file
+     */
+    public static class Writer implements Closeable {
+        private final File file;
+        private final FileOutputStream stream;
+        private final BufferedWriter out;
+        private boolean finished;
+
+
+        Writer(File file) throws IOException {
+            this.file = file;
+            this.stream = new FileOutputStream(file);
+            this.out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+        }
+
+
+        /**
+         * @throws UncheckedIOException if the test case cannot be written
+         */
+        public void add(TestCaseResultEntity testCase) {
+            try {
+                out.write(new JSONArray()
+                        .put(testCase.getClassName())
+                        .put(testCase.getTestName())
+                        .put(testCase.getDurationMillis())
+                        .put(testCase.getOutcome().toString())
+                        .toString());
+                out.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException("Writing test cases to " + file + " failed", e);
+            }
+        }
+
+
+        /**
+         * Write the file to disk; it may be the only copy of the test cases once the build is spooled
+         * @return the complete file
+         */
+        public TestCaseFile finish() throws IOException {
+            out.flush();
+            stream.getFD().sync();
+            out.close();
+            finished = true;
+            return new TestCaseFile(file);
+        }
+
+
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                out.close();
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.group21.ci.dao;
+
+
+import com.group21.ci.entity.TestCaseResultEntity;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.query.Query;
+
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+
+/**
+ * Data Access Object for table TestCaseResult
+ */
+public class TestCaseResultDAO {
+    private static final int FLUSH_EVERY = 500;
+
+    private final SessionFactory sessionFactory;
+
+
+    public TestCaseResultDAO() {
+        this.sessionFactory = HibernateUtil.getSessionFactory();
+    }
+
+
+    public TestCaseResultDAO(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+
+    /**
+     * Insert a batch of test case records in one transaction.
+     * The session is flushed and cleared periodically so that memory stays bounded.
+     * @param testCases records whose testResult is already stored
+     */
+    public void saveTestCases(List<TestCaseResultEntity> testCases) {
+        Transaction transaction = null;
+        try (Session session = sessionFactory.openSession()) {
+            transaction = session.beginTransaction();
+            int count = 0;
+            for (TestCaseResultEntity testCase : testCases) {
+                session.persist(testCase);
+                if (++count % FLUSH_EVERY == 0) {
+                    session.flush();
+                    session.clear();
+                }
+            }
+            transaction.commit();
+        } catch (Exception e) {
+            if (transaction != null) transaction.rollback();
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * Get all test cases of one build
+     * @param testResultId id of the TestResultEntity
+     * @return a list of TestCaseResultEntity
+     */
+    public List<TestCaseResultEntity> getTestCasesForBuild(Long testResultId) {
+        try (Session session = sessionFactory.openSession()) {
+            return session.createQuery(
+                            "FROM TestCaseResultEntity WHERE testResult.id = :id ORDER BY id", TestCaseResultEntity.class)
+                    .setParameter("id", testResultId)
+                    .list();
+        }
+    }
+
+
+    /**
+     * Stream all test cases of one build row by row, without building a list
+     * @param testResultId id of the TestResultEntity
+     * @param consumer receives the test cases in the order they were stored
+     */
+    public void forEachTestCase(Long testResultId, Consumer<TestCaseResultEntity> consumer) {
+        try (StatelessSession session = sessionFactory.openStatelessSession()) {
+            Query<TestCaseResultEntity> select = session.createQuery(
+                            "FROM TestCaseResultEntity WHERE testResult.id = :id ORDER BY id", TestCaseResultEntity.class)
+                    .setParameter("id", testResultId);
+            select.setFetchSize(FLUSH_EVERY);
+            try (ScrollableResults<TestCaseResultEntity> rows = select.scroll(ScrollMode.FORWARD_ONLY)) {
+                while (rows.next()) {
+                    consumer.accept(rows.get());
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Get the average duration of every test class of a repository, per build
+     * @param repoOwner owner of the repository
+     * @param repoName name of the repository
+     * @param since only builds run after this time are considered
+     * @return average total duration in milliseconds, by fully qualified class name
+     */
+    public Map<String, Long> getAverageClassDurations(String repoOwner, String repoName, LocalDateTime since) {
+        try (Session session = sessionFactory.openSession()) {
+            List<Object[]> rows = session.createQuery(
+                            "SELECT tc.className, SUM(tc.durationMillis), COUNT(DISTINCT tc.testResult.id)"
+                                    + " FROM TestCaseResultEntity tc"
+                                    + " WHERE tc.testResult.repoOwner = :repoOwner AND tc.testResult.repoName = :repoName"
+                                    + " AND tc.testResult.timestamp >= :since"
+                                    + " GROUP BY tc.className", Object[].class)
+                    .setParameter("repoOwner", repoOwner)
+                    .setParameter("repoName", repoName)
+                    .setParameter("since", since)
+                    .list();
+            Map<String, Long> durations = new HashMap<>();
+            for (Object[] row : rows) {
+                long total = ((Number) row[1]).longValue();
+                long builds = Math.max(1, ((Number) row[2]).longValue());
+                durations.put((String) row[0], total / builds);
+            }
+            return durations;
+        }
+    }
+}
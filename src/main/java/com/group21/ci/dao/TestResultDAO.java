@@ -1,13 +1,23 @@
 package com.group21.ci.dao;
 
 
+import com.group21.ci.entity.BuildPhase;
+import com.group21.ci.entity.TestCaseResultEntity;
 import com.group21.ci.entity.TestResultEntity;
+import com.group21.ci.entity.TestStatus;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
+import org.hibernate.query.Query;
 
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 
 
@@ -16,6 +26,13 @@ import java.util.List;
  * Data Access Object for table TestResult
  */
 public class TestResultDAO {
+    // Rows fetched per round trip when streaming (MySQL needs useCursorFetch=true to honour it),
+    // and rows inserted per flush when batching
+    private static final int FETCH_SIZE = 500;
+    // Finished builds that did not succeed, which retention keeps as long as failures
+    private static final List<TestStatus> FAILURES = List.of(TestStatus.FAILED, TestStatus.TIMED_OUT,
+            TestStatus.CANCELLED);
+
     private final SessionFactory sessionFactory;
 
 
@@ -51,13 +68,14 @@ public class TestResultDAO {
     /**
      * Look up a record by its commitSHA
      * @param commitSha
-     * @return a TestResultEntity
+     * @return the latest TestResultEntity of the commit, or null
      */
     public TestResultEntity getTestResultByCommitSha(String commitSha) {
         try (Session session = sessionFactory.openSession()) {
             return session.createQuery(
-                            "FROM TestResultEntity WHERE commitSha = :commitSha", TestResultEntity.class)
+                            "FROM TestResultEntity WHERE commitSha = :commitSha ORDER BY id DESC", TestResultEntity.class)
                     .setParameter("commitSha", commitSha)
+                    .setMaxResults(1)
                     .uniqueResult();
         }
     }
@@ -65,6 +83,279 @@ public class TestResultDAO {
 
 
 
+    /**
+     * Insert several builds with their test cases in one transaction, using JDBC batches.
+     * The given entities are only used as templates and are never attached to a session,
+     * and test cases are streamed from their TestCaseFile, so a failed call can be retried
+     * with the same arguments. A template with an id, or without one but with the job id
+     * of a pending row, completes the pending row of a running build; if that row is gone,
+     * a new one is inserted.
+     * @param results the builds to store
+     * @throws RuntimeException if the transaction fails; nothing is stored in that case
+     */
+    public void saveBuildResults(List<BuildResult> results) {
+        try (Session session = sessionFactory.openSession()) {
+            Transaction transaction = session.beginTransaction();
+            try {
+                saveBuildResults(session, results);
+                transaction.commit();
+            } catch (RuntimeException e) {
+                // Rolled back while the session is open, so the original error is kept
+                if (transaction.isActive()) transaction.rollback();
+                throw e;
+            }
+        }
+    }
+
+
+    private static void saveBuildResults(Session session, List<BuildResult> results) {
+        int[] pending = {0};
+        for (BuildResult result : results) {
+            TestResultEntity template = result.getTestResult();
+            TestResultEntity testResult = findStoredRow(session, template);
+            if (testResult == null) {
+                testResult = new TestResultEntity();
+                copyFields(template, testResult);
+                session.persist(testResult);
+            } else {
+                copyFields(template, testResult);
+            }
+            TestResultEntity build = testResult;
+            // Test cases are streamed from their file and flushed in batches, so memory stays bounded
+            result.forEachTestCase(testCase -> {
+                TestCaseResultEntity copy = new TestCaseResultEntity(testCase.getClassName(),
+                        testCase.getTestName(), testCase.getDurationMillis(), testCase.getOutcome());
+                copy.setTestResult(build);
+                session.persist(copy);
+                if (++pending[0] % FETCH_SIZE == 0) {
+                    session.flush();
+                    session.clear();
+                }
+            });
+        }
+    }
+
+
+    private static TestResultEntity findStoredRow(Session session, TestResultEntity template) {
+        if (template.getId() != null) {
+            return session.get(TestResultEntity.class, template.getId());
+        }
+        if (template.getJobId() == null) {
+            return null;
+        }
+        // The pending row and the updates of a running build are queued before its id is known
+        return session.createQuery("FROM TestResultEntity WHERE jobId = :jobId AND status = :pending"
+                        + " ORDER BY id DESC", TestResultEntity.class)
+                .setParameter("jobId", template.getJobId())
+                .setParameter("pending", TestStatus.PENDING)
+                .setMaxResults(1)
+                .uniqueResult();
+    }
+
+
+    private static void copyFields(TestResultEntity from, TestResultEntity to) {
+        to.setCommitSha(from.getCommitSha());
+        to.setStatus(from.getStatus());
+        to.setPhase(from.getPhase());
+        to.setTestLog(from.getTestLog());
+        to.setTimestamp(from.getTimestamp());
+        to.setQueuedAt(from.getQueuedAt());
+        to.setStartedAt(from.getStartedAt());
+        to.setRepoOwner(from.getRepoOwner());
+        to.setRepoName(from.getRepoName());
+        to.setBranchName(from.getBranchName());
+        to.setLogHash(from.getLogHash());
+        to.setLogSize(from.getLogSize());
+        to.setPeakMemoryBytes(from.getPeakMemoryBytes());
+        to.setCpuMillis(from.getCpuMillis());
+        to.setJobId(from.getJobId());
+    }
+
+
+
+
+    /**
+     * Mark the builds that are still pending as cancelled, e.g. after a restart interrupted them
+     * @return the number of builds marked
+     */
+    public int cancelPendingBuilds() {
+        Transaction transaction = null;
+        try (Session session = sessionFactory.openSession()) {
+            transaction = session.beginTransaction();
+            int updated = session.createMutationQuery(
+                            "UPDATE TestResultEntity SET status = :cancelled, phase = :done WHERE status = :pending")
+                    .setParameter("cancelled", TestStatus.CANCELLED)
+                    .setParameter("done", BuildPhase.DONE)
+                    .setParameter("pending", TestStatus.PENDING)
+                    .executeUpdate();
+            transaction.commit();
+            return updated;
+        } catch (RuntimeException e) {
+            if (transaction != null && transaction.isActive()) transaction.rollback();
+            System.err.println("Cancelling pending builds failed: " + e.getMessage());
+            return 0;
+        }
+    }
+
+
+
+
+    /**
+     * Record the phase a running build has reached
+     * @param testResult the stored row of the build
+     * @param phase the new phase
+     * @return true if the row was updated
+     */
+    public boolean updatePhase(TestResultEntity testResult, BuildPhase phase) {
+        testResult.setPhase(phase);
+        Transaction transaction = null;
+        try (Session session = sessionFactory.openSession()) {
+            transaction = session.beginTransaction();
+            int updated = session.createMutationQuery(
+                            "UPDATE TestResultEntity SET phase = :phase WHERE id = :id")
+                    .setParameter("phase", phase)
+                    .setParameter("id", testResult.getId())
+                    .executeUpdate();
+            transaction.commit();
+            return updated > 0;
+        } catch (RuntimeException e) {
+            if (transaction != null && transaction.isActive()) transaction.rollback();
+            System.err.println("Updating the phase of build " + testResult.getId() + " failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+
+
+
+    /**
+     * Look up the most recent successful build of a branch
+     * @param repoOwner
+     * @param repoName
+     * @param branchName
+     * @return a TestResultEntity, or null if the branch never had a green build
+     */
+    public TestResultEntity getLastSuccessfulBuild(String repoOwner, String repoName, String branchName) {
+        try (Session session = sessionFactory.openSession()) {
+            return session.createQuery(
+                            "FROM TestResultEntity WHERE repoOwner = :repoOwner AND repoName = :repoName"
+                                    + " AND branchName = :branchName AND status = :status ORDER BY id DESC",
+                            TestResultEntity.class)
+                    .setParameter("repoOwner", repoOwner)
+                    .setParameter("repoName", repoName)
+                    .setParameter("branchName", branchName)
+                    .setParameter("status", TestStatus.SUCCESS)
+                    .setMaxResults(1)
+                    .uniqueResult();
+        }
+    }
+
+
+
+
+    /**
+     * Get one page of build history, without loading the test logs.
+     * Uses keyset pagination on (timestamp, id), so every page is an index range scan.
+     * @param query filters, sort order, page size and cursor
+     * @return the page and the cursor of the next one
+     */
+    public HistoryPage findBuilds(HistoryQuery query) {
+        List<BuildSummary> builds = new ArrayList<>();
+        String nextCursor = streamBuilds(query, builds::add);
+        return new HistoryPage(builds, nextCursor);
+    }
+
+
+    /**
+     * Stream one page of build history row by row, without building a list
+     * @param query filters, sort order, page size and cursor
+     * @param consumer receives the builds of the page in order
+     * @return the cursor of the next page, or null if this is the last page
+     */
+    public String streamBuilds(HistoryQuery query, Consumer<BuildSummary> consumer) {
+        BuildSummary[] last = new BuildSummary[1];
+        int[] count = new int[1];
+        boolean[] more = new boolean[1];
+        // One extra row tells whether there is a next page
+        scrollBuilds(query, query.getLimit() + 1, build -> {
+            if (count[0]++ < query.getLimit()) {
+                last[0] = build;
+                consumer.accept(build);
+            } else {
+                more[0] = true;
+            }
+        });
+        return more[0] ? HistoryQuery.cursorAfter(last[0]) : null;
+    }
+
+
+    /**
+     * Stream all builds matching the filters row by row, e.g. for exports.
+     * The page size of the query is ignored; its cursor is honoured.
+     * @param query filters, sort order and cursor
+     * @param consumer receives every matching build in order
+     * @return the number of builds streamed
+     */
+    public long exportBuilds(HistoryQuery query, Consumer<BuildSummary> consumer) {
+        long[] count = new long[1];
+        scrollBuilds(query, 0, build -> {
+            count[0]++;
+            consumer.accept(build);
+        });
+        return count[0];
+    }
+
+
+    /**
+     * Scroll over the matching builds with a stateless session, so rows are
+     * neither collected in a list nor kept in a persistence context.
+     */
+    private void scrollBuilds(HistoryQuery query, int maxResults, Consumer<BuildSummary> consumer) {
+        String order = query.isAscending() ? "ASC" : "DESC";
+        String after = query.isAscending() ? ">" : "<";
+        StringBuilder hql = new StringBuilder(
+                "SELECT new com.group21.ci.dao.BuildSummary(r.id, r.commitSha, r.status, r.timestamp,"
+                        + " r.repoOwner, r.repoName, r.branchName, r.phase, r.queuedAt, r.startedAt, r.jobId)"
+                        + " FROM TestResultEntity r WHERE 1 = 1");
+        if (query.getRepoOwner() != null) hql.append(" AND r.repoOwner = :repoOwner");
+        if (query.getRepoName() != null) hql.append(" AND r.repoName = :repoName");
+        if (query.getBranchName() != null) hql.append(" AND r.branchName = :branchName");
+        if (query.getStatus() != null) hql.append(" AND r.status = :status");
+        if (query.getFrom() != null) hql.append(" AND r.timestamp >= :from");
+        if (query.getTo() != null) hql.append(" AND r.timestamp < :to");
+        if (query.getAfterId() != null) {
+            hql.append(" AND (r.timestamp ").append(after).append(" :afterTimestamp")
+                    .append(" OR (r.timestamp = :afterTimestamp AND r.id ").append(after).append(" :afterId))");
+        }
+        hql.append(" ORDER BY r.timestamp ").append(order).append(", r.id ").append(order);
+
+        try (StatelessSession session = sessionFactory.openStatelessSession()) {
+            Query<BuildSummary> select = session.createQuery(hql.toString(), BuildSummary.class);
+            if (query.getRepoOwner() != null) select.setParameter("repoOwner", query.getRepoOwner());
+            if (query.getRepoName() != null) select.setParameter("repoName", query.getRepoName());
+            if (query.getBranchName() != null) select.setParameter("branchName", query.getBranchName());
+            if (query.getStatus() != null) select.setParameter("status", query.getStatus());
+            if (query.getFrom() != null) select.setParameter("from", query.getFrom());
+            if (query.getTo() != null) select.setParameter("to", query.getTo());
+            if (query.getAfterId() != null) {
+                select.setParameter("afterTimestamp", query.getAfterTimestamp());
+                select.setParameter("afterId", query.getAfterId());
+            }
+            if (maxResults > 0) {
+                select.setMaxResults(maxResults);
+            }
+            select.setFetchSize(FETCH_SIZE);
+            try (ScrollableResults<BuildSummary> rows = select.scroll(ScrollMode.FORWARD_ONLY)) {
+                while (rows.next()) {
+                    consumer.accept(rows.get());
+                }
+            }
+        }
+    }
+
+
+
+
     /**
      * Get all records
      * @return a list of TestResultEntity
@@ -77,7 +368,7 @@ public class TestResultDAO {
 
 
     /**
-     * Delete a record by its CommitSHA
+     * Delete a record by its CommitSHA, together with its test cases
      * @param commitSha
      */
     public void deleteTestResult(String commitSha) {
@@ -86,6 +377,9 @@ public class TestResultDAO {
             transaction = session.beginTransaction();
             TestResultEntity testResult = getTestResultByCommitSha(commitSha);
             if (testResult != null) {
+                session.createMutationQuery("DELETE FROM TestCaseResultEntity WHERE testResult.id = :id")
+                        .setParameter("id", testResult.getId())
+                        .executeUpdate();
                 session.delete(testResult);
             }
             transaction.commit();
@@ -96,6 +390,169 @@ public class TestResultDAO {
     }
 
 
+    /**
+     * List the distinct repositories and branches that have builds
+     * @return {repoOwner, repoName, branchName} triples; the values are null for legacy builds
+     */
+    public List<String[]> listBranches() {
+        try (Session session = sessionFactory.openSession()) {
+            List<String[]> branches = new ArrayList<>();
+            for (Object[] row : session.createQuery(
+                    "SELECT DISTINCT r.repoOwner, r.repoName, r.branchName FROM TestResultEntity r",
+                    Object[].class).list()) {
+                branches.add(new String[]{(String) row[0], (String) row[1], (String) row[2]});
+            }
+            return branches;
+        }
+    }
+
+
+    /**
+     * Find builds of a branch that a retention policy allows to delete, oldest first:
+     * builds older than the newest keepLast ones whose age exceeds the cutoff of their status.
+     * Every finished build that did not succeed (failed, timed out, cancelled) counts as a failure;
+     * pending builds never expire
+     * @param repoOwner
+     * @param repoName
+     * @param branchName
+     * @param keepLast the number of newest builds that are always kept
+     * @param successCutoff successful builds before this time expire, or null to keep them
+     * @param failureCutoff failures before this time expire, or null to keep them
+     * @param limit the maximum number of builds returned
+     * @return the expired builds
+     */
+    public List<TestResultEntity> findExpiredBuilds(String repoOwner, String repoName, String branchName,
+                                                    int keepLast, LocalDateTime successCutoff,
+                                                    LocalDateTime failureCutoff, int limit) {
+        if (successCutoff == null && failureCutoff == null) {
+            return new ArrayList<>();
+        }
+        String branch = (repoOwner == null ? "r.repoOwner IS NULL" : "r.repoOwner = :repoOwner")
+                + (repoName == null ? " AND r.repoName IS NULL" : " AND r.repoName = :repoName")
+                + (branchName == null ? " AND r.branchName IS NULL" : " AND r.branchName = :branchName");
+        try (Session session = sessionFactory.openSession()) {
+            // The oldest of the builds that are always kept bounds the candidates
+            Object[] boundary = null;
+            if (keepLast > 0) {
+                Query<Object[]> newest = session.createQuery("SELECT r.timestamp, r.id FROM TestResultEntity r"
+                        + " WHERE " + branch + " ORDER BY r.timestamp DESC, r.id DESC", Object[].class);
+                setBranch(newest, repoOwner, repoName, branchName);
+                List<Object[]> rows = newest.setFirstResult(keepLast - 1).setMaxResults(1).list();
+                if (rows.isEmpty()) {
+                    return new ArrayList<>();
+                }
+                boundary = rows.get(0);
+            }
+
+            StringBuilder hql = new StringBuilder("FROM TestResultEntity r WHERE ").append(branch);
+            if (boundary != null) {
+                hql.append(" AND (r.timestamp < :keptTimestamp OR (r.timestamp = :keptTimestamp AND r.id < :keptId))");
+            }
+            hql.append(" AND (");
+            if (successCutoff != null) {
+                hql.append("(r.status = :success AND r.timestamp < :successCutoff)");
+            }
+            if (failureCutoff != null) {
+                hql.append(successCutoff != null ? " OR " : "")
+                        .append("(r.status IN :failures AND r.timestamp < :failureCutoff)");
+            }
+            hql.append(") ORDER BY r.timestamp ASC, r.id ASC");
+
+            Query<TestResultEntity> select = session.createQuery(hql.toString(), TestResultEntity.class);
+            setBranch(select, repoOwner, repoName, branchName);
+            if (boundary != null) {
+                select.setParameter("keptTimestamp", boundary[0]);
+                select.setParameter("keptId", boundary[1]);
+            }
+            if (successCutoff != null) {
+                select.setParameter("success", TestStatus.SUCCESS);
+                select.setParameter("successCutoff", successCutoff);
+            }
+            if (failureCutoff != null) {
+                select.setParameterList("failures", FAILURES);
+                select.setParameter("failureCutoff", failureCutoff);
+            }
+            return select.setMaxResults(limit).list();
+        }
+    }
+
+
+    private static void setBranch(Query<?> query, String repoOwner, String repoName, String branchName) {
+        if (repoOwner != null) query.setParameter("repoOwner", repoOwner);
+        if (repoName != null) query.setParameter("repoName", repoName);
+        if (branchName != null) query.setParameter("branchName", branchName);
+    }
+
+
+    /**
+     * Delete builds and their test cases in one short transaction
+     * @param ids the ids of the builds; keep the list small so locks are held briefly
+     * @return the number of deleted builds
+     */
+    public int deleteBuilds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        Transaction transaction = null;
+        try (Session session = sessionFactory.openSession()) {
+            transaction = session.beginTransaction();
+            session.createMutationQuery("DELETE FROM TestCaseResultEntity WHERE testResult.id IN (:ids)")
+                    .setParameterList("ids", ids)
+                    .executeUpdate();
+            int deleted = session.createMutationQuery("DELETE FROM TestResultEntity WHERE id IN (:ids)")
+                    .setParameterList("ids", ids)
+                    .executeUpdate();
+            transaction.commit();
+            return deleted;
+        } catch (RuntimeException e) {
+            if (transaction != null && transaction.isActive()) transaction.rollback();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Count the builds that reference an archived log
+     * @param logHash the hash of the log
+     * @return the number of builds
+     */
+    public long countBuildsWithLog(String logHash) {
+        try (Session session = sessionFactory.openSession()) {
+            return session.createQuery("SELECT COUNT(r) FROM TestResultEntity r WHERE r.logHash = :logHash", Long.class)
+                    .setParameter("logHash", logHash)
+                    .uniqueResult();
+        }
+    }
+
+
+    /**
+     * Clear the test_log text of old builds (their full logs are in the LogStore), in one short transaction
+     * @param before builds older than this are compacted
+     * @param limit the maximum number of builds compacted
+     * @return the number of compacted builds
+     */
+    public int compactTestLogs(LocalDateTime before, int limit) {
+        Transaction transaction = null;
+        try (Session session = sessionFactory.openSession()) {
+            transaction = session.beginTransaction();
+            List<Long> ids = session.createQuery("SELECT r.id FROM TestResultEntity r"
+                            + " WHERE r.timestamp < :before AND r.testLog <> '' ORDER BY r.id", Long.class)
+                    .setParameter("before", before)
+                    .setMaxResults(limit)
+                    .list();
+            int compacted = ids.isEmpty() ? 0 : session.createMutationQuery(
+                            "UPDATE TestResultEntity SET testLog = '' WHERE id IN (:ids)")
+                    .setParameterList("ids", ids)
+                    .executeUpdate();
+            transaction.commit();
+            return compacted;
+        } catch (RuntimeException e) {
+            if (transaction != null && transaction.isActive()) transaction.rollback();
+            throw e;
+        }
+    }
+
+
     /**
      * Retrieves a build result by commit SHA.
      * @param commitSha The commit identifier.
@@ -108,8 +565,13 @@ public class TestResultDAO {
     }
 
 
-    public TestResultEntity getTestResultById(int id) {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+    /**
+     * Look up a record by its id
+     * @param id
+     * @return a TestResultEntity, or null if there is none
+     */
+    public TestResultEntity getTestResultById(long id) {
+        try (Session session = sessionFactory.openSession()) {
             return session.get(TestResultEntity.class, id);
         }
     }
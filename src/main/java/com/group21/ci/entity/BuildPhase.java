@@ -0,0 +1,9 @@
+package com.group21.ci.entity;
+
+
+/**
+ * The stages a build goes through, in order
+ */
+public enum BuildPhase {
+    QUEUED, CLONING, BUILDING, TESTING, DONE;
+}
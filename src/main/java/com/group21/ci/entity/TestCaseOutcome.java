@@ -0,0 +1,9 @@
+package com.group21.ci.entity;
+
+
+/**
+ * Possible outcomes of a single test case, as reported by Surefire
+ */
+public enum TestCaseOutcome {
+    PASSED, FAILED, ERROR, SKIPPED;
+}
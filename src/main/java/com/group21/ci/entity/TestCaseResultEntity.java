@@ -0,0 +1,67 @@
+package com.group21.ci.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * This table stores one row per executed test case:
+ * 	•	The build (TestResultEntity) the test case ran in.
+ * 	•	Test class and test method name.
+ * 	•	Duration in milliseconds.
+ * 	•	Outcome (PASSED, FAILED, ERROR or SKIPPED).
+ */
+@Entity
+@Table(name = "test_case_results",
+        indexes = @Index(name = "idx_test_case_results_build", columnList = "test_result_id"))
+public class TestCaseResultEntity {
+    // Ids come from a pooled table generator instead of IDENTITY so inserts can be JDBC-batched
+    @Id
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "test_case_result_ids")
+    @TableGenerator(name = "test_case_result_ids", table = "id_generators",
+            pkColumnValue = "test_case_results", allocationSize = 500)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "test_result_id", nullable = false)
+    private TestResultEntity testResult;
+
+    @Column(name = "class_name", nullable = false, length = 512)
+    private String className;
+
+    @Column(name = "test_name", nullable = false, length = 512)
+    private String testName;
+
+    @Column(name = "duration_ms", nullable = false)
+    private long durationMillis;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "outcome", nullable = false)
+    private TestCaseOutcome outcome;
+
+    // Constructors
+    public TestCaseResultEntity() {}
+
+    public TestCaseResultEntity(String className, String testName, long durationMillis, TestCaseOutcome outcome) {
+        this.className = className;
+        this.testName = testName;
+        this.durationMillis = durationMillis;
+        this.outcome = outcome;
+    }
+
+    // Getters and Setters
+    public Long getId() { return id; }
+
+    public TestResultEntity getTestResult() { return testResult; }
+    public void setTestResult(TestResultEntity testResult) { this.testResult = testResult; }
+
+    public String getClassName() { return className; }
+    public void setClassName(String className) { this.className = className; }
+
+    public String getTestName() { return testName; }
+    public void setTestName(String testName) { this.testName = testName; }
+
+    public long getDurationMillis() { return durationMillis; }
+    public void setDurationMillis(long durationMillis) { this.durationMillis = durationMillis; }
+
+    public TestCaseOutcome getOutcome() { return outcome; }
+    public void setOutcome(TestCaseOutcome outcome) { this.outcome = outcome; }
+}
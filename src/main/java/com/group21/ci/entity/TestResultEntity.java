@@ -6,23 +6,39 @@ import java.time.LocalDateTime;
 /**
  * This table stores:
  * 	•	Commit SHA (to identify the code version).
- * 	•	Test status (SUCCESS or FAILED).
- * 	•	Test logs (console output of mvn test).
- * 	•	Timestamp (when the test was run).
+ * 	•	Test status (SUCCESS or FAILED, PENDING while the build runs) and its phase.
+ * 	•	Test logs (console output of mvn test), kept in the LogStore and referenced by hash and size.
+ * 	•	Timestamp (when the test was run), and when the build was queued and started.
+ * 	•	Repository and branch (to find the last green build of a branch).
+ * 	•	The id of the job that built it, under which the build is cancelled and its log followed.
  */
 @Entity
-@Table(name = "test_results")
+@Table(name = "test_results", indexes = {
+        @Index(name = "idx_test_results_commit", columnList = "commit_sha"),
+        @Index(name = "idx_test_results_branch", columnList = "repo_owner, repo_name, branch_name, status"),
+        // Keyset pagination of the build history, with and without repository filters
+        @Index(name = "idx_test_results_time", columnList = "timestamp, id"),
+        @Index(name = "idx_test_results_repo_time", columnList = "repo_owner, repo_name, branch_name, timestamp, id"),
+        @Index(name = "idx_test_results_status_time", columnList = "status, timestamp, id"),
+        @Index(name = "idx_test_results_job", columnList = "job_id, status")
+})
 public class TestResultEntity {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
-    @Column(name = "commit_sha", nullable = false, unique = true)
+    // Not unique: a commit can be built more than once
+    @Column(name = "commit_sha", nullable = false)
     private String commitSha;
 
     @Enumerated(EnumType.STRING)
     @Column(name = "status", nullable = false)
-    private TestStatus status;  // SUCCESS / FAILED
+    private TestStatus status;  // SUCCESS / FAILED / PENDING / CANCELLED / TIMED_OUT
+
+    // Null for builds stored before phases were tracked
+    @Enumerated(EnumType.STRING)
+    @Column(name = "phase")
+    private BuildPhase phase;
 
     @Column(name = "test_log", columnDefinition = "TEXT", nullable = false)
     private String testLog;  // Stores the output of "mvn test"
@@ -30,6 +46,40 @@ public class TestResultEntity {
     @Column(name = "timestamp", nullable = false)
     private LocalDateTime timestamp;
 
+    @Column(name = "queued_at")
+    private LocalDateTime queuedAt;
+
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+
+    @Column(name = "repo_owner")
+    private String repoOwner;
+
+    @Column(name = "repo_name")
+    private String repoName;
+
+    @Column(name = "branch_name")
+    private String branchName;
+
+    // SHA-256 of the full build log in the LogStore, or null if it was not archived
+    @Column(name = "log_hash", length = 64)
+    private String logHash;
+
+    @Column(name = "log_size")
+    private Long logSize;
+
+    // Measured by the build's cgroup (see BuildSandbox); null if it ran without one
+    @Column(name = "peak_memory_bytes")
+    private Long peakMemoryBytes;
+
+    @Column(name = "cpu_millis")
+    private Long cpuMillis;
+
+    // JobQueue id for /api/builds/{jobId}/log and /cancel; null for builds stored before it was kept.
+    // Updates of a running build are written without the row id and find the pending row by it.
+    @Column(name = "job_id")
+    private Long jobId;
+
     // Constructors
     public TestResultEntity() {}
 
@@ -40,8 +90,29 @@ public class TestResultEntity {
         this.timestamp = timestamp;
     }
 
+    /**
+     * @return A detached copy of all fields, e.g. to store the state of a running build while it goes on.
+     */
+    public TestResultEntity copy() {
+        TestResultEntity copy = new TestResultEntity(commitSha, status, testLog, timestamp);
+        copy.id = id;
+        copy.phase = phase;
+        copy.queuedAt = queuedAt;
+        copy.startedAt = startedAt;
+        copy.repoOwner = repoOwner;
+        copy.repoName = repoName;
+        copy.branchName = branchName;
+        copy.logHash = logHash;
+        copy.logSize = logSize;
+        copy.peakMemoryBytes = peakMemoryBytes;
+        copy.cpuMillis = cpuMillis;
+        copy.jobId = jobId;
+        return copy;
+    }
+
     // Getters and Setters
     public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
 
     public String getCommitSha() { return commitSha; }
     public void setCommitSha(String commitSha) { this.commitSha = commitSha; }
@@ -52,6 +123,39 @@ public class TestResultEntity {
     public String getTestLog() { return testLog; }
     public void setTestLog(String testLog) { this.testLog = testLog; }
 
+    public BuildPhase getPhase() { return phase; }
+    public void setPhase(BuildPhase phase) { this.phase = phase; }
+
     public LocalDateTime getTimestamp() { return timestamp; }
     public void setTimestamp(LocalDateTime timestamp) { this.timestamp = timestamp; }
-}
\ No newline at end of file
+
+    public LocalDateTime getQueuedAt() { return queuedAt; }
+    public void setQueuedAt(LocalDateTime queuedAt) { this.queuedAt = queuedAt; }
+
+    public LocalDateTime getStartedAt() { return startedAt; }
+    public void setStartedAt(LocalDateTime startedAt) { this.startedAt = startedAt; }
+
+    public String getRepoOwner() { return repoOwner; }
+    public void setRepoOwner(String repoOwner) { this.repoOwner = repoOwner; }
+
+    public String getRepoName() { return repoName; }
+    public void setRepoName(String repoName) { this.repoName = repoName; }
+
+    public String getBranchName() { return branchName; }
+    public void setBranchName(String branchName) { this.branchName = branchName; }
+
+    public String getLogHash() { return logHash; }
+    public void setLogHash(String logHash) { this.logHash = logHash; }
+
+    public Long getLogSize() { return logSize; }
+    public void setLogSize(Long logSize) { this.logSize = logSize; }
+
+    public Long getPeakMemoryBytes() { return peakMemoryBytes; }
+    public void setPeakMemoryBytes(Long peakMemoryBytes) { this.peakMemoryBytes = peakMemoryBytes; }
+
+    public Long getCpuMillis() { return cpuMillis; }
+    public void setCpuMillis(Long cpuMillis) { this.cpuMillis = cpuMillis; }
+
+    public Long getJobId() { return jobId; }
+    public void setJobId(Long jobId) { this.jobId = jobId; }
+}
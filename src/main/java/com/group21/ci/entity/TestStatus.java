@@ -2,8 +2,9 @@ package com.group21.ci.entity;
 
 
 /**
- * Three possible status of each run
+ * Possible status of each run; PENDING while the build is still running,
+ * TIMED_OUT if it was stopped by its wall-clock or inactivity timeout
  */
 public enum TestStatus {
-    SUCCESS, FAILED, PENDING;
-}
\ No newline at end of file
+    SUCCESS, FAILED, PENDING, CANCELLED, TIMED_OUT;
+}
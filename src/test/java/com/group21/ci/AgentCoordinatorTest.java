@@ -0,0 +1,222 @@
+package com.group21.ci;
+
+import com.group21.ci.entity.BuildPhase;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AgentCoordinatorTest {
+    private static final String TOKEN = "secret";
+
+    private Server server;
+    private AgentCoordinator coordinator;
+    private final List<BuildAgent> agents = new ArrayList<>();
+    private final FakeBackend backend = new FakeBackend();
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    /**
+     * Hands out the jobs of an in-memory queue and records what the agents report.
+     */
+    private static class FakeBackend implements AgentCoordinator.Backend {
+        final LinkedBlockingQueue<JobQueue.BuildJob> queue = new LinkedBlockingQueue<>();
+        final Map<Long, List<String>> logs = new ConcurrentHashMap<>();
+        final Map<Long, BuildExecutor.Outcome> finished = new ConcurrentHashMap<>();
+        final List<Long> lost = new CopyOnWriteArrayList<>();
+
+        @Override
+        public JobQueue.BuildJob take(Predicate<JobQueue.BuildJob> eligible, long timeoutMillis)
+                throws InterruptedException {
+            return queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public String started(JobQueue.BuildJob job) {
+            return "base-" + job.commitSHA;
+        }
+
+        @Override
+        public void phase(JobQueue.BuildJob job, BuildPhase phase, String description) {
+        }
+
+        @Override
+        public void log(JobQueue.BuildJob job, List<String> lines) {
+            logs.computeIfAbsent(job.getId(), id -> new CopyOnWriteArrayList<>()).addAll(lines);
+        }
+
+        @Override
+        public void finished(JobQueue.BuildJob job, BuildExecutor.Outcome outcome) {
+            finished.put(job.getId(), outcome);
+        }
+
+        @Override
+        public void lost(JobQueue.BuildJob job) {
+            lost.add(job.getId());
+        }
+    }
+
+    private int startServer(String token, long leaseMillis, long pollMillis) throws Exception {
+        coordinator = new AgentCoordinator(backend, token, leaseMillis, pollMillis);
+        server = new Server(0);
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+                baseRequest.setHandled(true);
+                coordinator.handle(target, request, response);
+            }
+        });
+        server.start();
+        return ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        agents.forEach(BuildAgent::close);
+        if (coordinator != null) {
+            coordinator.close();
+        }
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    private HttpResponse<String> post(int port, String path, String token, String body) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body));
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testAgents_BuildQueuedJobsAndReportLogsAndResults() throws Exception {
+        int port = startServer(TOKEN, 3_000, 200);
+        coordinator.start();
+
+        BuildExecutor executor = mock(BuildExecutor.class);
+        when(executor.execute(any(), any(), any(), any(), any())).thenAnswer(invocation -> {
+            JobQueue.BuildJob job = invocation.getArgument(0);
+            BuildLog log = invocation.getArgument(1);
+            String baseline = invocation.getArgument(2);
+            BiConsumer<BuildPhase, String> phases = invocation.getArgument(4);
+            phases.accept(BuildPhase.TESTING, "Running tests");
+            log.append("built " + job.commitSHA + " since " + baseline);
+            return new BuildExecutor.Outcome(true, null);
+        });
+        for (int i = 0; i < 2; i++) {
+            BuildAgent agent = new BuildAgent(URI.create("http://localhost:" + port), TOKEN, "agent-" + i, 1,
+                    Map.of("jdk", "17"), executor, 50);
+            agents.add(agent);
+            agent.start();
+        }
+
+        List<JobQueue.BuildJob> jobs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            JobQueue.BuildJob job = new JobQueue.BuildJob("owner", "repo", "sha" + i, "branch-" + i);
+            jobs.add(job);
+            backend.queue.add(job);
+        }
+
+        long deadline = System.currentTimeMillis() + 20_000;
+        while ((backend.finished.size() < jobs.size()
+                || agents.get(0).getBuiltCount() + agents.get(1).getBuiltCount() < jobs.size())
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(jobs.size(), backend.finished.size(), "All jobs should be built by the agents.");
+        for (JobQueue.BuildJob job : jobs) {
+            assertTrue(backend.finished.get(job.getId()).isSuccess());
+            assertTrue(backend.logs.get(job.getId()).contains("built " + job.commitSHA + " since base-" + job.commitSHA),
+                    "The log lines should arrive before the result.");
+        }
+        assertTrue(backend.lost.isEmpty());
+        assertEquals(4L, agents.get(0).getBuiltCount() + agents.get(1).getBuiltCount());
+        assertEquals(4L, coordinator.getMetrics().get("completed"));
+        assertEquals(2, ((List<Object>) coordinator.getMetrics().get("agents")).size());
+    }
+
+    @Test
+    void testLease_ExpiresWithoutHeartbeatsAndRefusesLateResults() throws Exception {
+        int port = startServer(TOKEN, 1_000, 100);
+        assertEquals(401, post(port, "/api/agents/register", null, "{}").statusCode());
+        assertEquals(401, post(port, "/api/agents/register", "wrong", "{}").statusCode());
+
+        JSONObject registration = new JSONObject(post(port, "/api/agents/register", TOKEN,
+                "{\"name\":\"slow\",\"capacity\":1}").body());
+        String agentId = registration.getString("agentId");
+        assertEquals(100, registration.getLong("pollMillis"));
+        assertEquals(204, post(port, "/api/agents/" + agentId + "/poll", TOKEN, "").statusCode(),
+                "An empty queue should answer no content after the poll timeout.");
+
+        JobQueue.BuildJob job = new JobQueue.BuildJob("owner", "repo", "abc123", "feature");
+        backend.queue.add(job);
+        HttpResponse<String> poll = post(port, "/api/agents/" + agentId + "/poll", TOKEN, "");
+        assertEquals(200, poll.statusCode());
+        assertEquals(job.getId(), new JSONObject(poll.body()).getLong("id"));
+        assertEquals(BuildTimeouts.of(job).getTotalMillis(), new JSONObject(poll.body()).getLong("timeoutMillis"),
+                "The agent should get the server's timeouts of the job.");
+        assertEquals(409, post(port, "/api/agents/" + agentId + "/poll", TOKEN, "").statusCode(),
+                "An agent at capacity should not get another job.");
+
+        String jobPath = "/api/agents/" + agentId + "/jobs/" + job.getId();
+        assertEquals(204, post(port, jobPath + "/log?from=0", TOKEN, "one\ntwo\n").statusCode());
+        assertEquals(204, post(port, jobPath + "/log?from=1", TOKEN, "two\nthree\n").statusCode());
+        assertEquals(List.of("one", "two", "three"), backend.logs.get(job.getId()),
+                "Lines sent again should be skipped.");
+
+        coordinator.expireLeases(System.currentTimeMillis() + 2_000);
+        assertEquals(List.of(job.getId()), backend.lost);
+        assertEquals(404, post(port, jobPath + "/result", TOKEN, "{\"status\":\"SUCCESS\"}").statusCode(),
+                "The agent is forgotten with its lease and has to register again.");
+        assertTrue(backend.finished.isEmpty());
+        assertEquals(1L, coordinator.getMetrics().get("expired"));
+    }
+
+    @Test
+    void testHandle_DisabledWithoutToken() throws Exception {
+        int port = startServer("", 1_000, 100);
+        assertEquals(404, post(port, "/api/agents/register", "", "{}").statusCode());
+    }
+
+    @Test
+    void testSatisfies_NumericLabelsAreMinimums() {
+        Map<String, Map<String, String>> requirements =
+                AgentLabels.parseRequirements("team/app:jdk=17,docker=true;team/ml:cores=16");
+        Map<String, String> app = requirements.get("team/app");
+
+        assertTrue(AgentLabels.satisfies(Map.of("jdk", "21", "docker", "true"), app));
+        assertFalse(AgentLabels.satisfies(Map.of("jdk", "11", "docker", "true"), app));
+        assertFalse(AgentLabels.satisfies(Map.of("jdk", "17"), app));
+        assertFalse(AgentLabels.satisfies(Map.of("cores", "8"), requirements.get("team/ml")));
+        assertTrue(AgentLabels.satisfies(Map.of(), Map.of()));
+        assertThrows(IllegalArgumentException.class, () -> AgentLabels.parseRequirements("team/app"));
+    }
+}
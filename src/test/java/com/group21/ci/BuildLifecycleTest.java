@@ -0,0 +1,91 @@
+package com.group21.ci;
+
+import com.group21.ci.dao.HibernateTestUtil;
+import com.group21.ci.dao.TestResultDAO;
+import com.group21.ci.entity.BuildPhase;
+import com.group21.ci.entity.TestResultEntity;
+import com.group21.ci.entity.TestStatus;
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BuildLifecycleTest {
+    @TempDir
+    File spoolDir;
+
+    private TestResultDAO testResultDAO;
+    private ResultWriter resultWriter;
+
+    @BeforeEach
+    void setUp() {
+        HibernateTestUtil.init("hibernate-test.cfg.xml");
+        try (Session session = HibernateTestUtil.getSessionFactory().openSession()) {
+            session.beginTransaction();
+            session.createQuery("DELETE FROM TestCaseResultEntity").executeUpdate();
+            session.createQuery("DELETE FROM TestResultEntity").executeUpdate();
+            session.getTransaction().commit();
+        }
+        testResultDAO = new TestResultDAO(HibernateTestUtil.getSessionFactory());
+        resultWriter = new ResultWriter(testResultDAO, 10, 50, 20, 2, 1, new File(spoolDir, "results.jsonl"));
+        resultWriter.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        resultWriter.close();
+    }
+
+    @Test
+    void testLifecycle_StoresPendingBuildAndCompletesTheSameRow() throws Exception {
+        BuildLifecycle lifecycle = new BuildLifecycle(resultWriter, "http://ci.example.com/", 0);
+        JobQueue.BuildJob job = new JobQueue.BuildJob("owner", "repo", "abc123", "main");
+
+        TestResultEntity build = lifecycle.started(job);
+        assertTrue(resultWriter.awaitSettled(10_000), "A started build should be stored in the background.");
+        TestResultEntity running = testResultDAO.getTestResultByCommitSha("abc123");
+        assertEquals(TestStatus.PENDING, running.getStatus());
+        assertEquals(BuildPhase.CLONING, running.getPhase());
+        assertEquals(job.getId(), running.getJobId());
+        assertNotNull(running.getQueuedAt());
+        assertFalse(running.getStartedAt().isBefore(running.getQueuedAt()));
+
+        lifecycle.advance(job, build, BuildPhase.TESTING, "Running tests");
+        // Phases only move forward
+        lifecycle.advance(job, build, BuildPhase.BUILDING, "Compiling");
+        assertTrue(resultWriter.awaitSettled(10_000));
+        assertEquals(BuildPhase.TESTING, testResultDAO.getTestResultByCommitSha("abc123").getPhase());
+
+        lifecycle.finished(build, TestStatus.SUCCESS);
+        resultWriter.submit(build, List.of());
+        assertTrue(resultWriter.awaitSettled(10_000));
+
+        assertEquals(1, testResultDAO.getAllTestResults().size(), "The result should complete the pending row.");
+        TestResultEntity done = testResultDAO.getTestResultByCommitSha("abc123");
+        assertEquals(TestStatus.SUCCESS, done.getStatus());
+        assertEquals(BuildPhase.DONE, done.getPhase());
+        assertEquals(running.getStartedAt(), done.getStartedAt());
+        assertEquals("http://ci.example.com/builds/abc123", lifecycle.targetUrl("abc123"));
+    }
+
+    @Test
+    void testShouldReport_OnlyMeaningfulTransitions() {
+        BuildLifecycle lifecycle = new BuildLifecycle(resultWriter, "", 10_000);
+        JobQueue.BuildJob job = new JobQueue.BuildJob("owner", "repo", "abc123", "main");
+
+        assertTrue(lifecycle.shouldReport(job, "abc123", BuildPhase.QUEUED, 0));
+        assertFalse(lifecycle.shouldReport(job, "abc123", BuildPhase.QUEUED, 60_000), "Repeated phase");
+        assertFalse(lifecycle.shouldReport(job, "abc123", BuildPhase.CLONING, 1_000), "Too soon after the last status");
+        assertTrue(lifecycle.shouldReport(job, "abc123", BuildPhase.BUILDING, 11_000));
+        assertFalse(lifecycle.shouldReport(job, "abc123", BuildPhase.CLONING, 60_000), "Earlier phase");
+        // A queued job whose commit was replaced reports the new commit at once
+        assertTrue(lifecycle.shouldReport(job, "def456", BuildPhase.QUEUED, 11_500));
+        assertNull(lifecycle.targetUrl("abc123"), "Without a server URL statuses carry no link.");
+    }
+}
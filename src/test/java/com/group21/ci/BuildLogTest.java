@@ -0,0 +1,51 @@
+package com.group21.ci;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BuildLogTest {
+
+    private static String manyLines(String prefix, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(prefix).append(i).append('\n');
+        }
+        return text.toString();
+    }
+
+    @Test
+    void testPump_WritesStdoutAndStderrToJobLog() throws Exception {
+        JobQueue.BuildJob job = new JobQueue.BuildJob("owner", "repo", "abc123", "main");
+        AtomicInteger seenLines = new AtomicInteger();
+        File logFile;
+
+        try (BuildLog log = BuildLog.open(job)) {
+            logFile = log.getFile();
+            assertSame(log, BuildLog.getActive(job.getId()), "Running job's log should be active.");
+
+            log.append("Checking out");
+            log.pump(new ByteArrayInputStream(manyLines("out ", 20_000).getBytes()), false,
+                    line -> seenLines.incrementAndGet());
+            log.pump(new ByteArrayInputStream("boom\n".getBytes()), true, null);
+        }
+
+        List<String> lines = Files.readAllLines(logFile.toPath());
+        try {
+            assertNull(BuildLog.getActive(job.getId()), "Closed log should no longer be active.");
+            assertEquals(20_000, seenLines.get(), "Listener should see every stdout line.");
+            assertEquals(20_002, lines.size(), "Every line should be written even beyond the buffer size.");
+            assertTrue(lines.get(0).endsWith("Checking out"));
+            assertTrue(lines.stream().anyMatch(line -> line.endsWith("[stderr] boom")));
+            assertTrue(lines.stream().anyMatch(line -> line.endsWith("out 19999")));
+        } finally {
+            logFile.delete();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.group21.ci;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs against a plain directory laid out like a cgroup v2 hierarchy, since the
+ * test host cannot be expected to delegate a real one.
+ */
+class BuildSandboxTest {
+    private static final File TEST_DIR = new File("test_sandbox");
+    private static final File ROOT = new File(TEST_DIR, "ci-builds");
+
+    @BeforeEach
+    void setUp() throws Exception {
+        WorkspaceManager.deleteDirectory(TEST_DIR);
+        Files.createDirectories(ROOT.toPath());
+        write(new File(ROOT, "cgroup.controllers"), "cpu io memory pids");
+        write(new File(ROOT, "cgroup.subtree_control"), "");
+    }
+
+    @AfterEach
+    void tearDown() {
+        WorkspaceManager.deleteDirectory(TEST_DIR);
+    }
+
+    private static void write(File file, String content) throws Exception {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(File file) throws Exception {
+        return Files.readString(file.toPath()).trim();
+    }
+
+    @Test
+    void testOpen_AppliesLimitsAndStartsProcessesInsideTheSlice() throws Exception {
+        BuildSandbox sandbox = new BuildSandbox(ROOT, 1.5, 512L * 1024 * 1024, 200);
+        assertTrue(sandbox.isAvailable());
+        JobQueue.BuildJob job = new JobQueue.BuildJob("owner", "repo", "abc123", "main");
+
+        BuildSandbox.Slice slice = sandbox.open(job);
+        File directory = new File(ROOT, "job-" + job.getId());
+        assertEquals("150000 100000", read(new File(directory, "cpu.max")));
+        assertEquals(String.valueOf(512L * 1024 * 1024), read(new File(directory, "memory.max")));
+        assertEquals("0", read(new File(directory, "memory.swap.max")));
+        assertEquals("1", read(new File(directory, "memory.oom.group")));
+        assertEquals("default 200", read(new File(directory, "io.weight")));
+
+        // The wrapper joins the cgroup before it becomes the command
+        Process process = new ProcessBuilder(slice.wrap(List.of("echo", "inside"))).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+        assertEquals(0, process.waitFor());
+        assertEquals("inside", output);
+        assertEquals(String.valueOf(process.pid()), read(new File(directory, "cgroup.procs")));
+
+        write(new File(directory, "memory.peak"), "268435456\n");
+        write(new File(directory, "cpu.stat"), "usage_usec 2500000\nuser_usec 2000000\nsystem_usec 500000\n");
+        write(new File(directory, "memory.events"), "low 0\nhigh 0\nmax 3\noom 1\noom_kill 1\n");
+        BuildSandbox.Usage usage = slice.usage();
+        assertEquals(268_435_456L, usage.getPeakMemoryBytes());
+        assertEquals(2500L, usage.getCpuMillis());
+        assertTrue(usage.isOomKilled());
+
+        // The kernel removes the interface files together with the cgroup
+        for (File file : directory.listFiles()) {
+            Files.delete(file.toPath());
+        }
+        slice.close();
+        assertFalse(directory.exists(), "The slice should be removed when the build ends.");
+        assertEquals(0, sandbox.getMetrics().get("active"));
+        assertEquals(1L, sandbox.getMetrics().get("created"));
+    }
+
+    @Test
+    void testOpen_RunsUnconfinedWithoutCgroupV2() throws Exception {
+        Files.delete(new File(ROOT, "cgroup.controllers").toPath());
+        BuildSandbox sandbox = new BuildSandbox(ROOT, 2, 0, 100);
+        assertFalse(sandbox.isAvailable());
+
+        BuildSandbox.Slice slice = sandbox.open(new JobQueue.BuildJob("owner", "repo", "abc123", "main"));
+        List<String> command = List.of("mvn", "test");
+        assertEquals(command, slice.wrap(command));
+        assertNull(slice.usage().getPeakMemoryBytes());
+        assertNull(slice.usage().getCpuMillis());
+        slice.close();
+        assertEquals(1, ROOT.list().length, "No slice should be created.");
+    }
+
+    @Test
+    void testConstructor_RemovesSlicesLeftByACrash() throws Exception {
+        File stale = new File(ROOT, "job-42");
+        Files.createDirectories(stale.toPath());
+
+        new BuildSandbox(ROOT, 0, 0, 100);
+        assertFalse(stale.exists());
+    }
+}
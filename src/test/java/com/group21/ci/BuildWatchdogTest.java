@@ -0,0 +1,96 @@
+package com.group21.ci;
+
+import com.group21.ci.entity.TestStatus;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BuildWatchdogTest {
+
+    private static boolean waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        return condition.getAsBoolean();
+    }
+
+    @Test
+    void testCheck_TimesOutSilentBuildAndKillsProcessTree() throws Exception {
+        JobQueue.BuildJob job = new JobQueue.BuildJob("owner", "repo", "abc123", "main");
+        BuildWatchdog watchdog = new BuildWatchdog(50);
+        // A build that hangs without output in a child process, like a stuck Surefire fork
+        Process build = new ProcessBuilder("sh", "-c", "sleep 60 & sleep 60").start();
+        job.addProcess(build);
+        assertTrue(waitUntil(() -> build.descendants().count() == 2), "The shell should start its children.");
+        List<ProcessHandle> children = build.descendants().collect(Collectors.toList());
+
+        BuildLog log = BuildLog.open(job);
+        BuildWatchdog.Watch watch = watchdog.watch(job, log, new BuildTimeouts(0, 300));
+        try (log; watch) {
+            log.append("Running tests");
+            assertFalse(job.isCancelled());
+
+            assertTrue(waitUntil(job::isTimedOut), "A build without output should time out.");
+            assertTrue(waitUntil(() -> !build.isAlive()), "The build process should be destroyed.");
+            assertTrue(waitUntil(() -> children.stream().noneMatch(ProcessHandle::isAlive)),
+                    "The children of the build process should be destroyed as well.");
+            assertEquals(TestStatus.TIMED_OUT, job.stoppedStatus());
+            assertEquals("No output for 300 ms", job.getCancelReason());
+            assertFalse(job.cancel("Cancelled on request"), "A timed-out job cannot be cancelled again.");
+            assertEquals(1L, watchdog.getMetrics().get("timedOut"));
+        }
+        List<String> lines = Files.readAllLines(BuildLog.findLogFile(job.getId()).toPath());
+        assertTrue(lines.get(lines.size() - 1).endsWith("Build stopped: " + job.getCancelReason()));
+        assertEquals(0, watchdog.getMetrics().get("watched"), "Closing the watch should end it.");
+    }
+
+    @Test
+    void testCheck_StopsBuildAfterWallClockLimitDespiteOutput() throws Exception {
+        JobQueue.BuildJob job = new JobQueue.BuildJob("owner", "repo", "abc123", "main");
+        BuildWatchdog watchdog = new BuildWatchdog(60_000);
+        BuildLog log = BuildLog.open(job);
+        BuildWatchdog.Watch watch = watchdog.watch(job, log, new BuildTimeouts(120_000, 60_000));
+        try (log; watch) {
+            long now = System.currentTimeMillis();
+            watchdog.check(now + 50_000);
+            assertFalse(job.isCancelled(), "A build within its limits should keep running.");
+
+            log.append("still busy");
+            watchdog.check(now + 125_000);
+            assertTrue(job.isTimedOut());
+            assertEquals("Timed out after 2 minutes", job.getCancelReason());
+        }
+    }
+
+    @Test
+    void testCancel_KeepsReasonAndIsNoTimeout() {
+        JobQueue.BuildJob job = new JobQueue.BuildJob("owner", "repo", "abc123", "main");
+        assertEquals(TestStatus.FAILED, job.stoppedStatus());
+        assertTrue(job.cancel("Cancelled on request"));
+        assertFalse(job.timeOut("No output for 15 minutes"));
+        assertEquals(TestStatus.CANCELLED, job.stoppedStatus());
+        assertEquals("Cancelled on request", job.getCancelReason());
+    }
+
+    @Test
+    void testParse_OverridesDefaultsPerRepository() {
+        BuildTimeouts defaults = new BuildTimeouts(3_600_000, 900_000);
+        Map<String, BuildTimeouts> parsed = BuildTimeouts.parse("team/app:total=120,inactivity=30;team/docs:total=10",
+                defaults);
+
+        assertEquals(7_200_000, parsed.get("team/app").getTotalMillis());
+        assertEquals(1_800_000, parsed.get("team/app").getInactivityMillis());
+        assertEquals(600_000, parsed.get("team/docs").getTotalMillis());
+        assertEquals(900_000, parsed.get("team/docs").getInactivityMillis(), "Unnamed limits keep the default.");
+        assertThrows(IllegalArgumentException.class, () -> BuildTimeouts.parse("team/app:speed=2", defaults));
+        assertThrows(IllegalArgumentException.class, () -> BuildTimeouts.parse("team/app:total=-1", defaults));
+        assertThrows(IllegalArgumentException.class, () -> BuildTimeouts.parse("team/app", defaults));
+    }
+}
@@ -0,0 +1,87 @@
+package com.group21.ci;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FairSharePolicyTest {
+    private static final long AGING = 600_000;
+
+    private static JobQueue.BuildJob job(long id, String repo, String branch, JobPriority priority, long queuedAt) {
+        return new JobQueue.BuildJob(id, "owner", repo, "sha-" + id, branch, priority, queuedAt);
+    }
+
+    /**
+     * Starts jobs the way JobQueue does until the policy picks none, returning their ids.
+     */
+    private static List<Long> drain(SchedulingPolicy policy, List<JobQueue.BuildJob> waiting, long now) {
+        List<Long> started = new ArrayList<>();
+        JobQueue.BuildJob job;
+        while ((job = policy.select(waiting, now)) != null) {
+            waiting.remove(job);
+            policy.started(job);
+            started.add(job.getId());
+        }
+        return started;
+    }
+
+    @Test
+    void testSelect_DefaultBranchFirstUntilOthersAged() {
+        FairSharePolicy policy = new FairSharePolicy(AGING, 0, "");
+        List<JobQueue.BuildJob> waiting = new ArrayList<>(List.of(
+                job(1, "app", "feature", JobPriority.OTHER, 0),
+                job(2, "app", "review", JobPriority.PULL_REQUEST, 0),
+                job(3, "app", "main", JobPriority.DEFAULT_BRANCH, 1_000)));
+
+        assertEquals(3, policy.select(waiting, 1_000).getId());
+        // After one aging period the other job ranks like a pull request, after two like the default branch
+        assertEquals(1, policy.effectiveClass(waiting.get(0), AGING));
+        assertEquals(0, policy.effectiveClass(waiting.get(0), 2 * AGING));
+        assertEquals(1, policy.select(waiting, 2 * AGING).getId(), "Equal classes keep the queue order.");
+    }
+
+    @Test
+    void testSelect_SharesWorkersByRepositoryWeight() {
+        FairSharePolicy policy = new FairSharePolicy(0, 0, "owner/busy:weight=2");
+        List<JobQueue.BuildJob> waiting = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            waiting.add(job(i, "busy", "branch-" + i, JobPriority.OTHER, i));
+        }
+        waiting.add(job(11, "quiet", "fix", JobPriority.OTHER, 11));
+        waiting.add(job(12, "quiet", "docs", JobPriority.OTHER, 12));
+
+        // The quiet repository does not wait behind the ten jobs of the busy one,
+        // which gets two jobs for each of the quiet one
+        assertEquals(List.of(1L, 11L, 2L, 3L, 12L, 4L), drain(policy, waiting, 100).subList(0, 6));
+    }
+
+    @Test
+    void testSelect_CapsRunningJobsExceptForTheDefaultBranch() {
+        FairSharePolicy policy = new FairSharePolicy(0, 1, "owner/big:maxRunning=2");
+        List<JobQueue.BuildJob> waiting = new ArrayList<>(List.of(
+                job(1, "app", "a", JobPriority.OTHER, 0),
+                job(2, "app", "b", JobPriority.OTHER, 0),
+                job(3, "big", "a", JobPriority.OTHER, 0),
+                job(4, "big", "b", JobPriority.OTHER, 0),
+                job(5, "big", "c", JobPriority.OTHER, 0)));
+        assertEquals(List.of(1L, 3L, 4L), drain(policy, waiting, 0));
+
+        JobQueue.BuildJob main = job(6, "app", "main", JobPriority.DEFAULT_BRANCH, 0);
+        waiting.add(main);
+        assertSame(main, policy.select(waiting, 0), "The default branch is not capped.");
+        waiting.remove(main);
+
+        policy.finished(new JobQueue.BuildJob(1, "owner", "app", "sha-1", "a", JobPriority.OTHER, 0));
+        assertEquals(2, policy.select(waiting, 0).getId());
+    }
+
+    @Test
+    void testParse_RejectsMalformedShares() {
+        assertThrows(IllegalArgumentException.class, () -> new FairSharePolicy(0, 0, "owner/app:weight=0"));
+        assertThrows(IllegalArgumentException.class, () -> new FairSharePolicy(0, 0, "owner/app:speed=2"));
+        assertThrows(IllegalArgumentException.class, () -> new FairSharePolicy(0, 0, "owner/app"));
+    }
+}
@@ -0,0 +1,232 @@
+package com.group21.ci;
+
+import com.group21.ci.dao.HibernateTestUtil;
+import com.group21.ci.dao.TestCaseResultDAO;
+import com.group21.ci.dao.TestResultDAO;
+import com.group21.ci.entity.TestCaseOutcome;
+import com.group21.ci.entity.TestCaseResultEntity;
+import com.group21.ci.entity.TestResultEntity;
+import com.group21.ci.entity.TestStatus;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.hibernate.Session;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryApiTest {
+    private Server server;
+    private int port;
+    private TestResultDAO testResultDAO;
+    private TestCaseResultDAO testCaseResultDAO;
+    private LogStore logStore;
+
+    @TempDir
+    File logDir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        HibernateTestUtil.init("hibernate-test.cfg.xml");
+        try (Session session = HibernateTestUtil.getSessionFactory().openSession()) {
+            session.beginTransaction();
+            session.createQuery("DELETE FROM TestCaseResultEntity").executeUpdate();
+            session.createQuery("DELETE FROM TestResultEntity").executeUpdate();
+            session.getTransaction().commit();
+        }
+        testResultDAO = new TestResultDAO(HibernateTestUtil.getSessionFactory());
+        testCaseResultDAO = new TestCaseResultDAO(HibernateTestUtil.getSessionFactory());
+        logStore = new LogStore(logDir, 1024);
+        HistoryApi historyApi = new HistoryApi(testResultDAO, testCaseResultDAO, logStore);
+
+        server = new Server(0);
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+                baseRequest.setHandled(true);
+                if ("/api/history".equals(target)) {
+                    historyApi.handleHistory(request, response);
+                } else if ("/api/history/export".equals(target)) {
+                    historyApi.handleExport(request, response);
+                } else if (target.endsWith("/log")) {
+                    historyApi.handleBuildLog(request, response,
+                            target.substring("/api/history/".length(), target.length() - "/log".length()));
+                } else if (target.startsWith("/builds/")) {
+                    historyApi.serveBuildDetailsPage(request, response, target.substring("/builds/".length()));
+                } else {
+                    historyApi.handleBuildDetails(request, response, target.substring("/api/history/".length()));
+                }
+            }
+        });
+        server.start();
+        port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        server.stop();
+    }
+
+    private TestResultEntity saveBuild(String commitSha, TestStatus status, int minute) {
+        TestResultEntity build = new TestResultEntity(commitSha, status, "log of " + commitSha,
+                LocalDateTime.of(2025, 1, 1, 12, minute));
+        build.setRepoOwner("owner");
+        build.setRepoName("repo");
+        build.setBranchName("main");
+        build.setJobId(1000L + minute);
+        testResultDAO.saveTestResult(build);
+        return build;
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        return (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+    }
+
+    private String get(String path) throws IOException {
+        try (InputStream in = open(path).getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    void testHistory_StreamsPagesAndExport() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            saveBuild("commit" + i, i % 2 == 0 ? TestStatus.SUCCESS : TestStatus.FAILED, i);
+        }
+
+        JSONObject page = new JSONObject(get("/api/history?limit=3"));
+        JSONArray builds = page.getJSONArray("builds");
+        assertEquals(3, builds.length());
+        assertEquals("commit4", builds.getJSONObject(0).getString("commitSha"));
+        assertEquals("main", builds.getJSONObject(0).getString("branchName"));
+        assertEquals(1004, builds.getJSONObject(0).getLong("jobId"), "The job id addresses the log and cancel APIs.");
+        assertFalse(builds.getJSONObject(0).has("testLog"), "List views should not contain the test log.");
+
+        JSONObject next = new JSONObject(get("/api/history?limit=3&cursor=" + page.getString("nextCursor")));
+        assertEquals(2, next.getJSONArray("builds").length());
+        assertTrue(next.isNull("nextCursor"));
+
+        JSONArray export = new JSONArray(get("/api/history/export?status=success&order=asc"));
+        assertEquals(List.of("commit0", "commit2", "commit4"),
+                List.of(export.getJSONObject(0).getString("commitSha"), export.getJSONObject(1).getString("commitSha"),
+                        export.getJSONObject(2).getString("commitSha")));
+    }
+
+    @Test
+    void testBuildDetails_IncludeTestCases() throws Exception {
+        TestResultEntity build = saveBuild("commitDetails", TestStatus.FAILED, 0);
+        TestCaseResultEntity testCase = new TestCaseResultEntity("com.example.FooTest", "fails", 42,
+                TestCaseOutcome.FAILED);
+        testCase.setTestResult(build);
+        testCaseResultDAO.saveTestCases(List.of(testCase));
+
+        JSONObject details = new JSONObject(get("/api/history/" + build.getId()));
+        assertEquals("commitDetails", details.getString("commitSha"));
+        assertEquals("log of commitDetails", details.getString("testLog"));
+        assertEquals(1000, details.getLong("jobId"));
+        JSONObject storedCase = details.getJSONArray("testCases").getJSONObject(0);
+        assertEquals("fails", storedCase.getString("testName"));
+        assertEquals("FAILED", storedCase.getString("outcome"));
+        assertEquals(42, storedCase.getLong("durationMillis"));
+
+        assertEquals(404, open("/api/history/999999").getResponseCode());
+    }
+
+    @Test
+    void testBuildDetails_AnswerMatchingETagWithNotModified() throws Exception {
+        TestResultEntity build = saveBuild("commitCached", TestStatus.SUCCESS, 0);
+
+        for (String path : List.of("/api/history/" + build.getId(), "/builds/commitCached")) {
+            HttpURLConnection first = open(path);
+            assertEquals(200, first.getResponseCode());
+            String etag = first.getHeaderField("ETag");
+            assertNotNull(etag, "Build views should carry an ETag.");
+            first.getInputStream().close();
+
+            HttpURLConnection repeated = open(path);
+            repeated.setRequestProperty("If-None-Match", etag);
+            assertEquals(304, repeated.getResponseCode());
+            assertEquals(-1, repeated.getInputStream().read(), "A 304 should have no body.");
+
+            HttpURLConnection stale = open(path);
+            stale.setRequestProperty("If-None-Match", "\"0-FAILED-json\"");
+            assertEquals(200, stale.getResponseCode());
+            stale.getInputStream().close();
+        }
+
+        HttpURLConnection before = open("/api/history/" + build.getId());
+        String etag = before.getHeaderField("ETag");
+        before.getInputStream().close();
+        assertEquals(1, testResultDAO.compactTestLogs(LocalDateTime.of(2025, 2, 1, 0, 0), 10));
+        HttpURLConnection compacted = open("/api/history/" + build.getId());
+        compacted.setRequestProperty("If-None-Match", etag);
+        assertEquals(200, compacted.getResponseCode(), "Clearing the test log changes the details.");
+        compacted.getInputStream().close();
+    }
+
+    @Test
+    void testBuildLog_ServesRangesFromLogStore() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            text.append("[INFO] line ").append(i).append('\n');
+        }
+        byte[] log = text.toString().getBytes(StandardCharsets.UTF_8);
+        LogStore.LogRef stored = logStore.store(new ByteArrayInputStream(log));
+
+        TestResultEntity build = new TestResultEntity("commitLog", TestStatus.SUCCESS, "", LocalDateTime.now());
+        build.setLogHash(stored.getHash());
+        build.setLogSize(stored.getSize());
+        testResultDAO.saveTestResult(build);
+
+        assertEquals(text.toString(), get("/api/history/" + build.getId() + "/log"));
+
+        HttpURLConnection partial = open("/api/history/" + build.getId() + "/log");
+        partial.setRequestProperty("Range", "bytes=1000-2099");
+        assertEquals(206, partial.getResponseCode());
+        assertEquals("bytes 1000-2099/" + log.length, partial.getHeaderField("Content-Range"));
+        try (InputStream in = partial.getInputStream()) {
+            assertEquals(new String(log, 1000, 1100, StandardCharsets.UTF_8),
+                    new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        HttpURLConnection tail = open("/api/history/" + build.getId() + "/log");
+        tail.setRequestProperty("Range", "bytes=-9");
+        assertEquals(206, tail.getResponseCode());
+        try (InputStream in = tail.getInputStream()) {
+            assertEquals("line 499\n", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        HttpURLConnection beyond = open("/api/history/" + build.getId() + "/log");
+        beyond.setRequestProperty("Range", "bytes=" + log.length + "-");
+        assertEquals(416, beyond.getResponseCode());
+
+        TestResultEntity withoutLog = saveBuild("commitNoLog", TestStatus.SUCCESS, 1);
+        assertEquals(404, open("/api/history/" + withoutLog.getId() + "/log").getResponseCode());
+    }
+
+    @Test
+    void testHistory_RejectsInvalidFilters() throws Exception {
+        assertEquals(400, open("/api/history?status=BROKEN").getResponseCode());
+        assertEquals(400, open("/api/history?from=yesterday").getResponseCode());
+        assertEquals(400, open("/api/history?cursor=bm90LWEtY3Vyc29y").getResponseCode());
+    }
+}
@@ -0,0 +1,94 @@
+package com.group21.ci;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JobJournalTest {
+    @TempDir
+    File journalDir;
+
+    private JobJournal journal(File file) {
+        return new JobJournal(file, 4096, 5);
+    }
+
+    @Test
+    void testRecover_ReturnsUnfinishedJobsInOrder() throws Exception {
+        File file = new File(journalDir, "jobs.journal");
+        JobJournal journal = journal(file);
+        assertTrue(journal.recover().isEmpty());
+        journal.enqueued(1, "owner", "repo", "aaa", "main", 1000, JobPriority.OTHER);
+        journal.enqueued(2, "owner", "repo", "bbb", "dev", 2000, JobPriority.OTHER);
+        journal.enqueued(3, "owner", "other", "ccc", "main", 3000, JobPriority.DEFAULT_BRANCH);
+        journal.started(1);
+        journal.finished(2);
+        journal.superseded(3, "ddd");
+        journal.close();
+
+        List<JobJournal.Entry> recovered = journal(file).recover();
+
+        assertEquals(2, recovered.size());
+        assertEquals(1, recovered.get(0).getId());
+        assertEquals(1, recovered.get(0).getAttempts(), "Job 1 was running when the journal was closed.");
+        assertEquals(1000, recovered.get(0).getEnqueuedAtMillis());
+        assertEquals(3, recovered.get(1).getId());
+        assertEquals("ddd", recovered.get(1).getCommitSHA());
+        assertEquals("other", recovered.get(1).getRepoName());
+        assertEquals(0, recovered.get(1).getAttempts());
+        assertEquals(JobPriority.DEFAULT_BRANCH, recovered.get(1).getPriority());
+    }
+
+    @Test
+    void testRecover_StopsAtTornRecord() throws Exception {
+        File file = new File(journalDir, "jobs.journal");
+        JobJournal journal = journal(file);
+        journal.recover();
+        journal.enqueued(1, "owner", "repo", "aaa", "main", 1000, JobPriority.OTHER);
+        long end = (int) journal.getMetrics().get("usedBytes");
+        journal.enqueued(2, "owner", "repo", "bbb", "dev", 2000, JobPriority.OTHER);
+        journal.close();
+
+        // A crash in the middle of the second record: its body is damaged
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(end + 10);
+            raf.write(new byte[]{7, 7, 7});
+        }
+
+        List<JobJournal.Entry> recovered = journal(file).recover();
+        assertEquals(1, recovered.size());
+        assertEquals(1, recovered.get(0).getId());
+    }
+
+    @Test
+    void testAppend_CompactsFinishedJobsAndGrowsForLiveOnes() throws Exception {
+        File file = new File(journalDir, "jobs.journal");
+        JobJournal journal = journal(file);
+        journal.recover();
+        // Far more records than fit into 4 KiB; only every tenth job stays live
+        for (int i = 0; i < 2000; i++) {
+            journal.enqueued(i, "owner", "repo", "sha-" + i, "branch-" + (i % 7), i, JobPriority.OTHER);
+            journal.started(i);
+            if (i % 10 != 0) {
+                journal.finished(i);
+            }
+        }
+        // Compaction runs on the flusher thread
+        for (int i = 0; i < 100 && (long) journal.getMetrics().get("compactions") <= 1; i++) {
+            Thread.sleep(50);
+        }
+        assertTrue((long) journal.getMetrics().get("compactions") > 1);
+        journal.close();
+
+        List<JobJournal.Entry> recovered = journal(file).recover();
+        assertEquals(200, recovered.size());
+        assertEquals(0, recovered.get(0).getId());
+        assertEquals(1990, recovered.get(199).getId());
+        assertEquals("sha-1990", recovered.get(199).getCommitSHA());
+        assertEquals(1, recovered.get(199).getAttempts());
+    }
+}
@@ -0,0 +1,94 @@
+package com.group21.ci;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Runs the queue without workers, journal or database; jobs are taken by the test itself.
+ */
+class JobQueueTest {
+    private BuildLifecycle lifecycle;
+    private MockedStatic<StatusReporter> statusReporter;
+
+    @BeforeEach
+    void setUp() {
+        lifecycle = mock(BuildLifecycle.class);
+        statusReporter = mockStatic(StatusReporter.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        statusReporter.close();
+        JobQueue.reset(JobQueue.Settings.fromConfig(), mock(BuildLifecycle.class));
+    }
+
+    private void configure(int capacity, boolean cancelSuperseded) {
+        JobQueue.reset(new JobQueue.Settings(0, capacity, true, cancelSuperseded, 3, 0), lifecycle);
+    }
+
+    private static JobQueue.BuildJob take() throws InterruptedException {
+        return JobQueue.takeJob(job -> true, 0);
+    }
+
+    @Test
+    void testAddJob_RejectsJobsOnceTheQueueIsFull() {
+        configure(3, false);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(JobQueue.addJob("owner", "repo", "sha-" + i, "branch-" + i));
+        }
+        assertTrue(JobQueue.isFull());
+        assertFalse(JobQueue.addJob("owner", "repo", "sha-3", "branch-3"), "A fourth job exceeds the capacity.");
+        assertEquals(3, JobQueue.getQueueDepth());
+        assertEquals(3, ((List<?>) JobQueue.getMetrics().get("queuedJobs")).size(),
+                "Queued jobs are listed with the ids that cancel them.");
+        verify(lifecycle, never()).queued(argThat(job -> "sha-3".equals(job.commitSHA)), anyString());
+    }
+
+    @Test
+    void testAddJob_CoalescesCommitsOfABranchIntoTheNewest() throws Exception {
+        configure(10, false);
+
+        assertTrue(JobQueue.addJob("owner", "repo", "old", "main"));
+        assertTrue(JobQueue.addJob("owner", "repo", "new", "main"));
+
+        assertEquals(1, JobQueue.getQueueDepth());
+        JobQueue.BuildJob job = take();
+        assertEquals("new", job.commitSHA);
+        assertNull(take(), "The older commit must not be built on its own.");
+        statusReporter.verify(() -> StatusReporter.sendStatus("owner", "repo", "old", "error", "Superseded by new"));
+        JobQueue.jobFinished(job);
+    }
+
+    @Test
+    void testAddJob_CancelsTheRunningBuildOfAnOlderCommit() throws Exception {
+        configure(10, true);
+        assertTrue(JobQueue.addJob("owner", "repo", "old", "main"));
+        JobQueue.BuildJob running = take();
+
+        assertTrue(JobQueue.addJob("owner", "repo", "new", "main"));
+
+        assertTrue(running.isCancelled(), "The running build of the older commit should be cancelled.");
+        JobQueue.jobFinished(running);
+        assertEquals("new", take().commitSHA);
+    }
+
+    @Test
+    void testAddJob_KeepsTheRunningBuildUnlessConfigured() throws Exception {
+        configure(10, false);
+        assertTrue(JobQueue.addJob("owner", "repo", "old", "main"));
+        JobQueue.BuildJob running = take();
+
+        assertTrue(JobQueue.addJob("owner", "repo", "new", "main"));
+
+        assertFalse(running.isCancelled());
+        JobQueue.jobFinished(running);
+    }
+}
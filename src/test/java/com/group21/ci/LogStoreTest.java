@@ -0,0 +1,107 @@
+package com.group21.ci;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogStoreTest {
+    @TempDir
+    File storeDir;
+
+    private static byte[] sampleLog(int lines) {
+        StringBuilder log = new StringBuilder();
+        Random random = new Random(42);
+        for (int i = 0; i < lines; i++) {
+            log.append("12:00:00.000 [INFO] Running test ").append(i).append(' ').append(random.nextInt()).append('\n');
+        }
+        return log.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] read(LogStore store, String hash, long offset, long length) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        store.read(hash, offset, length, out);
+        return out.toByteArray();
+    }
+
+    @Test
+    void testRead_ReturnsRangesAcrossChunkBoundaries() throws IOException {
+        LogStore store = new LogStore(storeDir, 1024);
+        byte[] log = sampleLog(2000);
+        LogStore.LogRef stored = store.store(new ByteArrayInputStream(log));
+
+        assertEquals(log.length, stored.getSize());
+        assertEquals(64, stored.getHash().length());
+        assertTrue(store.contains(stored.getHash()));
+        assertArrayEquals(log, read(store, stored.getHash(), 0, Long.MAX_VALUE));
+        assertArrayEquals(Arrays.copyOfRange(log, 1000, 5000), read(store, stored.getHash(), 1000, 4000));
+        assertArrayEquals(Arrays.copyOfRange(log, log.length - 10, log.length),
+                read(store, stored.getHash(), log.length - 10, 100));
+        assertEquals(0, read(store, stored.getHash(), log.length, 10).length);
+    }
+
+    @Test
+    void testArchive_IsPlainGzipAndDeduplicated() throws IOException {
+        LogStore store = new LogStore(storeDir, 1024);
+        byte[] log = sampleLog(300);
+        File gzLog = new File(storeDir, "job.log.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzLog.toPath()))) {
+            out.write(log);
+        }
+
+        LogStore.LogRef first = store.store(new ByteArrayInputStream(log));
+        LogStore.LogRef second = store.store(gzLog);
+        assertEquals(first.getHash(), second.getHash(), "The same text should be stored once.");
+
+        File archive;
+        try (Stream<Path> files = Files.walk(storeDir.toPath())) {
+            archive = files.map(Path::toFile)
+                    .filter(file -> file.getName().equals(first.getHash() + ".log.gz"))
+                    .findFirst().orElseThrow();
+        }
+        // The chunks are gzip members, so ordinary tools can read the archive
+        try (GZIPInputStream in = new GZIPInputStream(Files.newInputStream(archive.toPath()))) {
+            assertArrayEquals(log, in.readAllBytes());
+        }
+        assertTrue(archive.length() < log.length, "The archive should be compressed.");
+        assertFalse(store.contains("../../etc/passwd"));
+    }
+
+    @Test
+    void testDelete_KeepsALogStoredAgainRecently() throws IOException {
+        LogStore store = new LogStore(storeDir, 1024);
+        byte[] log = sampleLog(10);
+        String hash = store.store(new ByteArrayInputStream(log)).getHash();
+        long dayAgo = System.currentTimeMillis() - 86_400_000L;
+        ageFiles(dayAgo - 60_000);
+
+        // Another build stores the same log while its result is not in the database yet
+        store.store(new ByteArrayInputStream(log));
+        assertFalse(store.delete(hash, dayAgo), "A log stored again recently should be kept.");
+        assertTrue(store.contains(hash));
+
+        ageFiles(dayAgo - 60_000);
+        assertTrue(store.delete(hash, dayAgo));
+        assertFalse(store.contains(hash));
+    }
+
+    private void ageFiles(long lastModified) throws IOException {
+        try (Stream<Path> files = Files.walk(storeDir.toPath())) {
+            files.map(Path::toFile).forEach(file -> assertTrue(file.setLastModified(lastModified)));
+        }
+    }
+}
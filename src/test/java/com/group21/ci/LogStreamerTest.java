@@ -0,0 +1,110 @@
+package com.group21.ci;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogStreamerTest {
+    private Server server;
+    private int port;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new Server(0);
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+                baseRequest.setHandled(true);
+                LogStreamer.stream(request, response, Long.parseLong(target.substring(1)));
+            }
+        });
+        server.start();
+        port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        server.stop();
+    }
+
+    private String get(long jobId, String... headers) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/" + jobId)
+                .openConnection();
+        for (int i = 0; i + 1 < headers.length; i += 2) {
+            connection.setRequestProperty(headers[i], headers[i + 1]);
+        }
+        connection.setReadTimeout(10_000);
+        try (InputStream in = connection.getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    void testStream_FollowsRunningBuildUntilLogCloses() throws Exception {
+        JobQueue.BuildJob job = new JobQueue.BuildJob("owner", "repo", "abc123", "main");
+        BuildLog log = BuildLog.open(job);
+        try {
+            log.append("first line");
+
+            CompletableFuture<String> body = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return get(job.getId());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            Thread.sleep(500);
+            assertFalse(body.isDone(), "Stream should stay open while the build is running.");
+
+            log.append("second line");
+            log.close();
+
+            String text = body.get(10, TimeUnit.SECONDS);
+            assertTrue(text.contains("first line"));
+            assertTrue(text.contains("second line"));
+        } finally {
+            log.close();
+            log.getFile().delete();
+        }
+    }
+
+    @Test
+    void testStream_ServerSentEventsResumeFromLastEventId() throws Exception {
+        JobQueue.BuildJob job = new JobQueue.BuildJob("owner", "repo", "abc123", "main");
+        BuildLog log = BuildLog.open(job);
+        log.append("first line");
+        log.append("second line");
+        log.close();
+        try {
+            long firstLineLength = Files.readAllLines(log.getFile().toPath()).get(0).length() + 1;
+
+            String events = get(job.getId(), "Accept", "text/event-stream",
+                    "Last-Event-ID", Long.toString(firstLineLength));
+
+            assertFalse(events.contains("first line"), "Already seen data should not be resent.");
+            assertTrue(events.contains("data: "));
+            assertTrue(events.contains("second line"));
+            assertTrue(events.contains("event: end"));
+        } finally {
+            log.getFile().delete();
+        }
+    }
+}
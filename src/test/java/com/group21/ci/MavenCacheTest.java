@@ -0,0 +1,76 @@
+package com.group21.ci;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MavenCacheTest {
+    private static final File TEST_REPO_DIR = new File("test_maven_cache");
+
+    @BeforeEach
+    void setUp() throws Exception {
+        WorkspaceManager.deleteDirectory(TEST_REPO_DIR);
+        Files.createDirectories(TEST_REPO_DIR.toPath().resolve("module"));
+        Files.write(TEST_REPO_DIR.toPath().resolve("pom.xml"), "<project>root</project>".getBytes());
+        Files.write(TEST_REPO_DIR.toPath().resolve("module/pom.xml"), "<project>module</project>".getBytes());
+    }
+
+    @AfterEach
+    void tearDown() {
+        WorkspaceManager.deleteDirectory(TEST_REPO_DIR);
+    }
+
+    @Test
+    void testPomHash_StableForUnchangedPoms() throws Exception {
+        assertEquals(MavenCache.pomHash(TEST_REPO_DIR), MavenCache.pomHash(TEST_REPO_DIR));
+    }
+
+    @Test
+    void testPomHash_ChangesWhenModulePomChanges() throws Exception {
+        String before = MavenCache.pomHash(TEST_REPO_DIR);
+        Files.write(TEST_REPO_DIR.toPath().resolve("module/pom.xml"), "<project>changed</project>".getBytes());
+
+        assertNotEquals(before, MavenCache.pomHash(TEST_REPO_DIR), "A changed pom should trigger a new warmup.");
+    }
+
+    @Test
+    void testPomHash_IgnoresBuildOutputAndSources() throws Exception {
+        String before = MavenCache.pomHash(TEST_REPO_DIR);
+        Path target = TEST_REPO_DIR.toPath().resolve("target/classes/META-INF/maven");
+        Files.createDirectories(target);
+        Files.write(target.resolve("pom.xml"), "<project>copy</project>".getBytes());
+        Files.write(TEST_REPO_DIR.toPath().resolve("Main.java"), "class Main {}".getBytes());
+
+        assertEquals(before, MavenCache.pomHash(TEST_REPO_DIR), "Only source poms should affect the hash.");
+    }
+
+    @Test
+    void testBuildCompleted_GoesOfflineOnlyAfterASuccessfulFullTestRun() throws Exception {
+        MavenCache cache = new MavenCache(new File(TEST_REPO_DIR, "cache/repository"), true);
+        JobQueue.BuildJob job = new JobQueue.BuildJob("owner", "repo", "abc123", "main");
+        // Pretend the current poms were warmed up already, so prepare() does not run Maven
+        Path pomState = TEST_REPO_DIR.toPath().resolve("cache/warmup-state/owner/repo.pom");
+        Files.createDirectories(pomState.getParent());
+        Files.write(pomState, MavenCache.pomHash(TEST_REPO_DIR).getBytes());
+
+        try (BuildLog log = BuildLog.open(job)) {
+            MavenCache.BuildSettings online = cache.prepare(job, TEST_REPO_DIR, log);
+            assertFalse(online.getArguments().contains("-o"));
+
+            cache.buildCompleted(job, online, 1, true);
+            assertFalse(cache.prepare(job, TEST_REPO_DIR, log).getArguments().contains("-o"),
+                    "A failed build may not have resolved all plugins.");
+            cache.buildCompleted(job, online, 0, false);
+            assertFalse(cache.prepare(job, TEST_REPO_DIR, log).getArguments().contains("-o"),
+                    "A build of selected modules or tests may not have resolved all plugins.");
+            cache.buildCompleted(job, online, 0, true);
+            assertTrue(cache.prepare(job, TEST_REPO_DIR, log).getArguments().contains("-o"));
+        }
+    }
+}
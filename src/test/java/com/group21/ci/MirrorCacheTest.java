@@ -0,0 +1,78 @@
+package com.group21.ci;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MirrorCacheTest {
+    private static final File TEST_DIR = new File("test_mirror");
+    private static final File UPSTREAM = new File(TEST_DIR, "upstream/owner/repo.git");
+
+    private Git upstream;
+    private MirrorCache mirrorCache;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        WorkspaceManager.deleteDirectory(TEST_DIR);
+        upstream = Git.init().setDirectory(UPSTREAM).setInitialBranch("main").call();
+        mirrorCache = new MirrorCache(new File(TEST_DIR, "mirrors"),
+                new File(TEST_DIR, "upstream").toURI().toString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        upstream.close();
+        WorkspaceManager.deleteDirectory(TEST_DIR);
+    }
+
+    private RevCommit commitFile(String content) throws Exception {
+        Files.write(new File(UPSTREAM, "README.md").toPath(), content.getBytes());
+        upstream.add().addFilepattern("README.md").call();
+        return upstream.commit().setMessage(content).call();
+    }
+
+    private String readCheckout(RevCommit commit, String workspaceName) throws Exception {
+        File workspace = new File(TEST_DIR, workspaceName);
+        mirrorCache.checkout("owner", "repo", "main", commit.getName(), workspace);
+        return new String(Files.readAllBytes(new File(workspace, "README.md").toPath()));
+    }
+
+    @Test
+    void testCheckout_ExactCommitRatherThanBranchTip() throws Exception {
+        RevCommit first = commitFile("first");
+        commitFile("second");
+
+        assertEquals("first", readCheckout(first, "ws1"), "Worktree should be at the requested commit.");
+    }
+
+    @Test
+    void testCheckout_FetchesNewCommitsIntoExistingMirror() throws Exception {
+        RevCommit first = commitFile("first");
+        assertEquals("first", readCheckout(first, "ws1"));
+
+        RevCommit second = commitFile("second");
+        assertEquals("second", readCheckout(second, "ws2"), "Mirror should fetch commits pushed later.");
+    }
+
+    @Test
+    void testCheckout_SharesObjectsWithMirror() throws Exception {
+        RevCommit first = commitFile("first");
+        File workspace = new File(TEST_DIR, "ws1");
+        mirrorCache.checkout("owner", "repo", "main", first.getName(), workspace);
+
+        File alternates = new File(workspace, ".git/objects/info/alternates");
+        assertTrue(alternates.isFile(), "Worktree should borrow objects from the mirror.");
+        File[] packs = new File(workspace, ".git/objects/pack").listFiles();
+        assertTrue(packs == null || packs.length == 0, "Worktree should not copy the object database.");
+        try (Git worktree = Git.open(workspace)) {
+            assertEquals("main", worktree.getRepository().getBranch());
+        }
+    }
+}
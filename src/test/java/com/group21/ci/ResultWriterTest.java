@@ -0,0 +1,246 @@
+package com.group21.ci;
+
+import com.group21.ci.dao.BuildResult;
+import com.group21.ci.dao.HibernateTestUtil;
+import com.group21.ci.dao.TestCaseFile;
+import com.group21.ci.dao.TestCaseResultDAO;
+import com.group21.ci.dao.TestResultDAO;
+import com.group21.ci.entity.BuildPhase;
+import com.group21.ci.entity.TestCaseOutcome;
+import com.group21.ci.entity.TestCaseResultEntity;
+import com.group21.ci.entity.TestResultEntity;
+import com.group21.ci.entity.TestStatus;
+import org.hibernate.Session;
+import org.hibernate.exception.ConstraintViolationException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultWriterTest {
+    @TempDir
+    File spoolDir;
+
+    private TestResultDAO testResultDAO;
+    private TestCaseResultDAO testCaseResultDAO;
+
+    @BeforeEach
+    void setUp() {
+        System.setProperty("ci.results.testCaseDir", new File(spoolDir, "test-cases").getPath());
+        HibernateTestUtil.init("hibernate-test.cfg.xml");
+        try (Session session = HibernateTestUtil.getSessionFactory().openSession()) {
+            session.beginTransaction();
+            session.createQuery("DELETE FROM TestCaseResultEntity").executeUpdate();
+            session.createQuery("DELETE FROM TestResultEntity").executeUpdate();
+            session.getTransaction().commit();
+        }
+        testResultDAO = new TestResultDAO(HibernateTestUtil.getSessionFactory());
+        testCaseResultDAO = new TestCaseResultDAO(HibernateTestUtil.getSessionFactory());
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.clearProperty("ci.results.testCaseDir");
+    }
+
+    private static TestResultEntity build(String commitSha) {
+        TestResultEntity build = new TestResultEntity(commitSha, TestStatus.SUCCESS, "", LocalDateTime.now());
+        build.setRepoOwner("owner");
+        build.setRepoName("repo");
+        build.setBranchName("main");
+        return build;
+    }
+
+    private static List<TestCaseResultEntity> testCases(int count) {
+        List<TestCaseResultEntity> testCases = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            testCases.add(new TestCaseResultEntity("com.example.FooTest", "test" + i, i, TestCaseOutcome.PASSED));
+        }
+        return testCases;
+    }
+
+    private static TestCaseFile testCaseFile(int count) throws Exception {
+        try (TestCaseFile.Writer writer = TestCaseFile.create(1)) {
+            testCases(count).forEach(writer::add);
+            return writer.finish();
+        }
+    }
+
+    private ResultWriter writer(TestResultDAO dao) {
+        return new ResultWriter(dao, 10, 50, 20, 2, 1, new File(spoolDir, "results.jsonl"));
+    }
+
+    @Test
+    void testSubmit_StoresBuildsWithTestCasesInBackground() throws Exception {
+        ResultWriter writer = writer(testResultDAO);
+        writer.start();
+        TestCaseFile largeBuild = testCaseFile(1200);
+        writer.submit(build("commit0"), largeBuild);
+        for (int i = 1; i < 5; i++) {
+            writer.submit(build("commit" + i), testCases(3));
+        }
+        assertTrue(writer.awaitSettled(10_000));
+        writer.close();
+
+        TestResultEntity stored = testResultDAO.getTestResultByCommitSha("commit0");
+        assertNotNull(stored);
+        assertEquals("main", stored.getBranchName());
+        assertEquals(1200, testCaseResultDAO.getTestCasesForBuild(stored.getId()).size());
+        assertEquals(5, testResultDAO.getAllTestResults().size());
+        assertEquals(5L, writer.getMetrics().get("written"));
+        assertFalse(largeBuild.getFile().exists(), "The test case file should be deleted once stored.");
+    }
+
+    @Test
+    void testSubmit_SpoolsWhileDatabaseIsDownAndReplaysOnRestart() throws Exception {
+        AtomicBoolean databaseDown = new AtomicBoolean(true);
+        TestResultDAO flakyDao = new TestResultDAO(HibernateTestUtil.getSessionFactory()) {
+            @Override
+            public void saveBuildResults(List<BuildResult> results) {
+                if (databaseDown.get()) {
+                    throw new IllegalStateException("database unavailable");
+                }
+                super.saveBuildResults(results);
+            }
+        };
+
+        ResultWriter writer = writer(flakyDao);
+        writer.start();
+        TestCaseFile spooledTestCases = testCaseFile(2);
+        writer.submit(build("spooled1"), spooledTestCases);
+        writer.submit(build("spooled2"), testCases(0));
+        assertTrue(writer.awaitSettled(10_000));
+        writer.close();
+        assertEquals(true, writer.getMetrics().get("spoolPending"), "Results should survive in the spool.");
+        assertNull(testResultDAO.getTestResultByCommitSha("spooled1"));
+        assertTrue(spooledTestCases.getFile().exists(), "The spool should only reference the test cases.");
+        File orphan = testCaseFile(5).getFile();
+        assertTrue(orphan.setLastModified(System.currentTimeMillis() - 120_000));
+
+        // A server restart with the database back replays the spool
+        databaseDown.set(false);
+        ResultWriter restarted = writer(flakyDao);
+        restarted.start();
+        restarted.submit(build("fresh"), testCases(1));
+        assertTrue(restarted.awaitSettled(10_000));
+        restarted.close();
+
+        TestResultEntity replayed = testResultDAO.getTestResultByCommitSha("spooled1");
+        assertNotNull(replayed, "Spooled results should be stored after the restart.");
+        assertEquals(2, testCaseResultDAO.getTestCasesForBuild(replayed.getId()).size());
+        assertNotNull(testResultDAO.getTestResultByCommitSha("spooled2"));
+        assertNotNull(testResultDAO.getTestResultByCommitSha("fresh"));
+        assertEquals(false, restarted.getMetrics().get("spoolPending"));
+        assertFalse(spooledTestCases.getFile().exists());
+        assertFalse(orphan.exists(), "Files no spooled result references should be removed on start.");
+    }
+
+    @Test
+    void testReplay_StoresOnlyTheLatestStateOfABuildInterruptedByARestart() throws Exception {
+        TestResultDAO downDao = new TestResultDAO(HibernateTestUtil.getSessionFactory()) {
+            @Override
+            public void saveBuildResults(List<BuildResult> results) {
+                throw new IllegalStateException("database unavailable");
+            }
+        };
+        ResultWriter writer = writer(downDao);
+        writer.start();
+        TestResultEntity running = build("running");
+        running.setStatus(TestStatus.PENDING);
+        running.setPhase(BuildPhase.CLONING);
+        running.setJobId(42L);
+        writer.submit(running.copy(), List.of());
+        running.setPhase(BuildPhase.TESTING);
+        writer.submit(running.copy(), List.of());
+        assertTrue(writer.awaitSettled(10_000));
+        writer.close();
+
+        // The server stopped during the build, so it never completes the row
+        ResultWriter restarted = writer(testResultDAO);
+        restarted.start();
+        restarted.close();
+
+        assertEquals(1, testResultDAO.getAllTestResults().size(), "The phase change updates the pending row.");
+        TestResultEntity interrupted = testResultDAO.getTestResultByCommitSha("running");
+        assertEquals(TestStatus.CANCELLED, interrupted.getStatus(), "A restart interrupted the build.");
+        assertEquals(BuildPhase.DONE, interrupted.getPhase());
+        assertEquals(42L, interrupted.getJobId());
+    }
+
+    @Test
+    void testSubmit_SpoolsOnlyResultsNotStoredOneByOneAndKeepsRejectedOnes() throws Exception {
+        AtomicBoolean databaseDown = new AtomicBoolean(true);
+        TestResultDAO flakyDao = new TestResultDAO(HibernateTestUtil.getSessionFactory()) {
+            @Override
+            public void saveBuildResults(List<BuildResult> results) {
+                for (BuildResult result : results) {
+                    if (result.getTestResult().getCommitSha().equals("rejected") && !result.getTestCases().isEmpty()) {
+                        throw new ConstraintViolationException("value too long", new SQLException(), "test_name");
+                    }
+                }
+                for (BuildResult result : results) {
+                    if (result.getTestResult().getCommitSha().equals("unlucky") && databaseDown.get()) {
+                        throw new IllegalStateException("database unavailable");
+                    }
+                }
+                super.saveBuildResults(results);
+            }
+        };
+
+        // One batch: stored one by one after the rejection, until the database goes away
+        ResultWriter writer = new ResultWriter(flakyDao, 10, 50, 500, 2, 1, new File(spoolDir, "results.jsonl"));
+        writer.start();
+        writer.submit(build("stored"), testCases(2));
+        writer.submit(build("rejected"), testCases(1));
+        writer.submit(build("unlucky"), testCases(1));
+        writer.submit(build("after"), testCases(1));
+        assertTrue(writer.awaitSettled(10_000));
+        assertEquals(1L, writer.getMetrics().get("written"));
+        assertEquals(2L, writer.getMetrics().get("spooled"), "Only the results not stored should be spooled.");
+
+        databaseDown.set(false);
+        writer.submit(build("fresh"), testCases(0));
+        assertTrue(writer.awaitSettled(10_000));
+        writer.close();
+
+        TestResultEntity stored = testResultDAO.getTestResultByCommitSha("stored");
+        assertEquals(2, testCaseResultDAO.getTestCasesForBuild(stored.getId()).size(),
+                "A result stored before the spool must not be stored again.");
+        assertNotNull(testResultDAO.getTestResultByCommitSha("unlucky"));
+        assertNotNull(testResultDAO.getTestResultByCommitSha("after"));
+        assertEquals(2L, writer.getMetrics().get("replayed"));
+
+        // The rejected build is stored without its test cases, which are kept aside
+        TestResultEntity rejected = testResultDAO.getTestResultByCommitSha("rejected");
+        assertNotNull(rejected, "A rejected result should not leave its build pending.");
+        assertTrue(testCaseResultDAO.getTestCasesForBuild(rejected.getId()).isEmpty());
+        List<BuildResult> deadLetters = ResultWriter.readSpool(new File(spoolDir, "results.jsonl.rejected"));
+        assertEquals(1, deadLetters.size());
+        assertEquals("rejected", deadLetters.get(0).getTestResult().getCommitSha());
+        assertEquals(1, deadLetters.get(0).getTestCases().size());
+        assertEquals(1L, writer.getMetrics().get("rejected"));
+    }
+
+    @Test
+    void testReadSpool_SkipsLineCutOffByCrash() throws Exception {
+        File spool = new File(spoolDir, "crashed.jsonl");
+        String line = ResultWriter.toJson(new BuildResult(build("complete"), testCases(1)));
+        Files.writeString(spool.toPath(), line + "\n" + line.substring(0, line.length() / 2));
+
+        List<BuildResult> results = ResultWriter.readSpool(spool);
+        assertEquals(1, results.size());
+        assertEquals("complete", results.get(0).getTestResult().getCommitSha());
+        assertEquals("owner", results.get(0).getTestResult().getRepoOwner());
+        assertEquals("test0", results.get(0).getTestCases().get(0).getTestName());
+    }
+}
@@ -0,0 +1,136 @@
+package com.group21.ci;
+
+import com.group21.ci.dao.HibernateTestUtil;
+import com.group21.ci.dao.TestResultDAO;
+import com.group21.ci.entity.TestResultEntity;
+import com.group21.ci.entity.TestStatus;
+import org.hibernate.Session;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetentionJobTest {
+    @TempDir
+    File storeDir;
+
+    private TestResultDAO testResultDAO;
+    private LogStore logStore;
+
+    @BeforeEach
+    void setUp() {
+        HibernateTestUtil.init("hibernate-test.cfg.xml");
+        try (Session session = HibernateTestUtil.getSessionFactory().openSession()) {
+            session.beginTransaction();
+            session.createQuery("DELETE FROM TestCaseResultEntity").executeUpdate();
+            session.createQuery("DELETE FROM TestResultEntity").executeUpdate();
+            session.getTransaction().commit();
+        }
+        testResultDAO = new TestResultDAO(HibernateTestUtil.getSessionFactory());
+        logStore = new LogStore(storeDir, 1024);
+    }
+
+    private TestResultEntity saveBuild(String repoName, String branchName, String commitSha, TestStatus status,
+                                       int daysAgo, String logHash) {
+        TestResultEntity build = new TestResultEntity(commitSha, status, "old log text",
+                LocalDateTime.now().minusDays(daysAgo));
+        build.setRepoOwner("owner");
+        build.setRepoName(repoName);
+        build.setBranchName(branchName);
+        build.setLogHash(logHash);
+        testResultDAO.saveTestResult(build);
+        return build;
+    }
+
+    private RetentionJob job(String policies) {
+        return new RetentionJob(testResultDAO, logStore, null, new RetentionJob.Policy(2, 30, 90), policies,
+                2, 0, 0, 0);
+    }
+
+    private List<String> remainingShas() {
+        return testResultDAO.getAllTestResults().stream()
+                .map(TestResultEntity::getCommitSha)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void testRunOnce_KeepsNewestBuildsAndFailuresLonger() throws Exception {
+        saveBuild("repo", "main", "new1", TestStatus.SUCCESS, 100, null);
+        saveBuild("repo", "main", "new2", TestStatus.SUCCESS, 99, null);
+        saveBuild("repo", "main", "oldFailure", TestStatus.FAILED, 200, null);
+        saveBuild("repo", "main", "recentFailure", TestStatus.FAILED, 60, null);
+        saveBuild("repo", "main", "oldSuccess1", TestStatus.SUCCESS, 120, null);
+        saveBuild("repo", "main", "oldSuccess2", TestStatus.SUCCESS, 150, null);
+        saveBuild("repo", "main", "oldSuccess3", TestStatus.SUCCESS, 180, null);
+        saveBuild("repo", "main", "recentSuccess", TestStatus.SUCCESS, 10, null);
+        // Timed out and cancelled builds count as failures; pending ones never expire
+        saveBuild("repo", "main", "recentTimedOut", TestStatus.TIMED_OUT, 70, null);
+        saveBuild("repo", "main", "oldCancelled", TestStatus.CANCELLED, 200, null);
+        saveBuild("repo", "main", "oldPending", TestStatus.PENDING, 300, null);
+
+        RetentionJob.Result result = job("").runOnce();
+
+        // recentSuccess and recentFailure are the newest two; new1 and new2 are too old to keep
+        assertEquals(List.of("oldPending", "recentFailure", "recentSuccess", "recentTimedOut"), remainingShas());
+        assertEquals(7, result.getDeletedBuilds());
+    }
+
+    @Test
+    void testRunOnce_AppliesRepositoryAndBranchPolicies() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            saveBuild("kept", "main", "keptMain" + i, TestStatus.SUCCESS, 100 + i, null);
+            saveBuild("kept", "dev", "keptDev" + i, TestStatus.SUCCESS, 100 + i, null);
+        }
+        job("owner/kept:days=0;owner/kept#dev:keep=1,days=50").runOnce();
+
+        assertEquals(List.of("keptDev0", "keptMain0", "keptMain1", "keptMain2", "keptMain3"), remainingShas());
+    }
+
+    @Test
+    void testRunOnce_DeletesLogsNoLongerReferenced() throws Exception {
+        String shared = logStore.store(new ByteArrayInputStream("same log".getBytes(StandardCharsets.UTF_8)))
+                .getHash();
+        String own = logStore.store(new ByteArrayInputStream("own log".getBytes(StandardCharsets.UTF_8)))
+                .getHash();
+        // Stored before the grace for results still on their way to the database
+        try (Stream<Path> files = Files.walk(storeDir.toPath())) {
+            long twoDaysAgo = System.currentTimeMillis() - 2 * 86_400_000L;
+            files.map(Path::toFile).forEach(file -> assertTrue(file.setLastModified(twoDaysAgo)));
+        }
+        saveBuild("repo", "main", "expiredShared", TestStatus.SUCCESS, 100, shared);
+        saveBuild("repo", "main", "expiredOwn", TestStatus.SUCCESS, 101, own);
+        saveBuild("repo", "main", "keptShared", TestStatus.SUCCESS, 1, shared);
+        saveBuild("repo", "main", "kept", TestStatus.SUCCESS, 2, null);
+
+        RetentionJob.Result result = job("").runOnce();
+
+        assertEquals(2, result.getDeletedBuilds());
+        assertEquals(1, result.getDeletedLogs());
+        assertTrue(logStore.contains(shared), "A log still referenced by a build should be kept.");
+        assertFalse(logStore.contains(own));
+    }
+
+    @Test
+    void testCompactTestLogs_ClearsOldLogText() throws Exception {
+        saveBuild("repo", "main", "old", TestStatus.SUCCESS, 40, null);
+        saveBuild("repo", "main", "recent", TestStatus.SUCCESS, 1, null);
+        RetentionJob compacting = new RetentionJob(testResultDAO, logStore, null, new RetentionJob.Policy(10, 0, 0),
+                "", 1, 0, 0, 30);
+
+        assertEquals(1, compacting.runOnce().getCompactedBuilds());
+        assertEquals("", testResultDAO.getTestResultByCommitSha("old").getTestLog());
+        assertEquals("old log text", testResultDAO.getTestResultByCommitSha("recent").getTestLog());
+    }
+}
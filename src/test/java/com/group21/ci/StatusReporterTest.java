@@ -1,46 +1,163 @@
 package com.group21.ci;
 
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntUnaryOperator;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class StatusReporterTest {
+    private Server stub;
+    private StatusReporter reporter;
+    private final List<String> received = new CopyOnWriteArrayList<>();
+    private final List<Long> receivedAt = new CopyOnWriteArrayList<>();
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+    /**
+     * Starts a stub GitHub API; responder maps the request number (from 1) to the HTTP status.
+     */
+    private URI startStub(IntUnaryOperator responder, long delayMillis, String rateLimitReset) throws Exception {
+        stub = new Server(0);
+        stub.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) {
+                baseRequest.setHandled(true);
+                maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+                try {
+                    received.add(target + " " + new String(request.getInputStream().readAllBytes(),
+                            StandardCharsets.UTF_8));
+                    receivedAt.add(System.currentTimeMillis());
+                    Thread.sleep(delayMillis);
+                    int status = responder.applyAsInt(received.size());
+                    if (status == 403 && rateLimitReset != null) {
+                        response.setHeader("X-RateLimit-Remaining", "0");
+                        response.setHeader("X-RateLimit-Reset", rateLimitReset);
+                    }
+                    response.setStatus(status);
+                } catch (Exception e) {
+                    response.setStatus(500);
+                } finally {
+                    concurrent.decrementAndGet();
+                }
+            }
+        });
+        stub.start();
+        return URI.create("http://localhost:" + ((ServerConnector) stub.getConnectors()[0]).getLocalPort() + "/");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (reporter != null) {
+            reporter.close();
+        }
+        if (stub != null) {
+            stub.stop();
+        }
+    }
 
     @Test
-    void testSendStatus_successInput() {
-        // Arrange: Set up the output stream to capture the printed content
-        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
-        System.setOut(new PrintStream(outContent));
+    void testSubmit_CollapsesPendingStatusesOfACommit() throws Exception {
+        reporter = new StatusReporter(startStub(request -> 201, 0, null), "token", 4, 3, 10);
+        reporter.submit("user", "repo", "sha1", "pending", "Build queued");
+        reporter.submit("user", "repo", "sha1", "pending", "Build running");
+        reporter.submit("user", "repo", "sha2", "pending", "Build queued");
+        reporter.submit("user", "repo", "sha1", "success", "CI Build passed");
 
-        // Act: Call the method we want to test
-        StatusReporter.sendStatus("user", "repo", "commit123", true);
+        reporter.start();
+        assertTrue(reporter.awaitIdle(10_000));
+        assertEquals(2, received.size());
+        // Both commits are sent concurrently, so their order is not fixed
+        String sha1 = received.stream().filter(r -> r.startsWith("/repos/user/repo/statuses/sha1 "))
+                .findFirst().orElseThrow();
+        assertTrue(sha1.contains("\"state\": \"success\""), "Only the latest status should be sent.");
+        assertEquals(2L, reporter.getMetrics().get("collapsed"));
+    }
 
-        // Assert: Check if the correct payload is printed
-        String expectedPayload = "{ \"state\": \"success\", \"description\": \"CI Build passed\", \"context\": \"ci-server\"}";
-        assertTrue(outContent.toString().contains(expectedPayload));
+    @Test
+    void testSubmit_RetriesAndHonoursRateLimit() throws Exception {
+        String reset = String.valueOf(System.currentTimeMillis() / 1000 + 2);
+        reporter = new StatusReporter(startStub(request -> request == 1 ? 503 : request == 2 ? 403 : 201, 0, reset),
+                "token", 4, 5, 10);
+        reporter.start();
+        reporter.submit("user", "repo", "sha1", "failure", "CI Build failed");
 
-        // Reset System.out
-        System.setOut(System.out);
+        assertTrue(reporter.awaitIdle(10_000));
+        assertEquals(3, received.size());
+        // The third attempt waits for the rate limit window to reset
+        assertTrue(receivedAt.get(2) - receivedAt.get(1) >= 900, "The rate limit reset should be honoured.");
+        assertEquals(1L, reporter.getMetrics().get("sent"));
+        assertEquals(2L, reporter.getMetrics().get("retried"));
     }
 
     @Test
-    void testSendStatus_FailureInput() {
-        // Arrange: Set up the output stream to capture the printed content
+    void testSubmit_LimitsConcurrentRequestsPerHost() throws Exception {
+        reporter = new StatusReporter(startStub(request -> 201, 100, null), "token", 2, 1, 10);
+        reporter.start();
+        for (int i = 0; i < 6; i++) {
+            reporter.submit("user", "repo", "sha" + i, "success", "CI Build passed");
+        }
+        assertTrue(reporter.awaitIdle(10_000));
+        assertEquals(6, received.size());
+        assertEquals(2, maxConcurrent.get());
+    }
+
+    @Test
+    void testSendStatus_successInput() throws Exception {
+        reporter = new StatusReporter(startStub(request -> 201, 0, null), "token", 4, 1, 10);
+        reporter.start();
+        PrintStream originalOut = System.out;
         ByteArrayOutputStream outContent = new ByteArrayOutputStream();
         System.setOut(new PrintStream(outContent));
+        try {
+            reporter.submit("user", "repo", "commit123", "success", "CI Build passed");
+            assertTrue(reporter.awaitIdle(10_000));
+        } finally {
+            System.setOut(originalOut);
+        }
+
+        String expectedPayload = "{ \"state\": \"success\", \"description\": \"CI Build passed\", \"context\": \"ci-server\"}";
+        assertEquals(List.of("/repos/user/repo/statuses/commit123 " + expectedPayload), received);
+        assertFalse(outContent.toString().contains(expectedPayload), "The payload should not be logged.");
+    }
 
-        // Act: Call the method we want to test with failure status
-        StatusReporter.sendStatus("user", "repo", "commit123", false);
+    @Test
+    void testSendStatus_FailureInput() throws Exception {
+        reporter = new StatusReporter(startStub(request -> 422, 0, null), "token", 4, 1, 10);
+        reporter.start();
+        PrintStream originalErr = System.err;
+        ByteArrayOutputStream errContent = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errContent));
+        try {
+            reporter.submit("user", "repo", "commit123", "failure", "CI Build failed");
+            assertTrue(reporter.awaitIdle(10_000));
+        } finally {
+            System.setErr(originalErr);
+        }
 
-        // Assert: Check if the correct payload for failure is printed
         String expectedPayload = "{ \"state\": \"failure\", \"description\": \"CI Build failed\", \"context\": \"ci-server\"}";
-        assertTrue(outContent.toString().contains(expectedPayload));
-
-        // Reset System.out
-        System.setOut(System.out);
+        assertEquals(List.of("/repos/user/repo/statuses/commit123 " + expectedPayload), received);
+        // A failed send is traced by state and key only
+        assertTrue(errContent.toString().contains("Posting status failure of user/repo@commit123#ci-server failed"));
+        assertFalse(errContent.toString().contains(expectedPayload));
+        assertEquals(1L, reporter.getMetrics().get("failed"));
     }
 
 }
@@ -0,0 +1,86 @@
+package com.group21.ci;
+
+import com.group21.ci.entity.TestCaseOutcome;
+import com.group21.ci.entity.TestCaseResultEntity;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SurefireReportParserTest {
+    private static final String REPORT =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<testsuite name=\"com.example.FooTest\" tests=\"4\" failures=\"1\" errors=\"1\" skipped=\"1\">\n"
+            + "  <properties><property name=\"a\" value=\"b\"/></properties>\n"
+            + "  <testcase name=\"passes\" classname=\"com.example.FooTest\" time=\"1.5\"/>\n"
+            + "  <testcase name=\"fails\" classname=\"com.example.FooTest\" time=\"0.25\">\n"
+            + "    <failure message=\"expected\">stack <error>not an outcome</error></failure>\n"
+            + "    <system-out>output</system-out>\n"
+            + "  </testcase>\n"
+            + "  <testcase name=\"breaks\" classname=\"com.example.FooTest\" time=\"1,234.5\">\n"
+            + "    <error type=\"java.lang.IllegalStateException\"/>\n"
+            + "  </testcase>\n"
+            + "  <testcase name=\"ignored\" classname=\"com.example.FooTest\" time=\"0\"><skipped/></testcase>\n"
+            + "</testsuite>\n";
+
+    private static Path writeReport(Path workspace, String module, String content) throws Exception {
+        Path reports = workspace.resolve(module).resolve("target/surefire-reports");
+        Files.createDirectories(reports);
+        Path report = reports.resolve("TEST-com.example.FooTest.xml");
+        Files.writeString(report, content);
+        // Plain-text reports next to the XML must be ignored
+        Files.writeString(reports.resolve("com.example.FooTest.txt"), "Tests run: 4");
+        return report;
+    }
+
+    @Test
+    void testParse_ReadsOutcomesAndDurations() throws Exception {
+        Path workspace = Files.createTempDirectory("surefire-parse");
+        writeReport(workspace, "module-a", REPORT);
+        writeReport(workspace, "module-b", REPORT.replace("FooTest", "BarTest"));
+
+        List<File> reports = SurefireReportParser.findReports(workspace.toFile());
+        assertEquals(2, reports.size(), "Should find the XML report of every module.");
+
+        List<TestCaseResultEntity> testCases = new ArrayList<>();
+        SurefireReportParser.Summary summary = SurefireReportParser.parse(reports, testCases::add);
+
+        assertEquals(8, testCases.size());
+        assertEquals(8, summary.getTests());
+        assertEquals(2, summary.getFailures());
+        assertEquals(2, summary.getErrors());
+        assertEquals(2, summary.getSkipped());
+
+        TestCaseResultEntity first = testCases.get(0);
+        assertEquals("com.example.FooTest", first.getClassName());
+        assertEquals("passes", first.getTestName());
+        assertEquals(1500, first.getDurationMillis());
+        assertEquals(TestCaseOutcome.PASSED, first.getOutcome());
+        assertEquals(TestCaseOutcome.FAILED, testCases.get(1).getOutcome(),
+                "Elements nested inside a failure should not change the outcome.");
+        assertEquals(TestCaseOutcome.ERROR, testCases.get(2).getOutcome());
+        assertEquals(1_234_500, testCases.get(2).getDurationMillis());
+        assertEquals(TestCaseOutcome.SKIPPED, testCases.get(3).getOutcome());
+    }
+
+    @Test
+    void testSummarize_ReadsRootCountersAndFlagsEmptyReports(@TempDir Path workspace) throws Exception {
+        writeReport(workspace, "ok", REPORT.replace("failures=\"1\" errors=\"1\"", "failures=\"0\" errors=\"0\""));
+        List<File> reports = SurefireReportParser.findReports(workspace.toFile());
+
+        SurefireReportParser.Summary summary = SurefireReportParser.summarize(reports);
+        assertEquals(4, summary.getTests());
+        assertTrue(summary.isSuccessful());
+
+        writeReport(workspace, "broken", "");
+        reports = SurefireReportParser.findReports(workspace.toFile());
+        summary = SurefireReportParser.summarize(reports);
+        assertFalse(summary.isSuccessful(), "An empty report should fail the build.");
+    }
+}
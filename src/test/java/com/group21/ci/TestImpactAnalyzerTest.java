@@ -0,0 +1,92 @@
+package com.group21.ci;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestImpactAnalyzerTest {
+
+    private static void write(Path root, String path, String content) throws Exception {
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+    private static Path multiModuleWorkspace(Path root) throws Exception {
+        write(root, "pom.xml", "<project/>");
+        write(root, "core/pom.xml", "<project/>");
+        write(root, "web/pom.xml", "<project/>");
+        return root;
+    }
+
+    @Test
+    void testSelect_ChangedTestClassRunsOnlyThatClass(@TempDir Path root) throws Exception {
+        multiModuleWorkspace(root);
+
+        TestImpactAnalyzer.Selection selection = TestImpactAnalyzer.select(root.toFile(),
+                List.of("core/src/test/java/com/example/FooTest.java", "README.md"));
+
+        assertFalse(selection.isFullRun());
+        assertEquals(List.of("-pl", "core", "-am", "-Dtest=com.example.FooTest",
+                "-Dsurefire.failIfNoSpecifiedTests=false"), selection.getArguments());
+        assertEquals(List.of("-pl", "core", "-am"), selection.getModuleArguments());
+    }
+
+    @Test
+    void testSelect_MainSourceRunsModuleAndDependents(@TempDir Path root) throws Exception {
+        multiModuleWorkspace(root);
+
+        TestImpactAnalyzer.Selection selection = TestImpactAnalyzer.select(root.toFile(),
+                List.of("core/src/main/java/com/example/Foo.java", "web/src/test/java/com/example/WebTest.java"));
+
+        assertEquals(List.of("-pl", "core,web", "-am", "-amd"), selection.getArguments());
+    }
+
+    @Test
+    void testSelect_FallsBackToFullRunOrSkipsTests(@TempDir Path root) throws Exception {
+        multiModuleWorkspace(root);
+        File workspace = root.toFile();
+
+        assertTrue(TestImpactAnalyzer.select(workspace, List.of("core/pom.xml")).isFullRun(),
+                "Build file changes should run everything.");
+        assertTrue(TestImpactAnalyzer.select(workspace, List.of("src/main/java/Root.java")).isFullRun(),
+                "Root module changes should run everything.");
+        assertTrue(TestImpactAnalyzer.select(workspace, List.of("scripts/deploy.sh")).isFullRun(),
+                "Unknown files should run everything.");
+
+        TestImpactAnalyzer.Selection docs = TestImpactAnalyzer.select(workspace, List.of("README.md", "docs/x.html"));
+        assertEquals(List.of("-DskipTests"), docs.getArguments());
+    }
+
+    @Test
+    void testSelect_DiffsAgainstLastGreenCommit(@TempDir Path root) throws Exception {
+        multiModuleWorkspace(root);
+        try (Git git = Git.init().setDirectory(root.toFile()).setInitialBranch("main").call()) {
+            write(root, "core/src/main/java/com/example/Foo.java", "class Foo {}");
+            git.add().addFilepattern(".").call();
+            RevCommit green = git.commit().setMessage("green").call();
+
+            write(root, "core/src/test/java/com/example/FooTest.java", "class FooTest {}");
+            git.add().addFilepattern(".").call();
+            RevCommit head = git.commit().setMessage("add test").call();
+
+            JobQueue.BuildJob job = new JobQueue.BuildJob("owner", "repo", head.getName(), "main");
+            TestImpactAnalyzer analyzer = new TestImpactAnalyzer(true, 0);
+
+            TestImpactAnalyzer.Selection selection = analyzer.select(job, root.toFile(), green.getName());
+            assertEquals(Set.of("com.example.FooTest"), selection.getTestClasses());
+            assertTrue(analyzer.select(job, root.toFile(), null).isFullRun(), "No baseline should run everything.");
+            assertTrue(new TestImpactAnalyzer(true, 1).select(job, root.toFile(), green.getName()).isFullRun(),
+                    "Periodic full runs should not be skipped.");
+        }
+    }
+}
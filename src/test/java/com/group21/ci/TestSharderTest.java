@@ -0,0 +1,62 @@
+package com.group21.ci;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestSharderTest {
+
+    private static long load(List<String> shard, Map<String, Long> durations) {
+        return shard.stream().mapToLong(durations::get).sum();
+    }
+
+    @Test
+    void testPartition_BalancesLongestClassesFirst() {
+        Map<String, Long> durations = Map.of(
+                "A", 70L, "B", 60L, "C", 50L, "D", 40L, "E", 30L, "F", 20L, "G", 10L);
+
+        List<List<String>> shards = TestSharder.partition(List.copyOf(durations.keySet()), durations, 2);
+
+        assertEquals(2, shards.size());
+        assertEquals(List.of("A", "D", "E"), shards.get(0), "Slowest class should start the first shard.");
+        assertEquals(140, load(shards.get(0), durations));
+        assertEquals(140, load(shards.get(1), durations), "Shards should be balanced by duration.");
+    }
+
+    @Test
+    void testPartition_UnknownClassesUseAverageDuration() {
+        List<List<String>> shards = TestSharder.partition(List.of("Known", "New1", "New2"),
+                Map.of("Known", 100L), 5);
+
+        assertEquals(3, shards.size(), "There should be no more shards than classes.");
+        shards.forEach(shard -> assertEquals(1, shard.size()));
+    }
+
+    @Test
+    void testDiscoverTestClasses_UsesSurefireNamingConventions(@TempDir Path root) throws Exception {
+        Path tests = Files.createDirectories(root.resolve("src/test/java/com/example"));
+        Files.writeString(tests.resolve("FooTest.java"), "");
+        Files.writeString(tests.resolve("TestBar.java"), "");
+        Files.writeString(tests.resolve("BazTests.java"), "");
+        Files.writeString(tests.resolve("TestUtils.txt"), "");
+        Files.writeString(tests.resolve("Helper.java"), "");
+
+        assertEquals(List.of("com.example.BazTests", "com.example.FooTest", "com.example.TestBar"),
+                TestSharder.discoverTestClasses(root.toFile()));
+    }
+
+    @Test
+    void testPlan_DoesNotShardMultiModuleProjects(@TempDir Path root) throws Exception {
+        Files.writeString(root.resolve("pom.xml"), "<project><modules><module>a</module></modules></project>");
+        TestSharder sharder = new TestSharder(4, 30, null);
+        JobQueue.BuildJob job = new JobQueue.BuildJob("owner", "repo", "abc123", "main");
+
+        assertTrue(sharder.plan(job, root.toFile(), TestImpactAnalyzer.Selection.full("test")).isEmpty());
+    }
+}
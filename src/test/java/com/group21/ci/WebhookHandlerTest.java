@@ -1,28 +1,21 @@
 package com.group21.ci;
 
-import org.json.JSONObject;
-import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.MockedStatic;
-import org.mockito.Mockito;
 
-import javax.servlet.http.HttpServletRequest;
-import java.io.BufferedReader;
-import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 class WebhookHandlerTest {
 
-    private HttpServletRequest mockRequest;
-
-    @BeforeEach
-    void setUp() {
-        mockRequest = mock(HttpServletRequest.class);
+    private static byte[] bytes(String payload) {
+        return payload.getBytes(StandardCharsets.UTF_8);
     }
 
     @Test
-    void testProcessWebhook_Success() throws Exception {
+    void testProcessPayload_Success() throws Exception {
         // a example JSON payload simulating a GitHub webhook event
         String payload = "{ " +
                 "\"repository\": { \"name\": \"example-repo\", \"owner\": { \"login\": \"example-owner\" } }, " +
@@ -30,31 +23,44 @@ class WebhookHandlerTest {
                 "\"ref\": \"refs/heads/main\" " +
                 "}";
 
-        // Mock request reader to return our test JSON payload
-        BufferedReader reader = new BufferedReader(new StringReader(payload));
-        when(mockRequest.getReader()).thenReturn(reader);
-
         // Mock JobQueue's static method
         try (MockedStatic<JobQueue> mockedJobQueue = mockStatic(JobQueue.class)) {
-            WebhookHandler.processWebhook(mockRequest);
+            mockedJobQueue.when(() -> JobQueue.addJob(anyString(), anyString(), anyString(), anyString(), any()))
+                    .thenReturn(true);
+            assertEquals(WebhookIngestor.Result.QUEUED, WebhookHandler.processPayload(bytes(payload)));
 
             // verify that JobQueue.addJob() was called with expected parameters, meaning test passes
-            mockedJobQueue.verify(() -> JobQueue.addJob("example-owner", "example-repo", "abc123", "main"));
+            mockedJobQueue.verify(() -> JobQueue.addJob("example-owner", "example-repo", "abc123", "main",
+                    JobPriority.DEFAULT_BRANCH));
+        }
+    }
+
+    @Test
+    void testProcessPayload_BuildQueueFull() throws Exception {
+        String payload = "{ " +
+                "\"repository\": { \"name\": \"example-repo\", \"owner\": { \"login\": \"example-owner\" } }, " +
+                "\"head_commit\": { \"id\": \"abc123\" }, " +
+                "\"ref\": \"refs/heads/main\" " +
+                "}";
+
+        // addJob refuses the job, so the commit must be marked as not built
+        try (MockedStatic<JobQueue> mockedJobQueue = mockStatic(JobQueue.class);
+             MockedStatic<StatusReporter> mockedReporter = mockStatic(StatusReporter.class)) {
+            assertEquals(WebhookIngestor.Result.REJECTED, WebhookHandler.processPayload(bytes(payload)));
+
+            mockedReporter.verify(() -> StatusReporter.sendStatus(eq("example-owner"), eq("example-repo"),
+                    eq("abc123"), eq("error"), anyString()));
         }
     }
 
     @Test
-    void testProcessWebhook_InvalidJson() throws Exception {
+    void testProcessPayload_InvalidJson() throws Exception {
         // example invalid JSON payload
         String payload = "INVALID_JSON";
 
-        // Mock request reader
-        BufferedReader reader = new BufferedReader(new StringReader(payload));
-        when(mockRequest.getReader()).thenReturn(reader);
-
         // Mock JobQueue (to ensure it’s not called)
         try (MockedStatic<JobQueue> mockedJobQueue = mockStatic(JobQueue.class)) {
-            WebhookHandler.processWebhook(mockRequest);
+            assertEquals(WebhookIngestor.Result.IGNORED, WebhookHandler.processPayload(bytes(payload)));
 
             // Verify JobQueue.addJob() was never called due to invalid JSON, meaning test passes
             mockedJobQueue.verifyNoInteractions();
@@ -62,20 +68,47 @@ class WebhookHandlerTest {
     }
 
     @Test
-    void testProcessWebhook_MissingFields() throws Exception {
+    void testProcessPayload_MissingFields() throws Exception {
         // JSON missing "head_commit" and "ref"
         String payload = "{ " +
                 "\"repository\": { \"name\": \"example-repo\", \"owner\": { \"login\": \"example-owner\" } } " +
                 "}";
 
-        BufferedReader reader = new BufferedReader(new StringReader(payload));
-        when(mockRequest.getReader()).thenReturn(reader);
-
         try (MockedStatic<JobQueue> mockedJobQueue = mockStatic(JobQueue.class)) {
-            WebhookHandler.processWebhook(mockRequest);
+            assertEquals(WebhookIngestor.Result.IGNORED, WebhookHandler.processPayload(bytes(payload)));
 
             // Ensure JobQueue.addJob() was never called due to missing fields
             mockedJobQueue.verifyNoInteractions();
         }
     }
+
+    @Test
+    void testParse_SkipsUnrelatedFieldsOfTheSameName() throws Exception {
+        // Shaped like a real push event: nested "id", "name" and "login" fields elsewhere must not match
+        String payload = "{ \"ref\": \"refs/heads/feature\", \"after\": \"def456\", " +
+                "\"pusher\": { \"name\": \"someone\" }, \"sender\": { \"login\": \"someone\", \"id\": 7 }, " +
+                "\"repository\": { \"id\": 1, \"name\": \"repo\", \"license\": null, \"default_branch\": \"develop\", " +
+                "\"owner\": { \"name\": \"Owner\", \"login\": \"owner\" }, \"topics\": [\"ci\", {\"name\": \"x\"}] }, " +
+                "\"commits\": [ { \"id\": \"abc111\", \"author\": { \"name\": \"a\" } } ], " +
+                "\"head_commit\": { \"tree_id\": \"t\", \"id\": \"def456\", \"added\": [] } }";
+
+        WebhookHandler.PushEvent event = WebhookHandler.parse(bytes(payload));
+
+        assertEquals("refs/heads/feature", event.ref);
+        assertEquals("def456", event.commitSHA);
+        assertEquals("owner", event.repoOwner);
+        assertEquals("repo", event.repoName);
+        assertEquals("develop", event.defaultBranch);
+    }
+
+    @Test
+    void testParse_DeletedBranchHasNoHeadCommit() throws Exception {
+        String payload = "{ \"ref\": \"refs/heads/old\", \"deleted\": true, \"head_commit\": null, " +
+                "\"repository\": { \"name\": \"repo\", \"owner\": { \"login\": \"owner\" } } }";
+
+        try (MockedStatic<JobQueue> mockedJobQueue = mockStatic(JobQueue.class)) {
+            assertEquals(WebhookIngestor.Result.IGNORED, WebhookHandler.processPayload(bytes(payload)));
+            mockedJobQueue.verifyNoInteractions();
+        }
+    }
 }
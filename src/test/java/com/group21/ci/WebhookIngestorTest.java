@@ -0,0 +1,212 @@
+package com.group21.ci;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class WebhookIngestorTest {
+
+    private static HttpServletRequest request(byte[] body, boolean announceLength) throws Exception {
+        return request(body, announceLength, Map.of());
+    }
+
+    private static HttpServletRequest request(byte[] body, boolean announceLength, Map<String, String> headers)
+            throws Exception {
+        ByteArrayInputStream in = new ByteArrayInputStream(body);
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        headers.forEach((name, value) -> when(request.getHeader(name)).thenReturn(value));
+        when(request.getContentLengthLong()).thenReturn(announceLength ? (long) body.length : -1L);
+        when(request.getInputStream()).thenReturn(new ServletInputStream() {
+            @Override
+            public boolean isFinished() {
+                return in.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+            }
+
+            @Override
+            public int read() {
+                return in.read();
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) {
+                return in.read(buffer, offset, length);
+            }
+        });
+        return request;
+    }
+
+    private static Function<byte[], WebhookIngestor.Result> queueInto(BlockingQueue<byte[]> processed) {
+        return payload -> {
+            processed.add(payload);
+            return WebhookIngestor.Result.QUEUED;
+        };
+    }
+
+    @Test
+    void testAccept_AcknowledgesAndProcessesInBackground() throws Exception {
+        BlockingQueue<byte[]> processed = new LinkedBlockingQueue<>();
+        WebhookIngestor ingestor = new WebhookIngestor(queueInto(processed), 10, 1024, 1);
+        byte[] body = "{\"ref\": \"refs/heads/main\"}".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(HttpServletResponse.SC_ACCEPTED, ingestor.accept(request(body, true)));
+        assertEquals(HttpServletResponse.SC_ACCEPTED, ingestor.accept(request(body, false)));
+
+        assertArrayEquals(body, processed.poll(5, TimeUnit.SECONDS));
+        assertArrayEquals(body, processed.poll(5, TimeUnit.SECONDS));
+        assertEquals(2L, ingestor.getMetrics().get("accepted"));
+    }
+
+    @Test
+    void testAccept_RefusesPayloadsAboveTheLimit() throws Exception {
+        WebhookIngestor ingestor = new WebhookIngestor(payload -> fail("Should not be processed"), 10, 100, 1);
+        byte[] body = new byte[20_000];
+
+        assertEquals(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, ingestor.accept(request(body, true)));
+        // Without a Content-Length the body is read only up to the limit
+        assertEquals(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, ingestor.accept(request(body, false)));
+        assertEquals(2L, ingestor.getMetrics().get("tooLarge"));
+    }
+
+    @Test
+    void testAccept_RejectsWhenQueueIsFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch busy = new CountDownLatch(1);
+        WebhookIngestor ingestor = new WebhookIngestor(payload -> {
+            busy.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return WebhookIngestor.Result.QUEUED;
+        }, 1, 1024, 1);
+        byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+
+        try {
+            assertEquals(HttpServletResponse.SC_ACCEPTED, ingestor.accept(request(body, true)));
+            assertTrue(busy.await(5, TimeUnit.SECONDS));
+            // One payload in processing, one waiting: the queue is full
+            assertEquals(HttpServletResponse.SC_ACCEPTED, ingestor.accept(request(body, true)));
+            assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, ingestor.accept(request(body, true)));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private static String sign(String secret, byte[] body) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        StringBuilder hex = new StringBuilder("sha256=");
+        for (byte b : mac.doFinal(body)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    @Test
+    void testAccept_VerifiesSignature() throws Exception {
+        BlockingQueue<byte[]> processed = new LinkedBlockingQueue<>();
+        WebhookIngestor ingestor = new WebhookIngestor(queueInto(processed), 10, 100_000, 1, "s3cret", 100, 60_000);
+        byte[] body = new byte[50_000];
+        Arrays.fill(body, (byte) 'x');
+
+        assertEquals(HttpServletResponse.SC_UNAUTHORIZED, ingestor.accept(request(body, true)), "Unsigned");
+        assertEquals(HttpServletResponse.SC_UNAUTHORIZED, ingestor.accept(request(body, true,
+                Map.of("X-Hub-Signature-256", sign("other", body)))), "Signed with another secret");
+        assertEquals(HttpServletResponse.SC_UNAUTHORIZED, ingestor.accept(request(body, true,
+                Map.of("X-Hub-Signature-256", "sha256=zz"))), "Malformed");
+        assertEquals(HttpServletResponse.SC_ACCEPTED, ingestor.accept(request(body, true,
+                Map.of("X-Hub-Signature-256", sign("s3cret", body)))));
+        assertEquals(HttpServletResponse.SC_ACCEPTED, ingestor.accept(request(body, false,
+                Map.of("X-Hub-Signature-256", sign("s3cret", body)))), "Chunked body");
+
+        assertArrayEquals(body, processed.poll(5, TimeUnit.SECONDS));
+        assertArrayEquals(body, processed.poll(5, TimeUnit.SECONDS));
+        assertNull(processed.poll(200, TimeUnit.MILLISECONDS), "Forged deliveries must not be processed.");
+        assertEquals(3L, ingestor.getMetrics().get("unauthorized"));
+    }
+
+    @Test
+    void testAccept_IgnoresRedeliveries() throws Exception {
+        BlockingQueue<byte[]> processed = new LinkedBlockingQueue<>();
+        WebhookIngestor ingestor = new WebhookIngestor(queueInto(processed), 10, 1024, 1, null, 100, 60_000);
+        byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(HttpServletResponse.SC_ACCEPTED,
+                ingestor.accept(request(body, true, Map.of("X-GitHub-Delivery", "guid-1"))));
+        assertEquals(HttpServletResponse.SC_OK,
+                ingestor.accept(request(body, true, Map.of("X-GitHub-Delivery", "guid-1"))));
+        assertEquals(HttpServletResponse.SC_ACCEPTED,
+                ingestor.accept(request(body, true, Map.of("X-GitHub-Delivery", "guid-2"))));
+
+        assertNotNull(processed.poll(5, TimeUnit.SECONDS));
+        assertNotNull(processed.poll(5, TimeUnit.SECONDS));
+        assertNull(processed.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(1L, ingestor.getMetrics().get("duplicates"));
+    }
+
+    @Test
+    void testAccept_ForgetsDeliveriesTheBuildQueueRejected() throws Exception {
+        BlockingQueue<byte[]> processed = new LinkedBlockingQueue<>();
+        AtomicInteger calls = new AtomicInteger();
+        WebhookIngestor ingestor = new WebhookIngestor(payload -> {
+            processed.add(payload);
+            return calls.incrementAndGet() == 1 ? WebhookIngestor.Result.REJECTED : WebhookIngestor.Result.QUEUED;
+        }, 10, 1024, 1, null, 100, 60_000);
+        byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(HttpServletResponse.SC_ACCEPTED,
+                ingestor.accept(request(body, true, Map.of("X-GitHub-Delivery", "guid-1"))));
+        assertNotNull(processed.poll(5, TimeUnit.SECONDS));
+        // The processed counter is updated right after the processor returns
+        for (int i = 0; i < 100 && (long) ingestor.getMetrics().get("processed") < 1; i++) {
+            Thread.sleep(50);
+        }
+
+        // The redelivery of the rejected delivery is processed again
+        assertEquals(HttpServletResponse.SC_ACCEPTED,
+                ingestor.accept(request(body, true, Map.of("X-GitHub-Delivery", "guid-1"))));
+        assertNotNull(processed.poll(5, TimeUnit.SECONDS));
+        assertEquals(1L, ingestor.getMetrics().get("rejected"));
+        assertEquals(0L, ingestor.getMetrics().get("duplicates"));
+    }
+
+    @Test
+    void testMarkDelivered_BoundedAndExpiring() {
+        WebhookIngestor ingestor = new WebhookIngestor(payload -> WebhookIngestor.Result.QUEUED, 10, 1024, 1, null, 2, 1_000);
+
+        assertTrue(ingestor.markDelivered("a", 0));
+        assertFalse(ingestor.markDelivered("a", 500));
+        assertTrue(ingestor.markDelivered("a", 1_500), "Expired ids are accepted again");
+        assertTrue(ingestor.markDelivered("b", 1_600));
+        assertTrue(ingestor.markDelivered("c", 1_700));
+        assertTrue(ingestor.markDelivered("a", 1_800), "The oldest id is evicted above the size limit");
+    }
+}
@@ -0,0 +1,80 @@
+package com.group21.ci;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorkspaceManagerTest {
+    private static final File TEST_ROOT = new File("test_workspaces");
+
+    @AfterEach
+    void tearDown() {
+        WorkspaceManager.deleteDirectory(TEST_ROOT);
+    }
+
+    private JobQueue.BuildJob newJob() {
+        return new JobQueue.BuildJob("owner", "repo", "abc123", "main");
+    }
+
+    @Test
+    void testAllocate_GivesEachJobItsOwnDirectory() throws Exception {
+        WorkspaceManager manager = new WorkspaceManager(TEST_ROOT, 0, Long.MAX_VALUE);
+
+        File first = manager.allocate(newJob());
+        File second = manager.allocate(newJob());
+
+        assertTrue(first.isDirectory(), "Workspace should be created.");
+        assertTrue(second.isDirectory(), "Workspace should be created.");
+        assertNotEquals(first, second, "Concurrent jobs must not share a workspace.");
+    }
+
+    @Test
+    void testRelease_DeletesWorkspaceWhenNothingIsRetained() throws Exception {
+        WorkspaceManager manager = new WorkspaceManager(TEST_ROOT, 0, Long.MAX_VALUE);
+        File workspace = manager.allocate(newJob());
+        Files.write(new File(workspace, "pom.xml").toPath(), "<project/>".getBytes());
+
+        manager.release(workspace);
+        manager.awaitCleanup();
+
+        assertFalse(workspace.exists(), "Released workspace should be deleted.");
+    }
+
+    @Test
+    void testRelease_EvictsLeastRecentlyUsedBeyondRetainCount() throws Exception {
+        WorkspaceManager manager = new WorkspaceManager(TEST_ROOT, 2, Long.MAX_VALUE);
+        File first = manager.allocate(newJob());
+        File second = manager.allocate(newJob());
+        File third = manager.allocate(newJob());
+
+        manager.release(first);
+        manager.release(second);
+        manager.release(third);
+        manager.awaitCleanup();
+
+        assertFalse(first.exists(), "Oldest workspace should be evicted.");
+        assertTrue(second.exists(), "Recent workspace should be retained.");
+        assertTrue(third.exists(), "Recent workspace should be retained.");
+        assertEquals(2, manager.getRetainedCount());
+    }
+
+    @Test
+    void testRelease_EvictsWhenQuotaIsExceeded() throws Exception {
+        WorkspaceManager manager = new WorkspaceManager(TEST_ROOT, 10, 1500);
+        File first = manager.allocate(newJob());
+        File second = manager.allocate(newJob());
+        Files.write(new File(first, "data.bin").toPath(), new byte[1000]);
+        Files.write(new File(second, "data.bin").toPath(), new byte[1000]);
+
+        manager.release(first);
+        manager.release(second);
+        manager.awaitCleanup();
+
+        assertFalse(first.exists(), "Workspace exceeding the quota should be evicted.");
+        assertTrue(second.exists(), "Newest workspace should be retained.");
+    }
+}
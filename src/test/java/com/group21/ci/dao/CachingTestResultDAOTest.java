@@ -0,0 +1,98 @@
+package com.group21.ci.dao;
+
+import com.group21.ci.entity.TestResultEntity;
+import com.group21.ci.entity.TestStatus;
+import org.hibernate.Session;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingTestResultDAOTest {
+    private TestResultDAO uncached;
+
+    @BeforeEach
+    void setUp() {
+        HibernateTestUtil.init("hibernate-test.cfg.xml");
+        try (Session session = HibernateTestUtil.getSessionFactory().openSession()) {
+            session.beginTransaction();
+            session.createQuery("DELETE FROM TestCaseResultEntity").executeUpdate();
+            session.createQuery("DELETE FROM TestResultEntity").executeUpdate();
+            session.getTransaction().commit();
+        }
+        uncached = new TestResultDAO(HibernateTestUtil.getSessionFactory());
+    }
+
+    private static TestResultEntity build(String commitSha, TestStatus status) {
+        return new TestResultEntity(commitSha, status, "log", LocalDateTime.now());
+    }
+
+    private static void deleteBehindCache(String commitSha) {
+        try (Session session = HibernateTestUtil.getSessionFactory().openSession()) {
+            session.beginTransaction();
+            session.createMutationQuery("DELETE FROM TestResultEntity WHERE commitSha = :sha")
+                    .setParameter("sha", commitSha)
+                    .executeUpdate();
+            session.getTransaction().commit();
+        }
+    }
+
+    @Test
+    void testLookups_AreServedFromCache() {
+        CachingTestResultDAO dao = new CachingTestResultDAO(HibernateTestUtil.getSessionFactory(), 10, 60_000);
+        TestResultEntity stored = build("cachedSha", TestStatus.SUCCESS);
+        uncached.saveTestResult(stored);
+
+        assertNotNull(dao.getTestResultByCommitSha("cachedSha"));
+        assertNotNull(dao.getTestResultById(stored.getId()));
+        deleteBehindCache("cachedSha");
+
+        // Both lookups now come from memory only
+        assertEquals("cachedSha", dao.getTestResultByCommitSha("cachedSha").getCommitSha());
+        assertEquals(stored.getId(), dao.getTestResultById(stored.getId()).getId());
+        assertEquals(2L, dao.getMetrics().get("hits"));
+        assertEquals(2L, dao.getMetrics().get("misses"));
+    }
+
+    @Test
+    void testSave_InvalidatesCachedCommit() {
+        CachingTestResultDAO dao = new CachingTestResultDAO(HibernateTestUtil.getSessionFactory(), 10, 60_000);
+        dao.saveTestResult(build("rebuiltSha", TestStatus.FAILED));
+        assertEquals(TestStatus.FAILED, dao.getTestResultByCommitSha("rebuiltSha").getStatus());
+
+        dao.saveTestResult(build("rebuiltSha", TestStatus.SUCCESS));
+        assertEquals(TestStatus.SUCCESS, dao.getTestResultByCommitSha("rebuiltSha").getStatus());
+
+        dao.saveBuildResults(List.of(
+                new BuildResult(build("rebuiltSha", TestStatus.FAILED), List.of())));
+        assertEquals(TestStatus.FAILED, dao.getTestResultByCommitSha("rebuiltSha").getStatus());
+
+        dao.deleteTestResult("rebuiltSha");
+        dao.deleteTestResult("rebuiltSha");
+        assertEquals(TestStatus.FAILED, dao.getTestResultByCommitSha("rebuiltSha").getStatus(),
+                "The first build of the commit should remain.");
+    }
+
+    @Test
+    void testEntries_ExpireAndAreEvicted() throws Exception {
+        CachingTestResultDAO expiring = new CachingTestResultDAO(HibernateTestUtil.getSessionFactory(), 10, 50);
+        uncached.saveTestResult(build("expiringSha", TestStatus.SUCCESS));
+        assertNotNull(expiring.getTestResultByCommitSha("expiringSha"));
+        deleteBehindCache("expiringSha");
+        Thread.sleep(100);
+        assertNull(expiring.getTestResultByCommitSha("expiringSha"));
+
+        CachingTestResultDAO small = new CachingTestResultDAO(HibernateTestUtil.getSessionFactory(), 2, 60_000);
+        for (String sha : new String[]{"sha1", "sha2", "sha3"}) {
+            uncached.saveTestResult(build(sha, TestStatus.SUCCESS));
+            small.getTestResultByCommitSha(sha);
+        }
+        assertEquals(2, small.getMetrics().get("entries"));
+        deleteBehindCache("sha1");
+        assertNull(small.getTestResultByCommitSha("sha1"), "The least recently used entry should be evicted.");
+        assertNotNull(small.getTestResultByCommitSha("sha3"));
+    }
+}
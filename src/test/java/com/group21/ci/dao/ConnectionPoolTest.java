@@ -0,0 +1,40 @@
+package com.group21.ci.dao;
+
+import com.group21.ci.entity.TestResultEntity;
+import org.hibernate.Session;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionPoolTest {
+
+    @BeforeEach
+    void setUp() {
+        HibernateTestUtil.init("hibernate-test.cfg.xml");
+    }
+
+    @Test
+    void testPoolMetrics_TrackBorrowedConnections() {
+        Map<String, Object> before = HibernateUtil.getPoolMetrics(HibernateTestUtil.getSessionFactory());
+        assertEquals(0, before.get("waiting"));
+        long acquiredBefore = (Long) before.get("acquired");
+
+        try (Session session = HibernateTestUtil.getSessionFactory().openSession()) {
+            session.beginTransaction();
+            session.createQuery("FROM TestResultEntity", TestResultEntity.class).setMaxResults(1).list();
+
+            Map<String, Object> during = HibernateUtil.getPoolMetrics(HibernateTestUtil.getSessionFactory());
+            assertTrue((Integer) during.get("active") >= 1, "The open transaction should hold a connection.");
+            assertTrue((Integer) during.get("total") <= (Integer) during.get("maxSize"));
+            session.getTransaction().commit();
+        }
+
+        Map<String, Object> after = HibernateUtil.getPoolMetrics(HibernateTestUtil.getSessionFactory());
+        assertTrue((Long) after.get("acquired") > acquiredBefore);
+        assertTrue(after.containsKey("acquireAvgMicros"));
+        assertTrue(after.containsKey("idle"));
+    }
+}
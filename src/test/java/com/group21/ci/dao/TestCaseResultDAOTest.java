@@ -0,0 +1,105 @@
+package com.group21.ci.dao;
+
+import com.group21.ci.entity.TestCaseOutcome;
+import com.group21.ci.entity.TestCaseResultEntity;
+import com.group21.ci.entity.TestResultEntity;
+import com.group21.ci.entity.TestStatus;
+import org.hibernate.Session;
+import org.junit.jupiter.api.*;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestCaseResultDAOTest {
+    private static TestResultDAO testResultDAO;
+    private static TestCaseResultDAO testCaseResultDAO;
+
+    @BeforeAll
+    static void setup() {
+        String dbType = System.getProperty("dbType", "h2"); // Default to H2
+        if ("mysql".equalsIgnoreCase(dbType)) {
+            HibernateTestUtil.init("hibernate-mysql-test.cfg.xml");
+        } else {
+            HibernateTestUtil.init("hibernate-test.cfg.xml");
+        }
+        testResultDAO = new TestResultDAO(HibernateTestUtil.getSessionFactory());
+        testCaseResultDAO = new TestCaseResultDAO(HibernateTestUtil.getSessionFactory());
+    }
+
+    @BeforeEach
+    void cleanupDatabase() {
+        try (Session session = HibernateTestUtil.getSessionFactory().openSession()) {
+            session.beginTransaction();
+            session.createQuery("DELETE FROM TestCaseResultEntity").executeUpdate();
+            session.createQuery("DELETE FROM TestResultEntity").executeUpdate();
+            session.getTransaction().commit();
+        }
+    }
+
+    @Test
+    void testSaveAndRetrieveTestCases() {
+        TestResultEntity build = new TestResultEntity("commitCases", TestStatus.FAILED, "", LocalDateTime.now());
+        testResultDAO.saveTestResult(build);
+
+        List<TestCaseResultEntity> testCases = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            TestCaseResultEntity testCase = new TestCaseResultEntity("com.example.FooTest", "test" + i, i,
+                    i == 7 ? TestCaseOutcome.FAILED : TestCaseOutcome.PASSED);
+            testCase.setTestResult(build);
+            testCases.add(testCase);
+        }
+        testCaseResultDAO.saveTestCases(testCases);
+
+        List<TestCaseResultEntity> stored = testCaseResultDAO.getTestCasesForBuild(build.getId());
+        assertEquals(1200, stored.size());
+        assertEquals("test7", stored.get(7).getTestName());
+        assertEquals(TestCaseOutcome.FAILED, stored.get(7).getOutcome());
+        assertEquals(7, stored.get(7).getDurationMillis());
+    }
+
+    @Test
+    void testDeleteTestResultRemovesTestCases() {
+        TestResultEntity build = new TestResultEntity("commitDeleteCases", TestStatus.SUCCESS, "", LocalDateTime.now());
+        testResultDAO.saveTestResult(build);
+        TestCaseResultEntity testCase = new TestCaseResultEntity("com.example.FooTest", "passes", 5,
+                TestCaseOutcome.PASSED);
+        testCase.setTestResult(build);
+        testCaseResultDAO.saveTestCases(List.of(testCase));
+
+        testResultDAO.deleteTestResult("commitDeleteCases");
+
+        assertNull(testResultDAO.getTestResultByCommitSha("commitDeleteCases"));
+        assertTrue(testCaseResultDAO.getTestCasesForBuild(build.getId()).isEmpty());
+    }
+
+    @Test
+    void testAverageClassDurationsPerBuild() {
+        for (String commit : List.of("commitSlow", "commitFast")) {
+            TestResultEntity build = new TestResultEntity(commit, TestStatus.SUCCESS, "", LocalDateTime.now());
+            build.setRepoOwner("owner");
+            build.setRepoName("repo");
+            testResultDAO.saveTestResult(build);
+
+            long duration = commit.equals("commitSlow") ? 300 : 100;
+            List<TestCaseResultEntity> testCases = new ArrayList<>();
+            for (String test : List.of("first", "second")) {
+                TestCaseResultEntity testCase = new TestCaseResultEntity("com.example.FooTest", test, duration,
+                        TestCaseOutcome.PASSED);
+                testCase.setTestResult(build);
+                testCases.add(testCase);
+            }
+            testCaseResultDAO.saveTestCases(testCases);
+        }
+
+        Map<String, Long> durations = testCaseResultDAO.getAverageClassDurations("owner", "repo",
+                LocalDateTime.now().minusDays(1));
+        assertEquals(Map.of("com.example.FooTest", 400L), durations,
+                "The class took 600ms and 200ms in two builds.");
+        assertTrue(testCaseResultDAO.getAverageClassDurations("other", "repo", LocalDateTime.now().minusDays(1))
+                .isEmpty());
+    }
+}
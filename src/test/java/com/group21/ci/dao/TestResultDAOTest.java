@@ -1,5 +1,6 @@
 package com.group21.ci.dao;
 
+import com.group21.ci.entity.BuildPhase;
 import com.group21.ci.entity.TestResultEntity;
 import com.group21.ci.entity.TestStatus;
 import org.hibernate.Session;
@@ -7,6 +8,7 @@ import org.junit.jupiter.api.*;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -28,6 +30,7 @@ public class TestResultDAOTest {
     void cleanupDatabase() {
         try (Session session = HibernateTestUtil.getSessionFactory().openSession()) {
             session.beginTransaction();
+            session.createQuery("DELETE FROM TestCaseResultEntity").executeUpdate();
             session.createQuery("DELETE FROM TestResultEntity").executeUpdate();
             session.getTransaction().commit();
         }
@@ -88,4 +91,70 @@ public class TestResultDAOTest {
         testResultDAO.deleteTestResult("commitDelete");
         assertNull(testResultDAO.getTestResultByCommitSha("commitDelete"));
     }
-}
\ No newline at end of file
+
+    private static void saveBuild(String commitSha, TestStatus status, String branch, LocalDateTime timestamp) {
+        TestResultEntity build = new TestResultEntity(commitSha, status, "log of " + commitSha, timestamp);
+        build.setRepoOwner("owner");
+        build.setRepoName("repo");
+        build.setBranchName(branch);
+        testResultDAO.saveTestResult(build);
+    }
+
+    @Test
+    void testFindBuildsPagesWithCursor() {
+        LocalDateTime start = LocalDateTime.of(2025, 1, 1, 12, 0);
+        for (int i = 0; i < 5; i++) {
+            // Two builds share each timestamp, so the id has to break ties
+            saveBuild("commit" + i, TestStatus.SUCCESS, "main", start.plusMinutes(i / 2));
+        }
+
+        HistoryPage first = testResultDAO.findBuilds(new HistoryQuery().setLimit(2));
+        assertEquals(List.of("commit4", "commit3"), commitShas(first));
+        assertNotNull(first.getNextCursor());
+
+        HistoryPage second = testResultDAO.findBuilds(new HistoryQuery().setLimit(2).setCursor(first.getNextCursor()));
+        assertEquals(List.of("commit2", "commit1"), commitShas(second));
+
+        HistoryPage last = testResultDAO.findBuilds(new HistoryQuery().setLimit(2).setCursor(second.getNextCursor()));
+        assertEquals(List.of("commit0"), commitShas(last));
+        assertNull(last.getNextCursor(), "The last page should not have a next cursor.");
+
+        HistoryPage ascending = testResultDAO.findBuilds(new HistoryQuery().setAscending(true).setLimit(3));
+        assertEquals(List.of("commit0", "commit1", "commit2"), commitShas(ascending));
+    }
+
+    @Test
+    void testFindBuildsFilters() {
+        LocalDateTime start = LocalDateTime.of(2025, 1, 1, 12, 0);
+        saveBuild("mainGreen", TestStatus.SUCCESS, "main", start);
+        saveBuild("mainRed", TestStatus.FAILED, "main", start.plusDays(1));
+        saveBuild("featureGreen", TestStatus.SUCCESS, "feature", start.plusDays(2));
+
+        assertEquals(List.of("mainRed", "mainGreen"),
+                commitShas(testResultDAO.findBuilds(new HistoryQuery().setRepoOwner("owner").setBranchName("main"))));
+        assertEquals(List.of("featureGreen", "mainGreen"),
+                commitShas(testResultDAO.findBuilds(new HistoryQuery().setStatus(TestStatus.SUCCESS))));
+        assertEquals(List.of("mainRed"),
+                commitShas(testResultDAO.findBuilds(new HistoryQuery().setFrom(start.plusHours(1)).setTo(start.plusDays(2)))));
+        assertTrue(testResultDAO.findBuilds(new HistoryQuery().setRepoName("other")).getBuilds().isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> new HistoryQuery().setCursor("not a cursor"));
+    }
+
+    @Test
+    void testCancelPendingBuilds() {
+        LocalDateTime start = LocalDateTime.of(2025, 1, 1, 12, 0);
+        saveBuild("interrupted", TestStatus.PENDING, "main", start);
+        saveBuild("finished", TestStatus.SUCCESS, "main", start.plusHours(1));
+
+        assertEquals(1, testResultDAO.cancelPendingBuilds());
+
+        TestResultEntity interrupted = testResultDAO.getTestResultByCommitSha("interrupted");
+        assertEquals(TestStatus.CANCELLED, interrupted.getStatus());
+        assertEquals(BuildPhase.DONE, interrupted.getPhase());
+        assertEquals(TestStatus.SUCCESS, testResultDAO.getTestResultByCommitSha("finished").getStatus());
+    }
+
+    private static List<String> commitShas(HistoryPage page) {
+        return page.getBuilds().stream().map(BuildSummary::getCommitSha).collect(Collectors.toList());
+    }
+}